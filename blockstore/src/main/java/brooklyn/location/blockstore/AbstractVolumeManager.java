@@ -1,53 +1,414 @@
 package brooklyn.location.blockstore;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.lang.String.format;
 import static org.apache.brooklyn.util.ssh.BashCommands.dontRequireTtyForSudo;
 import static org.apache.brooklyn.util.ssh.BashCommands.installPackage;
 import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
 
+import java.io.ByteArrayOutputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
 
 import com.google.common.collect.ImmutableMap;
+import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineNamer;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
 import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.apache.brooklyn.util.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Striped;
 
+import brooklyn.location.blockstore.api.AsyncVolumeManager;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
 import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.PooledBlockDevice;
+import brooklyn.location.blockstore.api.StripedBlockDevice;
 import brooklyn.location.blockstore.api.VolumeManager;
 
-public abstract class AbstractVolumeManager implements VolumeManager {
+/**
+ * Base class for volume managers. Subclasses implement the cloud-side operations asynchronously (see
+ * {@link AsyncVolumeManager}); the blocking {@link VolumeManager} methods wait for those. The guest-side
+ * operations run as ssh commands, so their asynchronous variants run on {@link BlockstoreExecutors#guest()}.
+ */
+public abstract class AbstractVolumeManager implements VolumeManager, AsyncVolumeManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractVolumeManager.class);
 
+    /** Serializes changes to the LVM volume groups of each machine, keyed by machine id. */
+    private static final Striped<Lock> LVM_LOCKS = Striped.lazyWeakLock(64);
+
     protected AbstractVolumeManager() {
     }
 
     protected abstract String getVolumeDeviceName(char deviceSuffix);
     protected abstract String getOSDeviceName(char deviceSuffix);
 
+    /**
+     * @return How to wait for the given operation in this cloud, unless overridden by {@link BlockstoreLocationConfig}.
+     */
+    protected WaitStrategy getDefaultWaitStrategy(WaitStrategy.Operation operation) {
+        return new WaitStrategy();
+    }
+
+    /**
+     * @return How to wait for the given operation in the given location: this cloud's default, overridden by
+     *         any {@link BlockstoreLocationConfig} set on the location.
+     */
+    protected WaitStrategy getWaitStrategy(JcloudsLocation location, WaitStrategy.Operation operation) {
+        WaitStrategy result = getDefaultWaitStrategy(operation);
+        Duration initialDelay = location.getConfig(BlockstoreLocationConfig.WAIT_INITIAL_DELAY);
+        Duration maxDelay = location.getConfig(BlockstoreLocationConfig.WAIT_MAX_DELAY);
+        Double multiplier = location.getConfig(BlockstoreLocationConfig.WAIT_MULTIPLIER);
+        Double jitter = location.getConfig(BlockstoreLocationConfig.WAIT_JITTER);
+        Duration timeout = location.getConfig(getTimeoutConfigKey(operation));
+        if (initialDelay != null) result.initialDelay(initialDelay);
+        if (maxDelay != null) result.maxDelay(maxDelay);
+        if (multiplier != null) result.multiplier(multiplier);
+        if (jitter != null) result.jitter(jitter);
+        if (timeout != null) result.timeout(timeout);
+        return result;
+    }
+
+    private static ConfigKey<Duration> getTimeoutConfigKey(WaitStrategy.Operation operation) {
+        switch (operation) {
+            case CREATE: return BlockstoreLocationConfig.WAIT_CREATE_TIMEOUT;
+            case ATTACH: return BlockstoreLocationConfig.WAIT_ATTACH_TIMEOUT;
+            case DETACH: return BlockstoreLocationConfig.WAIT_DETACH_TIMEOUT;
+            case DELETE: return BlockstoreLocationConfig.WAIT_DELETE_TIMEOUT;
+            case RESIZE: return BlockstoreLocationConfig.WAIT_RESIZE_TIMEOUT;
+            default: throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    /**
+     * @return The region whose API is called for the given location, used to share its rate limit
+     */
+    protected String getApiRegion(JcloudsLocation location) {
+        return location.getRegion();
+    }
+
+    /**
+     * @return The API calls per second allowed in this cloud, unless overridden by
+     *         {@link BlockstoreLocationConfig#API_RATE_LIMIT}
+     */
+    protected double getDefaultApiRate() {
+        return ApiRateLimiter.DEFAULT_RATE;
+    }
+
+    protected ApiRateLimiter getApiRateLimiter(JcloudsLocation location) {
+        return ApiRateLimiter.forRegion(location, getApiRegion(location), getDefaultApiRate());
+    }
+
+    /**
+     * Makes the given call to the location's cloud API, subject to its rate limit.
+     */
+    protected <T> ListenableFuture<T> submitApiCall(JcloudsLocation location, Callable<T> call) {
+        return getApiRateLimiter(location).submit(call);
+    }
+
+    @Override
+    public BlockDevice createBlockDevice(JcloudsLocation location, BlockDeviceOptions options) {
+        return await(createBlockDeviceAsync(location, options));
+    }
+
+    /**
+     * Creates a new volume for the given machine; by default this is a volume in the machine's location.
+     */
+    protected ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsMachineLocation machine, BlockDeviceOptions options) {
+        return createBlockDeviceAsync(machine.getParent(), options);
+    }
+
+    @Override
+    public AttachedBlockDevice attachBlockDevice(JcloudsMachineLocation machine, BlockDevice blockDevice, BlockDeviceOptions options) {
+        return await(attachBlockDeviceAsync(machine, blockDevice, options));
+    }
+
+    @Override
+    public BlockDevice detachBlockDevice(AttachedBlockDevice attachedBlockDevice) {
+        return await(detachBlockDeviceAsync(attachedBlockDevice));
+    }
+
+    @Override
+    public void deleteBlockDevice(BlockDevice blockDevice) {
+        await(deleteBlockDeviceAsync(blockDevice));
+    }
+
+    /**
+     * For subclasses whose cloud can resize volumes; see {@link #resizeBlockDeviceAsync(BlockDevice, int)}.
+     */
+    public BlockDevice resizeBlockDevice(BlockDevice blockDevice, int newSizeInGb) {
+        return await(resizeBlockDeviceAsync(blockDevice, newSizeInGb));
+    }
+
+    /**
+     * Fails with {@link UnsupportedOperationException}. Subclasses whose cloud can resize volumes override this and
+     * implement {@link brooklyn.location.blockstore.api.ResizableVolumeManager} and
+     * {@link brooklyn.location.blockstore.api.AsyncResizableVolumeManager}, whose other methods this class implements.
+     */
+    public ListenableFuture<BlockDevice> resizeBlockDeviceAsync(BlockDevice blockDevice, int newSizeInGb) {
+        return Futures.immediateFailedFuture(new UnsupportedOperationException("Resizing volumes is not supported by "
+                + getClass().getSimpleName() + "; cannot resize " + blockDevice));
+    }
+
+    public MountedBlockDevice resizeVolume(MountedBlockDevice mountedDevice, int newSizeInGb) {
+        return await(resizeVolumeAsync(mountedDevice, newSizeInGb));
+    }
+
+    public ListenableFuture<MountedBlockDevice> resizeVolumeAsync(final MountedBlockDevice mountedDevice, int newSizeInGb) {
+        if (mountedDevice instanceof StripedBlockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException("Cannot resize striped volume " + mountedDevice));
+        }
+        LOG.info("Resizing volume: device={}; newSizeInGb={}", mountedDevice, newSizeInGb);
+        ListenableFuture<BlockDevice> resized = resizeBlockDeviceAsync(mountedDevice, newSizeInGb);
+        return Futures.transform(resized, new AsyncFunction<BlockDevice, MountedBlockDevice>() {
+            @Override
+            public ListenableFuture<MountedBlockDevice> apply(BlockDevice input) {
+                return Futures.transform(growFilesystemAsync(mountedDevice), Functions.<MountedBlockDevice>constant(mountedDevice));
+            }
+        });
+    }
+
+    public ListenableFuture<Void> growFilesystemAsync(final MountedBlockDevice mountedDevice) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<Void>() {
+            @Override
+            public Void call() {
+                growFilesystem(mountedDevice);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Grows the filesystem while mounted. For a {@link PooledBlockDevice}, the device's physical volume and then the
+     * logical volume (with its filesystem) are grown instead.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    public void growFilesystem(MountedBlockDevice mountedDevice) {
+        JcloudsMachineLocation machine = mountedDevice.getMachine();
+        if (!(machine instanceof SshMachineLocation)) {
+            throw new IllegalStateException("Cannot grow filesystem for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
+        }
+        LOG.debug("Growing filesystem: {}", mountedDevice);
+        GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        if (mountedDevice instanceof PooledBlockDevice) {
+            LvmOptions lvmOptions = ((PooledBlockDevice) mountedDevice).getLvmOptions();
+            String osDeviceName = getOSDeviceName(mountedDevice.getDeviceSuffix());
+            String name = "$(basename $(readlink -f " + osDeviceName + "))";
+            script.step("rescan", "if [ -e /sys/class/block/" + name + "/device/rescan ]; then echo 1 | "
+                            + sudo("tee /sys/class/block/" + name + "/device/rescan") + " > /dev/null; fi")
+                    .step("pvresize", sudo("pvresize " + osDeviceName))
+                    .step("lvextend", sudo("lvextend -r -l +100%FREE " + lvmOptions.getVolumeGroup() + "/" + lvmOptions.getLogicalVolume()));
+        } else {
+            script.step("grow", FilesystemCommands.growFilesystem(mountedDevice.getMountPoint()));
+        }
+        script.execute((SshMachineLocation) machine, "Growing filesystem at " + mountedDevice.getMountPoint()).checkSuccess(
+                format("Failed to grow filesystem. machine=%s; device=%s; mountPoint=%s", machine, mountedDevice, mountedDevice.getMountPoint()));
+    }
+
+    /**
+     * Starts pre-warming the (attached) device in the background on the machine, and polls its progress until done.
+     *
+     * @param listener If not null, notified of each status polled
+     * @return A future that completes when every block of the device has been read once, or fails if any reader
+     *         fails or it does not finish within the options' timeout
+     * @see PrewarmOptions
+     */
+    public ListenableFuture<PrewarmStatus> prewarmVolumeAsync(final AttachedBlockDevice attachedDevice, final PrewarmOptions options,
+            @Nullable final PrewarmStatus.Listener listener) {
+        final JcloudsMachineLocation machine = attachedDevice.getMachine();
+        if (!(machine instanceof SshMachineLocation)) {
+            return Futures.immediateFailedFuture(new IllegalStateException("Cannot pre-warm volume for "+machine+" of type "
+                    +machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName()));
+        }
+        final String osDeviceName = getOSDeviceName(attachedDevice.getDeviceSuffix());
+        final String stateDir = BlockDeviceCommands.getPrewarmStateDir(osDeviceName);
+        ListenableFuture<Void> started = BlockstoreExecutors.submitGuestCall(new Callable<Void>() {
+            @Override
+            public Void call() {
+                LOG.debug("Pre-warming volume: device={}; options={}", attachedDevice, options);
+                GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+                int exitCode = ((SshMachineLocation) machine).execCommands(MutableMap.of("allocatePTY", true), "Pre-warming volume",
+                        ImmutableList.<String>builder()
+                                .addAll(getSudoSetupCommands(facts))
+                                .add(waitForDeviceCmd(attachedDevice, facts, 60))
+                                .add(BlockDeviceCommands.startPrewarm(osDeviceName, stateDir, options.getConcurrency(), options.getSegmentSizeMb()))
+                                .build());
+                if (exitCode != 0) {
+                    throw new IllegalStateException(format("Failed to start pre-warming volume. machine=%s; osDeviceName=%s",
+                            machine, osDeviceName));
+                }
+                return null;
+            }
+        });
+        final Callable<PrewarmStatus> checkStatus = new Callable<PrewarmStatus>() {
+            @Override
+            public PrewarmStatus call() {
+                ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+                ((SshMachineLocation) machine).execCommands(ImmutableMap.of("out", stdout), "Checking pre-warming of volume",
+                        ImmutableList.of(BlockDeviceCommands.getPrewarmStatus(stateDir)));
+                PrewarmStatus result = PrewarmStatus.parse(new String(stdout.toByteArray(), Charsets.UTF_8));
+                if (listener != null) {
+                    listener.onStatus(result);
+                }
+                return result;
+            }
+        };
+        // the status is checked over ssh, so on the guest pool rather than the scheduler that polls
+        final Callable<ListenableFuture<PrewarmStatus>> check = new Callable<ListenableFuture<PrewarmStatus>>() {
+            @Override
+            public ListenableFuture<PrewarmStatus> call() {
+                return BlockstoreExecutors.submitGuestCall(checkStatus);
+            }
+        };
+        final Predicate<PrewarmStatus> finished = new Predicate<PrewarmStatus>() {
+            @Override
+            public boolean apply(PrewarmStatus input) {
+                return input.isFinished();
+            }
+        };
+        return Futures.transform(started, new AsyncFunction<Void, PrewarmStatus>() {
+            @Override
+            public ListenableFuture<PrewarmStatus> apply(Void input) {
+                ListenableFuture<PrewarmStatus> done = VolumeWaits.waitForAsync("pre-warming " + osDeviceName + " on " + machine, check,
+                        finished, WaitStrategy.fixed(options.getPollPeriod(), options.getTimeout()), true);
+                return Futures.transform(done, new Function<PrewarmStatus, PrewarmStatus>() {
+                    @Override
+                    public PrewarmStatus apply(PrewarmStatus status) {
+                        if (!status.isSuccess()) {
+                            throw new IllegalStateException(format("Failed to pre-warm volume. machine=%s; osDeviceName=%s; status=%s",
+                                    machine, osDeviceName, status));
+                        }
+                        return status;
+                    }
+                });
+            }
+        });
+    }
+
     @Override
     public MountedBlockDevice createAttachAndMountVolume(JcloudsMachineLocation machine, BlockDeviceOptions deviceOptions,
             FilesystemOptions filesystemOptions) {
-        BlockDevice device = createBlockDevice(machine.getParent(), deviceOptions);
-        AttachedBlockDevice attached = attachBlockDevice(machine, device, deviceOptions);
-        createFilesystem(attached, filesystemOptions);
-        return mountFilesystem(attached, filesystemOptions);
+        return await(createAttachAndMountVolumeAsync(machine, deviceOptions, filesystemOptions));
+    }
+
+    @Override
+    public ListenableFuture<MountedBlockDevice> createAttachAndMountVolumeAsync(final JcloudsMachineLocation machine,
+            final BlockDeviceOptions deviceOptions, final FilesystemOptions filesystemOptions) {
+        ListenableFuture<BlockDevice> created = createBlockDeviceAsync(machine, deviceOptions);
+        ListenableFuture<AttachedBlockDevice> attached = Futures.transform(created, new AsyncFunction<BlockDevice, AttachedBlockDevice>() {
+            @Override
+            public ListenableFuture<AttachedBlockDevice> apply(BlockDevice device) {
+                return attachBlockDeviceAsync(machine, device, deviceOptions);
+            }
+        });
+        return Futures.transform(attached, new AsyncFunction<AttachedBlockDevice, MountedBlockDevice>() {
+            @Override
+            public ListenableFuture<MountedBlockDevice> apply(final AttachedBlockDevice device) {
+                return prepareVolumeAsync(device, filesystemOptions);
+            }
+        });
     }
 
     @Override
     public MountedBlockDevice attachAndMountVolume(JcloudsMachineLocation machine, BlockDevice device,
             BlockDeviceOptions options, FilesystemOptions filesystemOptions) {
-        AttachedBlockDevice attached = attachBlockDevice(machine, device, options);
-        return mountFilesystem(attached, filesystemOptions);
+        return await(attachAndMountVolumeAsync(machine, device, options, filesystemOptions));
+    }
+
+    @Override
+    public ListenableFuture<MountedBlockDevice> attachAndMountVolumeAsync(JcloudsMachineLocation machine, BlockDevice device,
+            BlockDeviceOptions options, final FilesystemOptions filesystemOptions) {
+        ListenableFuture<AttachedBlockDevice> attached = attachBlockDeviceAsync(machine, device, options);
+        return Futures.transform(attached, new AsyncFunction<AttachedBlockDevice, MountedBlockDevice>() {
+            @Override
+            public ListenableFuture<MountedBlockDevice> apply(AttachedBlockDevice attachedDevice) {
+                return mountFilesystemAsync(attachedDevice, filesystemOptions);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> createFilesystemAsync(final AttachedBlockDevice attachedDevice, final FilesystemOptions filesystemOptions) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createFilesystem(attachedDevice, filesystemOptions);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<MountedBlockDevice> mountFilesystemAsync(final AttachedBlockDevice attachedDevice, final FilesystemOptions options) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<MountedBlockDevice>() {
+            @Override
+            public MountedBlockDevice call() {
+                return mountFilesystem(attachedDevice, options);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<MountedBlockDevice> prepareVolumeAsync(final AttachedBlockDevice attachedDevice, final FilesystemOptions options) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<MountedBlockDevice>() {
+            @Override
+            public MountedBlockDevice call() {
+                return prepareVolume(attachedDevice, options);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<MountedBlockDevice>> prepareVolumesAsync(final JcloudsMachineLocation machine,
+            final Map<? extends AttachedBlockDevice, FilesystemOptions> devices) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<List<MountedBlockDevice>>() {
+            @Override
+            public List<MountedBlockDevice> call() {
+                return prepareVolumes(machine, devices);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<AttachedBlockDevice> unmountFilesystemAsync(final MountedBlockDevice mountedDevice) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<AttachedBlockDevice>() {
+            @Override
+            public AttachedBlockDevice call() {
+                return unmountFilesystem(mountedDevice);
+            }
+        });
     }
 
     // TODO: Running `fdisk -l` after mkfs outputs: "Disk /dev/sdb doesn't contain a valid partition table"
@@ -64,17 +425,20 @@ public abstract class AbstractVolumeManager implements VolumeManager {
 
         // NOTE: also adds an entry to fstab so the mount remains available after a reboot.
         Map<String, ?> flags = MutableMap.of("allocatePTY", true);
+        GuestFacts facts = getGuestFacts((SshMachineLocation)machine);
 
-        int exitCode = ((SshMachineLocation)machine).execCommands(flags, "Creating filesystem on volume", ImmutableList.of(
-                dontRequireTtyForSudo(),
-                waitForFileCmd(osDeviceName, 60),
-                installPackage(ImmutableMap.of("yum", "e4fsprogs"), null),
-                sudo("/sbin/mkfs -F -t " + filesystemType + " " + osDeviceName)));
+        int exitCode = ((SshMachineLocation)machine).execCommands(flags, "Creating filesystem on volume", ImmutableList.<String>builder()
+                .addAll(getSudoSetupCommands(facts))
+                .add(waitForDeviceCmd(attachedDevice, facts, 60))
+                .addAll(getInstallFilesystemToolsCommands(facts, ImmutableList.of(filesystemOptions)))
+                .add(getMakeFilesystemCommand(osDeviceName, filesystemOptions))
+                .build());
 
         if (exitCode != 0) {
             throw new RuntimeException(format("Failed to create file system. machine=%s; osDeviceName=%s; filesystemType=%s",
                     machine, osDeviceName, filesystemType));
         }
+        recordGuestSetup((SshMachineLocation)machine, facts, ImmutableList.of(filesystemOptions));
     }
 
     @Override
@@ -91,26 +455,164 @@ public abstract class AbstractVolumeManager implements VolumeManager {
 
         // NOTE: also adds an entry to fstab so the mount remains available after a reboot.
         Map<String, ?> flags = MutableMap.of("allocatePTY", true);
-        int exitCode = ((SshMachineLocation)machine).execCommands(flags, "Mounting EBS volume", ImmutableList.of(
-                dontRequireTtyForSudo(),
+        GuestFacts facts = getGuestFacts((SshMachineLocation)machine);
+        String tune = getTuneDeviceCommand(attachedDevice, options);
+        int exitCode = ((SshMachineLocation)machine).execCommands(flags, "Mounting EBS volume", ImmutableList.<String>builder()
+                .addAll(getSudoSetupCommands(facts))
+                .add(
                 "echo making dir",
                 sudo("mkdir -p -m 755 " + mountPoint),
                 "echo updating fstab",
-                waitForFileCmd(osDeviceName, 60),
-                "echo \"" + osDeviceName + " " + mountPoint + " " + filesystemType + " noatime 0 0\" | " + sudo("tee -a /etc/fstab"),
+                waitForDeviceCmd(attachedDevice, facts, 60))
+                .addAll(tune != null ? ImmutableList.of(tune) : ImmutableList.<String>of())
+                .add(
+                "echo \"" + getFstabEntry(osDeviceName, options) + "\" | " + sudo("tee -a /etc/fstab"),
                 "echo mounting device",
-                sudo("mount " + mountPoint),
-                "echo device mounted"
-        ));
+                getMountCommand(options),
+                "echo device mounted")
+                .build());
 
         if (exitCode != 0) {
             throw new RuntimeException(format("Failed to mount file system. machine=%s; osDeviceName=%s; mountPoint=%s; filesystemType=%s",
                     attachedDevice.getMachine(), osDeviceName, mountPoint, filesystemType));
         }
+        recordGuestSetup((SshMachineLocation)machine, facts, ImmutableList.<FilesystemOptions>of());
 
         return attachedDevice.mountedAt(options.getMountPoint());
     }
 
+    /**
+     * Waits for the device, creates the filesystem, adds it to fstab and mounts it, all in one ssh session.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    @Override
+    public MountedBlockDevice prepareVolume(AttachedBlockDevice attachedDevice, FilesystemOptions options) {
+        JcloudsMachineLocation machine = attachedDevice.getMachine();
+        if (!(machine instanceof SshMachineLocation)) {
+            throw new IllegalStateException("Cannot prepare volume for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
+        }
+
+        LOG.debug("Preparing volume: device={}; options={}", attachedDevice, options);
+        String osDeviceName = getOSDeviceName(attachedDevice.getDeviceSuffix());
+        String mountPoint = options.getMountPoint();
+
+        GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        script.step("wait-for-device", waitForDeviceCmd(attachedDevice, facts, 60));
+        String tune = getTuneDeviceCommand(attachedDevice, options);
+        if (tune != null) {
+            script.step("tune", tune);
+        }
+        List<String> installTools = getInstallFilesystemToolsCommands(facts, ImmutableList.of(options));
+        if (!installTools.isEmpty()) {
+            script.step("install-tools", installTools);
+        }
+        script.step("mkfs", getMakeFilesystemCommand(osDeviceName, options))
+                .step("mkdir", sudo("mkdir -p -m 755 " + mountPoint))
+                .step("fstab", "echo \"" + getFstabEntry(osDeviceName, options) + "\" | " + sudo("tee -a /etc/fstab"))
+                .step("mount", getMountCommand(options));
+
+        script.execute((SshMachineLocation) machine, "Preparing volume " + osDeviceName).checkSuccess(
+                format("Failed to prepare volume. machine=%s; osDeviceName=%s; mountPoint=%s; filesystemType=%s",
+                        machine, osDeviceName, mountPoint, options.getFilesystemType()));
+        recordGuestSetup((SshMachineLocation) machine, facts, ImmutableList.of(options));
+
+        return attachedDevice.mountedAt(mountPoint);
+    }
+
+    /**
+     * Waits for all the devices, then creates their filesystems as concurrent background jobs on the machine,
+     * then adds them all to fstab in one write and mounts them; all in one ssh session. The creation of each
+     * filesystem is reported as a separate step, {@code mkfs-<deviceSuffix>}, whose output is included in the
+     * script's output.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    @Override
+    public List<MountedBlockDevice> prepareVolumes(JcloudsMachineLocation machine, Map<? extends AttachedBlockDevice, FilesystemOptions> devices) {
+        if (!(machine instanceof SshMachineLocation)) {
+            throw new IllegalStateException("Cannot prepare volumes for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
+        }
+        if (devices.isEmpty()) {
+            return ImmutableList.of();
+        }
+        LOG.debug("Preparing volumes: machine={}; devices={}", machine, devices);
+
+        for (AttachedBlockDevice device : devices.keySet()) {
+            if (!machine.equals(device.getMachine())) {
+                throw new IllegalArgumentException("Device "+device+" is attached to "+device.getMachine()+", not "+machine);
+            }
+        }
+
+        GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+        getPrepareVolumesScript(facts, devices).execute((SshMachineLocation) machine, "Preparing " + devices.size() + " volumes").checkSuccess(
+                format("Failed to prepare volumes. machine=%s; devices=%s", machine, devices));
+        recordGuestSetup((SshMachineLocation) machine, facts, devices.values());
+
+        List<MountedBlockDevice> result = Lists.newArrayList();
+        for (Map.Entry<? extends AttachedBlockDevice, FilesystemOptions> entry : devices.entrySet()) {
+            result.add(entry.getKey().mountedAt(entry.getValue().getMountPoint()));
+        }
+        return result;
+    }
+
+    /**
+     * @return The script of {@link #prepareVolumes(JcloudsMachineLocation, Map)} for the given devices
+     */
+    protected GuestScript getPrepareVolumesScript(GuestFacts facts, Map<? extends AttachedBlockDevice, FilesystemOptions> devices) {
+        List<String> waits = Lists.newArrayList();
+        List<String> tunes = Lists.newArrayList();
+        List<String> mkfsJobs = Lists.newArrayList();
+        Map<String, String> mkfsChecks = Maps.newLinkedHashMap();
+        List<String> mountPoints = Lists.newArrayList();
+        List<String> fstabEntries = Lists.newArrayList();
+        List<String> mounts = Lists.newArrayList();
+        for (Map.Entry<? extends AttachedBlockDevice, FilesystemOptions> entry : devices.entrySet()) {
+            AttachedBlockDevice device = entry.getKey();
+            FilesystemOptions options = entry.getValue();
+            String osDeviceName = getOSDeviceName(device.getDeviceSuffix());
+            String job = "\"$tmpdir/mkfs-" + device.getDeviceSuffix() + "\"";
+
+            waits.add(waitForDeviceCmd(device, facts, 60));
+            String tune = getTuneDeviceCommand(device, options);
+            if (tune != null) {
+                tunes.add(tune);
+            }
+            mkfsJobs.add("( " + getMakeFilesystemCommand(osDeviceName, options) + " > " + job + ".log 2>&1; echo $? > " + job + ".rc ) &");
+            mkfsChecks.put("mkfs-" + device.getDeviceSuffix(), "cat " + job + ".log; exit $(cat " + job + ".rc 2> /dev/null || echo 1)");
+            mountPoints.add(options.getMountPoint());
+            fstabEntries.add("\"" + getFstabEntry(osDeviceName, options) + "\"");
+            mounts.add(getMountCommand(options));
+        }
+
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        script.preamble("tmpdir=$(mktemp -d /tmp/brooklyn-blockstore-XXXXXX)")
+                .step("wait-for-devices", waits);
+        if (!tunes.isEmpty()) {
+            script.step("tune", tunes);
+        }
+        List<String> installTools = getInstallFilesystemToolsCommands(facts, devices.values());
+        if (!installTools.isEmpty()) {
+            script.step("install-tools", installTools);
+        }
+        script.step("mkfs", Joiner.on(" ").join(mkfsJobs) + " wait");
+        for (Map.Entry<String, String> check : mkfsChecks.entrySet()) {
+            script.step(check.getKey(), check.getValue());
+        }
+        script.step("mkdir", sudo("mkdir -p -m 755 " + Joiner.on(" ").join(mountPoints)))
+                .step("fstab", "printf '%s\\n' " + Joiner.on(" ").join(fstabEntries) + " | " + sudo("tee -a /etc/fstab"))
+                .step("mount", mounts)
+                .step("cleanup", "rm -rf \"$tmpdir\"");
+        return script;
+    }
+
     @Override
     public AttachedBlockDevice unmountFilesystem(MountedBlockDevice mountedDevice) {
         JcloudsMachineLocation machine = mountedDevice.getMachine();
@@ -118,26 +620,457 @@ public abstract class AbstractVolumeManager implements VolumeManager {
             throw new IllegalStateException("Cannot unmount filesystem for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
         }
         
+        if (mountedDevice instanceof StripedBlockDevice) {
+            return unmountStripedVolume((StripedBlockDevice) mountedDevice);
+        }
+        if (mountedDevice instanceof PooledBlockDevice) {
+            return unmountPooledVolume((PooledBlockDevice) mountedDevice);
+        }
+
         LOG.debug("Unmounting filesystem: {}", mountedDevice);
         String osDeviceName = getOSDeviceName(mountedDevice.getDeviceSuffix());
         String osDeviceNameEscaped = osDeviceName.replaceAll("/", "\\\\/");
 
         // NOTE: also strips out entry from fstab
         Map<String, ?> flags = MutableMap.of("allocatePTY", true);
-        ((SshMachineLocation)machine).execCommands(flags, "Unmounting EBS volume", ImmutableList.of(
-                dontRequireTtyForSudo(),
+        GuestFacts facts = getGuestFacts((SshMachineLocation)machine);
+        ((SshMachineLocation)machine).execCommands(flags, "Unmounting EBS volume", ImmutableList.<String>builder()
+                .addAll(getSudoSetupCommands(facts))
+                .add(
                 "echo unmounting " + osDeviceName,
                 sudo("sed -i.bk '/" + osDeviceNameEscaped + "/d' /etc/fstab"),
                 sudo("umount " + osDeviceName),
-                "echo unmounted " + osDeviceName
-        ));
+                BlockDeviceCommands.removeTuning(osDeviceName),
+                BlockDeviceCommands.removeDeviceLink(osDeviceName),
+                "echo unmounted " + osDeviceName)
+                .build());
         return mountedDevice;
     }
 
     @Override
     public BlockDevice unmountFilesystemAndDetachVolume(MountedBlockDevice mountedDevice) {
-        unmountFilesystem(mountedDevice);
-        return detachBlockDevice(mountedDevice);
+        return await(unmountFilesystemAndDetachVolumeAsync(mountedDevice));
+    }
+
+    @Override
+    public ListenableFuture<BlockDevice> unmountFilesystemAndDetachVolumeAsync(final MountedBlockDevice mountedDevice) {
+        if (mountedDevice instanceof StripedBlockDevice) {
+            return Futures.immediateFailedFuture(new IllegalArgumentException("Cannot detach striped volume " + mountedDevice
+                    + " as one device; use unmountAndDetachStripedVolume"));
+        }
+        ListenableFuture<AttachedBlockDevice> unmounted = unmountFilesystemAsync(mountedDevice);
+        return Futures.transform(unmounted, new AsyncFunction<AttachedBlockDevice, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(AttachedBlockDevice attachedDevice) {
+                return detachBlockDeviceAsync(mountedDevice);
+            }
+        });
+    }
+
+    @Override
+    public StripedBlockDevice createAttachAndMountStripedVolume(JcloudsMachineLocation machine, BlockDeviceOptions blockDeviceOptions,
+            StripeOptions stripeOptions, FilesystemOptions filesystemOptions) {
+        return await(createAttachAndMountStripedVolumeAsync(machine, blockDeviceOptions, stripeOptions, filesystemOptions));
+    }
+
+    @Override
+    public ListenableFuture<StripedBlockDevice> createAttachAndMountStripedVolumeAsync(final JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, final StripeOptions stripeOptions, final FilesystemOptions filesystemOptions) {
+        LOG.debug("Creating striped volume: machine={}; options={}; stripe={}", new Object[] {machine, blockDeviceOptions, stripeOptions});
+        final List<ListenableFuture<AttachedBlockDevice>> attached = Lists.newArrayList();
+        for (int i = 0; i < stripeOptions.getCount(); i++) {
+            final BlockDeviceOptions memberOptions = getStripeMemberOptions(blockDeviceOptions, i);
+            ListenableFuture<BlockDevice> created = createBlockDeviceAsync(machine, memberOptions);
+            attached.add(Futures.transform(created, new AsyncFunction<BlockDevice, AttachedBlockDevice>() {
+                @Override
+                public ListenableFuture<AttachedBlockDevice> apply(BlockDevice device) {
+                    return attachBlockDeviceAsync(machine, device, memberOptions);
+                }
+            }));
+        }
+        return Futures.transform(Futures.successfulAsList(attached), new AsyncFunction<List<AttachedBlockDevice>, StripedBlockDevice>() {
+            @Override
+            public ListenableFuture<StripedBlockDevice> apply(List<AttachedBlockDevice> results) {
+                final List<AttachedBlockDevice> members = Lists.newArrayList();
+                Throwable failure = null;
+                for (ListenableFuture<AttachedBlockDevice> future : attached) {
+                    try {
+                        members.add(future.get());
+                    } catch (InterruptedException e) {
+                        throw Exceptions.propagate(e);
+                    } catch (ExecutionException e) {
+                        if (failure == null) failure = e.getCause();
+                    }
+                }
+                if (failure != null) {
+                    return rollbackStripeMembers(members, failure);
+                }
+                ListenableFuture<StripedBlockDevice> prepared = prepareStripedVolumeAsync(machine, members, stripeOptions, filesystemOptions);
+                return Futures.withFallback(prepared, new FutureFallback<StripedBlockDevice>() {
+                    @Override
+                    public ListenableFuture<StripedBlockDevice> create(Throwable t) {
+                        return rollbackStripeMembers(members, t);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return The options for the given member of a striped volume: the configured options, with the device
+     *         suffix incremented by the member's index
+     */
+    protected BlockDeviceOptions getStripeMemberOptions(BlockDeviceOptions options, int index) {
+        char suffix = (char) (options.getDeviceSuffix() + index);
+        checkArgument(suffix <= 'z', "not enough device suffixes after '%s' for stripe member %s", options.getDeviceSuffix(), index);
+        BlockDeviceOptions result = BlockDeviceOptions.copy(options).deviceSuffix(suffix);
+        if (!Strings.isNullOrEmpty(options.getName())) {
+            result.name(options.getName() + "-" + index);
+        }
+        return result;
+    }
+
+    /**
+     * Detaches and deletes the given members of a striped volume that could not be created, then fails with the
+     * given failure.
+     */
+    private <T> ListenableFuture<T> rollbackStripeMembers(List<AttachedBlockDevice> members, final Throwable failure) {
+        LOG.warn("Failed to create striped volume; detaching and deleting its {} attached devices {}: {}",
+                new Object[] {members.size(), members, failure.toString()});
+        List<ListenableFuture<Void>> deleted = Lists.newArrayList();
+        for (final AttachedBlockDevice member : members) {
+            ListenableFuture<Void> memberDeleted = Futures.transform(detachBlockDeviceAsync(member), new AsyncFunction<BlockDevice, Void>() {
+                @Override
+                public ListenableFuture<Void> apply(BlockDevice device) {
+                    return deleteBlockDeviceAsync(device);
+                }
+            });
+            Futures.addCallback(memberDeleted, new FutureCallback<Void>() {
+                @Override public void onSuccess(Void result) {}
+                @Override public void onFailure(Throwable t) {
+                    LOG.warn("Failed to roll back striped volume member " + member + "; continuing", t);
+                }
+            });
+            deleted.add(memberDeleted);
+        }
+        return Futures.transform(Futures.successfulAsList(deleted), new AsyncFunction<List<Void>, T>() {
+            @Override
+            public ListenableFuture<T> apply(List<Void> input) {
+                return Futures.immediateFailedFuture(failure);
+            }
+        });
+    }
+
+    protected ListenableFuture<StripedBlockDevice> prepareStripedVolumeAsync(final JcloudsMachineLocation machine,
+            final List<AttachedBlockDevice> members, final StripeOptions stripeOptions, final FilesystemOptions options) {
+        return BlockstoreExecutors.submitGuestCall(new Callable<StripedBlockDevice>() {
+            @Override
+            public StripedBlockDevice call() {
+                return prepareStripedVolume(machine, members, stripeOptions, options);
+            }
+        });
+    }
+
+    /**
+     * Waits for the devices, assembles them into a striped volume, creates a filesystem on it aligned to its stripes,
+     * adds it to fstab and mounts it; all in one ssh session.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    protected StripedBlockDevice prepareStripedVolume(JcloudsMachineLocation machine, List<AttachedBlockDevice> members,
+            StripeOptions stripeOptions, FilesystemOptions options) {
+        if (!(machine instanceof SshMachineLocation)) {
+            throw new IllegalStateException("Cannot prepare striped volume for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
+        }
+        LOG.debug("Preparing striped volume: machine={}; members={}; stripe={}; options={}", new Object[] {machine, members, stripeOptions, options});
+        String name = getStripeName(members.get(0).getDeviceSuffix());
+        String deviceName = BlockDeviceCommands.getStripeDeviceName(name, stripeOptions.getMethod());
+        String mountPoint = options.getMountPoint();
+        GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+
+        List<String> waits = Lists.newArrayList();
+        List<String> tunes = Lists.newArrayList();
+        List<String> osDeviceNames = Lists.newArrayList();
+        for (AttachedBlockDevice member : members) {
+            waits.add(waitForDeviceCmd(member, facts, 60));
+            String tune = getTuneDeviceCommand(member, options);
+            if (tune != null) {
+                tunes.add(tune);
+            }
+            osDeviceNames.add(getOSDeviceName(member.getDeviceSuffix()));
+        }
+        List<String> installTools = Lists.newArrayList(getInstallStripeToolsCommands(facts, stripeOptions));
+        installTools.addAll(getInstallFilesystemToolsCommands(facts, ImmutableList.of(options)));
+
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        script.step("wait-for-devices", waits);
+        if (!tunes.isEmpty()) {
+            script.step("tune", tunes);
+        }
+        if (!installTools.isEmpty()) {
+            script.step("install-tools", installTools);
+        }
+        script.step("create-stripe", BlockDeviceCommands.createStripe(name, osDeviceNames, stripeOptions))
+                .step("wait-for-stripe", BlockDeviceCommands.waitForDevice(deviceName, null, 30, facts.hasTool("udevadm")))
+                .step("mkfs", getMakeFilesystemCommand(deviceName, options, stripeOptions))
+                .step("mkdir", sudo("mkdir -p -m 755 " + mountPoint))
+                .step("fstab", "echo \"" + getFstabEntry(deviceName, options) + "\" | " + sudo("tee -a /etc/fstab"))
+                .step("mount", getMountCommand(options));
+
+        script.execute((SshMachineLocation) machine, "Preparing striped volume " + deviceName).checkSuccess(
+                format("Failed to prepare striped volume. machine=%s; deviceName=%s; members=%s; mountPoint=%s",
+                        machine, deviceName, osDeviceNames, mountPoint));
+        recordGuestSetup((SshMachineLocation) machine, facts, ImmutableList.of(options));
+        GuestFacts.record((SshMachineLocation) machine, getStripeTool(stripeOptions.getMethod()), "true");
+
+        return Devices.newStripedBlockDevice(deviceName, members, stripeOptions, mountPoint);
+    }
+
+    /**
+     * @return The name of the md array or LVM volume group of the striped volume whose first device has the given suffix
+     */
+    protected String getStripeName(char firstDeviceSuffix) {
+        return "brooklyn-" + firstDeviceSuffix;
+    }
+
+    private static String getStripeTool(StripeOptions.Method method) {
+        return (method == StripeOptions.Method.LVM) ? "lvm" : "mdadm";
+    }
+
+    /**
+     * @return The commands to install the tools for striping, or none if they are already known to be installed
+     */
+    protected List<String> getInstallStripeToolsCommands(GuestFacts facts, StripeOptions stripeOptions) {
+        String tool = getStripeTool(stripeOptions.getMethod());
+        if (facts.hasTool(tool)) {
+            return ImmutableList.of();
+        }
+        return ImmutableList.of(installPackage("lvm".equals(tool) ? "lvm2" : tool));
+    }
+
+    /**
+     * Unmounts the striped volume and stops it, so its devices can be detached.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    protected StripedBlockDevice unmountStripedVolume(StripedBlockDevice stripedDevice) {
+        JcloudsMachineLocation machine = stripedDevice.getMachine();
+        LOG.debug("Unmounting striped volume: {}", stripedDevice);
+        String deviceName = stripedDevice.getDeviceName();
+        GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        script.step("fstab", sudo("sed -i.bk '\\#^" + deviceName + " #d' /etc/fstab"))
+                .step("umount", "if mountpoint -q " + stripedDevice.getMountPoint() + "; then " + sudo("umount " + stripedDevice.getMountPoint()) + "; fi")
+                .step("stop-stripe", BlockDeviceCommands.stopStripe(getStripeName(stripedDevice.getDeviceSuffix()),
+                        stripedDevice.getStripeOptions().getMethod()));
+        List<String> removeTunings = Lists.newArrayList();
+        for (AttachedBlockDevice member : stripedDevice.getMembers()) {
+            removeTunings.add(BlockDeviceCommands.removeTuning(getOSDeviceName(member.getDeviceSuffix())));
+            removeTunings.add(BlockDeviceCommands.removeDeviceLink(getOSDeviceName(member.getDeviceSuffix())));
+        }
+        script.step("remove-tuning", removeTunings);
+        script.execute((SshMachineLocation) machine, "Unmounting striped volume " + deviceName).checkSuccess(
+                format("Failed to unmount striped volume. machine=%s; deviceName=%s", machine, deviceName));
+        return stripedDevice;
+    }
+
+    @Override
+    public PooledBlockDevice createAttachAndMountPooledVolume(JcloudsMachineLocation machine, BlockDeviceOptions blockDeviceOptions,
+            LvmOptions lvmOptions, FilesystemOptions filesystemOptions) {
+        return await(createAttachAndMountPooledVolumeAsync(machine, blockDeviceOptions, lvmOptions, filesystemOptions));
+    }
+
+    @Override
+    public ListenableFuture<PooledBlockDevice> createAttachAndMountPooledVolumeAsync(final JcloudsMachineLocation machine,
+            final BlockDeviceOptions blockDeviceOptions, final LvmOptions lvmOptions, final FilesystemOptions filesystemOptions) {
+        ListenableFuture<BlockDevice> created = createBlockDeviceAsync(machine, blockDeviceOptions);
+        ListenableFuture<AttachedBlockDevice> attached = Futures.transform(created, new AsyncFunction<BlockDevice, AttachedBlockDevice>() {
+            @Override
+            public ListenableFuture<AttachedBlockDevice> apply(BlockDevice device) {
+                return attachBlockDeviceAsync(machine, device, blockDeviceOptions);
+            }
+        });
+        return Futures.transform(attached, new AsyncFunction<AttachedBlockDevice, PooledBlockDevice>() {
+            @Override
+            public ListenableFuture<PooledBlockDevice> apply(final AttachedBlockDevice device) {
+                return BlockstoreExecutors.submitGuestCall(new Callable<PooledBlockDevice>() {
+                    @Override
+                    public PooledBlockDevice call() {
+                        return preparePooledVolume(device, lvmOptions, filesystemOptions);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Adds the attached device to the volume group, creating the group if need be; then either extends the logical
+     * volume over it and grows its filesystem online, or, if the logical volume does not exist, creates it, creates
+     * its filesystem, adds it to fstab and mounts it. All in one ssh session.
+     * <p>
+     * If extending the logical volume fails, the device is removed from the volume group again.
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    protected PooledBlockDevice preparePooledVolume(AttachedBlockDevice attachedDevice, LvmOptions lvmOptions, FilesystemOptions options) {
+        JcloudsMachineLocation machine = attachedDevice.getMachine();
+        if (!(machine instanceof SshMachineLocation)) {
+            throw new IllegalStateException("Cannot prepare pooled volume for "+machine+" of type "+machine.getClass().getName()+"; expected "+SshMachineLocation.class.getSimpleName());
+        }
+        LOG.debug("Preparing pooled volume: device={}; lvm={}; options={}", new Object[] {attachedDevice, lvmOptions, options});
+        String osDeviceName = getOSDeviceName(attachedDevice.getDeviceSuffix());
+        String vg = lvmOptions.getVolumeGroup();
+        String lv = vg + "/" + lvmOptions.getLogicalVolume();
+        String lvDeviceName = lvmOptions.getLogicalVolumeDeviceName();
+        String mountPoint = options.getMountPoint();
+
+        Lock lock = LVM_LOCKS.get(machine.getId());
+        lock.lock();
+        try {
+            GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+            List<String> installTools = Lists.newArrayList();
+            if (!facts.hasTool("lvm")) {
+                installTools.add(installPackage("lvm2"));
+            }
+            installTools.addAll(getInstallFilesystemToolsCommands(facts, ImmutableList.of(options)));
+
+            GuestScript script = new GuestScript();
+            for (String command : getSudoSetupCommands(facts)) {
+                script.preamble(command);
+            }
+            script.step("wait-for-device", waitForDeviceCmd(attachedDevice, facts, 60));
+            String tune = getTuneDeviceCommand(attachedDevice, options);
+            if (tune != null) {
+                script.step("tune", tune);
+            }
+            if (!installTools.isEmpty()) {
+                script.step("install-tools", installTools);
+            }
+            // whether to extend is decided once, before the volume group is changed
+            script.preamble("if " + sudo("lvs " + lv) + " > /dev/null 2>&1; then extend=true; else extend=false; fi")
+                    .step("pvcreate", sudo("pvcreate -y " + osDeviceName))
+                    .step("vg", "if " + sudo("vgs " + vg) + " > /dev/null 2>&1; then " + sudo("vgextend " + vg + " " + osDeviceName)
+                            + "; else " + sudo("vgcreate " + vg + " " + osDeviceName) + "; fi")
+                    .step("lv", "if [ \"$extend\" = true ]; then "
+                            + sudo("lvextend -r -l +100%FREE " + lv) + " || { rc=$?; "
+                            + sudo("vgreduce " + vg + " " + osDeviceName) + "; " + sudo("pvremove -y " + osDeviceName) + "; exit $rc; }; "
+                            + "else " + sudo("lvcreate -y -n " + lvmOptions.getLogicalVolume() + " -l 100%FREE " + vg) + "; fi")
+                    .step("mkfs", "if [ \"$extend\" = false ]; then " + getMakeFilesystemCommand(lvDeviceName, options) + "; fi")
+                    .step("mkdir", sudo("mkdir -p -m 755 " + mountPoint))
+                    .step("fstab", "if [ \"$extend\" = false ]; then echo \"" + getFstabEntry(lvDeviceName, options) + "\" | "
+                            + sudo("tee -a /etc/fstab") + "; fi")
+                    .step("mount", "mountpoint -q " + mountPoint + " || " + getMountCommand(options));
+
+            script.execute((SshMachineLocation) machine, "Preparing pooled volume " + osDeviceName + " in " + lv).checkSuccess(
+                    format("Failed to prepare pooled volume. machine=%s; osDeviceName=%s; logicalVolume=%s; mountPoint=%s",
+                            machine, osDeviceName, lv, mountPoint));
+            recordGuestSetup((SshMachineLocation) machine, facts, ImmutableList.of(options));
+            GuestFacts.record((SshMachineLocation) machine, "lvm", "true");
+        } finally {
+            lock.unlock();
+        }
+        return Devices.newPooledBlockDevice(attachedDevice, lvmOptions, mountPoint);
+    }
+
+    /**
+     * Takes the pooled device out of its volume group, so that it can be detached without taking any data of the
+     * logical volume with it.
+     * <p>
+     * If the device is the group's only physical volume, the logical volume is wholly on it, so it is unmounted
+     * and the group deactivated. Otherwise the device is removed from the group only if none of its extents are
+     * used; if they are (as they are once the logical volume has been extended over it), this fails and the
+     * device is left as it is, since the logical volume cannot be shrunk in general (e.g. xfs).
+     *
+     * @throws GuestScriptException If any step fails; its result says which
+     */
+    protected PooledBlockDevice unmountPooledVolume(PooledBlockDevice pooledDevice) {
+        JcloudsMachineLocation machine = pooledDevice.getMachine();
+        LvmOptions lvmOptions = pooledDevice.getLvmOptions();
+        LOG.debug("Unmounting pooled volume: {}", pooledDevice);
+        Lock lock = LVM_LOCKS.get(machine.getId());
+        lock.lock();
+        try {
+            GuestFacts facts = getGuestFacts((SshMachineLocation) machine);
+            getUnmountPooledVolumeScript(facts, pooledDevice).execute((SshMachineLocation) machine,
+                    "Unmounting pooled volume " + getOSDeviceName(pooledDevice.getDeviceSuffix())).checkSuccess(
+                    format("Failed to unmount pooled volume. machine=%s; device=%s; logicalVolume=%s",
+                            machine, pooledDevice, lvmOptions.getLogicalVolumeDeviceName()));
+        } finally {
+            lock.unlock();
+        }
+        return pooledDevice;
+    }
+
+    /**
+     * @return The script of {@link #unmountPooledVolume(PooledBlockDevice)} for the given device
+     */
+    protected GuestScript getUnmountPooledVolumeScript(GuestFacts facts, PooledBlockDevice pooledDevice) {
+        LvmOptions lvmOptions = pooledDevice.getLvmOptions();
+        String osDeviceName = getOSDeviceName(pooledDevice.getDeviceSuffix());
+        String vg = lvmOptions.getVolumeGroup();
+        String mountPoint = pooledDevice.getMountPoint();
+
+        GuestScript script = new GuestScript();
+        for (String command : getSudoSetupCommands(facts)) {
+            script.preamble(command);
+        }
+        // how to release the device is decided once, before the volume group is changed
+        script.preamble("if ! " + sudo("pvs " + osDeviceName) + " > /dev/null 2>&1; then release=none; "
+                        + "elif [ \"$(" + sudo("vgs --noheadings -o pv_count " + vg) + " | tr -d ' ')\" -le 1 ]; then release=group; "
+                        + "elif [ \"$(" + sudo("pvs --noheadings -o pv_pe_alloc_count " + osDeviceName) + " | tr -d ' ')\" = 0 ]; then release=device; "
+                        + "else release=in-use; fi")
+                .step("check", "if [ \"$release\" = in-use ]; then echo \"" + osDeviceName + " holds extents of "
+                        + lvmOptions.getLogicalVolumeDeviceName() + "; not removing it from " + vg + "\" >&2; exit 1; fi")
+                .step("fstab", "if [ \"$release\" = group ]; then "
+                        + sudo("sed -i.bk '\\#^" + lvmOptions.getLogicalVolumeDeviceName() + " #d' /etc/fstab") + "; fi")
+                .step("umount", "if [ \"$release\" = group ] && mountpoint -q " + mountPoint + "; then " + sudo("umount " + mountPoint) + "; fi")
+                .step("deactivate", "if [ \"$release\" = group ]; then " + sudo("vgchange -an " + vg) + "; fi")
+                .step("vgreduce", "if [ \"$release\" = device ]; then "
+                        + sudo("vgreduce " + vg + " " + osDeviceName) + " && " + sudo("pvremove -y " + osDeviceName) + "; fi")
+                .step("remove-tuning", BlockDeviceCommands.removeTuning(osDeviceName),
+                        BlockDeviceCommands.removeDeviceLink(osDeviceName));
+        return script;
+    }
+
+    @Override
+    public List<BlockDevice> unmountAndDetachStripedVolume(StripedBlockDevice stripedDevice) {
+        return await(unmountAndDetachStripedVolumeAsync(stripedDevice));
+    }
+
+    @Override
+    public ListenableFuture<List<BlockDevice>> unmountAndDetachStripedVolumeAsync(final StripedBlockDevice stripedDevice) {
+        ListenableFuture<AttachedBlockDevice> unmounted = unmountFilesystemAsync(stripedDevice);
+        return Futures.transform(unmounted, new AsyncFunction<AttachedBlockDevice, List<BlockDevice>>() {
+            @Override
+            public ListenableFuture<List<BlockDevice>> apply(AttachedBlockDevice input) {
+                List<ListenableFuture<BlockDevice>> detached = Lists.newArrayList();
+                for (AttachedBlockDevice member : stripedDevice.getMembers()) {
+                    detached.add(detachBlockDeviceAsync(member));
+                }
+                return Futures.allAsList(detached);
+            }
+        });
+    }
+
+    /**
+     * Waits for the given future, propagating the cause of its failure as-is.
+     */
+    protected static <T> T await(ListenableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        }
     }
 
     protected String getOrMakeName(JcloudsLocation location, BlockDeviceOptions options) {
@@ -148,7 +1081,114 @@ public abstract class AbstractVolumeManager implements VolumeManager {
         }
     }
 
-    // TODO Move to CommonCommands
+    /**
+     * @return The facts about the machine, probed on first use and then kept with the machine location
+     */
+    protected GuestFacts getGuestFacts(SshMachineLocation machine) {
+        return GuestFacts.get(machine);
+    }
+
+    /**
+     * @return The commands to configure sudo for non-interactive use, or none if the machine is known not to need it
+     */
+    protected List<String> getSudoSetupCommands(GuestFacts facts) {
+        return facts.isSudoTtyRequired() ? ImmutableList.of(dontRequireTtyForSudo()) : ImmutableList.<String>of();
+    }
+
+    protected String getInstallFilesystemToolsCommand() {
+        return installPackage(ImmutableMap.of("yum", "e4fsprogs"), null);
+    }
+
+    /**
+     * @return The commands to install the filesystem tools, or none if mkfs for every given filesystem type is
+     *         already known to be installed
+     */
+    protected List<String> getInstallFilesystemToolsCommands(GuestFacts facts, Iterable<FilesystemOptions> options) {
+        for (FilesystemOptions option : options) {
+            if (!facts.hasMkfs(option.getFilesystemType())) {
+                return ImmutableList.of(getInstallFilesystemToolsCommand());
+            }
+        }
+        return ImmutableList.of();
+    }
+
+    /**
+     * Records what a successful setup has established on the machine, so later operations can skip it.
+     */
+    protected void recordGuestSetup(SshMachineLocation machine, GuestFacts facts, Iterable<FilesystemOptions> options) {
+        if (facts.isSudoTtyRequired()) {
+            GuestFacts.record(machine, GuestFacts.SUDO_REQUIRES_TTY, "false");
+        }
+        for (FilesystemOptions option : options) {
+            if (!"auto".equals(option.getFilesystemType())) {
+                GuestFacts.recordMkfs(machine, option.getFilesystemType());
+            }
+        }
+    }
+
+    protected String getMakeFilesystemCommand(String osDeviceName, FilesystemOptions options) {
+        return FilesystemCommands.makeFilesystem(osDeviceName, options);
+    }
+
+    protected String getMakeFilesystemCommand(String deviceName, FilesystemOptions options, StripeOptions stripeOptions) {
+        return FilesystemCommands.makeFilesystem(deviceName, options, stripeOptions);
+    }
+
+    /**
+     * @return The command to mount the filesystem (which is in fstab) with its {@link FilesystemCommands#getMountOptions mount options}
+     */
+    protected String getMountCommand(FilesystemOptions options) {
+        return sudo("mount -o " + FilesystemCommands.getMountOptions(options) + " " + options.getMountPoint());
+    }
+
+    /**
+     * @return The fstab entry for the filesystem; with {@code nofail}, so that the machine still boots if the device
+     *         is missing (e.g. the volume was detached outside Brooklyn)
+     * @see BlockDeviceCommands#waitForDevice(String, String, int, boolean) for how the device name is kept across reboots
+     */
+    protected String getFstabEntry(String osDeviceName, FilesystemOptions options) {
+        String mountOptions = FilesystemCommands.getMountOptions(options);
+        if (!Splitter.on(',').splitToList(mountOptions).contains("nofail")) {
+            mountOptions += ",nofail";
+        }
+        return osDeviceName + " " + options.getMountPoint() + " " + options.getFilesystemType() + " " + mountOptions + " 0 0";
+    }
+
+    /**
+     * @return The serial by which the guest identifies the device in {@code /dev/disk/by-id}, or null if not known
+     */
+    @Nullable
+    protected String getDeviceSerial(BlockDevice device) {
+        return null;
+    }
+
+    /**
+     * @return The command to apply the options' {@link FilesystemOptions#getTuning() tuning} to the device, or null
+     *         if there is none
+     */
+    @Nullable
+    protected String getTuneDeviceCommand(AttachedBlockDevice device, FilesystemOptions options) {
+        BlockDeviceTuning tuning = options.getTuning();
+        if (tuning == null || tuning.isEmpty()) {
+            return null;
+        }
+        return BlockDeviceCommands.tuneDevice(getOSDeviceName(device.getDeviceSuffix()), getDeviceSerial(device), tuning);
+    }
+
+    /**
+     * @return A command that waits until the device is present on the machine and ready to use
+     * @see BlockDeviceCommands#waitForDevice(String, String, int, boolean)
+     */
+    protected String waitForDeviceCmd(AttachedBlockDevice device, GuestFacts facts, int timeoutSecs) {
+        return BlockDeviceCommands.waitForDevice(getOSDeviceName(device.getDeviceSuffix()), getDeviceSerial(device),
+                timeoutSecs, facts.hasTool("udevadm"));
+    }
+
+    /**
+     * @deprecated since 0.6.0; use {@link #waitForDeviceCmd(AttachedBlockDevice, GuestFacts, int)}, which does not
+     *             poll and also finds devices by serial
+     */
+    @Deprecated
     protected String waitForFileCmd(String file, int timeoutSecs) {
         return "found=false; " +
                 "for i in {1.." + timeoutSecs + "}; do " +
@@ -0,0 +1,316 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.apache.brooklyn.util.time.Duration;
+import org.jclouds.http.HttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Limits the rate of cloud API calls made by the volume managers to each account and region, and retries calls
+ * that the cloud rejects because of throttling (e.g. EC2's {@code RequestLimitExceeded}).
+ * <p>
+ * Permits are taken from a token bucket (a Guava {@link RateLimiter}), so short bursts are allowed. A call that
+ * has to wait for a permit, or for a retry after being throttled, is rescheduled on the
+ * {@link BlockstoreExecutors#scheduler() shared scheduler} rather than holding a thread; once it has a permit, it
+ * is made on the {@link BlockstoreExecutors#api() api pool}, so that the scheduler is not held up by the cloud.
+ * <p>
+ * The counters (see {@link #getThrottledCount()} etc) show how much throttling is being absorbed; all limiters in
+ * use are available from {@link #getLimiters()}.
+ *
+ * @see BlockstoreLocationConfig#API_RATE_LIMIT
+ * @see BlockstoreLocationConfig#API_MAX_RETRIES
+ */
+public class ApiRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApiRateLimiter.class);
+
+    public static final double DEFAULT_RATE = 5;
+    public static final int DEFAULT_MAX_RETRIES = 8;
+
+    /** Error codes and messages with which clouds reject calls because of throttling. */
+    private static final ImmutableList<String> THROTTLING_ERRORS = ImmutableList.of(
+            "RequestLimitExceeded", // EC2
+            "Throttling",
+            "RequestThrottled",
+            "rateLimitExceeded", // GCE (also matches userRateLimitExceeded)
+            "RateLimitExceeded",
+            "overLimit"); // OpenStack
+
+    private static final ConcurrentMap<String, ApiRateLimiter> LIMITERS = Maps.newConcurrentMap();
+
+    /**
+     * The limiter is shared by all locations of the same account and region, so it is configured by the location
+     * that first uses it; use {@link #setRate(double)} to change its rate later.
+     *
+     * @param region     The region whose API is being called, or null if the API is not regional
+     * @param defaultRate The permits per second to use if the location does not configure
+     *                    {@link BlockstoreLocationConfig#API_RATE_LIMIT}
+     * @return The limiter for the account of the given location, in the given region
+     */
+    public static ApiRateLimiter forRegion(JcloudsLocation location, @Nullable String region, double defaultRate) {
+        String key = Joiner.on("|").useForNull("").join(location.getProvider(), location.getEndpoint(), location.getIdentity(), region);
+        ApiRateLimiter limiter = LIMITERS.get(key);
+        if (limiter != null) {
+            return limiter;
+        }
+        Double rate = location.getConfig(BlockstoreLocationConfig.API_RATE_LIMIT);
+        Integer maxRetries = location.getConfig(BlockstoreLocationConfig.API_MAX_RETRIES);
+        return forKey(key, (rate != null) ? rate : defaultRate, (maxRetries != null) ? maxRetries : DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @return The limiter with the given key, created with the given rate and max retries if there is none yet
+     */
+    static ApiRateLimiter forKey(String key, double rate, int maxRetries) {
+        ApiRateLimiter limiter = LIMITERS.get(key);
+        if (limiter == null) {
+            limiter = new ApiRateLimiter(key, rate, maxRetries);
+            ApiRateLimiter existing = LIMITERS.putIfAbsent(key, limiter);
+            if (existing != null) limiter = existing;
+        }
+        return limiter;
+    }
+
+    /**
+     * @return All limiters in use, keyed by provider, endpoint, identity and region
+     */
+    public static Map<String, ApiRateLimiter> getLimiters() {
+        return ImmutableMap.copyOf(LIMITERS);
+    }
+
+    /**
+     * @return Whether the given exception (or one of its causes) is the cloud rejecting a call because of throttling
+     */
+    public static boolean isThrottlingError(Throwable t) {
+        for (Throwable e : Throwables.getCausalChain(t)) {
+            if (e instanceof HttpResponseException) {
+                HttpResponseException hre = (HttpResponseException) e;
+                int status = (hre.getResponse() != null) ? hre.getResponse().getStatusCode() : -1;
+                if (status == 429) return true;
+                // Otherwise the status is not enough: e.g. GCE returns 403 for rateLimitExceeded, but also for
+                // permission errors; OpenStack returns 413 for overLimit, but also for quota exceeded
+                if (containsThrottlingError(hre.getContent())) return true;
+            }
+            if (containsThrottlingError(e.getMessage())) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsThrottlingError(@Nullable String val) {
+        if (val == null) return false;
+        for (String error : THROTTLING_ERRORS) {
+            if (val.contains(error)) return true;
+        }
+        return false;
+    }
+
+    private final String key;
+    private final RateLimiter rateLimiter;
+    private final WaitStrategy retryStrategy = new WaitStrategy()
+            .initialDelay(Duration.ONE_SECOND)
+            .maxDelay(Duration.seconds(30))
+            .multiplier(2)
+            .jitter(0.5);
+    private final int maxRetries;
+
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+
+    protected ApiRateLimiter(String key, double rate) {
+        this(key, rate, DEFAULT_MAX_RETRIES);
+    }
+
+    protected ApiRateLimiter(String key, double rate, int maxRetries) {
+        checkArgument(rate > 0, "rate must be positive, but was %s", rate);
+        checkArgument(maxRetries >= 0, "maxRetries must not be negative, but was %s", maxRetries);
+        this.key = key;
+        this.rateLimiter = RateLimiter.create(rate);
+        this.maxRetries = maxRetries;
+    }
+
+    public double getRate() {
+        return rateLimiter.getRate();
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setRate(double rate) {
+        checkArgument(rate > 0, "rate must be positive, but was %s", rate);
+        rateLimiter.setRate(rate);
+    }
+
+    /**
+     * Submits the given API call to be executed when a permit is available, retrying it (with backoff) if the
+     * cloud rejects it because of throttling.
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> call) {
+        SettableFuture<T> result = SettableFuture.create();
+        BlockstoreExecutors.scheduler().submit(new Attempt<T>(call, result));
+        return result;
+    }
+
+    /**
+     * @return A call that makes the given call only if a permit is immediately available, and otherwise fails;
+     *         for checks that are repeated anyway, such as polling the state of a volume
+     */
+    public <T> Callable<T> guard(final Callable<T> call) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                if (!tryAcquire()) {
+                    throw new IllegalStateException("API rate limit reached for " + key + "; not checking this time");
+                }
+                try {
+                    return call.call();
+                } catch (Exception e) {
+                    if (isThrottlingError(e)) onThrottled(e);
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * Takes a permit if one is immediately available.
+     */
+    public boolean tryAcquire() {
+        if (rateLimiter.tryAcquire()) {
+            callCount.incrementAndGet();
+            return true;
+        } else {
+            delayedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return How long until a permit is likely to be available, in milliseconds
+     */
+    public long getPermitIntervalMillis() {
+        return Math.max(1, (long) Math.ceil(1000 / rateLimiter.getRate()));
+    }
+
+    /**
+     * Records that the cloud rejected a call because of throttling.
+     */
+    public void onThrottled(Throwable t) {
+        long count = throttledCount.incrementAndGet();
+        LOG.debug("API call throttled by {} (throttled {} times in total): {}", new Object[] {key, count, t});
+    }
+
+    /** @return The number of calls made */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /** @return The number of times a call was delayed because no permit was available */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /** @return The number of calls the cloud rejected because of throttling */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /** @return The number of throttled calls that were retried */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("key", key)
+                .add("rate", getRate())
+                .add("calls", getCallCount())
+                .add("delayed", getDelayedCount())
+                .add("throttled", getThrottledCount())
+                .add("retries", getRetryCount())
+                .toString();
+    }
+
+    private class Attempt<T> implements Runnable {
+        private final Callable<T> call;
+        private final SettableFuture<T> result;
+        private int retries;
+
+        Attempt(Callable<T> call, SettableFuture<T> result) {
+            this.call = call;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                // e.g. cancelled by the caller
+                return;
+            }
+            if (!tryAcquire()) {
+                BlockstoreExecutors.scheduler().schedule(this, getPermitIntervalMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            try {
+                BlockstoreExecutors.api().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        makeCall();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.setException(e);
+            }
+        }
+
+        /**
+         * Makes the call, having taken a permit; if the cloud throttles it, schedules its retry.
+         */
+        private void makeCall() {
+            if (result.isDone()) {
+                return;
+            }
+            try {
+                result.set(call.call());
+            } catch (Throwable t) {
+                Exceptions.propagateIfFatal(t);
+                if (isThrottlingError(t) && retries < maxRetries) {
+                    onThrottled(t);
+                    long delay = retryStrategy.getDelayMillis(retries++);
+                    retryCount.incrementAndGet();
+                    LOG.info("API call throttled by {}; retry {} of {} in {}ms", new Object[] {key, retries, maxRetries, delay});
+                    BlockstoreExecutors.scheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    if (isThrottlingError(t)) onThrottled(t);
+                    result.setException(t);
+                }
+            }
+        }
+    }
+}
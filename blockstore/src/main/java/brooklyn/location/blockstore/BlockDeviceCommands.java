@@ -0,0 +1,269 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Commands for managing block devices on the guest.
+ */
+public class BlockDeviceCommands {
+
+    private static final CharMatcher SERIAL_CHARS = CharMatcher.JAVA_LETTER_OR_DIGIT.or(CharMatcher.anyOf("-_"));
+
+    /** The name of the logical volume of a striped volume set made with LVM; its volume group is named after the set. */
+    public static final String STRIPE_LOGICAL_VOLUME = "stripe";
+
+    private static final String MDADM_CONF = "conf=/etc/mdadm.conf; if [ -d /etc/mdadm ]; then conf=/etc/mdadm/mdadm.conf; fi";
+
+    private BlockDeviceCommands() {}
+
+    /**
+     * @return A command that waits until the given device is present and udev has finished processing it, failing
+     *         if that takes longer than the timeout.
+     * <p>
+     * The device is found either by its name or, if a serial is given, by a link in {@code /dev/disk/by-id} whose
+     * name contains the serial. The latter finds devices the kernel names differently from the name requested from
+     * the cloud, e.g. EBS volumes that appear as {@code /dev/nvme1n1} rather than {@code /dev/xvdh}; the requested
+     * name is then linked to the actual device, so that later commands and {@code /etc/fstab} can use it. As
+     * {@code /dev} does not survive a reboot (and kernel names can change across one), a udev rule is also written
+     * that links the requested name to the device with that serial whenever it appears; see {@link #removeDeviceLink}.
+     * <p>
+     * Between checks the command waits for device events, using {@code udevadm settle} (if {@code useUdevadm}) and
+     * {@code inotifywait} on {@code /dev} where available, falling back to a short sleep.
+     */
+    public static String waitForDevice(String osDeviceName, @Nullable String serial, int timeoutSecs, boolean useUdevadm) {
+        checkArgument(serial == null || SERIAL_CHARS.matchesAllOf(serial), "invalid device serial %s", serial);
+        String settle = useUdevadm ? sudo("udevadm settle --timeout=" + Math.min(timeoutSecs, 5)) + " > /dev/null 2>&1; " : "";
+        return "dev=" + osDeviceName + "; " +
+                "serial='" + Strings.nullToEmpty(serial) + "'; " +
+                "deadline=$(( $(date +%s) + " + timeoutSecs + " )); " +
+                "while true; do " +
+                    "found=''; " +
+                    "if [ -b \"$dev\" ]; then " +
+                        "found=\"$dev\"; " +
+                    "elif [ -n \"$serial\" ]; then " +
+                        "for f in /dev/disk/by-id/*\"$serial\"*; do " +
+                            "if [ -b \"$f\" ]; then found=$(readlink -f \"$f\"); break; fi; " +
+                        "done; " +
+                    "fi; " +
+                    "if [ -n \"$found\" ]; then break; fi; " +
+                    "if [ $(date +%s) -ge $deadline ]; then " +
+                        "echo \"device $dev not found after " + timeoutSecs + " seconds\"; " +
+                        "exit 1; " +
+                    "fi; " +
+                    settle +
+                    "if [ -b \"$dev\" ]; then continue; fi; " +
+                    "if command -v inotifywait > /dev/null 2>&1; then " +
+                        "inotifywait -qq -t 1 -e create /dev 2> /dev/null || sleep 0.1; " +
+                    "else " +
+                        "sleep 0.2 2> /dev/null || sleep 1; " +
+                    "fi; " +
+                "done; " +
+                settle +
+                "if [ \"$found\" != \"$dev\" ] && [ ! -e \"$dev\" ]; then " +
+                    sudo("ln -s \"$found\" \"$dev\"") + "; " +
+                "fi; " +
+                persistDeviceLink(osDeviceName, serial) +
+                "echo \"device $dev found at $found\"";
+    }
+
+    /**
+     * @return A command that writes the udev rule linking the device name to the device found by its serial, if it
+     *         was found that way; or nothing if there is no serial or the name is not in {@code /dev}
+     */
+    private static String persistDeviceLink(String osDeviceName, @Nullable String serial) {
+        if (serial == null || !osDeviceName.startsWith("/dev/")) {
+            return "";
+        }
+        String rule = "SUBSYSTEM==\\\"block\\\", ENV{DEVTYPE}==\\\"disk\\\", ENV{ID_SERIAL}==\\\"*" + serial + "*\\\", "
+                + "SYMLINK+=\\\"" + osDeviceName.substring("/dev/".length()) + "\\\"";
+        return "if [ \"$found\" != \"$dev\" ]; then " +
+                    "echo \"" + rule + "\" | " + sudo("tee " + getDeviceLinkRuleFile(osDeviceName)) + " > /dev/null; " +
+                "fi; ";
+    }
+
+    /**
+     * @return The udev rule file that links the given device name to the device found by its serial, across reboots
+     */
+    public static String getDeviceLinkRuleFile(String osDeviceName) {
+        return "/etc/udev/rules.d/61-brooklyn-blockstore-link-" + osDeviceName.substring(osDeviceName.lastIndexOf('/') + 1) + ".rules";
+    }
+
+    /**
+     * @return A command that removes the link to the device and the udev rule written by {@link #waitForDevice}, if
+     *         any; for when the device is to be detached, so that its name can be used for another device
+     */
+    public static String removeDeviceLink(String osDeviceName) {
+        return sudo("rm -f " + getDeviceLinkRuleFile(osDeviceName)) + "; " +
+                "if [ -L " + osDeviceName + " ]; then " + sudo("rm -f " + osDeviceName) + "; fi";
+    }
+
+    /**
+     * @return The udev rule file that keeps the {@link #tuneDevice tuning} of the given device across reboots
+     */
+    public static String getTuningRuleFile(String osDeviceName) {
+        return "/etc/udev/rules.d/60-brooklyn-blockstore-" + osDeviceName.substring(osDeviceName.lastIndexOf('/') + 1) + ".rules";
+    }
+
+    /**
+     * @return A command that applies the given queue settings to the device through sysfs, and, if a serial is
+     *         given, writes a udev rule matching the device by that serial that applies them again whenever the
+     *         device appears, e.g. after a reboot. Without a serial the settings last only until the next reboot, as
+     *         kernel names of cloud devices can change across one and a rule on the kernel name could then tune
+     *         another device. A setting the kernel rejects is reported and left out, rather than failing the command.
+     */
+    public static String tuneDevice(String osDeviceName, @Nullable String serial, BlockDeviceTuning tuning) {
+        checkArgument(serial == null || SERIAL_CHARS.matchesAllOf(serial), "invalid device serial %s", serial);
+        StringBuilder result = new StringBuilder()
+                .append("name=$(basename $(readlink -f " + osDeviceName + ")); q=/sys/block/$name/queue; ");
+        if (serial != null) {
+            result.append("rule=\"ACTION==\\\"add|change\\\", SUBSYSTEM==\\\"block\\\", ENV{DEVTYPE}==\\\"disk\\\", ")
+                    .append("ENV{ID_SERIAL}==\\\"*" + serial + "*\\\"\"; ");
+        }
+        if (!tuning.getSchedulers().isEmpty()) {
+            result.append("sched=; for s in " + Joiner.on(" ").join(tuning.getSchedulers()) + "; do ")
+                    .append("if tr -d '[]' < $q/scheduler | tr ' ' '\\n' | grep -qx \"$s\"; then sched=$s; break; fi; ")
+                    .append("done; ")
+                    .append("if [ -n \"$sched\" ]; then " + setQueueAttribute("scheduler", "$sched") + " ")
+                    .append("else echo \"none of the schedulers " + Joiner.on(", ").join(tuning.getSchedulers()) + " is available for $name\"; fi; ");
+        }
+        if (tuning.getReadAheadKb() != null) {
+            result.append(setQueueAttribute("read_ahead_kb", String.valueOf(tuning.getReadAheadKb()))).append(" ");
+        }
+        if (tuning.getNrRequests() != null) {
+            result.append(setQueueAttribute("nr_requests", String.valueOf(tuning.getNrRequests()))).append(" ");
+        }
+        if (tuning.getRqAffinity() != null) {
+            result.append(setQueueAttribute("rq_affinity", String.valueOf(tuning.getRqAffinity()))).append(" ");
+        }
+        if (serial != null) {
+            result.append("echo \"$rule\" | " + sudo("tee " + getTuningRuleFile(osDeviceName)) + " > /dev/null");
+        } else {
+            result.append("echo \"no serial known for $name; its tuning will not be kept across reboots\"");
+        }
+        return result.toString();
+    }
+
+    private static String setQueueAttribute(String attribute, String value) {
+        return "if echo " + value + " | " + sudo("tee $q/" + attribute) + " > /dev/null 2>&1; then "
+                + "rule=\"$rule, ATTR{queue/" + attribute + "}=\\\"" + value + "\\\"\"; "
+                + "else echo \"could not set " + attribute + " of $name to " + value + "\"; fi;";
+    }
+
+    /**
+     * @return A command that removes the udev rule written by {@link #tuneDevice}, if any
+     */
+    public static String removeTuning(String osDeviceName) {
+        return sudo("rm -f " + getTuningRuleFile(osDeviceName));
+    }
+
+    /**
+     * @return The directory on the guest where the pre-warming of the given device keeps its state
+     */
+    public static String getPrewarmStateDir(String osDeviceName) {
+        return "/var/tmp/brooklyn-prewarm-" + osDeviceName.substring(osDeviceName.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return A command that starts reading the whole device in the background, with {@code concurrency} readers
+     *         on disjoint ranges of it, each reading {@code segmentSizeMb} at a time with direct I/O. The number of
+     *         segments, a line per segment read and finally the readers' exit code are written to files in
+     *         {@code stateDir}; see {@link #getPrewarmStatus(String)}.
+     */
+    public static String startPrewarm(String osDeviceName, String stateDir, int concurrency, int segmentSizeMb) {
+        checkArgument(concurrency >= 1, "concurrency must be at least 1, but was %s", concurrency);
+        checkArgument(segmentSizeMb >= 1, "segmentSizeMb must be at least 1, but was %s", segmentSizeMb);
+        String readers = "dev=$(readlink -f " + osDeviceName + "); dir=" + stateDir + "; seg=" + segmentSizeMb + "; n=" + concurrency + "; " +
+                "size=$(blockdev --getsize64 $dev) || { echo 1 > $dir/rc; exit 1; }; " +
+                "total=$(( (size + seg * 1048576 - 1) / (seg * 1048576) )); " +
+                "per=$(( (total + n - 1) / n )); " +
+                "echo $total > $dir/total; : > $dir/done; " +
+                "pids=; i=0; " +
+                "while [ $i -lt $n ]; do " +
+                    "s=$(( i * per )); e=$(( s + per )); if [ $e -gt $total ]; then e=$total; fi; " +
+                    "( while [ $s -lt $e ]; do " +
+                        "dd if=$dev of=/dev/null bs=1M skip=$(( s * seg )) count=$seg iflag=direct 2> /dev/null || exit 1; " +
+                        "echo >> $dir/done; s=$(( s + 1 )); " +
+                    "done ) & " +
+                    "pids=\"$pids $!\"; i=$(( i + 1 )); " +
+                "done; " +
+                "rc=0; for p in $pids; do wait $p || rc=1; done; echo $rc > $dir/rc";
+        return sudo("rm -rf " + stateDir) + " && mkdir -p " + stateDir + " && " +
+                "{ " + sudo("nohup sh -c '" + readers + "'") + " > " + stateDir + "/log 2>&1 < /dev/null & }";
+    }
+
+    /**
+     * @return A command that prints the progress of {@link #startPrewarm pre-warming}, as {@code key=value} lines
+     *         parsed by {@link PrewarmStatus#parse(String)}
+     */
+    public static String getPrewarmStatus(String stateDir) {
+        return "dir=" + stateDir + "; " +
+                "echo \"total=$(cat $dir/total 2> /dev/null)\"; " +
+                "echo \"done=$(wc -l 2> /dev/null < $dir/done)\"; " +
+                "echo \"rc=$(cat $dir/rc 2> /dev/null)\"";
+    }
+
+    /**
+     * @return The name of the device of the striped volume with the given name
+     */
+    public static String getStripeDeviceName(String name, StripeOptions.Method method) {
+        switch (method) {
+            case MDADM: return "/dev/md/" + name;
+            case LVM: return "/dev/" + name + "/" + STRIPE_LOGICAL_VOLUME;
+            default: throw new IllegalArgumentException("Unknown stripe method " + method);
+        }
+    }
+
+    /**
+     * @return The commands to assemble the given (empty) devices into a striped volume with the given name, which
+     *         is reassembled when the machine reboots
+     */
+    public static List<String> createStripe(String name, List<String> osDeviceNames, StripeOptions options) {
+        checkArgument(SERIAL_CHARS.matchesAllOf(name), "invalid stripe name %s", name);
+        checkArgument(osDeviceNames.size() == options.getCount(), "expected %s devices, but got %s", options.getCount(), osDeviceNames);
+        String devices = Joiner.on(" ").join(osDeviceNames);
+        switch (options.getMethod()) {
+            case MDADM:
+                return ImmutableList.of(
+                        sudo("mdadm --create " + getStripeDeviceName(name, options.getMethod()) + " --run --level=0"
+                                + " --chunk=" + options.getChunkSizeKb() + " --raid-devices=" + osDeviceNames.size() + " " + devices),
+                        MDADM_CONF + "; " + sudo("mdadm --detail --brief " + getStripeDeviceName(name, options.getMethod()))
+                                + " | " + sudo("tee -a $conf") + " > /dev/null");
+            case LVM:
+                return ImmutableList.of(
+                        sudo("pvcreate -y " + devices),
+                        sudo("vgcreate " + name + " " + devices),
+                        sudo("lvcreate -y -n " + STRIPE_LOGICAL_VOLUME + " -i " + osDeviceNames.size()
+                                + " -I " + options.getChunkSizeKb() + "k -l 100%FREE " + name));
+            default:
+                throw new IllegalArgumentException("Unknown stripe method " + options.getMethod());
+        }
+    }
+
+    /**
+     * @return The commands to stop the (unmounted) striped volume with the given name, so that its devices can be
+     *         detached; the data on the devices is kept
+     */
+    public static List<String> stopStripe(String name, StripeOptions.Method method) {
+        switch (method) {
+            case MDADM:
+                String deviceName = getStripeDeviceName(name, method);
+                return ImmutableList.of(
+                        sudo("mdadm --stop " + deviceName),
+                        MDADM_CONF + "; " + sudo("sed -i.bk '\\#" + deviceName + " #d' $conf"));
+            case LVM:
+                return ImmutableList.of(sudo("vgchange -an " + name));
+            default:
+                throw new IllegalArgumentException("Unknown stripe method " + method);
+        }
+    }
+}
@@ -13,16 +13,21 @@ public class BlockDeviceOptions {
 
     private String name;
     private String zone;
+    private String availabilityZone;
     private Map<String, String> tags = Maps.newHashMap();
     private int sizeInGb;
     private char deviceSuffix = 'h';
     private boolean deleteOnTermination;
+    private String volumeType;
+    private Integer iops;
+    private Integer throughputMBps;
 
     // For more convenient yaml input
     public static BlockDeviceOptions fromMap(Map<String, ?> map) {
         BlockDeviceOptions result = new BlockDeviceOptions();
         result.name = (String) map.get("name");
         result.zone = (String) map.get("zone");
+        result.availabilityZone = (String) map.get("availabilityZone");
         if (map.containsKey("tags")) {
             for (Map.Entry<?, ?> entry : ((Map<?,?>)map.get("tags")).entrySet()) {
                 result.tags.put((String)entry.getKey(), (String)entry.getValue());
@@ -61,6 +66,15 @@ public class BlockDeviceOptions {
         if (map.containsKey("deleteOnTermination")) {
             result.deleteOnTermination = (Boolean) checkNotNull(map.get("deleteOnTermination"), "deleteOnTermination");
         }
+        if (map.get("volumeType") != null) {
+            result.volumeType(map.get("volumeType").toString());
+        }
+        if (map.get("iops") != null) {
+            result.iops(TypeCoercions.coerce(map.get("iops"), Integer.class));
+        }
+        if (map.get("throughputMBps") != null) {
+            result.throughputMBps(TypeCoercions.coerce(map.get("throughputMBps"), Integer.class));
+        }
         return result;
     }
     
@@ -68,10 +82,14 @@ public class BlockDeviceOptions {
     	return new BlockDeviceOptions()
     			.name(other.name)
     			.zone(other.zone)
+    			.availabilityZone(other.availabilityZone)
     			.tags(other.tags)
     			.sizeInGb(other.sizeInGb)
     			.deviceSuffix(other.deviceSuffix)
-    			.deleteOnTermination(other.deleteOnTermination);
+    			.deleteOnTermination(other.deleteOnTermination)
+    			.volumeType(other.volumeType)
+    			.iops(other.iops)
+    			.throughputMBps(other.throughputMBps);
     }
     
     public String getName() {
@@ -94,6 +112,15 @@ public class BlockDeviceOptions {
         return this;
     }
 
+    /**
+     * @param availabilityZone The availability zone to create the volume in, where the cloud's zones are not
+     *                         those of its machines (e.g. OpenStack Cinder); if null, that of the machine
+     */
+    public BlockDeviceOptions availabilityZone(String availabilityZone) {
+        this.availabilityZone = availabilityZone;
+        return this;
+    }
+
     public BlockDeviceOptions tags(Map<String, String> tags) {
         if (tags != null) this.tags.putAll(tags);
         return this;
@@ -114,10 +141,40 @@ public class BlockDeviceOptions {
         return this;
     }
 
+    /**
+     * @param volumeType The cloud's type of volume, e.g. {@code gp3} or {@code io2} in EC2; if null, the cloud's default
+     */
+    public BlockDeviceOptions volumeType(String volumeType) {
+        this.volumeType = volumeType;
+        return this;
+    }
+
+    /**
+     * @param iops The I/O operations per second to provision, for volume types that allow it; if null, the type's default
+     */
+    public BlockDeviceOptions iops(Integer iops) {
+        checkArgument(iops == null || iops > 0, "iops must be positive, but was %s", iops);
+        this.iops = iops;
+        return this;
+    }
+
+    /**
+     * @param throughputMBps The throughput to provision in MiB/s, for volume types that allow it; if null, the type's default
+     */
+    public BlockDeviceOptions throughputMBps(Integer throughputMBps) {
+        checkArgument(throughputMBps == null || throughputMBps > 0, "throughputMBps must be positive, but was %s", throughputMBps);
+        this.throughputMBps = throughputMBps;
+        return this;
+    }
+
     public String getZone() {
         return zone;
     }
 
+    public String getAvailabilityZone() {
+        return availabilityZone;
+    }
+
     public Map<String, String> getTags() {
         return tags;
     }
@@ -138,15 +195,31 @@ public class BlockDeviceOptions {
         return deleteOnTermination;
     }
 
+    public String getVolumeType() {
+        return volumeType;
+    }
+
+    public Integer getIops() {
+        return iops;
+    }
+
+    public Integer getThroughputMBps() {
+        return throughputMBps;
+    }
+
     @Override
     public String toString() {
         return Objects.toStringHelper(this)
                 .add("name", name)
                 .add("zone", zone)
+                .add("availabilityZone", availabilityZone)
                 .add("tags", tags)
                 .add("sizeInGb", sizeInGb)
                 .add("deviceSuffix", deviceSuffix)
                 .add("deleteOnTermination", deleteOnTermination)
+                .add("volumeType", volumeType)
+                .add("iops", iops)
+                .add("throughputMBps", throughputMBps)
                 .toString();
     }
 }
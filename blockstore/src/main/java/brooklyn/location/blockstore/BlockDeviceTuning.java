@@ -0,0 +1,173 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.core.flags.TypeCoercions;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The block-layer queue settings of a device on the guest: its I/O scheduler, read-ahead, request queue depth
+ * ({@code nr_requests}) and completion CPU affinity ({@code rq_affinity}). Settings that are null are left at the
+ * kernel's defaults.
+ * <p>
+ * The built-in presets are:
+ * <ul>
+ * <li>{@code default}: the kernel's defaults</li>
+ * <li>{@code database}: small random I/O; no scheduler (the cloud's device does its own), 16KiB read-ahead, a deep
+ *     queue and completion on the submitting CPU</li>
+ * <li>{@code streaming}: large sequential I/O; the deadline scheduler and 4MiB read-ahead</li>
+ * </ul>
+ *
+ * @see BlockDeviceCommands#tuneDevice(String, String, BlockDeviceTuning)
+ */
+public class BlockDeviceTuning {
+
+    public static final String DEFAULT = "default";
+    public static final String DATABASE = "database";
+    public static final String STREAMING = "streaming";
+
+    private static final CharMatcher SCHEDULER_CHARS = CharMatcher.JAVA_LETTER_OR_DIGIT.or(CharMatcher.anyOf("-_"));
+
+    private List<String> schedulers = ImmutableList.of();
+    private Integer readAheadKb;
+    private Integer nrRequests;
+    private Integer rqAffinity;
+
+    /**
+     * @return A new copy of the named preset
+     * @throws IllegalArgumentException If there is no such preset
+     */
+    public static BlockDeviceTuning preset(String name) {
+        switch (name.trim().toLowerCase()) {
+            case DEFAULT:
+                return new BlockDeviceTuning();
+            case DATABASE:
+                // "none" with multi-queue block devices, "noop" before
+                return new BlockDeviceTuning().schedulers("none", "noop").readAheadKb(16).nrRequests(256).rqAffinity(2);
+            case STREAMING:
+                return new BlockDeviceTuning().schedulers("mq-deadline", "deadline").readAheadKb(4096).nrRequests(128);
+            default:
+                throw new IllegalArgumentException("Unknown block device tuning preset " + name
+                        + "; expected one of " + ImmutableList.of(DEFAULT, DATABASE, STREAMING));
+        }
+    }
+
+    /**
+     * @param val A preset name, a map with an optional {@code preset} and settings overriding it, or a tuning
+     */
+    public static BlockDeviceTuning fromObject(Object val) {
+        if (val instanceof BlockDeviceTuning) {
+            return (BlockDeviceTuning) val;
+        } else if (val instanceof String) {
+            return preset((String) val);
+        } else if (val instanceof Map<?,?>) {
+            @SuppressWarnings("unchecked")
+            Map<String, ?> map = (Map<String, ?>) val;
+            return fromMap(map);
+        } else {
+            throw new IllegalArgumentException("Invalid block device tuning: " + val);
+        }
+    }
+
+    // For more convenient yaml input
+    public static BlockDeviceTuning fromMap(Map<String, ?> map) {
+        BlockDeviceTuning result = (map.get("preset") != null) ? preset(map.get("preset").toString()) : new BlockDeviceTuning();
+        if (map.get("scheduler") != null) {
+            result.schedulers(Splitter.on(CharMatcher.anyOf(", ")).trimResults().omitEmptyStrings()
+                    .splitToList(map.get("scheduler").toString()).toArray(new String[0]));
+        }
+        if (map.get("readAheadKb") != null) {
+            result.readAheadKb(TypeCoercions.coerce(map.get("readAheadKb"), Integer.class));
+        }
+        if (map.get("nrRequests") != null) {
+            result.nrRequests(TypeCoercions.coerce(map.get("nrRequests"), Integer.class));
+        }
+        if (map.get("rqAffinity") != null) {
+            result.rqAffinity(TypeCoercions.coerce(map.get("rqAffinity"), Integer.class));
+        }
+        return result;
+    }
+
+    public BlockDeviceTuning() {
+        // for reflection, e.g. using $brooklyn:object
+    }
+
+    /**
+     * @param schedulers The I/O schedulers to use, in order of preference; the first that the kernel offers for the
+     *                   device is used
+     */
+    public BlockDeviceTuning schedulers(String... schedulers) {
+        for (String scheduler : schedulers) {
+            checkArgument(SCHEDULER_CHARS.matchesAllOf(scheduler), "invalid scheduler %s", scheduler);
+        }
+        this.schedulers = ImmutableList.copyOf(schedulers);
+        return this;
+    }
+
+    public BlockDeviceTuning readAheadKb(Integer readAheadKb) {
+        checkArgument(readAheadKb == null || readAheadKb >= 0, "readAheadKb must not be negative, but was %s", readAheadKb);
+        this.readAheadKb = readAheadKb;
+        return this;
+    }
+
+    public BlockDeviceTuning nrRequests(Integer nrRequests) {
+        checkArgument(nrRequests == null || nrRequests >= 4, "nrRequests must be at least 4, but was %s", nrRequests);
+        this.nrRequests = nrRequests;
+        return this;
+    }
+
+    /**
+     * @param rqAffinity 0 to complete requests on any CPU, 1 on the submitting CPU's group, 2 on the submitting CPU
+     */
+    public BlockDeviceTuning rqAffinity(Integer rqAffinity) {
+        checkArgument(rqAffinity == null || (rqAffinity >= 0 && rqAffinity <= 2), "rqAffinity must be 0, 1 or 2, but was %s", rqAffinity);
+        this.rqAffinity = rqAffinity;
+        return this;
+    }
+
+    public List<String> getSchedulers() {
+        return schedulers;
+    }
+
+    @Nullable
+    public Integer getReadAheadKb() {
+        return readAheadKb;
+    }
+
+    @Nullable
+    public Integer getNrRequests() {
+        return nrRequests;
+    }
+
+    @Nullable
+    public Integer getRqAffinity() {
+        return rqAffinity;
+    }
+
+    /**
+     * @return Whether every setting is left at the kernel's default
+     */
+    public boolean isEmpty() {
+        return schedulers.isEmpty() && readAheadKb == null && nrRequests == null && rqAffinity == null;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("schedulers", schedulers.isEmpty() ? null : schedulers)
+                .add("readAheadKb", readAheadKb)
+                .add("nrRequests", nrRequests)
+                .add("rqAffinity", rqAffinity)
+                .omitNullValues()
+                .toString();
+    }
+}
@@ -0,0 +1,95 @@
+package brooklyn.location.blockstore;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Executors shared by all the asynchronous volume operations.
+ * <p>
+ * The polling of volume state, and the waiting of API calls for a permit (see {@link ApiRateLimiter}), run on a
+ * small scheduler: a volume that is waiting to become available holds no thread between polls. The API calls
+ * themselves block on HTTP, so run on a separate bounded pool, as do guest operations (e.g. mkfs), which hold an
+ * ssh session open for their whole duration. Resizes started automatically (by the
+ * {@link brooklyn.location.blockstore.policy.VolumeAutoGrowPolicy}) wait for their own small pool, so that many
+ * entities filling up at once do not flood the cloud API or crowd out other volume operations.
+ */
+public class BlockstoreExecutors {
+
+    public static final int SCHEDULER_THREADS = Integer.getInteger("brooklyn.blockstore.scheduler.threads", 8);
+    public static final int API_THREADS = Integer.getInteger("brooklyn.blockstore.api.threads", 16);
+    public static final int GUEST_THREADS = Integer.getInteger("brooklyn.blockstore.guest.threads", 32);
+    public static final int AUTO_GROW_THREADS = Integer.getInteger("brooklyn.blockstore.autogrow.threads", 4);
+
+    private static final ListeningScheduledExecutorService SCHEDULER = MoreExecutors.listeningDecorator(
+            Executors.newScheduledThreadPool(SCHEDULER_THREADS, newThreadFactory("brooklyn-blockstore-scheduler-%d")));
+
+    private static final ListeningExecutorService API = MoreExecutors.listeningDecorator(newBoundedPool(
+            API_THREADS, newThreadFactory("brooklyn-blockstore-api-%d")));
+
+    private static final ListeningExecutorService GUEST = MoreExecutors.listeningDecorator(newBoundedPool(
+            GUEST_THREADS, newThreadFactory("brooklyn-blockstore-guest-%d")));
+
+    private static final ListeningExecutorService AUTO_GROW = MoreExecutors.listeningDecorator(newBoundedPool(
+            AUTO_GROW_THREADS, newThreadFactory("brooklyn-blockstore-autogrow-%d")));
+
+    private BlockstoreExecutors() {}
+
+    /**
+     * @return The scheduler for polling, and for API calls waiting for a permit. Tasks submitted here must not block
+     *         for long.
+     */
+    public static ListeningScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * @return The pool for cloud API calls, each of which blocks a thread until the cloud responds.
+     */
+    public static ListeningExecutorService api() {
+        return API;
+    }
+
+    /**
+     * @return The pool for long-running operations on the guest, such as ssh commands.
+     */
+    public static ListeningExecutorService guest() {
+        return GUEST;
+    }
+
+    /**
+     * @return The pool for automatic resizes, each of which blocks a thread until the volume and its filesystem
+     *         have grown; at most {@link #AUTO_GROW_THREADS} run at once across all entities.
+     */
+    public static ListeningExecutorService autoGrow() {
+        return AUTO_GROW;
+    }
+
+    public static <T> ListenableFuture<T> submitApiCall(Callable<T> call) {
+        return API.submit(call);
+    }
+
+    public static <T> ListenableFuture<T> submitGuestCall(Callable<T> call) {
+        return GUEST.submit(call);
+    }
+
+    static ThreadPoolExecutor newBoundedPool(int size, ThreadFactory threadFactory) {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    static ThreadFactory newThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+}
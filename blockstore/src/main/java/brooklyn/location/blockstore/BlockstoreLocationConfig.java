@@ -0,0 +1,48 @@
+package brooklyn.location.blockstore;
+
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.util.time.Duration;
+
+/**
+ * Config keys that can be set on a jclouds location to tune how volumes are managed in it.
+ * <p>
+ * All are unset by default, in which case the volume manager's defaults for that cloud are used.
+ */
+public interface BlockstoreLocationConfig {
+
+    public static final ConfigKey<Duration> WAIT_INITIAL_DELAY = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.initialDelay", "Delay before first checking whether a volume operation has completed");
+
+    public static final ConfigKey<Duration> WAIT_MAX_DELAY = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.maxDelay", "Maximum delay between checks of whether a volume operation has completed");
+
+    public static final ConfigKey<Double> WAIT_MULTIPLIER = ConfigKeys.newDoubleConfigKey(
+            "blockstore.wait.multiplier", "Factor by which the delay between checks grows (1 for a fixed delay)");
+
+    public static final ConfigKey<Double> WAIT_JITTER = ConfigKeys.newDoubleConfigKey(
+            "blockstore.wait.jitter", "Fraction by which each delay between checks is randomly varied, e.g. 0.2 for +/-20%");
+
+    public static final ConfigKey<Duration> WAIT_CREATE_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.createTimeout", "How long to wait for a new volume to become available");
+
+    public static final ConfigKey<Duration> WAIT_ATTACH_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.attachTimeout", "How long to wait for a volume to be attached");
+
+    public static final ConfigKey<Duration> WAIT_DETACH_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.detachTimeout", "How long to wait for a volume to be detached");
+
+    public static final ConfigKey<Duration> WAIT_DELETE_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.deleteTimeout", "How long to wait for a volume to be deleted");
+
+    public static final ConfigKey<Duration> WAIT_RESIZE_TIMEOUT = ConfigKeys.newDurationConfigKey(
+            "blockstore.wait.resizeTimeout", "How long to wait for a volume to be resized");
+
+    public static final ConfigKey<Double> API_RATE_LIMIT = ConfigKeys.newDoubleConfigKey(
+            "blockstore.api.rateLimit", "Maximum volume API calls per second, for each account and region "
+            + "(as configured on the first location to call the API of that account and region)");
+
+    public static final ConfigKey<Integer> API_MAX_RETRIES = ConfigKeys.newIntegerConfigKey(
+            "blockstore.api.maxRetries", "How many times to retry a volume API call that the cloud rejects because of throttling");
+
+}
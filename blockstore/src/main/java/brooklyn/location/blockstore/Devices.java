@@ -1,15 +1,23 @@
 package brooklyn.location.blockstore;
 
+import java.util.List;
+
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
 import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.PooledBlockDevice;
+import brooklyn.location.blockstore.api.StripedBlockDevice;
 
 public class Devices {
 
@@ -19,6 +27,18 @@ public class Devices {
         return new BlockDeviceImpl(location, id);
     }
 
+    public static PooledBlockDevice newPooledBlockDevice(AttachedBlockDevice attachedDevice, LvmOptions lvmOptions, String mountPoint) {
+        return new PooledBlockDeviceImpl(attachedDevice, lvmOptions, mountPoint);
+    }
+
+    /**
+     * @param deviceName The name of the md array or logical volume on the machine
+     */
+    public static StripedBlockDevice newStripedBlockDevice(String deviceName, List<? extends AttachedBlockDevice> members,
+            StripeOptions stripeOptions, String mountPoint) {
+        return new StripedBlockDeviceImpl(deviceName, members, stripeOptions, mountPoint);
+    }
+
     private static class BlockDeviceImpl implements BlockDevice {
 
         private static final Logger LOG = LoggerFactory.getLogger(BlockDeviceImpl.class);
@@ -126,4 +146,86 @@ public class Devices {
 
     }
 
+    private static class PooledBlockDeviceImpl extends MountedBlockDeviceImpl implements PooledBlockDevice {
+        private final LvmOptions lvmOptions;
+
+        private PooledBlockDeviceImpl(AttachedBlockDevice attachedDevice, LvmOptions lvmOptions, String mountPoint) {
+            super(attachedDevice, mountPoint);
+            this.lvmOptions = lvmOptions;
+        }
+
+        @Override
+        public LvmOptions getLvmOptions() {
+            return lvmOptions;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            return new PooledBlockDeviceImpl(this, lvmOptions, mountPoint);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("id", getId())
+                    .add("machine", getMachine())
+                    .add("deviceName", getDeviceName())
+                    .add("lvmOptions", lvmOptions)
+                    .add("mountPoint", getMountPoint())
+                    .toString();
+        }
+    }
+
+    private static class StripedBlockDeviceImpl extends MountedBlockDeviceImpl implements StripedBlockDevice {
+        private final List<AttachedBlockDevice> members;
+        private final StripeOptions stripeOptions;
+
+        private StripedBlockDeviceImpl(String deviceName, List<? extends AttachedBlockDevice> members,
+                StripeOptions stripeOptions, String mountPoint) {
+            super(new AttachedBlockDeviceImpl(members.get(0).getMachine(), toId(members), deviceName), mountPoint);
+            this.members = ImmutableList.copyOf(members);
+            this.stripeOptions = stripeOptions;
+        }
+
+        private static String toId(List<? extends AttachedBlockDevice> members) {
+            return Joiner.on(",").join(Lists.transform(members, new Function<AttachedBlockDevice, String>() {
+                @Override
+                public String apply(AttachedBlockDevice input) {
+                    return input.getId();
+                }
+            }));
+        }
+
+        @Override
+        public char getDeviceSuffix() {
+            return members.get(0).getDeviceSuffix();
+        }
+
+        @Override
+        public List<AttachedBlockDevice> getMembers() {
+            return members;
+        }
+
+        @Override
+        public StripeOptions getStripeOptions() {
+            return stripeOptions;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            return new StripedBlockDeviceImpl(getDeviceName(), members, stripeOptions, mountPoint);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("members", members)
+                    .add("machine", getMachine())
+                    .add("deviceName", getDeviceName())
+                    .add("stripeOptions", stripeOptions)
+                    .add("mountPoint", getMountPoint())
+                    .toString();
+        }
+    }
+
 }
@@ -0,0 +1,216 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Commands for creating and managing filesystems on the guest.
+ */
+public class FilesystemCommands {
+
+    private static final int DEFAULT_EXT_BLOCK_SIZE = 4096;
+
+    public static final String DEFAULT_MOUNT_PROFILE = "default";
+
+    /**
+     * The mount profiles, each of which has mount options for each filesystem type (and for other types):
+     * <ul>
+     * <li>{@code default}: {@code noatime}</li>
+     * <li>{@code throughput}: no access-time updates, and fewer, larger journal writes: a 60 second commit interval
+     *     for ext3/4 and btrfs, and 8 log buffers of 256KiB for XFS. Up to a minute of writes can be lost on a crash,
+     *     though the filesystem stays consistent</li>
+     * <li>{@code ssd}: as {@code throughput}, and freed blocks are discarded (TRIM) as they are freed</li>
+     * </ul>
+     * Options that trade away consistency on power loss, such as {@code nobarrier}, are never part of a profile,
+     * but can be given as {@link FilesystemOptions#mountOptions(String) mountOptions}.
+     */
+    public static final Set<String> MOUNT_PROFILES = ImmutableSet.of(DEFAULT_MOUNT_PROFILE, "throughput", "ssd");
+
+    private static final CharMatcher MOUNT_OPTION_CHARS = CharMatcher.JAVA_LETTER_OR_DIGIT.or(CharMatcher.anyOf("_-=.:/+"));
+
+    /** mkfs options are passed unquoted to a command run with sudo, so are limited to these (and whitespace between them). */
+    private static final CharMatcher MKFS_OPTION_CHARS = MOUNT_OPTION_CHARS.or(CharMatcher.is(','));
+
+    private FilesystemCommands() {}
+
+    /**
+     * @return The command to create a filesystem on the given device, tuned according to the options
+     * @throws IllegalArgumentException If an option is not supported for the filesystem type, or the mkfs options
+     *         contain characters other than letters, digits and {@code _-=.:/+,}
+     */
+    public static String makeFilesystem(String osDeviceName, FilesystemOptions options) {
+        return makeFilesystem(osDeviceName, options, null);
+    }
+
+    /**
+     * @param stripe If the device is striped, how; the filesystem is aligned to its stripes (ext2/3/4 and XFS)
+     * @return The command to create a filesystem on the given device, tuned according to the options
+     * @throws IllegalArgumentException If an option is not supported for the filesystem type, or the mkfs options
+     *         contain characters other than letters, digits and {@code _-=.:/+,}
+     */
+    public static String makeFilesystem(String osDeviceName, FilesystemOptions options, @Nullable StripeOptions stripe) {
+        String type = options.getFilesystemType();
+        List<String> args = Lists.newArrayList("/sbin/mkfs", "-t", type);
+        if (isExt(type)) {
+            args.add("-F");
+            List<String> extended = Lists.newArrayList();
+            if (options.isLazyInit() && "ext4".equals(type)) {
+                extended.add("lazy_itable_init=1");
+                extended.add("lazy_journal_init=1");
+            }
+            if (!options.isDiscard()) {
+                extended.add("nodiscard");
+            }
+            if (stripe != null) {
+                // stride and stripe width are in filesystem blocks
+                int blockSize = options.getBlockSize() != null ? options.getBlockSize() : DEFAULT_EXT_BLOCK_SIZE;
+                int stride = Math.max(1, stripe.getChunkSizeKb() * 1024 / blockSize);
+                extended.add("stride=" + stride);
+                extended.add("stripe_width=" + stride * stripe.getCount());
+            }
+            if (!extended.isEmpty()) {
+                args.add("-E");
+                args.add(Joiner.on(",").join(extended));
+            }
+            if (options.getBlockSize() != null) {
+                args.add("-b");
+                args.add(String.valueOf(options.getBlockSize()));
+            }
+            if (options.getBytesPerInode() != null) {
+                args.add("-i");
+                args.add(String.valueOf(options.getBytesPerInode()));
+            }
+        } else if ("xfs".equals(type) || "btrfs".equals(type)) {
+            args.add("-f");
+            if (!options.isDiscard()) {
+                args.add("-K");
+            }
+            if (stripe != null && "xfs".equals(type)) {
+                args.add("-d");
+                args.add("su=" + stripe.getChunkSizeKb() + "k,sw=" + stripe.getCount());
+            }
+            if (options.getBlockSize() != null) {
+                if ("xfs".equals(type)) {
+                    args.add("-b");
+                    args.add("size=" + options.getBlockSize());
+                } else {
+                    args.add("--sectorsize");
+                    args.add(String.valueOf(options.getBlockSize()));
+                }
+            }
+            checkUnsupported(type, "bytesPerInode", options.getBytesPerInode());
+        } else {
+            // e.g. "auto"; mkfs's own defaults
+            args.add("-F");
+            checkUnsupported(type, "blockSize", options.getBlockSize());
+            checkUnsupported(type, "bytesPerInode", options.getBytesPerInode());
+        }
+        if (!Strings.isNullOrEmpty(options.getMkfsOptions())) {
+            for (String arg : Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().split(options.getMkfsOptions())) {
+                checkArgument(MKFS_OPTION_CHARS.matchesAllOf(arg), "invalid mkfs option %s", arg);
+                args.add(arg);
+            }
+        }
+        args.add(osDeviceName);
+        return sudo(Joiner.on(" ").join(args));
+    }
+
+    /**
+     * @return The command to grow the filesystem mounted at the given mount point to fill its device, while mounted,
+     *         after the device has been enlarged. The kernel is first told to re-read the device's size (for SCSI
+     *         devices, which do not notice by themselves), and if the filesystem is on a partition, the partition is
+     *         grown with {@code growpart} where available.
+     */
+    public static String growFilesystem(String mountPoint) {
+        return "src=$(findmnt -n -o SOURCE " + mountPoint + "); " +
+                "if [ -z \"$src\" ]; then echo \"nothing mounted at " + mountPoint + "\"; exit 1; fi; " +
+                "dev=$(readlink -f \"$src\"); name=$(basename \"$dev\"); disk=$name; " +
+                "if [ -e /sys/class/block/$name/partition ]; then " +
+                    "disk=$(basename $(readlink -f /sys/class/block/$name/..)); " +
+                "fi; " +
+                "if [ -e /sys/class/block/$disk/device/rescan ]; then " +
+                    "echo 1 | " + sudo("tee /sys/class/block/$disk/device/rescan") + " > /dev/null; " +
+                "fi; " +
+                "if [ \"$disk\" != \"$name\" ] && command -v growpart > /dev/null 2>&1; then " +
+                    sudo("growpart /dev/$disk $(cat /sys/class/block/$name/partition)") + " || true; " +
+                "fi; " +
+                "fstype=$(findmnt -n -o FSTYPE " + mountPoint + "); " +
+                "case \"$fstype\" in " +
+                    "ext2|ext3|ext4) " + sudo("resize2fs \"$dev\"") + ";; " +
+                    "xfs) " + sudo("xfs_growfs " + mountPoint) + ";; " +
+                    "btrfs) " + sudo("btrfs filesystem resize max " + mountPoint) + ";; " +
+                    "*) echo \"cannot grow filesystem of type $fstype\"; exit 1;; " +
+                "esac";
+    }
+
+    /**
+     * @return The comma-separated options to mount the filesystem with: those of its mount profile for its type,
+     *         followed by its own mount options, where an option {@code name=value} replaces the profile's option of
+     *         the same name
+     * @throws IllegalArgumentException If an option contains characters not valid in fstab
+     */
+    public static String getMountOptions(FilesystemOptions options) {
+        String profile = Optional.fromNullable(options.getMountProfile()).or(DEFAULT_MOUNT_PROFILE);
+        Map<String, String> result = Maps.newLinkedHashMap();
+        for (String option : getProfileMountOptions(profile, options.getFilesystemType())) {
+            result.put(getMountOptionName(option), option);
+        }
+        if (!Strings.isNullOrEmpty(options.getMountOptions())) {
+            for (String option : Splitter.on(',').trimResults().omitEmptyStrings().split(options.getMountOptions())) {
+                checkArgument(MOUNT_OPTION_CHARS.matchesAllOf(option), "invalid mount option %s", option);
+                String name = getMountOptionName(option);
+                result.remove(name);
+                result.put(name, option);
+            }
+        }
+        return Joiner.on(",").join(result.values());
+    }
+
+    private static List<String> getProfileMountOptions(String profile, String type) {
+        List<String> result = Lists.newArrayList("noatime");
+        if (DEFAULT_MOUNT_PROFILE.equals(profile)) {
+            return result;
+        }
+        result.add("nodiratime");
+        if (isExt(type) && !"ext2".equals(type) || "btrfs".equals(type)) {
+            result.add("commit=60");
+        } else if ("xfs".equals(type)) {
+            result.add("logbufs=8");
+            result.add("logbsize=256k");
+        }
+        if ("ssd".equals(profile)) {
+            result.add("discard");
+        }
+        return result;
+    }
+
+    private static String getMountOptionName(String option) {
+        int index = option.indexOf('=');
+        return (index < 0) ? option : option.substring(0, index);
+    }
+
+    private static boolean isExt(String type) {
+        return "ext2".equals(type) || "ext3".equals(type) || "ext4".equals(type);
+    }
+
+    private static void checkUnsupported(String type, String option, Object value) {
+        if (value != null) {
+            throw new IllegalArgumentException("Option " + option + " is not supported for filesystem type " + type);
+        }
+    }
+}
@@ -1,24 +1,65 @@
 package brooklyn.location.blockstore;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.core.flags.TypeCoercions;
+
 import com.google.common.base.Objects;
 
+/**
+ * How to create and mount the filesystem on a volume.
+ * <p>
+ * The mkfs tuning options are all optional. By default the filesystem is created as quickly as possible: for ext4,
+ * the inode tables and journal are initialized lazily (in the background, after mounting); and for ext2/3/4, XFS and
+ * btrfs the device's blocks are not discarded first. See {@link FilesystemCommands#makeFilesystem(String, FilesystemOptions)}.
+ * <p>
+ * The filesystem is mounted with the options of its {@code mountProfile} (by default just {@code noatime}), plus
+ * any {@code mountOptions}, which override the profile's options of the same name. See
+ * {@link FilesystemCommands#getMountOptions(FilesystemOptions)}.
+ */
 public class FilesystemOptions {
 
     private String mountPoint;
     private String filesystemType;
+    private Boolean lazyInit;
+    private Boolean discard;
+    private Integer blockSize;
+    private Integer bytesPerInode;
+    private String mkfsOptions;
+    private BlockDeviceTuning tuning;
+    private String mountProfile;
+    private String mountOptions;
 
     // For more convenient yaml input
     public static FilesystemOptions fromMap(Map<String, ?> map) {
         FilesystemOptions result = new FilesystemOptions();
         result.mountPoint = (String) map.get("mountPoint");
         result.filesystemType = (String) map.get("filesystemType");
+        result.lazyInit = coerce(map, "lazyInit", Boolean.class);
+        result.discard = coerce(map, "discard", Boolean.class);
+        result.blockSize = coerce(map, "blockSize", Integer.class);
+        result.bytesPerInode = coerce(map, "bytesPerInode", Integer.class);
+        result.mkfsOptions = (String) map.get("mkfsOptions");
+        if (map.get("mountProfile") != null) {
+            result.mountProfile(map.get("mountProfile").toString());
+        }
+        result.mountOptions = (String) map.get("mountOptions");
+        if (map.get("tuning") != null) {
+            result.tuning = BlockDeviceTuning.fromObject(map.get("tuning"));
+        }
         return result;
     }
 
+    private static <T> T coerce(Map<String, ?> map, String key, Class<T> type) {
+        Object val = map.get(key);
+        return (val == null) ? null : TypeCoercions.coerce(val, type);
+    }
+
     public FilesystemOptions() {
         // for reflection, e.g. using $brooklyn:object
     }
@@ -43,11 +84,135 @@ public class FilesystemOptions {
         return filesystemType;
     }
 
+    /**
+     * @param lazyInit Whether to initialize ext4's inode tables and journal after mounting, rather than when
+     *                 creating the filesystem (default true)
+     */
+    public FilesystemOptions lazyInit(Boolean lazyInit) {
+        this.lazyInit = lazyInit;
+        return this;
+    }
+
+    /**
+     * @param discard Whether to discard (TRIM) the device's blocks when creating the filesystem (default false)
+     */
+    public FilesystemOptions discard(Boolean discard) {
+        this.discard = discard;
+        return this;
+    }
+
+    /**
+     * @param blockSize The filesystem's block size in bytes, or null for mkfs's default
+     */
+    public FilesystemOptions blockSize(Integer blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    /**
+     * @param bytesPerInode The ratio of bytes to inodes (ext2/3/4 only), or null for mkfs's default
+     */
+    public FilesystemOptions bytesPerInode(Integer bytesPerInode) {
+        this.bytesPerInode = bytesPerInode;
+        return this;
+    }
+
+    /**
+     * @param mkfsOptions Further options to pass to mkfs, separated by whitespace; they may contain only letters,
+     *                    digits and {@code _-=.:/+,}
+     */
+    public FilesystemOptions mkfsOptions(String mkfsOptions) {
+        this.mkfsOptions = mkfsOptions;
+        return this;
+    }
+
+    /**
+     * @param tuning The block-layer queue settings to apply to the device (and keep across reboots), or null to
+     *               leave the kernel's defaults
+     */
+    public FilesystemOptions tuning(BlockDeviceTuning tuning) {
+        this.tuning = tuning;
+        return this;
+    }
+
+    /**
+     * @param preset The name of a {@link BlockDeviceTuning#preset(String) tuning preset}, e.g. "database"
+     */
+    public FilesystemOptions tuning(String preset) {
+        return tuning(BlockDeviceTuning.preset(preset));
+    }
+
+    /**
+     * @param mountProfile The name of a {@link FilesystemCommands#MOUNT_PROFILES mount profile}, e.g. "throughput",
+     *                     or null for the default
+     */
+    public FilesystemOptions mountProfile(String mountProfile) {
+        checkArgument(mountProfile == null || FilesystemCommands.MOUNT_PROFILES.contains(mountProfile),
+                "Unknown mount profile %s; expected one of %s", mountProfile, FilesystemCommands.MOUNT_PROFILES);
+        this.mountProfile = mountProfile;
+        return this;
+    }
+
+    /**
+     * @param mountOptions Comma-separated mount options, e.g. "nodiratime,commit=60", added to the profile's
+     */
+    public FilesystemOptions mountOptions(String mountOptions) {
+        this.mountOptions = mountOptions;
+        return this;
+    }
+
+    public boolean isLazyInit() {
+        return lazyInit == null || lazyInit;
+    }
+
+    public boolean isDiscard() {
+        return discard != null && discard;
+    }
+
+    @Nullable
+    public Integer getBlockSize() {
+        return blockSize;
+    }
+
+    @Nullable
+    public Integer getBytesPerInode() {
+        return bytesPerInode;
+    }
+
+    @Nullable
+    public String getMkfsOptions() {
+        return mkfsOptions;
+    }
+
+    @Nullable
+    public String getMountProfile() {
+        return mountProfile;
+    }
+
+    @Nullable
+    public String getMountOptions() {
+        return mountOptions;
+    }
+
+    @Nullable
+    public BlockDeviceTuning getTuning() {
+        return tuning;
+    }
+
     @Override
     public String toString() {
         return Objects.toStringHelper(this)
                 .add("mountPoint", mountPoint)
                 .add("filesystemType", filesystemType)
+                .add("lazyInit", lazyInit)
+                .add("discard", discard)
+                .add("blockSize", blockSize)
+                .add("bytesPerInode", bytesPerInode)
+                .add("mkfsOptions", mkfsOptions)
+                .add("mountProfile", mountProfile)
+                .add("mountOptions", mountOptions)
+                .add("tuning", tuning)
+                .omitNullValues()
                 .toString();
     }
 }
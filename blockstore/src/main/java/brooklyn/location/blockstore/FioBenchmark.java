@@ -0,0 +1,361 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static org.apache.brooklyn.util.ssh.BashCommands.dontRequireTtyForSudo;
+import static org.apache.brooklyn.util.ssh.BashCommands.installPackage;
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.core.flags.TypeCoercions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A set of fio jobs to measure the IOPS, bandwidth and latency a mounted volume delivers.
+ * <p>
+ * The jobs run one after the other against a test file of {@code sizeMb} in the mount point, each for
+ * {@code runtimeSecs}, with direct I/O so the page cache is not measured:
+ * <ul>
+ * <li>{@code randread}, {@code randwrite}: random I/O of {@code randomBlockSize} at a queue depth of {@code iodepth}</li>
+ * <li>{@code seqread}, {@code seqwrite}: sequential I/O of {@code sequentialBlockSize} at {@code iodepth}</li>
+ * <li>{@code sweep}: random reads at each of the {@code sweepQueueDepths}, named {@code randread-qd<depth>}, which
+ *     shows the queue depth at which the volume (or the instance's bandwidth to it) saturates</li>
+ * </ul>
+ * fio is installed if it is not already, and the test file is removed afterwards.
+ */
+public class FioBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FioBenchmark.class);
+
+    public static final String RANDREAD = "randread";
+    public static final String RANDWRITE = "randwrite";
+    public static final String SEQREAD = "seqread";
+    public static final String SEQWRITE = "seqwrite";
+    public static final String SWEEP = "sweep";
+    public static final Set<String> ALL_JOBS = ImmutableSet.of(RANDREAD, RANDWRITE, SEQREAD, SEQWRITE, SWEEP);
+
+    public static final String TEST_FILE = "brooklyn-fio-benchmark";
+
+    private static final String OUTPUT_BEGIN = "BROOKLYN_BLOCKSTORE_FIO_BEGIN";
+    private static final String OUTPUT_END = "BROOKLYN_BLOCKSTORE_FIO_END";
+
+    private Set<String> jobs = ALL_JOBS;
+    private int sizeMb = 1024;
+    private int runtimeSecs = 30;
+    private int iodepth = 32;
+    private String randomBlockSize = "4k";
+    private String sequentialBlockSize = "1m";
+    private List<Integer> sweepQueueDepths = ImmutableList.of(1, 4, 16, 64);
+
+    // For more convenient yaml input
+    public static FioBenchmark fromMap(Map<String, ?> map) {
+        FioBenchmark result = new FioBenchmark();
+        if (map.get("jobs") != null) {
+            result.jobs(splitToList(map.get("jobs")).toArray(new String[0]));
+        }
+        if (map.get("sizeMb") != null) {
+            result.sizeMb(TypeCoercions.coerce(map.get("sizeMb"), Integer.class));
+        }
+        if (map.get("runtimeSecs") != null) {
+            result.runtimeSecs(TypeCoercions.coerce(map.get("runtimeSecs"), Integer.class));
+        }
+        if (map.get("iodepth") != null) {
+            result.iodepth(TypeCoercions.coerce(map.get("iodepth"), Integer.class));
+        }
+        if (map.get("randomBlockSize") != null) {
+            result.randomBlockSize(map.get("randomBlockSize").toString());
+        }
+        if (map.get("sequentialBlockSize") != null) {
+            result.sequentialBlockSize(map.get("sequentialBlockSize").toString());
+        }
+        if (map.get("sweepQueueDepths") != null) {
+            List<Integer> depths = Lists.newArrayList();
+            for (String depth : splitToList(map.get("sweepQueueDepths"))) {
+                depths.add(Integer.valueOf(depth));
+            }
+            result.sweepQueueDepths(depths);
+        }
+        return result;
+    }
+
+    private static List<String> splitToList(Object val) {
+        if (val instanceof Iterable<?>) {
+            List<String> result = Lists.newArrayList();
+            for (Object element : (Iterable<?>) val) {
+                result.add(element.toString().trim());
+            }
+            return result;
+        }
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(val.toString());
+    }
+
+    public FioBenchmark() {
+        // for reflection, e.g. using $brooklyn:object
+    }
+
+    /**
+     * @param jobs The jobs to run, from {@link #ALL_JOBS}
+     */
+    public FioBenchmark jobs(String... jobs) {
+        for (String job : jobs) {
+            checkArgument(ALL_JOBS.contains(job), "Unknown fio job %s; expected one of %s", job, ALL_JOBS);
+        }
+        checkArgument(jobs.length > 0, "at least one fio job is required");
+        this.jobs = ImmutableSet.copyOf(jobs);
+        return this;
+    }
+
+    public FioBenchmark sizeMb(int sizeMb) {
+        checkArgument(sizeMb >= 1, "sizeMb must be at least 1, but was %s", sizeMb);
+        this.sizeMb = sizeMb;
+        return this;
+    }
+
+    public FioBenchmark runtimeSecs(int runtimeSecs) {
+        checkArgument(runtimeSecs >= 1, "runtimeSecs must be at least 1, but was %s", runtimeSecs);
+        this.runtimeSecs = runtimeSecs;
+        return this;
+    }
+
+    public FioBenchmark iodepth(int iodepth) {
+        checkArgument(iodepth >= 1, "iodepth must be at least 1, but was %s", iodepth);
+        this.iodepth = iodepth;
+        return this;
+    }
+
+    public FioBenchmark randomBlockSize(String randomBlockSize) {
+        this.randomBlockSize = checkBlockSize(randomBlockSize);
+        return this;
+    }
+
+    public FioBenchmark sequentialBlockSize(String sequentialBlockSize) {
+        this.sequentialBlockSize = checkBlockSize(sequentialBlockSize);
+        return this;
+    }
+
+    public FioBenchmark sweepQueueDepths(List<Integer> sweepQueueDepths) {
+        checkArgument(!sweepQueueDepths.isEmpty(), "at least one sweep queue depth is required");
+        for (int depth : sweepQueueDepths) {
+            checkArgument(depth >= 1, "queue depths must be at least 1, but got %s", sweepQueueDepths);
+        }
+        this.sweepQueueDepths = ImmutableList.copyOf(sweepQueueDepths);
+        return this;
+    }
+
+    private static String checkBlockSize(String blockSize) {
+        checkNotNull(blockSize, "blockSize");
+        checkArgument(blockSize.matches("[0-9]+[kKmM]?"), "invalid block size %s", blockSize);
+        return blockSize;
+    }
+
+    /** The mount point goes unquoted into commands run with sudo, so must be a plain absolute path. */
+    private static String checkMountPoint(String mountPoint) {
+        checkNotNull(mountPoint, "mountPoint");
+        checkArgument(mountPoint.matches("/[A-Za-z0-9._/-]*"), "invalid mount point %s", mountPoint);
+        return mountPoint;
+    }
+
+    public Set<String> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * @return The fio command that runs the jobs against a test file in the given directory, writing the results
+     *         as JSON to the given file
+     */
+    public String getFioCommand(String directory, String outputFile) {
+        List<String> args = Lists.newArrayList("fio", "--output-format=json", "--output=" + outputFile,
+                "--directory=" + directory, "--filename=" + TEST_FILE, "--size=" + sizeMb + "m",
+                "--direct=1", "--ioengine=libaio", "--time_based", "--runtime=" + runtimeSecs);
+        if (jobs.contains(RANDREAD)) addJob(args, RANDREAD, "randread", randomBlockSize, iodepth);
+        if (jobs.contains(RANDWRITE)) addJob(args, RANDWRITE, "randwrite", randomBlockSize, iodepth);
+        if (jobs.contains(SEQREAD)) addJob(args, SEQREAD, "read", sequentialBlockSize, iodepth);
+        if (jobs.contains(SEQWRITE)) addJob(args, SEQWRITE, "write", sequentialBlockSize, iodepth);
+        if (jobs.contains(SWEEP)) {
+            for (int depth : sweepQueueDepths) {
+                addJob(args, "randread-qd" + depth, "randread", randomBlockSize, depth);
+            }
+        }
+        return Joiner.on(" ").join(args);
+    }
+
+    private static void addJob(List<String> args, String name, String rw, String blockSize, int depth) {
+        args.add("--name=" + name);
+        args.add("--rw=" + rw);
+        args.add("--bs=" + blockSize);
+        args.add("--iodepth=" + depth);
+        args.add("--stonewall");
+    }
+
+    /**
+     * Runs the jobs against the filesystem mounted at the given mount point.
+     *
+     * @return The results, by job name, in the order run
+     * @throws IllegalArgumentException If the mount point is not an absolute path of letters, digits, '.', '_', '-' and '/'
+     * @throws GuestScriptException If installing or running fio fails
+     */
+    public Map<String, Result> run(SshMachineLocation machine, String mountPoint) {
+        checkMountPoint(mountPoint);
+        LOG.debug("Benchmarking volume: machine={}; mountPoint={}; benchmark={}", new Object[] {machine, mountPoint, this});
+        GuestFacts facts = GuestFacts.get(machine);
+        GuestScript script = new GuestScript();
+        if (facts.isSudoTtyRequired()) {
+            script.preamble(dontRequireTtyForSudo());
+        }
+        script.preamble("out=$(mktemp /tmp/brooklyn-fio-XXXXXX)")
+                .step("install-fio", "command -v fio > /dev/null 2>&1 || " + installPackage("fio"))
+                .step("check-mount", "mountpoint -q " + mountPoint)
+                .step("fio", sudo(getFioCommand(mountPoint, "$out")) + "; rc=$?; "
+                        + sudo("rm -f " + mountPoint + "/" + TEST_FILE) + "; exit $rc")
+                .step("report", "echo " + OUTPUT_BEGIN + "; " + sudo("cat $out") + "; echo; echo " + OUTPUT_END + "; rm -f $out");
+        GuestScript.Result result = script.execute(machine, "Benchmarking volume at " + mountPoint);
+        result.checkSuccess(format("Failed to benchmark volume. machine=%s; mountPoint=%s", machine, mountPoint));
+        return parse(result.getStdout());
+    }
+
+    /**
+     * Parses the fio JSON output, optionally surrounded by other output as printed by {@link #run}.
+     * Both the latencies in nanoseconds of fio 3 and those in microseconds of earlier versions are understood.
+     */
+    public static Map<String, Result> parse(String output) {
+        String json = output;
+        int begin = output.indexOf(OUTPUT_BEGIN);
+        int end = output.indexOf(OUTPUT_END);
+        if (begin >= 0 && end > begin) {
+            json = output.substring(begin + OUTPUT_BEGIN.length(), end);
+        }
+        json = json.substring(Math.max(0, json.indexOf('{')));
+        JsonObject root = new JsonParser().parse(json).getAsJsonObject();
+        Map<String, Result> results = Maps.newLinkedHashMap();
+        for (JsonElement element : root.getAsJsonArray("jobs")) {
+            JsonObject job = element.getAsJsonObject();
+            String name = job.get("jobname").getAsString();
+            results.put(name, new Result(name, parseDirection(job.getAsJsonObject("read")), parseDirection(job.getAsJsonObject("write"))));
+        }
+        return results;
+    }
+
+    private static Direction parseDirection(JsonObject direction) {
+        double iops = direction.get("iops").getAsDouble();
+        double bandwidthKBps = direction.get("bw").getAsDouble();
+        double latencyUs = 0;
+        if (direction.has("lat_ns")) {
+            latencyUs = direction.getAsJsonObject("lat_ns").get("mean").getAsDouble() / 1000;
+        } else if (direction.has("lat")) {
+            latencyUs = direction.getAsJsonObject("lat").get("mean").getAsDouble();
+        }
+        return new Direction(iops, bandwidthKBps, latencyUs);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("jobs", jobs)
+                .add("sizeMb", sizeMb)
+                .add("runtimeSecs", runtimeSecs)
+                .add("iodepth", iodepth)
+                .add("randomBlockSize", randomBlockSize)
+                .add("sequentialBlockSize", sequentialBlockSize)
+                .add("sweepQueueDepths", sweepQueueDepths)
+                .toString();
+    }
+
+    /**
+     * The performance of one direction (reads or writes) of a job.
+     */
+    public static class Direction {
+        private final double iops;
+        private final double bandwidthKBps;
+        private final double meanLatencyUs;
+
+        public Direction(double iops, double bandwidthKBps, double meanLatencyUs) {
+            this.iops = iops;
+            this.bandwidthKBps = bandwidthKBps;
+            this.meanLatencyUs = meanLatencyUs;
+        }
+
+        public double getIops() {
+            return iops;
+        }
+
+        /**
+         * @return The bandwidth in KiB/s
+         */
+        public double getBandwidthKBps() {
+            return bandwidthKBps;
+        }
+
+        public double getMeanLatencyUs() {
+            return meanLatencyUs;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("iops", iops)
+                    .add("bandwidthKBps", bandwidthKBps)
+                    .add("meanLatencyUs", meanLatencyUs)
+                    .toString();
+        }
+    }
+
+    /**
+     * The results of one job.
+     */
+    public static class Result {
+        private final String name;
+        private final Direction read;
+        private final Direction write;
+
+        public Result(String name, Direction read, Direction write) {
+            this.name = name;
+            this.read = read;
+            this.write = write;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Direction getRead() {
+            return read;
+        }
+
+        public Direction getWrite() {
+            return write;
+        }
+
+        /**
+         * @return The direction the job measured: writes for a write job, otherwise reads
+         */
+        public Direction getMeasured() {
+            return (write.getIops() > 0 && read.getIops() == 0) ? write : read;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("name", name)
+                    .add("read", read)
+                    .add("write", write)
+                    .toString();
+        }
+    }
+}
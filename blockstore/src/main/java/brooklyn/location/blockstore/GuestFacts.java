@@ -0,0 +1,206 @@
+package brooklyn.location.blockstore;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Facts about a machine that determine which setup steps the volume operations need on it: its distro and package
+ * manager, which mkfs variants and block-device tools are installed, and whether sudo requires a tty.
+ * <p>
+ * The facts are probed with one ssh command the first time they are needed, and then kept in the machine
+ * location's config ({@link #GUEST_FACTS}), so they are shared by all volume operations on the machine and
+ * survive rebind. When an operation changes a fact (e.g. installs a package), it {@link #record records} the change.
+ */
+public class GuestFacts {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GuestFacts.class);
+
+    @SuppressWarnings("serial")
+    public static final ConfigKey<Map<String, String>> GUEST_FACTS = ConfigKeys.newConfigKey(
+            new TypeToken<Map<String, String>>() {},
+            "blockstore.guestFacts", "Facts about the machine probed by the volume managers; cleared to re-probe");
+
+    public static final String DISTRO = "distro";
+    public static final String PACKAGE_MANAGER = "packageManager";
+    public static final String MKFS = "mkfs";
+    public static final String UID = "uid";
+    public static final String SUDO_REQUIRES_TTY = "sudoRequiresTty";
+    public static final List<String> TOOLS = ImmutableList.of("lsblk", "udevadm", "blkid", "mdadm", "lvm", "resize2fs", "xfs_growfs");
+
+    private static final String UNKNOWN = "unknown";
+
+    /**
+     * @return The facts about the given machine, probing them if they are not yet known
+     */
+    public static GuestFacts get(SshMachineLocation machine) {
+        synchronized (machine) {
+            Map<String, String> facts = machine.config().get(GUEST_FACTS);
+            if (facts == null || facts.isEmpty()) {
+                facts = probe(machine);
+                machine.config().set(GUEST_FACTS, facts);
+            }
+            return new GuestFacts(facts);
+        }
+    }
+
+    /**
+     * Records that a fact about the given machine has changed, e.g. after installing a package.
+     */
+    public static void record(SshMachineLocation machine, String key, String value) {
+        synchronized (machine) {
+            Map<String, String> facts = machine.config().get(GUEST_FACTS);
+            if (facts == null) return; // not yet probed; will be when next needed
+            Map<String, String> updated = Maps.newLinkedHashMap(facts);
+            updated.put(key, value);
+            machine.config().set(GUEST_FACTS, ImmutableMap.copyOf(updated));
+        }
+    }
+
+    /**
+     * Records that mkfs for the given filesystem type is now installed on the machine.
+     */
+    public static void recordMkfs(SshMachineLocation machine, String filesystemType) {
+        GuestFacts facts;
+        synchronized (machine) {
+            Map<String, String> current = machine.config().get(GUEST_FACTS);
+            if (current == null) return;
+            facts = new GuestFacts(current);
+        }
+        if (!facts.hasMkfs(filesystemType)) {
+            String mkfs = facts.get(MKFS);
+            record(machine, MKFS, (mkfs == null || mkfs.isEmpty()) ? filesystemType : mkfs + "," + filesystemType);
+        }
+    }
+
+    /**
+     * @return The command that prints the facts, one {@code key=value} per line
+     */
+    public static String getProbeCommand() {
+        ImmutableList.Builder<String> result = ImmutableList.builder();
+        result.add("echo \"" + DISTRO + "=$( ( . /etc/os-release 2> /dev/null && echo $ID ) || "
+                + "( test -f /etc/redhat-release && echo rhel ) || echo " + UNKNOWN + " )\"");
+        result.add("echo \"" + PACKAGE_MANAGER + "=$( for pm in apt-get dnf yum zypper; do "
+                + "if command -v $pm > /dev/null 2>&1; then echo $pm; break; fi; done )\"");
+        result.add("echo \"" + MKFS + "=$( ls /sbin/mkfs.* /usr/sbin/mkfs.* 2> /dev/null | sed 's/.*mkfs\\.//' | sort -u | tr '\\n' ',' )\"");
+        for (String tool : TOOLS) {
+            result.add("echo \"" + tool + "=$( PATH=$PATH:/sbin:/usr/sbin command -v " + tool + " > /dev/null 2>&1 && echo true || echo false )\"");
+        }
+        result.add("echo \"" + UID + "=$( id -u )\"");
+        result.add("echo \"" + SUDO_REQUIRES_TTY + "=$( if [ $(id -u) -eq 0 ]; then echo false; "
+                + "elif ! sudo -n true > /dev/null 2>&1; then echo " + UNKNOWN + "; "
+                + "elif sudo -n grep -Eqs '^[^#]*requiretty' /etc/sudoers /etc/sudoers.d/*; then echo true; "
+                + "else echo false; fi )\"");
+        return Joiner.on("; ").join(result.build());
+    }
+
+    protected static Map<String, String> probe(SshMachineLocation machine) {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Map<String, ?> flags = ImmutableMap.of("allocatePTY", true, "out", stdout);
+        int exitCode = machine.execCommands(flags, "Probing machine for volume management", ImmutableList.of(getProbeCommand()));
+        Map<String, String> result = parse(new String(stdout.toByteArray(), Charsets.UTF_8));
+        if (exitCode != 0) {
+            LOG.warn("Probing {} for volume management returned exit code {}; facts found: {}", new Object[] {machine, exitCode, result});
+        } else {
+            LOG.debug("Probed {} for volume management: {}", machine, result);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the output of {@link #getProbeCommand()}, ignoring any other lines.
+     */
+    public static Map<String, String> parse(String stdout) {
+        Map<String, String> result = Maps.newLinkedHashMap();
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(stdout)) {
+            int index = line.indexOf('=');
+            if (index <= 0) continue;
+            String key = line.substring(0, index);
+            if (isFactKey(key)) {
+                result.put(key, line.substring(index + 1));
+            }
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    private static boolean isFactKey(String key) {
+        return ImmutableSet.of(DISTRO, PACKAGE_MANAGER, MKFS, UID, SUDO_REQUIRES_TTY).contains(key) || TOOLS.contains(key);
+    }
+
+    private final Map<String, String> facts;
+
+    public GuestFacts(Map<String, String> facts) {
+        this.facts = ImmutableMap.copyOf(facts);
+    }
+
+    @Nullable
+    public String get(String key) {
+        return facts.get(key);
+    }
+
+    public Map<String, String> asMap() {
+        return facts;
+    }
+
+    public String getDistro() {
+        String result = facts.get(DISTRO);
+        return (result == null || result.isEmpty()) ? UNKNOWN : result;
+    }
+
+    @Nullable
+    public String getPackageManager() {
+        String result = facts.get(PACKAGE_MANAGER);
+        return (result == null || result.isEmpty()) ? null : result;
+    }
+
+    /**
+     * @return Whether mkfs for the given filesystem type is known to be installed ("auto" is satisfied by any)
+     */
+    public boolean hasMkfs(String filesystemType) {
+        String mkfs = facts.get(MKFS);
+        if (mkfs == null || mkfs.isEmpty()) return false;
+        List<String> types = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(mkfs);
+        return "auto".equals(filesystemType) ? !types.isEmpty() : types.contains(filesystemType);
+    }
+
+    /**
+     * @return Whether the given tool (one of {@link #TOOLS}) is known to be installed
+     */
+    public boolean hasTool(String tool) {
+        return "true".equals(facts.get(tool));
+    }
+
+    public boolean isRoot() {
+        return "0".equals(facts.get(UID));
+    }
+
+    /**
+     * @return Whether sudo may require a tty, i.e. true unless known otherwise
+     */
+    public boolean isSudoTtyRequired() {
+        return !"false".equals(facts.get(SUDO_REQUIRES_TTY));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("facts", facts).toString();
+    }
+}
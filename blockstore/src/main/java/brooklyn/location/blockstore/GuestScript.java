@@ -0,0 +1,226 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A sequence of named steps to run on a machine in a single ssh session, whose results are reported individually.
+ * <p>
+ * Each step runs in a subshell; after it, a line {@code BROOKLYN_BLOCKSTORE_STEP <name> <exitCode>} is echoed, and
+ * the script exits if the step failed. The {@link Result} is parsed from these lines, so a failure can be
+ * attributed to its step (and the steps after it are known not to have run).
+ */
+public class GuestScript {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GuestScript.class);
+
+    public static final String STEP_MARKER = "BROOKLYN_BLOCKSTORE_STEP";
+
+    private final List<String> preamble = Lists.newArrayList();
+    private final Map<String, String> steps = Maps.newLinkedHashMap();
+
+    /**
+     * Adds a command to run before the first step, whose result is not reported (e.g. to set a variable).
+     */
+    public GuestScript preamble(String command) {
+        preamble.add(checkNotNull(command, "command"));
+        return this;
+    }
+
+    /**
+     * Adds a step, which succeeds only if all its commands succeed.
+     *
+     * @param name A name for the step, unique in this script and without whitespace
+     */
+    public GuestScript step(String name, String... commands) {
+        return step(name, ImmutableList.copyOf(commands));
+    }
+
+    public GuestScript step(String name, List<String> commands) {
+        checkArgument(CharMatcher.WHITESPACE.matchesNoneOf(name), "step name must not contain whitespace: %s", name);
+        checkArgument(!steps.containsKey(name), "duplicate step %s", name);
+        checkArgument(!commands.isEmpty(), "step %s has no commands", name);
+        steps.put(name, Joiner.on(" && ").join(commands));
+        return this;
+    }
+
+    public List<String> getStepNames() {
+        return ImmutableList.copyOf(steps.keySet());
+    }
+
+    /**
+     * @return The script, as commands for {@link SshMachineLocation#execCommands(Map, String, List)}
+     */
+    public List<String> toCommands() {
+        ImmutableList.Builder<String> result = ImmutableList.builder();
+        result.addAll(preamble);
+        for (Map.Entry<String, String> step : steps.entrySet()) {
+            result.add("( " + step.getValue() + " ); "
+                    + "rc=$?; echo \"" + STEP_MARKER + " " + step.getKey() + " $rc\"; "
+                    + "if [ $rc -ne 0 ]; then exit $rc; fi");
+        }
+        return result.build();
+    }
+
+    /**
+     * Runs the script on the given machine, in one ssh session.
+     */
+    public Result execute(SshMachineLocation machine, String summary) {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        Map<String, ?> flags = ImmutableMap.of("allocatePTY", true, "out", stdout, "err", stderr);
+        int exitCode = machine.execCommands(flags, summary, toCommands());
+        Result result = parse(getStepNames(), exitCode, new String(stdout.toByteArray(), Charsets.UTF_8),
+                new String(stderr.toByteArray(), Charsets.UTF_8));
+        LOG.debug("{} on {}: {}", new Object[] {summary, machine, result});
+        return result;
+    }
+
+    /**
+     * Parses the result of running a script with the given steps.
+     */
+    public static Result parse(List<String> stepNames, int exitCode, String stdout, String stderr) {
+        Map<String, Integer> exitCodes = Maps.newHashMap();
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(stdout)) {
+            if (!line.startsWith(STEP_MARKER + " ")) continue;
+            List<String> parts = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+            if (parts.size() != 3) continue;
+            try {
+                exitCodes.put(parts.get(1), Integer.parseInt(parts.get(2)));
+            } catch (NumberFormatException e) {
+                LOG.debug("Ignoring malformed step result: {}", line);
+            }
+        }
+        List<StepResult> steps = Lists.newArrayList();
+        for (String name : stepNames) {
+            steps.add(new StepResult(name, exitCodes.get(name)));
+        }
+        return new Result(exitCode, steps, stdout, stderr);
+    }
+
+    public static class StepResult {
+        private final String name;
+        private final Integer exitCode;
+
+        StepResult(String name, @Nullable Integer exitCode) {
+            this.name = name;
+            this.exitCode = exitCode;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The step's exit code, or null if it did not run
+         */
+        @Nullable
+        public Integer getExitCode() {
+            return exitCode;
+        }
+
+        public boolean isRun() {
+            return exitCode != null;
+        }
+
+        public boolean isSuccess() {
+            return exitCode != null && exitCode == 0;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + (isRun() ? exitCode : "not-run");
+        }
+    }
+
+    public static class Result {
+        private final int exitCode;
+        private final List<StepResult> steps;
+        private final String stdout;
+        private final String stderr;
+
+        Result(int exitCode, List<StepResult> steps, String stdout, String stderr) {
+            this.exitCode = exitCode;
+            this.steps = ImmutableList.copyOf(steps);
+            this.stdout = stdout;
+            this.stderr = stderr;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public List<StepResult> getSteps() {
+            return steps;
+        }
+
+        public Optional<StepResult> getStep(String name) {
+            for (StepResult step : steps) {
+                if (step.getName().equals(name)) return Optional.of(step);
+            }
+            return Optional.absent();
+        }
+
+        /**
+         * @return The first step that failed or, if the script failed before running all steps (e.g. the ssh
+         *         connection failed), the first step that did not run
+         */
+        public Optional<StepResult> getFailedStep() {
+            for (StepResult step : steps) {
+                if (!step.isSuccess()) return Optional.of(step);
+            }
+            return Optional.absent();
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0 && !getFailedStep().isPresent();
+        }
+
+        public String getStdout() {
+            return stdout;
+        }
+
+        public String getStderr() {
+            return stderr;
+        }
+
+        /**
+         * @throws GuestScriptException If the script did not succeed
+         */
+        public Result checkSuccess(String description) {
+            if (!isSuccess()) {
+                throw new GuestScriptException(description, this);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("exitCode", exitCode)
+                    .add("steps", steps)
+                    .toString();
+        }
+    }
+}
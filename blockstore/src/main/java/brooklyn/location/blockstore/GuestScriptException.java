@@ -0,0 +1,40 @@
+package brooklyn.location.blockstore;
+
+import com.google.common.base.Optional;
+
+/**
+ * Indicates that a {@link GuestScript} failed; the result says which step failed.
+ */
+public class GuestScriptException extends RuntimeException {
+
+    private static final long serialVersionUID = 5463462395167402384L;
+
+    private final GuestScript.Result result;
+
+    public GuestScriptException(String description, GuestScript.Result result) {
+        super(description + ": " + describeFailure(result));
+        this.result = result;
+    }
+
+    public GuestScript.Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return The step that failed, if known
+     */
+    public Optional<GuestScript.StepResult> getFailedStep() {
+        return result.getFailedStep();
+    }
+
+    private static String describeFailure(GuestScript.Result result) {
+        Optional<GuestScript.StepResult> failed = result.getFailedStep();
+        if (!failed.isPresent()) {
+            return "exit code " + result.getExitCode();
+        } else if (failed.get().isRun()) {
+            return "step " + failed.get().getName() + " failed with exit code " + failed.get().getExitCode();
+        } else {
+            return "step " + failed.get().getName() + " did not run (exit code " + result.getExitCode() + "); steps " + result.getSteps();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+
+/**
+ * How to add a volume to an LVM pool on the machine, rather than mounting it directly.
+ * <p>
+ * The device joins the named volume group (created if it does not exist), and the filesystem is on the named
+ * logical volume. If the logical volume already exists, it is extended over the new device and its filesystem is
+ * grown online (with {@code lvextend -r}), so the capacity of a mounted directory can be increased without
+ * unmounting it. Otherwise the logical volume is created, formatted and mounted.
+ */
+public class LvmOptions {
+
+    public static final String DEFAULT_LOGICAL_VOLUME = "data";
+
+    private static final CharMatcher NAME_CHARS = CharMatcher.JAVA_LETTER_OR_DIGIT.or(CharMatcher.anyOf("-_.+"));
+
+    private String volumeGroup;
+    private String logicalVolume = DEFAULT_LOGICAL_VOLUME;
+
+    // For more convenient yaml input
+    public static LvmOptions fromMap(Map<String, ?> map) {
+        checkArgument(map.get("volumeGroup") != null, "lvm should contain value for \"volumeGroup\", but found %s", map);
+        LvmOptions result = new LvmOptions((String) map.get("volumeGroup"));
+        if (map.get("logicalVolume") != null) {
+            result.logicalVolume((String) map.get("logicalVolume"));
+        }
+        return result;
+    }
+
+    public LvmOptions() {
+        // for reflection, e.g. using $brooklyn:object
+    }
+
+    public LvmOptions(String volumeGroup) {
+        volumeGroup(volumeGroup);
+    }
+
+    public LvmOptions volumeGroup(String volumeGroup) {
+        checkName("volumeGroup", volumeGroup);
+        this.volumeGroup = volumeGroup;
+        return this;
+    }
+
+    /**
+     * @param logicalVolume The logical volume to create or extend in the volume group (default "data")
+     */
+    public LvmOptions logicalVolume(String logicalVolume) {
+        checkName("logicalVolume", logicalVolume);
+        this.logicalVolume = logicalVolume;
+        return this;
+    }
+
+    private static void checkName(String field, String name) {
+        checkArgument(!Strings.isNullOrEmpty(name) && NAME_CHARS.matchesAllOf(name) && !name.startsWith("-"),
+                "invalid %s '%s'", field, name);
+    }
+
+    public String getVolumeGroup() {
+        return volumeGroup;
+    }
+
+    public String getLogicalVolume() {
+        return logicalVolume;
+    }
+
+    /**
+     * @return The device of the logical volume, e.g. /dev/data-vg/data
+     */
+    public String getLogicalVolumeDeviceName() {
+        return "/dev/" + volumeGroup + "/" + logicalVolume;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("volumeGroup", volumeGroup)
+                .add("logicalVolume", logicalVolume)
+                .toString();
+    }
+}
@@ -1,27 +1,47 @@
 package brooklyn.location.blockstore;
 
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
 import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.ResizableVolumeManager;
+import brooklyn.location.blockstore.api.StripedBlockDevice;
 import brooklyn.location.blockstore.api.VolumeManager;
 import brooklyn.location.blockstore.api.VolumeOptions;
 import brooklyn.location.blockstore.ec2.Ec2VolumeManager;
+import brooklyn.location.blockstore.gce.GoogleComputeEngineVolumeManager;
+import brooklyn.location.blockstore.sensors.VolumeMetrics;
 import brooklyn.location.blockstore.openstack.OpenstackVolumeManager;
 import brooklyn.location.blockstore.vclouddirector15.VcloudVolumeManager;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.core.config.ConfigKeys;
 import org.apache.brooklyn.location.jclouds.BasicJcloudsLocationCustomizer;
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsLocationConfig;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.util.exceptions.CompoundRuntimeException;
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.domain.Location;
+import org.jclouds.domain.LocationScope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import static brooklyn.location.blockstore.VolumeManagers.*;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Creates a location customizer that:
@@ -52,6 +72,50 @@ import static brooklyn.location.blockstore.VolumeManagers.*;
  *               filesystemType: ext3
  * </pre>
  *
+ * By default the volumes are provisioned one after the other. Set {@code parallel: true} to provision them
+ * concurrently, pipelined through a {@link VolumeProvisioningPipeline}: at most {@code maxConcurrency} volumes are
+ * being created and attached, while at most {@code maxGuestConcurrency} attached volumes are being formatted and
+ * mounted. If any volume fails in parallel mode then no further volumes are started, the volumes that were already
+ * provisioned, or that failed after being created, are unmounted, detached and deleted, and the customization
+ * fails with all of the failures. The same happens to the volumes provisioned before a striped or pooled volume
+ * that fails, whether in parallel mode or not.
+ *
+ * Set {@code batchGuestPreparation: true} to create and attach all the volumes first (concurrently if
+ * {@code parallel} is true), and then format and mount them all together in one ssh session on the machine
+ * (see {@link VolumeManager#prepareVolumes}). This is fastest for machines with many volumes. If any volume
+ * fails then all the volumes are detached and deleted.
+ *
+ * A volume can be striped (RAID0) across several devices for more IOPS and bandwidth, by giving its
+ * {@link StripeOptions}; for example, to create four 100GB devices and mount one 400GB volume striped across them:
+ *
+ * <pre>
+ *           - blockDevice:
+ *               sizeInGb: 100
+ *               deviceSuffix: 'h'
+ *             stripe:
+ *               count: 4
+ *               method: mdadm
+ *               chunkSizeKb: 256
+ *             filesystem:
+ *               mountPoint: /mount/brooklyn/data
+ *               filesystemType: xfs
+ * </pre>
+ *
+ * The devices of a striped volume are created and attached concurrently, using consecutive device suffixes
+ * (here h to k).
+ *
+ * A volume can instead be added to an LVM volume group on the machine, by giving its {@link LvmOptions}: its
+ * filesystem is then on the group's logical volume, which is extended over the volume if it already exists
+ * (growing its filesystem online), or created otherwise:
+ *
+ * <pre>
+ *             lvm:
+ *               volumeGroup: data-vg
+ *               logicalVolume: data
+ * </pre>
+ *
+ * Striped and pooled volumes are provisioned after the other volumes, one at a time.
+ *
  * Important notice is that KVM is configured as the default hypervisor for OpenStack which means that the defined device name will be of type /dev/vd*.
  * This means that the device suffix must be set as the next letter in alphabetical order from the existing device names on the VM.
  */
@@ -65,6 +129,18 @@ public class NewVolumeCustomizer extends BasicJcloudsLocationCustomizer {
             new TypeToken<List<VolumeOptions>>() {},
             "volumes", "List of volumes to be attached");
 
+    public static final ConfigKey<Boolean> PARALLEL = ConfigKeys.newBooleanConfigKey(
+            "parallel", "Whether to provision all the volumes concurrently, rather than one at a time", false);
+
+    public static final ConfigKey<Integer> MAX_CONCURRENCY = ConfigKeys.newIntegerConfigKey(
+            "maxConcurrency", "Maximum number of volumes being created and attached at the same time when parallel is true", 4);
+
+    public static final ConfigKey<Integer> MAX_GUEST_CONCURRENCY = ConfigKeys.newIntegerConfigKey(
+            "maxGuestConcurrency", "Maximum number of volumes being formatted and mounted at the same time when parallel is true", 4);
+
+    public static final ConfigKey<Boolean> BATCH_GUEST_PREPARATION = ConfigKeys.newBooleanConfigKey(
+            "batchGuestPreparation", "Whether to format and mount all the volumes together in one ssh session, once all are attached", false);
+
     public NewVolumeCustomizer() {
     }
 
@@ -88,6 +164,8 @@ public class NewVolumeCustomizer extends BasicJcloudsLocationCustomizer {
                 return new Ec2VolumeManager();
             case OPENSTACK_NOVA:
                 return new OpenstackVolumeManager();
+            case GOOGLE_COMPUTE_ENGINE:
+                return new GoogleComputeEngineVolumeManager();
             case VCLOUD_DIRECTOR:
                 return new VcloudVolumeManager();
             default:
@@ -100,6 +178,22 @@ public class NewVolumeCustomizer extends BasicJcloudsLocationCustomizer {
         this.config().set(VOLUMES,volumes);
     }
 
+    public void setParallel(boolean parallel) {
+        this.config().set(PARALLEL, parallel);
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.config().set(MAX_CONCURRENCY, maxConcurrency);
+    }
+
+    public void setMaxGuestConcurrency(int maxGuestConcurrency) {
+        this.config().set(MAX_GUEST_CONCURRENCY, maxGuestConcurrency);
+    }
+
+    public void setBatchGuestPreparation(boolean batchGuestPreparation) {
+        this.config().set(BATCH_GUEST_PREPARATION, batchGuestPreparation);
+    }
+
     @Override
     public void customize(JcloudsLocation location, ComputeService computeService, JcloudsMachineLocation machine) {
         if (!getVolumes().isEmpty()) {
@@ -110,23 +204,314 @@ public class NewVolumeCustomizer extends BasicJcloudsLocationCustomizer {
     }
 
     protected void createAndAttachDisks(JcloudsMachineLocation machine) {
+        List<VolumeOptions> volumes = Lists.newArrayList();
+        List<VolumeOptions> sequentialVolumes = Lists.newArrayList();
         for (VolumeOptions volume : getVolumes()) {
-            createAndAttachDisk(machine, volume);
+            (volume.isStriped() || volume.isPooled() ? sequentialVolumes : volumes).add(volume);
+        }
+        List<MountedBlockDevice> mounted = Lists.newArrayList();
+        try {
+            if (Boolean.TRUE.equals(getConfig(BATCH_GUEST_PREPARATION)) && volumes.size() > 1) {
+                mounted.addAll(createAndAttachDisksInBatch(machine, volumes));
+            } else if (Boolean.TRUE.equals(getConfig(PARALLEL)) && volumes.size() > 1) {
+                mounted.addAll(createAndAttachDisksInParallel(machine, volumes));
+            } else {
+                for (VolumeOptions volume : volumes) {
+                    mounted.add(createAndAttachDisk(machine, volume));
+                }
+            }
+            for (VolumeOptions volume : sequentialVolumes) {
+                mounted.add(createAndAttachDisk(machine, volume));
+            }
+        } catch (RuntimeException e) {
+            // the volumes of a batch that failed have been rolled back already; those provisioned before have not
+            if (!mounted.isEmpty()) {
+                LOG.warn("Failed to provision volumes on {}; rolling back {} provisioned volumes", machine, mounted.size());
+                rollback(machine, mounted);
+            }
+            throw e;
+        }
+        Object context = getCallerContext(machine);
+        if (context instanceof Entity) {
+            VolumeMetrics.track((Entity) context, mounted);
+        }
+    }
+
+    protected List<MountedBlockDevice> createAndAttachDisksInParallel(JcloudsMachineLocation machine, List<VolumeOptions> volumes) {
+        VolumeManager volumeManager = getVolumeManager(machine);
+        if (!(volumeManager instanceof AbstractVolumeManager)) {
+            throw new IllegalStateException("Cannot provision volumes in parallel with " + volumeManager
+                    + "; expected " + AbstractVolumeManager.class.getSimpleName());
+        }
+        Integer maxConcurrency = getConfig(MAX_CONCURRENCY);
+        Integer maxGuestConcurrency = getConfig(MAX_GUEST_CONCURRENCY);
+        LOG.debug("Provisioning {} volumes on {}, at most {} in the cloud and {} on the guest at a time",
+                new Object[] {volumes.size(), machine, maxConcurrency, maxGuestConcurrency});
+
+        final VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline((AbstractVolumeManager) volumeManager,
+                checkNotNull(maxConcurrency, MAX_CONCURRENCY.getName()), checkNotNull(maxGuestConcurrency, MAX_GUEST_CONCURRENCY.getName()));
+        for (VolumeOptions volume : volumes) {
+            checkFilesystemOptions(volume);
+        }
+        List<ListenableFuture<MountedBlockDevice>> futures = Lists.newArrayList();
+        for (VolumeOptions volume : volumes) {
+            futures.add(pipeline.submit(machine, getBlockDeviceOptions(machine, volume), volume.getFilesystemOptions()));
+        }
+
+        // On the first failure, stop volumes from being started; those already in flight are left to complete
+        // so that they are not abandoned half-created, and are then rolled back below.
+        FutureCallback<MountedBlockDevice> cancelOnFailure = new FutureCallback<MountedBlockDevice>() {
+            @Override public void onSuccess(MountedBlockDevice result) {}
+            @Override public void onFailure(Throwable t) {
+                pipeline.cancelPending();
+            }
+        };
+        for (ListenableFuture<MountedBlockDevice> future : futures) {
+            Futures.addCallback(future, cancelOnFailure);
+        }
+
+        try {
+            Futures.successfulAsList(futures).get();
+        } catch (InterruptedException e) {
+            pipeline.cancelPending();
+            rollbackWhenDone(machine, futures);
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e);
+        }
+
+        List<MountedBlockDevice> mounted = Lists.newArrayList();
+        List<BlockDevice> failed = Lists.newArrayList();
+        List<Throwable> failures = Lists.newArrayList();
+        for (ListenableFuture<MountedBlockDevice> future : futures) {
+            if (future.isCancelled()) continue;
+            try {
+                mounted.add(future.get());
+            } catch (InterruptedException e) {
+                throw Exceptions.propagate(e);
+            } catch (ExecutionException e) {
+                failures.add(getFailure(e.getCause(), failed));
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            LOG.warn("Failed to provision {} of {} volumes on {}; rolling back {} provisioned and {} partly provisioned volumes",
+                    new Object[] {failures.size(), volumes.size(), machine, mounted.size(), failed.size()});
+            rollback(machine, ImmutableList.<BlockDevice>builder().addAll(mounted).addAll(failed).build());
+            throw new CompoundRuntimeException("Failed to provision volumes on " + machine + " (" + failures.size()
+                    + " of " + volumes.size() + " failed)", failures);
+        }
+        return mounted;
+    }
+
+    protected List<MountedBlockDevice> createAndAttachDisksInBatch(JcloudsMachineLocation machine, List<VolumeOptions> volumes) {
+        VolumeManager volumeManager = getVolumeManager(machine);
+        if (!(volumeManager instanceof AbstractVolumeManager)) {
+            throw new IllegalStateException("Cannot provision volumes in a batch with " + volumeManager
+                    + "; expected " + AbstractVolumeManager.class.getSimpleName());
+        }
+        int maxConcurrency = Boolean.TRUE.equals(getConfig(PARALLEL)) ? checkNotNull(getConfig(MAX_CONCURRENCY), MAX_CONCURRENCY.getName()) : 1;
+        LOG.debug("Provisioning {} volumes on {}, at most {} in the cloud at a time, then preparing them together",
+                new Object[] {volumes.size(), machine, maxConcurrency});
+
+        final VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline((AbstractVolumeManager) volumeManager, maxConcurrency, 1);
+        for (VolumeOptions volume : volumes) {
+            checkFilesystemOptions(volume);
+        }
+        List<ListenableFuture<AttachedBlockDevice>> futures = Lists.newArrayList();
+        for (VolumeOptions volume : volumes) {
+            futures.add(pipeline.submitAttach(machine, getBlockDeviceOptions(machine, volume)));
+        }
+        FutureCallback<AttachedBlockDevice> cancelOnFailure = new FutureCallback<AttachedBlockDevice>() {
+            @Override public void onSuccess(AttachedBlockDevice result) {}
+            @Override public void onFailure(Throwable t) {
+                pipeline.cancelPending();
+            }
+        };
+        for (ListenableFuture<AttachedBlockDevice> future : futures) {
+            Futures.addCallback(future, cancelOnFailure);
+        }
+
+        try {
+            Futures.successfulAsList(futures).get();
+        } catch (InterruptedException e) {
+            pipeline.cancelPending();
+            rollbackWhenDone(machine, futures);
+            throw Exceptions.propagate(e);
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e);
+        }
+
+        Map<AttachedBlockDevice, FilesystemOptions> attached = Maps.newLinkedHashMap();
+        List<BlockDevice> failed = Lists.newArrayList();
+        List<Throwable> failures = Lists.newArrayList();
+        for (int i = 0; i < futures.size(); i++) {
+            ListenableFuture<AttachedBlockDevice> future = futures.get(i);
+            if (future.isCancelled()) continue;
+            try {
+                attached.put(future.get(), volumes.get(i).getFilesystemOptions());
+            } catch (InterruptedException e) {
+                throw Exceptions.propagate(e);
+            } catch (ExecutionException e) {
+                failures.add(getFailure(e.getCause(), failed));
+            }
+        }
+
+        if (failures.isEmpty()) {
+            try {
+                return volumeManager.prepareVolumes(machine, attached);
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                failures.add(e);
+            }
+        }
+        LOG.warn("Failed to provision volumes on {} ({} failures); rolling back {} attached and {} partly attached volumes",
+                new Object[] {machine, failures.size(), attached.size(), failed.size()});
+        List<BlockDevice> toRollback = Lists.newArrayList(failed);
+        for (Map.Entry<AttachedBlockDevice, FilesystemOptions> entry : attached.entrySet()) {
+            // may or may not have been mounted; unmounting is best-effort
+            toRollback.add(entry.getKey().mountedAt(entry.getValue().getMountPoint()));
+        }
+        rollback(machine, toRollback);
+        throw new CompoundRuntimeException("Failed to provision volumes on " + machine + " (" + failures.size()
+                + " failures)", failures);
+    }
+
+    /**
+     * Best-effort removal of the given volumes, after another volume on the same machine failed to be provisioned.
+     * A volume that is only attached is detached, and one that may be mounted is first unmounted if it can be.
+     * Volumes that are unmounted stop being {@link VolumeMetrics#untrack tracked} on the caller's entity.
+     */
+    protected void rollback(JcloudsMachineLocation machine, List<? extends BlockDevice> devices) {
+        VolumeManager volumeManager = getVolumeManager(machine);
+        List<MountedBlockDevice> unmounted = Lists.newArrayList();
+        for (BlockDevice device : devices) {
+            try {
+                if (device instanceof StripedBlockDevice) {
+                    List<BlockDevice> detached = volumeManager.unmountAndDetachStripedVolume((StripedBlockDevice) device);
+                    unmounted.add((StripedBlockDevice) device);
+                    for (BlockDevice member : detached) {
+                        volumeManager.deleteBlockDevice(member);
+                    }
+                } else if (device instanceof MountedBlockDevice) {
+                    BlockDevice detached = volumeManager.unmountFilesystemAndDetachVolume((MountedBlockDevice) device);
+                    unmounted.add((MountedBlockDevice) device);
+                    volumeManager.deleteBlockDevice(detached);
+                } else if (device instanceof AttachedBlockDevice) {
+                    // may not have got as far as being attached
+                    try {
+                        volumeManager.detachBlockDevice((AttachedBlockDevice) device);
+                    } catch (Exception e) {
+                        Exceptions.propagateIfFatal(e);
+                        LOG.debug("Failed to detach volume " + device + " on " + machine + "; deleting it anyway", e);
+                    }
+                    volumeManager.deleteBlockDevice(device);
+                } else {
+                    volumeManager.deleteBlockDevice(device);
+                }
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                LOG.warn("Failed to roll back volume " + device + " on " + machine + "; continuing", e);
+            }
+        }
+        Object context = getCallerContext(machine);
+        if (context instanceof Entity) {
+            VolumeMetrics.untrack((Entity) context, unmounted);
+        }
+    }
+
+    /**
+     * @return The failure of a volume from a {@link VolumeProvisioningPipeline}, having added the volume to the
+     *         given list if it was created and so needs to be rolled back
+     */
+    private Throwable getFailure(Throwable failure, List<BlockDevice> failed) {
+        if (failure instanceof VolumeProvisioningPipeline.VolumeFailedException) {
+            failed.add(((VolumeProvisioningPipeline.VolumeFailedException) failure).getDevice());
+            return failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * Rolls back each of the given volumes when it has been provisioned, for when the caller cannot wait for
+     * them (e.g. it was interrupted): those not yet started have been cancelled, and those in flight are left
+     * to complete so that they are not abandoned half-created. The rollbacks run on the guest pool, not the
+     * caller's thread.
+     */
+    protected <T extends BlockDevice> void rollbackWhenDone(final JcloudsMachineLocation machine, List<ListenableFuture<T>> futures) {
+        for (ListenableFuture<T> future : futures) {
+            Futures.addCallback(future, new FutureCallback<T>() {
+                @Override public void onSuccess(T result) {
+                    rollback(machine, ImmutableList.of(result));
+                }
+                @Override public void onFailure(Throwable t) {
+                    if (t instanceof VolumeProvisioningPipeline.VolumeFailedException) {
+                        rollback(machine, ImmutableList.of(((VolumeProvisioningPipeline.VolumeFailedException) t).getDevice()));
+                    }
+                }
+            }, BlockstoreExecutors.guest());
         }
     }
 
     // TODO move that to the VolumeManager?
     public MountedBlockDevice createAndAttachDisk(JcloudsMachineLocation machine, VolumeOptions volumeOptions) {
-        if (volumeOptions.getFilesystemOptions() != null) {
-            BlockDeviceOptions blockOptionsCopy = BlockDeviceOptions.copy(volumeOptions.getBlockDeviceOptions());
-            Optional<NodeMetadata> node = machine.getOptionalNode();
-            if (node.isPresent()) {
-                blockOptionsCopy.zone(node.get().getLocation().getId());
-            } else {
-                LOG.warn("JcloudsNodeMetadata is not available for the MachineLocation. Using zone specified from a parameter.");
-            }
-            return getVolumeManager(machine).createAttachAndMountVolume(machine, blockOptionsCopy, volumeOptions.getFilesystemOptions());
-        } else {
+        checkFilesystemOptions(volumeOptions);
+        if (volumeOptions.isPooled()) {
+            return getVolumeManager(machine).createAttachAndMountPooledVolume(machine, getBlockDeviceOptions(machine, volumeOptions),
+                    volumeOptions.getLvmOptions(), volumeOptions.getFilesystemOptions());
+        }
+        if (volumeOptions.isStriped()) {
+            return getVolumeManager(machine).createAttachAndMountStripedVolume(machine, getBlockDeviceOptions(machine, volumeOptions),
+                    volumeOptions.getStripeOptions(), volumeOptions.getFilesystemOptions());
+        }
+        return getVolumeManager(machine).createAttachAndMountVolume(machine, getBlockDeviceOptions(machine, volumeOptions),
+                volumeOptions.getFilesystemOptions());
+    }
+
+    /**
+     * Enlarges the volume and grows its filesystem to fill it, while mounted.
+     *
+     * @throws UnsupportedOperationException If the machine's cloud cannot resize volumes
+     */
+    public MountedBlockDevice resizeDisk(JcloudsMachineLocation machine, MountedBlockDevice device, int newSizeInGb) {
+        VolumeManager volumeManager = getVolumeManager(machine);
+        if (!(volumeManager instanceof ResizableVolumeManager)) {
+            throw new UnsupportedOperationException("Resizing volumes is not supported by "
+                    + volumeManager.getClass().getSimpleName() + "; cannot resize " + device);
+        }
+        return ((ResizableVolumeManager) volumeManager).resizeVolume(device, newSizeInGb);
+    }
+
+    /**
+     * @return A copy of the volume's block device options, in the same zone as the machine.
+     */
+    protected BlockDeviceOptions getBlockDeviceOptions(JcloudsMachineLocation machine, VolumeOptions volumeOptions) {
+        BlockDeviceOptions blockOptionsCopy = BlockDeviceOptions.copy(volumeOptions.getBlockDeviceOptions());
+        Optional<NodeMetadata> node = machine.getOptionalNode();
+        String zone = node.isPresent() ? getZone(node.get().getLocation()) : null;
+        if (zone != null) {
+            blockOptionsCopy.zone(zone);
+        } else if (!node.isPresent()) {
+            LOG.warn("JcloudsNodeMetadata is not available for the MachineLocation. Using zone specified from a parameter.");
+        }
+        return blockOptionsCopy;
+    }
+
+    /**
+     * A node's location may be its host, e.g. in OpenStack Nova whose nodes are located by their hostId, which is
+     * never a zone; the nearest location above the host is used instead.
+     *
+     * @return The id of the zone of the node's location, or of its region if the cloud reports no zone, or null
+     */
+    static String getZone(Location location) {
+        while (location != null && location.getScope() == LocationScope.HOST) {
+            location = location.getParent();
+        }
+        return (location != null) ? location.getId() : null;
+    }
+
+    private void checkFilesystemOptions(VolumeOptions volumeOptions) {
+        if (volumeOptions.getFilesystemOptions() == null) {
             throw new IllegalArgumentException("volume to be provisioned has null FileSystemOptions " + volumeOptions);
         }
     }
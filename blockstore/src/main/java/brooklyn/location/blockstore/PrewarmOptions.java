@@ -0,0 +1,121 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import org.apache.brooklyn.util.core.flags.TypeCoercions;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Objects;
+
+/**
+ * How to pre-warm a volume restored from a snapshot, by reading every block of it once.
+ * <p>
+ * The blocks of such a volume are fetched lazily from the snapshot store the first time they are read, so until
+ * then the volume gives a fraction of its normal IOPS. Pre-warming reads the whole device in segments of
+ * {@code segmentSizeMb}, with {@code concurrency} readers on disjoint ranges of it, in the background on the
+ * machine. If {@code waitForCompletion}, provisioning waits for it to finish (up to {@code timeout}); otherwise the
+ * entity starts alongside it. Either way the progress is polled every {@code pollPeriod}.
+ */
+public class PrewarmOptions {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+    public static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private int segmentSizeMb = DEFAULT_SEGMENT_SIZE_MB;
+    private boolean waitForCompletion = true;
+    private Duration pollPeriod = Duration.seconds(30);
+    private Duration timeout = Duration.hours(24);
+
+    // For more convenient yaml input
+    public static PrewarmOptions fromMap(Map<String, ?> map) {
+        PrewarmOptions result = new PrewarmOptions();
+        if (map.get("concurrency") != null) {
+            result.concurrency(TypeCoercions.coerce(map.get("concurrency"), Integer.class));
+        }
+        if (map.get("segmentSizeMb") != null) {
+            result.segmentSizeMb(TypeCoercions.coerce(map.get("segmentSizeMb"), Integer.class));
+        }
+        if (map.get("waitForCompletion") != null) {
+            result.waitForCompletion(TypeCoercions.coerce(map.get("waitForCompletion"), Boolean.class));
+        }
+        if (map.get("pollPeriod") != null) {
+            result.pollPeriod(TypeCoercions.coerce(map.get("pollPeriod"), Duration.class));
+        }
+        if (map.get("timeout") != null) {
+            result.timeout(TypeCoercions.coerce(map.get("timeout"), Duration.class));
+        }
+        return result;
+    }
+
+    public PrewarmOptions() {
+        // for reflection, e.g. using $brooklyn:object
+    }
+
+    /**
+     * @param concurrency The number of parallel readers; at least 1
+     */
+    public PrewarmOptions concurrency(int concurrency) {
+        checkArgument(concurrency >= 1, "concurrency must be at least 1, but was %s", concurrency);
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * @param segmentSizeMb The amount each reader reads at a time, which is the granularity of the progress
+     */
+    public PrewarmOptions segmentSizeMb(int segmentSizeMb) {
+        checkArgument(segmentSizeMb >= 1, "segmentSizeMb must be at least 1, but was %s", segmentSizeMb);
+        this.segmentSizeMb = segmentSizeMb;
+        return this;
+    }
+
+    public PrewarmOptions waitForCompletion(boolean waitForCompletion) {
+        this.waitForCompletion = waitForCompletion;
+        return this;
+    }
+
+    public PrewarmOptions pollPeriod(Duration pollPeriod) {
+        this.pollPeriod = checkNotNull(pollPeriod, "pollPeriod");
+        return this;
+    }
+
+    public PrewarmOptions timeout(Duration timeout) {
+        this.timeout = checkNotNull(timeout, "timeout");
+        return this;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getSegmentSizeMb() {
+        return segmentSizeMb;
+    }
+
+    public boolean isWaitForCompletion() {
+        return waitForCompletion;
+    }
+
+    public Duration getPollPeriod() {
+        return pollPeriod;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("concurrency", concurrency)
+                .add("segmentSizeMb", segmentSizeMb)
+                .add("waitForCompletion", waitForCompletion)
+                .add("pollPeriod", pollPeriod)
+                .add("timeout", timeout)
+                .toString();
+    }
+}
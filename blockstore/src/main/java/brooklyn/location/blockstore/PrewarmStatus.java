@@ -0,0 +1,95 @@
+package brooklyn.location.blockstore;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+
+/**
+ * The progress of pre-warming a volume, as reported by {@link BlockDeviceCommands#getPrewarmStatus(String)}.
+ *
+ * @see PrewarmOptions
+ */
+public class PrewarmStatus {
+
+    /**
+     * Notified of each status polled while pre-warming.
+     */
+    public interface Listener {
+        void onStatus(PrewarmStatus status);
+    }
+
+    /**
+     * Parses the output of {@link BlockDeviceCommands#getPrewarmStatus(String)}, ignoring any other lines.
+     */
+    public static PrewarmStatus parse(String stdout) {
+        Map<String, Integer> values = Maps.newHashMap();
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(stdout)) {
+            int index = line.indexOf('=');
+            if (index <= 0) continue;
+            values.put(line.substring(0, index), Ints.tryParse(line.substring(index + 1).trim()));
+        }
+        return new PrewarmStatus(values.get("total"), values.get("done"), values.get("rc"));
+    }
+
+    private final Integer totalSegments;
+    private final Integer doneSegments;
+    private final Integer exitCode;
+
+    public PrewarmStatus(@Nullable Integer totalSegments, @Nullable Integer doneSegments, @Nullable Integer exitCode) {
+        this.totalSegments = totalSegments;
+        this.doneSegments = doneSegments;
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * @return The number of segments to read, or null if not yet known
+     */
+    @Nullable
+    public Integer getTotalSegments() {
+        return totalSegments;
+    }
+
+    @Nullable
+    public Integer getDoneSegments() {
+        return doneSegments;
+    }
+
+    /**
+     * @return The exit code of the readers (non-zero if any failed), or null if they have not all finished
+     */
+    @Nullable
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isFinished() {
+        return exitCode != null;
+    }
+
+    public boolean isSuccess() {
+        return exitCode != null && exitCode == 0;
+    }
+
+    /**
+     * @return How much of the volume has been read, from 0 to 100
+     */
+    public int getPercentComplete() {
+        if (isSuccess()) return 100;
+        if (totalSegments == null || totalSegments == 0 || doneSegments == null) return 0;
+        return (int) Math.min(100, (long) doneSegments * 100 / totalSegments);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("total", totalSegments)
+                .add("done", doneSegments)
+                .add("exitCode", exitCode)
+                .toString();
+    }
+}
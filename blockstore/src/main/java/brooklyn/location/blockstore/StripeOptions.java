@@ -0,0 +1,102 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+
+import org.apache.brooklyn.util.core.flags.TypeCoercions;
+
+import com.google.common.base.Objects;
+
+/**
+ * How to stripe a volume across several block devices (RAID0), for more IOPS and bandwidth than one device allows.
+ * <p>
+ * {@code count} devices, each of the size given in the {@link BlockDeviceOptions}, are created and attached with
+ * consecutive device suffixes starting from the configured one, then assembled on the machine into an md RAID0
+ * array or an LVM striped logical volume, whose stripes are {@code chunkSizeKb} on each device. The filesystem is
+ * created to match that geometry.
+ */
+public class StripeOptions {
+
+    public enum Method {
+        MDADM,
+        LVM;
+
+        public static Method fromString(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE_KB = 256;
+
+    private int count;
+    private Method method = Method.MDADM;
+    private int chunkSizeKb = DEFAULT_CHUNK_SIZE_KB;
+
+    // For more convenient yaml input
+    public static StripeOptions fromMap(Map<String, ?> map) {
+        StripeOptions result = new StripeOptions();
+        checkArgument(map.get("count") != null, "stripe should contain value for \"count\", but found %s", map);
+        result.count(TypeCoercions.coerce(map.get("count"), Integer.class));
+        if (map.get("method") != null) {
+            result.method(Method.fromString(map.get("method").toString()));
+        }
+        if (map.get("chunkSizeKb") != null) {
+            result.chunkSizeKb(TypeCoercions.coerce(map.get("chunkSizeKb"), Integer.class));
+        }
+        return result;
+    }
+
+    public StripeOptions() {
+        // for reflection, e.g. using $brooklyn:object
+    }
+
+    public StripeOptions(int count) {
+        count(count);
+    }
+
+    /**
+     * @param count The number of devices to stripe across; at least 2
+     */
+    public StripeOptions count(int count) {
+        checkArgument(count >= 2, "stripe count must be at least 2, but was %s", count);
+        this.count = count;
+        return this;
+    }
+
+    public StripeOptions method(Method method) {
+        this.method = checkNotNull(method, "method");
+        return this;
+    }
+
+    /**
+     * @param chunkSizeKb The size of each stripe on each device, in KiB; a power of 2, at least 4
+     */
+    public StripeOptions chunkSizeKb(int chunkSizeKb) {
+        checkArgument(chunkSizeKb >= 4 && Integer.bitCount(chunkSizeKb) == 1, "chunkSizeKb must be a power of 2 of at least 4, but was %s", chunkSizeKb);
+        this.chunkSizeKb = chunkSizeKb;
+        return this;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public int getChunkSizeKb() {
+        return chunkSizeKb;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("count", count)
+                .add("method", method)
+                .add("chunkSizeKb", chunkSizeKb)
+                .toString();
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.brooklyn.api.location.Location;
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
 
+import brooklyn.location.blockstore.api.AsyncVolumeManager;
+import brooklyn.location.blockstore.api.ResizableVolumeManager;
 import brooklyn.location.blockstore.api.VolumeManager;
 import brooklyn.location.blockstore.ec2.Ec2VolumeManager;
 import brooklyn.location.blockstore.gce.GoogleComputeEngineVolumeManager;
@@ -41,6 +43,14 @@ public class VolumeManagers {
                 provider.equals(VCLOUD_DIRECTOR);
     }
 
+    /**
+     * @return True if volumes can be resized in the given location, i.e. its {@link VolumeManager} is a
+     *         {@link ResizableVolumeManager}.
+     */
+    public static boolean isResizeSupportedForLocation(Location location) {
+        return isVolumeManagerSupportedForLocation(location) && newVolumeManager(location) instanceof ResizableVolumeManager;
+    }
+
     /**
      * Returns a {@link VolumeManager} suitable for the given location, for creating volumes.
      * 
@@ -82,4 +92,13 @@ public class VolumeManagers {
                     " (mismatch between isVolumeManagerSupportedForLocation and newVolumeManager)");
         }
     }
+
+    /**
+     * Returns an {@link AsyncVolumeManager} suitable for the given location.
+     *
+     * @see #newVolumeManager(Location)
+     */
+    public static AsyncVolumeManager newAsyncVolumeManager(Location location) {
+        return (AsyncVolumeManager) newVolumeManager(location);
+    }
 }
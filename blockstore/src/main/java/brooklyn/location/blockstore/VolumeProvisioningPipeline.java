@@ -0,0 +1,228 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+
+/**
+ * Provisions volumes in two pipelined stages: the cloud stage (create and attach the volume) and the guest stage
+ * (create the filesystem and mount it, over ssh). Each stage has its own concurrency limit, so one volume can be
+ * formatted while the next is still being created.
+ * <p>
+ * A volume that fails after it has been created fails with a {@link VolumeFailedException} giving the furthest
+ * state it may have reached, so that the caller can roll it back along with the volumes that succeeded.
+ * <p>
+ * The cloud stage does not hold a thread while waiting for the cloud (see {@link brooklyn.location.blockstore.api.AsyncVolumeManager}).
+ *
+ * @see NewVolumeCustomizer#PARALLEL
+ */
+public class VolumeProvisioningPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VolumeProvisioningPipeline.class);
+
+    private final AbstractVolumeManager volumeManager;
+    private final Stage cloudStage;
+    private final Stage guestStage;
+
+    public VolumeProvisioningPipeline(AbstractVolumeManager volumeManager, int cloudConcurrency, int guestConcurrency) {
+        this.volumeManager = checkNotNull(volumeManager, "volumeManager");
+        this.cloudStage = new Stage("cloud", cloudConcurrency);
+        this.guestStage = new Stage("guest", guestConcurrency);
+    }
+
+    /**
+     * Queues the given volume to be created, attached to the machine, formatted and mounted.
+     */
+    public ListenableFuture<MountedBlockDevice> submit(final JcloudsMachineLocation machine, final BlockDeviceOptions blockDeviceOptions,
+            final FilesystemOptions filesystemOptions) {
+        ListenableFuture<AttachedBlockDevice> attached = submitAttach(machine, blockDeviceOptions);
+        return Futures.transform(attached, new AsyncFunction<AttachedBlockDevice, MountedBlockDevice>() {
+            @Override
+            public ListenableFuture<MountedBlockDevice> apply(final AttachedBlockDevice device) {
+                return guestStage.submit(new Callable<ListenableFuture<MountedBlockDevice>>() {
+                    @Override
+                    public ListenableFuture<MountedBlockDevice> call() {
+                        // if preparing fails, the filesystem may or may not have been mounted
+                        return failingWithDevice(volumeManager.prepareVolumeAsync(device, filesystemOptions),
+                                device.mountedAt(filesystemOptions.getMountPoint()));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Queues the given volume to be created and attached to the machine, i.e. only the cloud stage; for when the
+     * volumes are to be prepared on the guest together (see {@link AbstractVolumeManager#prepareVolumes}).
+     */
+    public ListenableFuture<AttachedBlockDevice> submitAttach(final JcloudsMachineLocation machine, final BlockDeviceOptions blockDeviceOptions) {
+        return cloudStage.submit(new Callable<ListenableFuture<AttachedBlockDevice>>() {
+            @Override
+            public ListenableFuture<AttachedBlockDevice> call() {
+                ListenableFuture<BlockDevice> created = volumeManager.createBlockDeviceAsync(machine, blockDeviceOptions);
+                return Futures.transform(created, new AsyncFunction<BlockDevice, AttachedBlockDevice>() {
+                    @Override
+                    public ListenableFuture<AttachedBlockDevice> apply(BlockDevice device) {
+                        // if attaching fails (e.g. times out), the volume may or may not be attached
+                        return failingWithDevice(volumeManager.attachBlockDeviceAsync(machine, device, blockDeviceOptions),
+                                device.attachedTo(machine, volumeManager.getVolumeDeviceName(blockDeviceOptions.getDeviceSuffix())));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cancels the volumes that have not yet started the cloud stage. Volumes already in the pipeline are left
+     * to complete, so they are not abandoned half-way through.
+     */
+    public void cancelPending() {
+        cloudStage.cancelPending();
+    }
+
+    /**
+     * @return The given future, but failing with a {@link VolumeFailedException} for the given device if it fails
+     */
+    private static <T> ListenableFuture<T> failingWithDevice(ListenableFuture<T> future, final BlockDevice device) {
+        return Futures.withFallback(future, new FutureFallback<T>() {
+            @Override
+            public ListenableFuture<T> create(Throwable t) {
+                if (t instanceof CancellationException) {
+                    return Futures.immediateCancelledFuture();
+                }
+                return Futures.immediateFailedFuture(new VolumeFailedException(device, t));
+            }
+        });
+    }
+
+    /**
+     * The failure of a volume that had been created, so needs to be rolled back.
+     */
+    public static class VolumeFailedException extends RuntimeException {
+        private static final long serialVersionUID = 6071373626421542473L;
+
+        private final BlockDevice device;
+
+        public VolumeFailedException(BlockDevice device, Throwable cause) {
+            super("Failed to provision volume " + device + ": " + cause, cause);
+            this.device = checkNotNull(device, "device");
+        }
+
+        /**
+         * @return The volume as far as it may have got: an {@link AttachedBlockDevice} if it may be attached, and a
+         *         {@link MountedBlockDevice} if it may also be mounted
+         */
+        public BlockDevice getDevice() {
+            return device;
+        }
+    }
+
+    /**
+     * A queue of work, of which at most {@code concurrency} items are in progress at a time.
+     */
+    private static class Stage {
+        private final String name;
+        private final int concurrency;
+        private final Deque<Item<?>> queue = Queues.newArrayDeque();
+        private int running;
+
+        Stage(String name, int concurrency) {
+            checkArgument(concurrency > 0, "%s concurrency must be at least 1, but was %s", name, concurrency);
+            this.name = name;
+            this.concurrency = concurrency;
+        }
+
+        <T> ListenableFuture<T> submit(Callable<ListenableFuture<T>> work) {
+            Item<T> item = new Item<T>(work);
+            synchronized (this) {
+                queue.add(item);
+            }
+            startNext();
+            return item.result;
+        }
+
+        synchronized void cancelPending() {
+            for (Item<?> item : queue) {
+                item.result.cancel(false);
+            }
+            queue.clear();
+        }
+
+        private void startNext() {
+            while (true) {
+                Item<?> item;
+                synchronized (this) {
+                    if (running >= concurrency || queue.isEmpty()) return;
+                    item = queue.poll();
+                    running++;
+                }
+                item.start(this);
+            }
+        }
+
+        private void finished() {
+            synchronized (this) {
+                running--;
+            }
+            startNext();
+        }
+
+        @Override
+        public String toString() {
+            return name + " stage";
+        }
+    }
+
+    private static class Item<T> {
+        private final Callable<ListenableFuture<T>> work;
+        private final SettableFuture<T> result = SettableFuture.create();
+
+        Item(Callable<ListenableFuture<T>> work) {
+            this.work = work;
+        }
+
+        void start(final Stage stage) {
+            ListenableFuture<T> future;
+            try {
+                future = work.call();
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                future = Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(future, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(T val) {
+                    stage.finished();
+                    if (!result.set(val)) {
+                        LOG.warn("Result of {} not used because it was cancelled: {}", stage, val);
+                    }
+                }
+                @Override
+                public void onFailure(Throwable t) {
+                    stage.finished();
+                    result.setException(t);
+                }
+            });
+        }
+    }
+}
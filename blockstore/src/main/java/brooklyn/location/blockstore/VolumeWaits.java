@@ -0,0 +1,151 @@
+package brooklyn.location.blockstore;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Non-blocking equivalent of {@link org.apache.brooklyn.util.repeat.Repeater} for waiting on the state of a volume.
+ * <p>
+ * Each poll is a separate task on the {@link BlockstoreExecutors#scheduler() shared scheduler}, so no thread is
+ * held while waiting. The scheduler only starts each check: {@link #waitFor} makes it on the
+ * {@link BlockstoreExecutors#api() api pool}, and a check that blocks for long on something other than the cloud,
+ * such as an ssh command, should be run elsewhere with {@link #waitForAsync}, so that it does not hold up the
+ * scheduler's other polls. As with {@code Repeater}, an exception thrown by the check is treated as "not yet" (e.g.
+ * the cloud not yet knowing about a newly-created volume); an exception thrown by the condition fails the wait.
+ */
+public class VolumeWaits {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VolumeWaits.class);
+
+    private VolumeWaits() {}
+
+    /**
+     * Repeatedly calls {@code check} on the {@link BlockstoreExecutors#api() api pool}, at the intervals given by the
+     * {@code strategy}, until {@code condition} is satisfied by its result.
+     *
+     * @param failOnTimeout If true the returned future fails with a {@link TimeoutException} if the condition is not
+     *                      satisfied in time; otherwise an error is logged and the future returns the last value checked
+     */
+    public static <T> ListenableFuture<T> waitFor(String description, final Callable<? extends T> check,
+            Predicate<? super T> condition, WaitStrategy strategy, boolean failOnTimeout) {
+        return waitForAsync(description, new Callable<ListenableFuture<T>>() {
+            @Override
+            public ListenableFuture<T> call() {
+                return BlockstoreExecutors.submitApiCall(check);
+            }
+        }, condition, strategy, failOnTimeout);
+    }
+
+    /**
+     * As {@link #waitFor}, but {@code check} only starts each check, e.g. submitting it to the
+     * {@link BlockstoreExecutors#guest() guest pool}; the scheduler is not held while the check runs.
+     */
+    public static <T> ListenableFuture<T> waitForAsync(String description, Callable<? extends ListenableFuture<? extends T>> check,
+            Predicate<? super T> condition, WaitStrategy strategy, boolean failOnTimeout) {
+        SettableFuture<T> result = SettableFuture.create();
+        BlockstoreExecutors.scheduler().schedule(new Poll<T>(description, check, condition, strategy, failOnTimeout, result),
+                strategy.getDelayMillis(0), TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private static class Poll<T> implements Runnable {
+        private final String description;
+        private final Callable<? extends ListenableFuture<? extends T>> check;
+        private final Predicate<? super T> condition;
+        private final WaitStrategy strategy;
+        private final boolean failOnTimeout;
+        private final SettableFuture<T> result;
+        private final Stopwatch stopwatch = Stopwatch.createStarted();
+        private int attempts;
+        private T lastValue;
+        private Throwable lastError;
+
+        private Poll(String description, Callable<? extends ListenableFuture<? extends T>> check, Predicate<? super T> condition,
+                WaitStrategy strategy, boolean failOnTimeout, SettableFuture<T> result) {
+            this.description = description;
+            this.check = check;
+            this.condition = condition;
+            this.strategy = strategy;
+            this.failOnTimeout = failOnTimeout;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            if (result.isDone()) {
+                // e.g. cancelled by the caller
+                return;
+            }
+            attempts++;
+            ListenableFuture<? extends T> checking;
+            try {
+                checking = check.call();
+            } catch (Exception e) {
+                Exceptions.propagateIfFatal(e);
+                checking = Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(checking, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    lastValue = value;
+                    lastError = null;
+                    checked(true);
+                }
+                @Override
+                public void onFailure(Throwable t) {
+                    if (t instanceof Error) {
+                        result.setException(t);
+                        return;
+                    }
+                    LOG.debug("Problem while " + description + " (continuing)", t);
+                    lastError = t;
+                    checked(false);
+                }
+            });
+        }
+
+        /**
+         * Completes the wait if the condition is satisfied or the time is up, and otherwise schedules the next check.
+         */
+        private void checked(boolean success) {
+            try {
+                if (success && condition.apply(lastValue)) {
+                    result.set(lastValue);
+                } else if (stopwatch.elapsed(TimeUnit.MILLISECONDS) >= strategy.getTimeout().toMilliseconds()) {
+                    onTimeout();
+                } else {
+                    long remaining = strategy.getTimeout().toMilliseconds() - stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                    long delay = Math.min(strategy.getDelayMillis(attempts), remaining);
+                    BlockstoreExecutors.scheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+            } catch (Throwable t) {
+                result.setException(t);
+            }
+        }
+
+        private void onTimeout() {
+            if (failOnTimeout || lastError != null && lastValue == null) {
+                TimeoutException e = new TimeoutException("Timeout after " + strategy.getTimeout() + " " + description
+                        + "; last known was " + lastValue);
+                if (lastError != null) e.initCause(lastError);
+                result.setException(e);
+            } else {
+                LOG.error("Still not done after {} ({} checks) {}; last known was: {}; continuing",
+                        new Object[] {strategy.getTimeout(), attempts, description, lastValue});
+                result.set(lastValue);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package brooklyn.location.blockstore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Random;
+
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Objects;
+
+/**
+ * How to poll while waiting for a volume operation to complete: the first poll is after {@code initialDelay},
+ * and each subsequent delay is {@code multiplier} times the previous one, up to {@code maxDelay}. Each delay is
+ * randomly varied by up to {@code jitter} (a fraction of the delay), so that many concurrent waits do not poll
+ * the cloud in lock-step. The wait gives up after {@code timeout}.
+ *
+ * @see BlockstoreLocationConfig
+ */
+public class WaitStrategy {
+
+    /**
+     * The volume operations that are waited for, each of which can have its own timeout.
+     */
+    public enum Operation {
+        CREATE,
+        ATTACH,
+        DETACH,
+        DELETE,
+        RESIZE
+    }
+
+    private static final Random RANDOM = new Random();
+
+    private Duration initialDelay = Duration.ONE_SECOND;
+    private Duration maxDelay = Duration.seconds(10);
+    private double multiplier = 1.5;
+    private double jitter = 0.2;
+    private Duration timeout = Duration.minutes(2);
+
+    /**
+     * @return A strategy that polls every {@code period}, without backoff or jitter.
+     */
+    public static WaitStrategy fixed(Duration period, Duration timeout) {
+        return new WaitStrategy()
+                .initialDelay(period)
+                .maxDelay(period)
+                .multiplier(1)
+                .jitter(0)
+                .timeout(timeout);
+    }
+
+    public static WaitStrategy copy(WaitStrategy other) {
+        return new WaitStrategy()
+                .initialDelay(other.initialDelay)
+                .maxDelay(other.maxDelay)
+                .multiplier(other.multiplier)
+                .jitter(other.jitter)
+                .timeout(other.timeout);
+    }
+
+    public WaitStrategy initialDelay(Duration initialDelay) {
+        this.initialDelay = checkNotNull(initialDelay, "initialDelay");
+        return this;
+    }
+
+    public WaitStrategy maxDelay(Duration maxDelay) {
+        this.maxDelay = checkNotNull(maxDelay, "maxDelay");
+        return this;
+    }
+
+    public WaitStrategy multiplier(double multiplier) {
+        checkArgument(multiplier >= 1, "multiplier must be at least 1, but was %s", multiplier);
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public WaitStrategy jitter(double jitter) {
+        checkArgument(jitter >= 0 && jitter < 1, "jitter must be in the range [0, 1), but was %s", jitter);
+        this.jitter = jitter;
+        return this;
+    }
+
+    public WaitStrategy timeout(Duration timeout) {
+        this.timeout = checkNotNull(timeout, "timeout");
+        return this;
+    }
+
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    public double getJitter() {
+        return jitter;
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param attempt The number of polls already done (i.e. zero for the delay before the first poll)
+     * @return The delay before the next poll, in milliseconds
+     */
+    public long getDelayMillis(int attempt) {
+        double delay = Math.min(initialDelay.toMilliseconds() * Math.pow(multiplier, attempt), maxDelay.toMilliseconds());
+        if (jitter > 0) {
+            delay = delay * (1 + jitter * (2 * RANDOM.nextDouble() - 1));
+        }
+        return Math.max(0, Math.round(delay));
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("initialDelay", initialDelay)
+                .add("maxDelay", maxDelay)
+                .add("multiplier", multiplier)
+                .add("jitter", jitter)
+                .add("timeout", timeout)
+                .toString();
+    }
+}
@@ -0,0 +1,25 @@
+package brooklyn.location.blockstore.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Asynchronous counterpart of {@link ResizableVolumeManager}.
+ */
+public interface AsyncResizableVolumeManager extends AsyncVolumeManager {
+
+    /**
+     * @see ResizableVolumeManager#resizeBlockDevice(BlockDevice, int)
+     */
+    public ListenableFuture<BlockDevice> resizeBlockDeviceAsync(BlockDevice blockDevice, int newSizeInGb);
+
+    /**
+     * @see ResizableVolumeManager#growFilesystem(MountedBlockDevice)
+     */
+    public ListenableFuture<Void> growFilesystemAsync(MountedBlockDevice mountedDevice);
+
+    /**
+     * @see ResizableVolumeManager#resizeVolume(MountedBlockDevice, int)
+     */
+    public ListenableFuture<MountedBlockDevice> resizeVolumeAsync(MountedBlockDevice mountedDevice, int newSizeInGb);
+
+}
@@ -0,0 +1,106 @@
+package brooklyn.location.blockstore.api;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import brooklyn.location.blockstore.BlockDeviceOptions;
+import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.LvmOptions;
+import brooklyn.location.blockstore.StripeOptions;
+
+/**
+ * Asynchronous counterpart of {@link VolumeManager}. Each method returns as soon as the operation has been
+ * started; waiting for the cloud (e.g. for a volume to become available) does not hold a thread.
+ * <p>
+ * If an operation fails, the returned future fails with the same exception that the equivalent
+ * {@link VolumeManager} method would have thrown.
+ */
+public interface AsyncVolumeManager {
+
+    /**
+     * @see VolumeManager#createBlockDevice(JcloudsLocation, BlockDeviceOptions)
+     */
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation location, BlockDeviceOptions options);
+
+    /**
+     * @see VolumeManager#attachBlockDevice(JcloudsMachineLocation, BlockDevice, BlockDeviceOptions)
+     */
+    public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+            BlockDeviceOptions options);
+
+    /**
+     * @see VolumeManager#attachAndMountVolume(JcloudsMachineLocation, BlockDevice, BlockDeviceOptions, FilesystemOptions)
+     */
+    public ListenableFuture<MountedBlockDevice> attachAndMountVolumeAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+            BlockDeviceOptions blockDeviceOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * @see VolumeManager#detachBlockDevice(AttachedBlockDevice)
+     */
+    public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice);
+
+    /**
+     * @see VolumeManager#deleteBlockDevice(BlockDevice)
+     */
+    public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice);
+
+    /**
+     * @see VolumeManager#createFilesystem(AttachedBlockDevice, FilesystemOptions)
+     */
+    public ListenableFuture<Void> createFilesystemAsync(AttachedBlockDevice attachedDevice, FilesystemOptions options);
+
+    /**
+     * @see VolumeManager#mountFilesystem(AttachedBlockDevice, FilesystemOptions)
+     */
+    public ListenableFuture<MountedBlockDevice> mountFilesystemAsync(AttachedBlockDevice attachedDevice, FilesystemOptions options);
+
+    /**
+     * @see VolumeManager#prepareVolume(AttachedBlockDevice, FilesystemOptions)
+     */
+    public ListenableFuture<MountedBlockDevice> prepareVolumeAsync(AttachedBlockDevice attachedDevice, FilesystemOptions options);
+
+    /**
+     * @see VolumeManager#prepareVolumes(JcloudsMachineLocation, Map)
+     */
+    public ListenableFuture<List<MountedBlockDevice>> prepareVolumesAsync(JcloudsMachineLocation machine,
+            Map<? extends AttachedBlockDevice, FilesystemOptions> devices);
+
+    /**
+     * @see VolumeManager#unmountFilesystem(MountedBlockDevice)
+     */
+    public ListenableFuture<AttachedBlockDevice> unmountFilesystemAsync(MountedBlockDevice mountedDevice);
+
+    /**
+     * @see VolumeManager#createAttachAndMountVolume(JcloudsMachineLocation, BlockDeviceOptions, FilesystemOptions)
+     */
+    public ListenableFuture<MountedBlockDevice> createAttachAndMountVolumeAsync(JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * @see VolumeManager#unmountFilesystemAndDetachVolume(MountedBlockDevice)
+     */
+    public ListenableFuture<BlockDevice> unmountFilesystemAndDetachVolumeAsync(MountedBlockDevice mountedDevice);
+
+    /**
+     * @see VolumeManager#createAttachAndMountStripedVolume(JcloudsMachineLocation, BlockDeviceOptions, StripeOptions, FilesystemOptions)
+     */
+    public ListenableFuture<StripedBlockDevice> createAttachAndMountStripedVolumeAsync(JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, StripeOptions stripeOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * @see VolumeManager#createAttachAndMountPooledVolume(JcloudsMachineLocation, BlockDeviceOptions, LvmOptions, FilesystemOptions)
+     */
+    public ListenableFuture<PooledBlockDevice> createAttachAndMountPooledVolumeAsync(JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, LvmOptions lvmOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * @see VolumeManager#unmountAndDetachStripedVolume(StripedBlockDevice)
+     */
+    public ListenableFuture<List<BlockDevice>> unmountAndDetachStripedVolumeAsync(StripedBlockDevice stripedDevice);
+
+}
@@ -0,0 +1,17 @@
+package brooklyn.location.blockstore.api;
+
+import brooklyn.location.blockstore.LvmOptions;
+
+/**
+ * A device that has been added to an LVM volume group on its machine, whose logical volume is mounted.
+ * <p>
+ * Its {@link #getDeviceName() device name} is that of the device itself; {@link #getMountPoint()} is that of the
+ * logical volume, which may span other devices too.
+ *
+ * @see brooklyn.location.blockstore.api.VolumeManager#createAttachAndMountPooledVolume
+ */
+public interface PooledBlockDevice extends MountedBlockDevice {
+
+    public LvmOptions getLvmOptions();
+
+}
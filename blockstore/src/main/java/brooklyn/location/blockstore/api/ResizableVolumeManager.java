@@ -0,0 +1,31 @@
+package brooklyn.location.blockstore.api;
+
+/**
+ * A {@link VolumeManager} for a cloud whose API can enlarge volumes. Kept apart from {@link VolumeManager} so that
+ * its implementations need not support resizing; check for this interface before resizing.
+ */
+public interface ResizableVolumeManager extends VolumeManager {
+
+    /**
+     * Enlarges the given volume. Its filesystem, if any, is not grown; see {@link #resizeVolume(MountedBlockDevice, int)}.
+     *
+     * @param blockDevice A device that was created in a location
+     * @param newSizeInGb The new size, which must be larger than the current size
+     */
+    public BlockDevice resizeBlockDevice(BlockDevice blockDevice, int newSizeInGb);
+
+    /**
+     * Grows the filesystem mounted from the given device to fill the device, while it stays mounted; e.g. after
+     * the device has been enlarged.
+     */
+    public void growFilesystem(MountedBlockDevice mountedDevice);
+
+    /**
+     * Enlarges the given mounted volume, then grows its filesystem to fill it, without unmounting it.
+     *
+     * @param newSizeInGb The new size, which must be larger than the current size
+     * @throws UnsupportedOperationException If the volume is striped
+     */
+    public MountedBlockDevice resizeVolume(MountedBlockDevice mountedDevice, int newSizeInGb);
+
+}
@@ -0,0 +1,24 @@
+package brooklyn.location.blockstore.api;
+
+import java.util.List;
+
+import brooklyn.location.blockstore.StripeOptions;
+
+/**
+ * A volume striped across several attached devices, mounted as one.
+ * <p>
+ * Its {@link #getDeviceName() device name} is that of the md array or logical volume on the machine, and its
+ * {@link #getDeviceSuffix() device suffix} that of its first member.
+ *
+ * @see brooklyn.location.blockstore.api.VolumeManager#createAttachAndMountStripedVolume
+ */
+public interface StripedBlockDevice extends MountedBlockDevice {
+
+    /**
+     * @return The devices that the volume is striped across, in stripe order
+     */
+    public List<AttachedBlockDevice> getMembers();
+
+    public StripeOptions getStripeOptions();
+
+}
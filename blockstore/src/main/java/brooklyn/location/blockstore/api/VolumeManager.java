@@ -1,10 +1,15 @@
 package brooklyn.location.blockstore.api;
 
+import java.util.List;
+import java.util.Map;
+
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
 
 import brooklyn.location.blockstore.BlockDeviceOptions;
 import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.LvmOptions;
+import brooklyn.location.blockstore.StripeOptions;
 
 /**
  * Customization hooks to ensure that any volume instances provisioned via a corresponding jclouds location become associated
@@ -70,7 +75,30 @@ public interface VolumeManager {
     public MountedBlockDevice mountFilesystem(AttachedBlockDevice attachedDevice, FilesystemOptions options);
 
     /**
-     * Unmounts the given device.
+     * Prepares an attached volume for use: waits for the device to appear, creates a filesystem on it, adds it to
+     * fstab and mounts it. Equivalent to {@link #createFilesystem(AttachedBlockDevice, FilesystemOptions)} followed
+     * by {@link #mountFilesystem(AttachedBlockDevice, FilesystemOptions)}, but in a single session on the machine.
+     *
+     * @param attachedDevice A device that has been attached to a machine
+     * @param options Configuration of filesystem type and mount point
+     */
+    public MountedBlockDevice prepareVolume(AttachedBlockDevice attachedDevice, FilesystemOptions options);
+
+    /**
+     * Prepares several volumes attached to the same machine, as for
+     * {@link #prepareVolume(AttachedBlockDevice, FilesystemOptions)}, in a single session on the machine: the
+     * filesystems are created concurrently, then all are added to fstab and mounted.
+     *
+     * @param machine The machine to which all the devices are attached
+     * @param devices The devices, with the configuration of each one's filesystem type and mount point
+     * @return The mounted devices, in the iteration order of {@code devices}
+     */
+    public List<MountedBlockDevice> prepareVolumes(JcloudsMachineLocation machine, Map<? extends AttachedBlockDevice, FilesystemOptions> devices);
+
+    /**
+     * Unmounts the given device. For a {@link PooledBlockDevice}, this takes the device out of its volume group
+     * instead, unmounting the logical volume only if the device is the group's last; it fails if the logical volume
+     * has been extended over the device, as the device then holds some of its data.
      */
     public AttachedBlockDevice unmountFilesystem(MountedBlockDevice mountedDevice);
 
@@ -86,7 +114,41 @@ public interface VolumeManager {
 
     /**
      * Unmounts the given device and detaches the volume from the given VM.
+     * For a {@link StripedBlockDevice}, use {@link #unmountAndDetachStripedVolume(StripedBlockDevice)}.
      */
     public BlockDevice unmountFilesystemAndDetachVolume(MountedBlockDevice mountedDevice);
 
+    /**
+     * Creates new volumes in the same availability zone as the given machine, attaches them, and stripes a volume
+     * across them, which is then formatted and mounted. If any part fails, the volumes are detached and deleted.
+     *
+     * @param machine The VM where the volumes should be attached and mounted
+     * @param blockDeviceOptions Configuration for each device; their device suffixes are consecutive, starting
+     *                           from the one given
+     * @param stripeOptions Configuration for striping, e.g. the number of devices
+     * @param filesystemOptions Configuration for mounting the striped volume, e.g. its mount point
+     */
+    public StripedBlockDevice createAttachAndMountStripedVolume(JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, StripeOptions stripeOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * Creates a new volume in the same availability zone as the given machine, attaches it, and adds it to an LVM
+     * volume group on the machine. If the group's logical volume already exists, it is extended over the new volume
+     * and its filesystem grown online; otherwise the logical volume is created, formatted and mounted.
+     *
+     * @param machine The VM where the volume should be attached
+     * @param blockDeviceOptions Configuration for the device, e.g. the device's name and suffix
+     * @param lvmOptions The volume group and logical volume
+     * @param filesystemOptions Configuration for the logical volume's filesystem, e.g. its mount point
+     */
+    public PooledBlockDevice createAttachAndMountPooledVolume(JcloudsMachineLocation machine,
+            BlockDeviceOptions blockDeviceOptions, LvmOptions lvmOptions, FilesystemOptions filesystemOptions);
+
+    /**
+     * Unmounts the given striped volume, stops it, and detaches its devices from the VM.
+     *
+     * @return The devices, in stripe order
+     */
+    public List<BlockDevice> unmountAndDetachStripedVolume(StripedBlockDevice stripedDevice);
+
 }
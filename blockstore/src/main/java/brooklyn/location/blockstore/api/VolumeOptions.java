@@ -2,6 +2,8 @@ package brooklyn.location.blockstore.api;
 
 import brooklyn.location.blockstore.BlockDeviceOptions;
 import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.LvmOptions;
+import brooklyn.location.blockstore.StripeOptions;
 import org.apache.brooklyn.util.core.flags.TypeCoercions;
 
 import java.util.Map;
@@ -9,6 +11,8 @@ import java.util.Map;
 public class VolumeOptions {
     private BlockDeviceOptions blockDeviceOptions;
     private FilesystemOptions filesystemOptions;
+    private StripeOptions stripeOptions;
+    private LvmOptions lvmOptions;
 
     public static VolumeOptions fromString(String map) {
         return fromMap(TypeCoercions.coerce(map, Map.class));
@@ -18,7 +22,11 @@ public class VolumeOptions {
         if (map.containsKey("blockDevice") && (map.containsKey("filesystem") || map.containsKey("fileSystem"))) {
             BlockDeviceOptions blockDeviceOptions = BlockDeviceOptions.fromMap(map.get("blockDevice"));
             FilesystemOptions filesystemOptions = FilesystemOptions.fromMap(map.get("filesystem") != null ? map.get("filesystem") : map.get("fileSystem"));
-            VolumeOptions volumeOptions = new VolumeOptions(blockDeviceOptions, filesystemOptions);
+            StripeOptions stripeOptions = map.get("stripe") != null ? StripeOptions.fromMap(map.get("stripe")) : null;
+            VolumeOptions volumeOptions = new VolumeOptions(blockDeviceOptions, filesystemOptions, stripeOptions);
+            if (map.get("lvm") != null) {
+                volumeOptions.lvmOptions(LvmOptions.fromMap(map.get("lvm")));
+            }
             return volumeOptions;
         } else {
             throw new IllegalArgumentException("Tried to create volume with not appropriate parameters. " +
@@ -27,8 +35,16 @@ public class VolumeOptions {
     }
 
     public VolumeOptions(BlockDeviceOptions blockDeviceOptions, FilesystemOptions filesystemOptions) {
+        this(blockDeviceOptions, filesystemOptions, null);
+    }
+
+    /**
+     * @param stripeOptions How to stripe the volume across several devices, or null for a single device
+     */
+    public VolumeOptions(BlockDeviceOptions blockDeviceOptions, FilesystemOptions filesystemOptions, StripeOptions stripeOptions) {
         this.blockDeviceOptions = blockDeviceOptions;
         this.filesystemOptions = filesystemOptions;
+        this.stripeOptions = stripeOptions;
     }
 
     public BlockDeviceOptions getBlockDeviceOptions() {
@@ -39,8 +55,38 @@ public class VolumeOptions {
         return filesystemOptions;
     }
 
+    /**
+     * @param lvmOptions The LVM pool to add the volume to, or null to mount the volume directly; a striped
+     *                   volume cannot be pooled
+     */
+    public VolumeOptions lvmOptions(LvmOptions lvmOptions) {
+        if (lvmOptions != null && stripeOptions != null) {
+            throw new IllegalArgumentException("Volume cannot be both striped and in an LVM pool: " + this);
+        }
+        this.lvmOptions = lvmOptions;
+        return this;
+    }
+
+    public LvmOptions getLvmOptions() {
+        return lvmOptions;
+    }
+
+    public boolean isPooled() {
+        return lvmOptions != null;
+    }
+
+    public StripeOptions getStripeOptions() {
+        return stripeOptions;
+    }
+
+    public boolean isStriped() {
+        return stripeOptions != null;
+    }
+
     @Override
     public String toString() {
-        return "{blockDeviceOptions: " + blockDeviceOptions + ", filesystemOptions: " + filesystemOptions + "}";
+        return "{blockDeviceOptions: " + blockDeviceOptions + ", filesystemOptions: " + filesystemOptions
+                + (stripeOptions != null ? ", stripeOptions: " + stripeOptions : "")
+                + (lvmOptions != null ? ", lvmOptions: " + lvmOptions : "") + "}";
     }
 }
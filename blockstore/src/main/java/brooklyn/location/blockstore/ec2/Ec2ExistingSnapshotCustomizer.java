@@ -1,17 +1,30 @@
 package brooklyn.location.blockstore.ec2;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.core.sensor.Sensors;
 import org.apache.brooklyn.location.jclouds.BasicJcloudsLocationCustomizer;
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.util.exceptions.Exceptions;
 import org.jclouds.compute.ComputeService;
 import org.jclouds.compute.domain.TemplateBuilder;
 import org.jclouds.compute.options.TemplateOptions;
 import org.jclouds.ec2.compute.options.EC2TemplateOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import brooklyn.location.blockstore.BlockDeviceOptions;
 import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.PrewarmOptions;
+import brooklyn.location.blockstore.PrewarmStatus;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 
 // TODO: Either the JavaDoc or the implementation is incorrect. The implementation makes no attempt to attach volumes.
@@ -19,18 +32,30 @@ import brooklyn.location.blockstore.api.AttachedBlockDevice;
  * Creates a location customizer that:
  * <ul>
  * <li>configures the EC2 availability zone</li>
- * <li>obtains a new EBS volume from the specified snapshot in the given availability zone</li>
+ * <li>obtains a new EBS volume from the specified snapshot in the given availability zone, of the volume type and
+ *     IOPS given in the block options (validated by {@link Ec2VolumeTypes})</li>
  * <li>attaches the new volume to the newly-provisioned EC2 instance</li>
  * <li>mounts the filesystem under the requested path</li>
+ * <li>optionally, pre-warms the volume (see {@link PrewarmOptions}), publishing its progress on the entity as
+ *     {@link #PREWARM_PROGRESS} and {@link #PREWARM_COMPLETE}</li>
  * </ul>
  */
 public class Ec2ExistingSnapshotCustomizer extends BasicJcloudsLocationCustomizer {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Ec2ExistingSnapshotCustomizer.class);
+
+    public static final AttributeSensor<Integer> PREWARM_PROGRESS = Sensors.newIntegerSensor(
+            "blockstore.prewarm.progress", "Percentage of the volume restored from a snapshot that has been pre-warmed");
+
+    public static final AttributeSensor<Boolean> PREWARM_COMPLETE = Sensors.newBooleanSensor(
+            "blockstore.prewarm.complete", "Whether the volume restored from a snapshot has been pre-warmed");
+
     private static final Ec2VolumeManager ebsVolumeManager = new Ec2VolumeManager();
 
     private AttachedBlockDevice attachedDevice;
     protected BlockDeviceOptions blockOptions;
     protected FilesystemOptions filesystemOptions;
+    protected PrewarmOptions prewarmOptions;
 
     public Ec2ExistingSnapshotCustomizer(AttachedBlockDevice attachedDevice,
             BlockDeviceOptions blockOptions, FilesystemOptions filesystemOptions) {
@@ -71,6 +96,18 @@ public class Ec2ExistingSnapshotCustomizer extends BasicJcloudsLocationCustomize
         }
     }
     
+    public void setPrewarmOptions(Object val) {
+        if (val == null) {
+            prewarmOptions = null;
+        } else if (val instanceof PrewarmOptions) {
+            prewarmOptions = (PrewarmOptions) val;
+        } else if (val instanceof Map<?,?>) {
+            prewarmOptions = PrewarmOptions.fromMap((Map<String, ?>) val);
+        } else {
+            throw new IllegalArgumentException("Invalid prewarmOptions: "+val);
+        }
+    }
+
     @Override
     public void customize(JcloudsLocation location, ComputeService computeService, TemplateBuilder templateBuilder) {
         templateBuilder.locationId(blockOptions.getZone());
@@ -78,15 +115,67 @@ public class Ec2ExistingSnapshotCustomizer extends BasicJcloudsLocationCustomize
 
     @Override
     public void customize(JcloudsLocation location, ComputeService computeService, TemplateOptions templateOptions) {
+        Ec2VolumeTypes.validate(blockOptions);
+        Ec2VolumeManager.checkThroughputSupported(blockOptions);
         ((EC2TemplateOptions) templateOptions).mapEBSSnapshotToDeviceName(
                 ebsVolumeManager.getVolumeDeviceName(blockOptions.getDeviceSuffix()),
                 attachedDevice.getId(),
                 blockOptions.getSizeInGb(),
-                blockOptions.deleteOnTermination());
+                blockOptions.deleteOnTermination(),
+                blockOptions.getVolumeType(),
+                blockOptions.getIops(),
+                false);
     }
 
     @Override
     public void customize(JcloudsLocation location, ComputeService computeService, JcloudsMachineLocation machine) {
         ebsVolumeManager.mountFilesystem(attachedDevice, filesystemOptions);
+        if (prewarmOptions != null) {
+            prewarm(machine);
+        }
+    }
+
+    /**
+     * Pre-warms the volume, waiting for it to finish if so configured. Otherwise a failure is only logged, and
+     * {@link #PREWARM_COMPLETE} stays false.
+     */
+    protected void prewarm(final JcloudsMachineLocation machine) {
+        final Object context = getCallerContext(machine);
+        if (context instanceof Entity) {
+            ((Entity) context).sensors().set(PREWARM_COMPLETE, false);
+        }
+        ListenableFuture<PrewarmStatus> prewarmed = ebsVolumeManager.prewarmVolumeAsync(attachedDevice, prewarmOptions,
+                new PrewarmStatus.Listener() {
+                    @Override
+                    public void onStatus(PrewarmStatus status) {
+                        if (context instanceof Entity) {
+                            ((Entity) context).sensors().set(PREWARM_PROGRESS, status.getPercentComplete());
+                        }
+                    }
+                });
+        Futures.addCallback(prewarmed, new FutureCallback<PrewarmStatus>() {
+            @Override
+            public void onSuccess(PrewarmStatus result) {
+                LOG.debug("Pre-warmed volume {} on {}", attachedDevice, machine);
+                if (context instanceof Entity) {
+                    ((Entity) context).sensors().set(PREWARM_PROGRESS, 100);
+                    ((Entity) context).sensors().set(PREWARM_COMPLETE, true);
+                }
+            }
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.warn("Failed to pre-warm volume " + attachedDevice + " on " + machine, t);
+            }
+        });
+        if (prewarmOptions.isWaitForCompletion()) {
+            try {
+                prewarmed.get();
+            } catch (InterruptedException e) {
+                prewarmed.cancel(true);
+                throw Exceptions.propagate(e);
+            } catch (ExecutionException e) {
+                throw Exceptions.propagate(e.getCause());
+            }
+        }
     }
 }
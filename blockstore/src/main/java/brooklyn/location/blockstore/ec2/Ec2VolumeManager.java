@@ -2,29 +2,34 @@ package brooklyn.location.blockstore.ec2;
 
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
-import org.apache.brooklyn.util.repeat.Repeater;
+import org.apache.brooklyn.util.time.Duration;
 import org.jclouds.compute.domain.NodeMetadata;
 import org.jclouds.ec2.EC2Api;
 import org.jclouds.ec2.domain.Attachment;
 import org.jclouds.ec2.domain.Volume;
 import org.jclouds.ec2.features.ElasticBlockStoreApi;
 import org.jclouds.ec2.features.TagApi;
+import org.jclouds.ec2.options.CreateVolumeOptions;
 import org.jclouds.ec2.options.DetachVolumeOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import brooklyn.location.blockstore.AbstractVolumeManager;
 import brooklyn.location.blockstore.BlockDeviceOptions;
 import brooklyn.location.blockstore.Devices;
+import brooklyn.location.blockstore.WaitStrategy;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
 
@@ -49,74 +54,163 @@ public class Ec2VolumeManager extends AbstractVolumeManager {
     }
 
     @Override
-    public BlockDevice createBlockDevice(JcloudsLocation location, BlockDeviceOptions options) {
-        LOG.debug("Creating block device: location={}; options={}", location, options);
-
-        ElasticBlockStoreApi ebsApi = getEbsApi(location);
-        TagApi tagApi = getTagApi(location);
-
-        Volume volume = ebsApi.createVolumeInAvailabilityZone(options.getZone(), options.getSizeInGb());
-        if (options.hasTags()) {
-            tagApi.applyToResources(options.getTags(), ImmutableList.of(volume.getId()));
-        }
-
-        BlockDevice device = Devices.newBlockDevice(location, volume.getId());
-        waitForVolumeToBeAvailable(device);
-
-        LOG.debug("Created block device: id="+device.getId()+"; location="+location);
-        return device;
+    protected String getDeviceSerial(BlockDevice device) {
+        // NVMe-backed instances expose the volume id, without its hyphen, as the device serial
+        return device.getId().replace("-", "");
     }
 
     @Override
-    public AttachedBlockDevice attachBlockDevice(JcloudsMachineLocation machine, BlockDevice blockDevice, BlockDeviceOptions options) {
-        LOG.debug("Attaching block device: machine={}; device={}; options={}", new Object[]{machine, blockDevice, options});
-
-        Optional<NodeMetadata> node = machine.getOptionalNode();
-        if (!node.isPresent()) {
-            throw new IllegalStateException("Cannot find jclouds-node for machine "+node);
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(final JcloudsLocation location, final BlockDeviceOptions options) {
+        try {
+            Ec2VolumeTypes.validate(options);
+            checkThroughputSupported(options);
+        } catch (RuntimeException e) {
+            return Futures.immediateFailedFuture(e);
         }
-
-        JcloudsLocation location = machine.getParent();
-        String region = getRegionName(location);
-        ElasticBlockStoreApi ebsApi = getEbsApi(location);
-        
-        Attachment attachment = ebsApi.attachVolumeInRegion(region, blockDevice.getId(),
-                node.get().getProviderId(), getVolumeDeviceName(options.getDeviceSuffix()));
-
-        LOG.debug("Finished attaching block device: machine={}; device={}; options={}", new Object[]{machine, blockDevice, options});
-        return blockDevice.attachedTo(machine, attachment.getDevice());
+        ListenableFuture<BlockDevice> created = submitApiCall(location, new Callable<BlockDevice>() {
+            @Override
+            public BlockDevice call() {
+                LOG.debug("Creating block device: location={}; options={}", location, options);
+
+                ElasticBlockStoreApi ebsApi = getEbsApi(location);
+                TagApi tagApi = getTagApi(location);
+
+                Volume volume = ebsApi.createVolumeInAvailabilityZone(options.getZone(), getCreateVolumeOptions(options));
+                if (options.hasTags()) {
+                    tagApi.applyToResources(options.getTags(), ImmutableList.of(volume.getId()));
+                }
+                return Devices.newBlockDevice(location, volume.getId());
+            }
+        });
+        return Futures.transform(created, new AsyncFunction<BlockDevice, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(final BlockDevice device) {
+                return Futures.transform(waitForVolumeToBeAvailable(device, WaitStrategy.Operation.CREATE), new Function<Volume, BlockDevice>() {
+                    @Override
+                    public BlockDevice apply(Volume volume) {
+                        LOG.debug("Created block device: id="+device.getId()+"; location="+location);
+                        return device;
+                    }
+                });
+            }
+        });
     }
 
-    @Override
-    public BlockDevice detachBlockDevice(AttachedBlockDevice attachedBlockDevice) {
-        LOG.debug("Detaching block device: {}", attachedBlockDevice);
-
-        Optional<NodeMetadata> node = attachedBlockDevice.getMachine().getOptionalNode();
-        if (!node.isPresent()) {
-            throw new IllegalStateException("Cannot find jclouds-node for machine "+node);
+    /**
+     * @return The options to create a volume with the size, type and IOPS of the given options
+     */
+    protected CreateVolumeOptions getCreateVolumeOptions(BlockDeviceOptions options) {
+        CreateVolumeOptions result = CreateVolumeOptions.Builder.withSize(options.getSizeInGb());
+        if (options.getVolumeType() != null) {
+            result.volumeType(options.getVolumeType());
         }
+        if (options.getIops() != null) {
+            result.withIops(options.getIops());
+        }
+        return result;
+    }
 
-        String region = getRegionName(attachedBlockDevice.getLocation());
-        String instanceId = node.get().getProviderId();
-        ElasticBlockStoreApi ebsApi = getEbsApi(attachedBlockDevice.getLocation());
-
-        ebsApi.detachVolumeInRegion(region, attachedBlockDevice.getId(), true,
-                DetachVolumeOptions.Builder
-                        .fromDevice(attachedBlockDevice.getDeviceName())
-                        .fromInstance(instanceId));
-        Volume volume = waitForVolumeToBeAvailable(attachedBlockDevice);
+    /**
+     * Throughput is not a parameter of jclouds' EC2 API, so only the gp3 baseline can be had; a volume with more must
+     * be modified after creation outside of Brooklyn.
+     *
+     * @throws UnsupportedOperationException If more than the baseline throughput is requested
+     */
+    static void checkThroughputSupported(BlockDeviceOptions options) {
+        Integer throughput = options.getThroughputMBps();
+        if (throughput != null && throughput > Ec2VolumeTypes.GP3_BASELINE_THROUGHPUT_MBPS) {
+            throw new UnsupportedOperationException("Cannot provision throughputMBps " + throughput + " for EBS volume; only the "
+                    + Ec2VolumeTypes.GP3_BASELINE_THROUGHPUT_MBPS + " MiB/s baseline is supported by the jclouds EC2 API");
+        }
+    }
 
-        LOG.debug("Finished detaching block device: {}", attachedBlockDevice);
-        return Devices.newBlockDevice(attachedBlockDevice.getLocation(), volume.getId());
+    @Override
+    public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(final JcloudsMachineLocation machine, final BlockDevice blockDevice,
+            final BlockDeviceOptions options) {
+        ListenableFuture<AttachedBlockDevice> attaching = submitApiCall(machine.getParent(), new Callable<AttachedBlockDevice>() {
+            @Override
+            public AttachedBlockDevice call() {
+                LOG.debug("Attaching block device: machine={}; device={}; options={}", new Object[]{machine, blockDevice, options});
+
+                Optional<NodeMetadata> node = machine.getOptionalNode();
+                if (!node.isPresent()) {
+                    throw new IllegalStateException("Cannot find jclouds-node for machine "+node);
+                }
+
+                JcloudsLocation location = machine.getParent();
+                String region = getRegionName(location);
+                ElasticBlockStoreApi ebsApi = getEbsApi(location);
+
+                Attachment attachment = ebsApi.attachVolumeInRegion(region, blockDevice.getId(),
+                        node.get().getProviderId(), getVolumeDeviceName(options.getDeviceSuffix()));
+
+                return blockDevice.attachedTo(machine, attachment.getDevice());
+            }
+        });
+        return Futures.transform(attaching, new AsyncFunction<AttachedBlockDevice, AttachedBlockDevice>() {
+            @Override
+            public ListenableFuture<AttachedBlockDevice> apply(final AttachedBlockDevice attached) {
+                return Futures.transform(waitForVolumeToBeInUse(attached), new Function<Volume, AttachedBlockDevice>() {
+                    @Override
+                    public AttachedBlockDevice apply(Volume volume) {
+                        LOG.debug("Finished attaching block device: machine={}; device={}; options={}", new Object[]{machine, blockDevice, options});
+                        return attached;
+                    }
+                });
+            }
+        });
     }
 
     @Override
-    public void deleteBlockDevice(BlockDevice blockDevice) {
-        LOG.debug("Deleting device: {}", blockDevice);
+    public ListenableFuture<BlockDevice> detachBlockDeviceAsync(final AttachedBlockDevice attachedBlockDevice) {
+        ListenableFuture<Void> detaching = submitApiCall(attachedBlockDevice.getLocation(), new Callable<Void>() {
+            @Override
+            public Void call() {
+                LOG.debug("Detaching block device: {}", attachedBlockDevice);
+
+                Optional<NodeMetadata> node = attachedBlockDevice.getMachine().getOptionalNode();
+                if (!node.isPresent()) {
+                    throw new IllegalStateException("Cannot find jclouds-node for machine "+node);
+                }
+
+                String region = getRegionName(attachedBlockDevice.getLocation());
+                String instanceId = node.get().getProviderId();
+                ElasticBlockStoreApi ebsApi = getEbsApi(attachedBlockDevice.getLocation());
+
+                ebsApi.detachVolumeInRegion(region, attachedBlockDevice.getId(), true,
+                        DetachVolumeOptions.Builder
+                                .fromDevice(attachedBlockDevice.getDeviceName())
+                                .fromInstance(instanceId));
+                return null;
+            }
+        });
+        return Futures.transform(detaching, new AsyncFunction<Void, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(Void input) {
+                return Futures.transform(waitForVolumeToBeAvailable(attachedBlockDevice, WaitStrategy.Operation.DETACH), new Function<Volume, BlockDevice>() {
+                    @Override
+                    public BlockDevice apply(Volume volume) {
+                        LOG.debug("Finished detaching block device: {}", attachedBlockDevice);
+                        return Devices.newBlockDevice(attachedBlockDevice.getLocation(), attachedBlockDevice.getId());
+                    }
+                });
+            }
+        });
+    }
 
-        String region = getRegionName(blockDevice.getLocation());
-        ElasticBlockStoreApi ebsApi = getEbsApi(blockDevice.getLocation());
-        ebsApi.deleteVolumeInRegion(region, blockDevice.getId());
+    @Override
+    public ListenableFuture<Void> deleteBlockDeviceAsync(final BlockDevice blockDevice) {
+        return submitApiCall(blockDevice.getLocation(), new Callable<Void>() {
+            @Override
+            public Void call() {
+                LOG.debug("Deleting device: {}", blockDevice);
+
+                String region = getRegionName(blockDevice.getLocation());
+                ElasticBlockStoreApi ebsApi = getEbsApi(blockDevice.getLocation());
+                ebsApi.deleteVolumeInRegion(region, blockDevice.getId());
+                return null;
+            }
+        });
     }
 
     /**
@@ -131,6 +225,11 @@ public class Ec2VolumeManager extends AbstractVolumeManager {
         return Iterables.getFirst(volumes, null);
     }
     
+    @Override
+    protected String getApiRegion(JcloudsLocation location) {
+        return getRegionName(location);
+    }
+
     // Naming convention is things like "us-east-1" or "us-east-1c"; strip off the availability zone suffix.
     // This is a hack to get around that jclouds accepts regions with the suffix for creating VMs, but not for ebsClient calls.
     private String getRegionName(JcloudsLocation location) {
@@ -167,31 +266,40 @@ public class Ec2VolumeManager extends AbstractVolumeManager {
         }
     }
 
+    /**
+     * EBS volumes usually become available or attached within a few seconds, so checks start frequently.
+     */
+    @Override
+    protected WaitStrategy getDefaultWaitStrategy(WaitStrategy.Operation operation) {
+        return new WaitStrategy()
+                .initialDelay(Duration.millis(500))
+                .maxDelay(Duration.seconds(5))
+                .timeout(Duration.seconds(60));
+    }
+
     /**
      * Waits for the status of the volume to be {@link Volume.Status#AVAILABLE available}.
      * If the status does not reach available after a delay, logs an error.
      * @return the last fetched volume
      */
-    private Volume waitForVolumeToBeAvailable(final BlockDevice device) {
-        final AtomicReference<Volume> lastVolume = new AtomicReference<Volume>();
-        
-        boolean available = Repeater.create("waiting for volume available:" + device)
-                .every(1, TimeUnit.SECONDS)
-                .limitTimeTo(60, TimeUnit.SECONDS)
-                .until(new Callable<Boolean>() {
-                    @Override
-                    public Boolean call() throws Exception {
-                        Volume volume = describeVolume(device);
-                        lastVolume.set(volume);
-                        return volume.getStatus() == Volume.Status.AVAILABLE;
-                    }})
-                .run();
-
-        if (!available) {
-            LOG.error("Volume {} still not available. Last known was: {}; continuing", device, lastVolume.get());
-        }
+    private ListenableFuture<Volume> waitForVolumeToBeAvailable(BlockDevice device, WaitStrategy.Operation operation) {
+        return waitForVolumeStatus(device, Volume.Status.AVAILABLE, operation);
+    }
+
+    /**
+     * Waits for the status of the volume to be {@link Volume.Status#IN_USE in-use}.
+     * If the status does not reach in-use after a delay, logs an error.
+     * @return the last fetched volume
+     */
+    private ListenableFuture<Volume> waitForVolumeToBeInUse(BlockDevice device) {
+        return waitForVolumeStatus(device, Volume.Status.IN_USE, WaitStrategy.Operation.ATTACH);
+    }
 
-        return lastVolume.get();
+    private ListenableFuture<Volume> waitForVolumeStatus(BlockDevice device, Volume.Status status, WaitStrategy.Operation operation) {
+        JcloudsLocation location = device.getLocation();
+        Ec2VolumeStatusPoller poller = Ec2VolumeStatusPoller.forRegion(location, getRegionName(location), getEbsApi(location),
+                getApiRateLimiter(location));
+        return poller.waitFor(device.getId(), ImmutableSet.of(status), getWaitStrategy(location, operation), false);
     }
 
 }
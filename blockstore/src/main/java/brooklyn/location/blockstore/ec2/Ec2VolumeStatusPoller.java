@@ -0,0 +1,294 @@
+package brooklyn.location.blockstore.ec2;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.jclouds.ec2.domain.Volume;
+import org.jclouds.ec2.features.ElasticBlockStoreApi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import brooklyn.location.blockstore.ApiRateLimiter;
+import brooklyn.location.blockstore.BlockstoreExecutors;
+import brooklyn.location.blockstore.WaitStrategy;
+
+/**
+ * Polls the status of EBS volumes in a region, checking all the volumes that are due to be checked with a single
+ * multi-id {@code DescribeVolumes} call per tick rather than one call per volume.
+ * <p>
+ * Each volume is checked according to the {@link WaitStrategy} it was waited on with, so a newly-created volume is
+ * checked soon after creation and then less often. A tick runs when the earliest check is due, and describes every
+ * volume whose check is due by then.
+ * <p>
+ * There is one poller per account and region (see {@link #forRegion(JcloudsLocation, String, ElasticBlockStoreApi, ApiRateLimiter)}),
+ * shared by all {@link Ec2VolumeManager} instances. It polls only while something is waiting, and each describe call
+ * takes a permit from the region's {@link ApiRateLimiter}; if none is available, the due checks are deferred.
+ */
+public class Ec2VolumeStatusPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Ec2VolumeStatusPoller.class);
+
+    private static final ConcurrentMap<String, Ec2VolumeStatusPoller> POLLERS = Maps.newConcurrentMap();
+
+    /** The least time between checks of a volume, however close its deadline. */
+    private static final long MIN_CHECK_INTERVAL_MILLIS = 100;
+
+    /**
+     * @param ebsApi  The api to poll with, if there is no poller for the account and region yet
+     * @param limiter The rate limiter to poll with, if there is no poller for the account and region yet
+     * @return The poller for the account of the given location, in the given region
+     */
+    public static Ec2VolumeStatusPoller forRegion(JcloudsLocation location, String region, ElasticBlockStoreApi ebsApi,
+            ApiRateLimiter limiter) {
+        String key = Joiner.on("|").useForNull("").join(location.getProvider(), location.getEndpoint(), location.getIdentity(), region);
+        Ec2VolumeStatusPoller poller = POLLERS.get(key);
+        if (poller == null) {
+            poller = new Ec2VolumeStatusPoller(region, ebsApi, limiter);
+            Ec2VolumeStatusPoller existing = POLLERS.putIfAbsent(key, poller);
+            if (existing != null) poller = existing;
+        }
+        return poller;
+    }
+
+    private final String region;
+    private final ElasticBlockStoreApi ebsApi;
+    private final ApiRateLimiter limiter;
+
+    // guarded by this
+    private final Multimap<String, Waiter> waiters = LinkedHashMultimap.create();
+    private ScheduledFuture<?> nextTick;
+    private long nextTickTime;
+    private boolean ticking;
+
+    protected Ec2VolumeStatusPoller(String region, ElasticBlockStoreApi ebsApi, ApiRateLimiter limiter) {
+        this.region = region;
+        this.ebsApi = ebsApi;
+        this.limiter = limiter;
+    }
+
+    /**
+     * Waits for the given volume to reach one of the given statuses.
+     *
+     * @param failOnTimeout If true the returned future fails with a {@link TimeoutException} if the volume does not
+     *                      reach the status in time; otherwise an error is logged and the future returns the last
+     *                      volume described (which may be null)
+     */
+    public ListenableFuture<Volume> waitFor(String volumeId, Set<Volume.Status> statuses, WaitStrategy strategy, boolean failOnTimeout) {
+        Waiter waiter = new Waiter(volumeId, ImmutableSet.copyOf(statuses), strategy, failOnTimeout);
+        synchronized (this) {
+            waiters.put(volumeId, waiter);
+            scheduleTick();
+        }
+        return waiter.result;
+    }
+
+    /**
+     * @return The number of volumes currently being waited on
+     */
+    public synchronized int getPendingCount() {
+        return waiters.keySet().size();
+    }
+
+    protected void tick() {
+        List<Waiter> done = Lists.newArrayList();
+        Set<String> volumeIds = Sets.newLinkedHashSet();
+        try {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                nextTick = null;
+                ticking = true;
+                boolean permitted = limiter.tryAcquire();
+                for (Waiter waiter : waiters.values()) {
+                    if (!waiter.isDue(now)) {
+                        continue;
+                    } else if (permitted) {
+                        volumeIds.add(waiter.volumeId);
+                    } else {
+                        waiter.deferUntil(now + limiter.getPermitIntervalMillis());
+                    }
+                }
+            }
+            Map<String, Volume> volumes = describeVolumes(volumeIds);
+            now = System.currentTimeMillis();
+            synchronized (this) {
+                for (String volumeId : volumeIds) {
+                    Volume volume = volumes.get(volumeId);
+                    for (Waiter waiter : waiters.get(volumeId)) {
+                        if (volume != null) waiter.lastVolume = volume;
+                        waiter.checked(now);
+                    }
+                }
+                done.addAll(removeDone(now));
+            }
+        } catch (Throwable t) {
+            Exceptions.propagateIfFatal(t);
+            if (ApiRateLimiter.isThrottlingError(t)) {
+                limiter.onThrottled(t);
+            }
+            LOG.warn("Problem polling status of volumes in " + region + "; will retry", t);
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                // back off these volumes' checks as though they had been checked, and give up on those out of time
+                for (String volumeId : volumeIds) {
+                    for (Waiter waiter : waiters.get(volumeId)) {
+                        waiter.checked(now);
+                    }
+                }
+                done.addAll(removeDone(now));
+            }
+        } finally {
+            synchronized (this) {
+                ticking = false;
+                scheduleTick();
+            }
+        }
+        for (Waiter waiter : done) {
+            waiter.complete();
+        }
+    }
+
+    /**
+     * Removes the waiters that are satisfied or out of time (or cancelled).
+     *
+     * @return The waiters removed, to be completed outside the lock
+     */
+    // guarded by this
+    private List<Waiter> removeDone(long now) {
+        List<Waiter> done = Lists.newArrayList();
+        for (Waiter waiter : waiters.values()) {
+            if (waiter.result.isDone() || waiter.isSatisfied() || waiter.isExpired(now)) {
+                done.add(waiter);
+            }
+        }
+        for (Waiter waiter : done) {
+            waiters.remove(waiter.volumeId, waiter);
+        }
+        return done;
+    }
+
+    /**
+     * Schedules the next tick for when the earliest check is due, unless one is already scheduled by then.
+     */
+    // guarded by this
+    private void scheduleTick() {
+        if (ticking || waiters.isEmpty()) return;
+        long due = Long.MAX_VALUE;
+        for (Waiter waiter : waiters.values()) {
+            due = Math.min(due, waiter.nextCheck);
+        }
+        if (nextTick != null) {
+            if (nextTickTime <= due) return;
+            nextTick.cancel(false);
+        }
+        nextTickTime = due;
+        // the tick's describe call blocks on the cloud, so is made on the api pool rather than the scheduler
+        nextTick = BlockstoreExecutors.scheduler().schedule(new Runnable() {
+            @Override public void run() {
+                BlockstoreExecutors.api().execute(new Runnable() {
+                    @Override public void run() {
+                        tick();
+                    }
+                });
+            }
+        }, Math.max(0, due - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    protected Map<String, Volume> describeVolumes(Set<String> volumeIds) {
+        Map<String, Volume> result = Maps.newHashMap();
+        if (volumeIds.isEmpty()) return result;
+        try {
+            for (Volume volume : ebsApi.describeVolumesInRegion(region, Iterables.toArray(volumeIds, String.class))) {
+                result.put(volume.getId(), volume);
+            }
+        } catch (RuntimeException e) {
+            if (volumeIds.size() == 1 || ApiRateLimiter.isThrottlingError(e)) throw e;
+            // One unknown id fails the whole call, e.g. a volume not yet visible just after it was created
+            // (EC2 is eventually consistent); fall back to describing each volume on its own.
+            LOG.debug("Failed to describe volumes {} in {}; describing individually: {}", new Object[] {volumeIds, region, e});
+            for (String volumeId : volumeIds) {
+                try {
+                    result.putAll(describeVolumes(ImmutableSet.of(volumeId)));
+                } catch (RuntimeException e2) {
+                    LOG.debug("Failed to describe volume {} in {}: {}", new Object[] {volumeId, region, e2});
+                }
+            }
+        }
+        return result;
+    }
+
+    private static class Waiter {
+        private final String volumeId;
+        private final Set<Volume.Status> statuses;
+        private final WaitStrategy strategy;
+        private final boolean failOnTimeout;
+        private final long deadline;
+        private final SettableFuture<Volume> result = SettableFuture.create();
+        private int attempts;
+        private long nextCheck;
+        private Volume lastVolume;
+
+        Waiter(String volumeId, Set<Volume.Status> statuses, WaitStrategy strategy, boolean failOnTimeout) {
+            long now = System.currentTimeMillis();
+            this.volumeId = volumeId;
+            this.statuses = statuses;
+            this.strategy = strategy;
+            this.failOnTimeout = failOnTimeout;
+            this.deadline = now + strategy.getTimeout().toMilliseconds();
+            this.nextCheck = now + strategy.getDelayMillis(0);
+        }
+
+        boolean isDue(long now) {
+            return nextCheck <= now;
+        }
+
+        void deferUntil(long time) {
+            nextCheck = Math.max(nextCheck, Math.min(time, deadline));
+        }
+
+        void checked(long now) {
+            attempts++;
+            nextCheck = Math.max(now + MIN_CHECK_INTERVAL_MILLIS, Math.min(now + strategy.getDelayMillis(attempts), deadline));
+        }
+
+        boolean isSatisfied() {
+            return lastVolume != null && statuses.contains(lastVolume.getStatus());
+        }
+
+        boolean isExpired(long now) {
+            return now >= deadline;
+        }
+
+        void complete() {
+            if (result.isDone()) {
+                return;
+            } else if (isSatisfied()) {
+                result.set(lastVolume);
+            } else if (failOnTimeout) {
+                result.setException(new TimeoutException("Timeout after " + strategy.getTimeout() + " waiting for volume " + volumeId
+                        + " to be " + statuses + "; last known was " + lastVolume));
+            } else {
+                LOG.error("Volume {} still not {} after {} ({} checks). Last known was: {}; continuing",
+                        new Object[] {volumeId, statuses, strategy.getTimeout(), attempts, lastVolume});
+                result.set(lastVolume);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package brooklyn.location.blockstore.ec2;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+import brooklyn.location.blockstore.BlockDeviceOptions;
+
+/**
+ * The limits of each EBS volume type on size, provisioned IOPS and provisioned throughput, against which the
+ * {@link BlockDeviceOptions} of EC2 volumes are validated before any volume is created, rather than the request
+ * failing in the cloud (or, when mapping a snapshot at provisioning time, the whole machine failing).
+ * <p>
+ * Only {@code gp3} can have its throughput provisioned; {@code gp3}, {@code io1} and {@code io2} can have their IOPS
+ * provisioned, and {@code io1} and {@code io2} must.
+ */
+public class Ec2VolumeTypes {
+
+    public static final int GP3_BASELINE_IOPS = 3000;
+    public static final int GP3_BASELINE_THROUGHPUT_MBPS = 125;
+
+    private static final Map<String, Ec2VolumeTypes> TYPES = ImmutableMap.<String, Ec2VolumeTypes>builder()
+            .put("standard", new Ec2VolumeTypes("standard", 1, 1024))
+            .put("gp2", new Ec2VolumeTypes("gp2", 1, 16384))
+            .put("gp3", new Ec2VolumeTypes("gp3", 1, 16384).iops(false, GP3_BASELINE_IOPS, 16000, 500)
+                    .throughput(GP3_BASELINE_THROUGHPUT_MBPS, 1000))
+            .put("io1", new Ec2VolumeTypes("io1", 4, 16384).iops(true, 100, 64000, 50))
+            .put("io2", new Ec2VolumeTypes("io2", 4, 65536).iops(true, 100, 256000, 1000))
+            .put("st1", new Ec2VolumeTypes("st1", 125, 16384))
+            .put("sc1", new Ec2VolumeTypes("sc1", 125, 16384))
+            .build();
+
+    /**
+     * @return The limits of the given volume type, or null if it is not known
+     */
+    @Nullable
+    public static Ec2VolumeTypes get(String volumeType) {
+        return TYPES.get(volumeType);
+    }
+
+    /**
+     * Checks the volume type, size, IOPS and throughput of the options against the limits of the type. If no type is
+     * given, the account's default type is used, so neither IOPS nor throughput may be given.
+     *
+     * @throws IllegalArgumentException If the options are not valid for an EBS volume
+     */
+    public static void validate(BlockDeviceOptions options) {
+        String volumeType = options.getVolumeType();
+        Integer iops = options.getIops();
+        Integer throughput = options.getThroughputMBps();
+        if (volumeType == null) {
+            checkArgument(iops == null && throughput == null,
+                    "volumeType must be given with iops or throughputMBps, in %s", options);
+            return;
+        }
+        Ec2VolumeTypes type = get(volumeType);
+        checkArgument(type != null, "Unknown EBS volume type %s; expected one of %s", volumeType, TYPES.keySet());
+        type.check(options.getSizeInGb(), iops, throughput);
+    }
+
+    private final String name;
+    private final int minSizeInGb;
+    private final int maxSizeInGb;
+    private boolean iopsRequired;
+    private Integer minIops;
+    private Integer maxIops;
+    private Integer maxIopsPerGb;
+    private Integer minThroughputMBps;
+    private Integer maxThroughputMBps;
+
+    private Ec2VolumeTypes(String name, int minSizeInGb, int maxSizeInGb) {
+        this.name = name;
+        this.minSizeInGb = minSizeInGb;
+        this.maxSizeInGb = maxSizeInGb;
+    }
+
+    private Ec2VolumeTypes iops(boolean required, int min, int max, int maxPerGb) {
+        this.iopsRequired = required;
+        this.minIops = min;
+        this.maxIops = max;
+        this.maxIopsPerGb = maxPerGb;
+        return this;
+    }
+
+    private Ec2VolumeTypes throughput(int min, int max) {
+        this.minThroughputMBps = min;
+        this.maxThroughputMBps = max;
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isIopsProvisionable() {
+        return maxIops != null;
+    }
+
+    public boolean isThroughputProvisionable() {
+        return maxThroughputMBps != null;
+    }
+
+    /**
+     * @param sizeInGb The size, or 0 if not known (e.g. that of the snapshot)
+     */
+    private void check(int sizeInGb, @Nullable Integer iops, @Nullable Integer throughput) {
+        if (sizeInGb > 0) {
+            checkArgument(sizeInGb >= minSizeInGb && sizeInGb <= maxSizeInGb,
+                    "%s volumes must be %s-%sGB, but sizeInGb was %s", name, minSizeInGb, maxSizeInGb, sizeInGb);
+        }
+        if (!isIopsProvisionable()) {
+            checkArgument(iops == null, "iops cannot be provisioned for %s volumes", name);
+        } else if (iops == null) {
+            checkArgument(!iopsRequired, "iops must be given for %s volumes", name);
+        } else {
+            checkArgument(iops >= minIops && iops <= maxIops,
+                    "%s volumes must have %s-%s iops, but iops was %s", name, minIops, maxIops, iops);
+            // gp3 has its baseline IOPS at any size; more are limited by size, as io1 and io2 always are
+            if (sizeInGb > 0 && iops > (iopsRequired ? 0 : minIops)) {
+                checkArgument(iops <= (long) sizeInGb * maxIopsPerGb,
+                        "%s volumes can have at most %s iops per GB, but iops was %s for sizeInGb %s", name, maxIopsPerGb, iops, sizeInGb);
+            }
+        }
+        if (!isThroughputProvisionable()) {
+            checkArgument(throughput == null, "throughputMBps cannot be provisioned for %s volumes", name);
+        } else if (throughput != null) {
+            checkArgument(throughput >= minThroughputMBps && throughput <= maxThroughputMBps,
+                    "%s volumes must have %s-%s MiB/s throughput, but throughputMBps was %s", name, minThroughputMBps, maxThroughputMBps, throughput);
+            // at most 0.25 MiB/s per provisioned IOPS, above the baseline
+            int effectiveIops = (iops != null) ? iops : minIops;
+            checkArgument(throughput <= minThroughputMBps || throughput * 4 <= effectiveIops,
+                    "%s volumes can have at most 0.25 MiB/s throughput per iops, but throughputMBps was %s for %s iops", name, throughput, effectiveIops);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("name", name)
+                .add("minSizeInGb", minSizeInGb)
+                .add("maxSizeInGb", maxSizeInGb)
+                .add("minIops", minIops)
+                .add("maxIops", maxIops)
+                .add("maxIopsPerGb", maxIopsPerGb)
+                .add("minThroughputMBps", minThroughputMBps)
+                .add("maxThroughputMBps", maxThroughputMBps)
+                .toString();
+    }
+}
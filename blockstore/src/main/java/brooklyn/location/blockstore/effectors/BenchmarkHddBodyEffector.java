@@ -0,0 +1,115 @@
+package brooklyn.location.blockstore.effectors;
+
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.effector.AddEffector;
+import org.apache.brooklyn.core.effector.EffectorBody;
+import org.apache.brooklyn.core.effector.EffectorTasks;
+import org.apache.brooklyn.core.effector.Effectors;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import brooklyn.location.blockstore.FioBenchmark;
+
+/**
+ * Effector for measuring the IOPS, bandwidth and latency of a mounted volume with fio, e.g. to catch a volume that
+ * under-performs what was provisioned, or an instance whose bandwidth to its volumes is the limit.
+ * To attach the effector apply the following initializer:
+ * <pre>
+ *    brooklyn.initializers:
+ *     - type: brooklyn.location.blockstore.effectors.BenchmarkHddBodyEffector
+ * </pre>
+ *
+ * The arguments are the mount point and, optionally, the jobs to run (see {@link FioBenchmark}). For example:
+ * <pre>
+ *    mountPoint: /mount/brooklyn/h
+ *    benchmark:
+ *      jobs: [ randread, randwrite, sweep ]
+ *      runtimeSecs: 60
+ *      sweepQueueDepths: [ 1, 8, 32, 128 ]
+ * </pre>
+ *
+ * For each job the measured IOPS, bandwidth (KiB/s) and mean latency (microseconds) are published as the sensors
+ * {@code blockstore.benchmark.<job>.iops}, {@code .bandwidthKBps} and {@code .latencyUs}, and the mount point
+ * benchmarked as {@code blockstore.benchmark.mountPoint}; each run replaces the sensors of the previous one. The
+ * effector returns the same values, by job and metric.
+ * <p>
+ * The benchmark writes to the volume, so it should be run before the volume holds data that matters for performance.
+ */
+public class BenchmarkHddBodyEffector extends AddEffector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkHddBodyEffector.class);
+
+    static ConfigKey<String> MOUNT_POINT = ConfigKeys.newStringConfigKey(
+            "mountPoint", "Where the filesystem of the volume to benchmark is mounted");
+
+    static ConfigKey<FioBenchmark> BENCHMARK = ConfigKeys.newConfigKey(
+            FioBenchmark.class, "benchmark",
+            "Map of the fio jobs to run and their settings; by default all jobs");
+
+    public static final String BENCHMARK_HDD_EFFECTOR_NAME = "benchmarkHdd";
+
+    public static final String SENSOR_PREFIX = "blockstore.benchmark.";
+
+    public BenchmarkHddBodyEffector() {
+        super(newEffectorBuilder().build());
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Effectors.EffectorBuilder<Map> newEffectorBuilder() {
+        ConfigBag bag = ConfigBag.newInstance();
+        bag.put(EFFECTOR_NAME, BENCHMARK_HDD_EFFECTOR_NAME);
+
+        Effectors.EffectorBuilder<Map> eff = AddEffector.newEffectorBuilder(Map.class, bag)
+                .parameter(MOUNT_POINT)
+                .parameter(BENCHMARK)
+                .description("An effector to measure the performance of a mounted hdd of the provisioned vm with fio")
+                .impl(new Body());
+
+        return eff;
+    }
+
+    @Override
+    public void apply(EntityLocal entity) {
+        super.apply(entity);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static class Body extends EffectorBody<Map> {
+
+        @Override
+        public Map call(ConfigBag parameters) {
+            String mountPoint = Preconditions.checkNotNull(parameters.get(MOUNT_POINT), MOUNT_POINT.getName() + " is required");
+            FioBenchmark benchmark = parameters.get(BENCHMARK) != null ? parameters.get(BENCHMARK) : new FioBenchmark();
+
+            SshMachineLocation machine = EffectorTasks.getMachine(entity(), SshMachineLocation.class);
+
+            LOG.info("Invoking effector " + BENCHMARK_HDD_EFFECTOR_NAME + " on " + mountPoint + " with " + benchmark);
+
+            Map<String, FioBenchmark.Result> results = benchmark.run(machine, mountPoint);
+            Map<String, Map<String, Double>> result = Maps.newLinkedHashMap();
+            for (FioBenchmark.Result job : results.values()) {
+                FioBenchmark.Direction measured = job.getMeasured();
+                Map<String, Double> metrics = Maps.newLinkedHashMap();
+                metrics.put("iops", measured.getIops());
+                metrics.put("bandwidthKBps", measured.getBandwidthKBps());
+                metrics.put("latencyUs", measured.getMeanLatencyUs());
+                for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                    entity().sensors().set(Sensors.newDoubleSensor(SENSOR_PREFIX + job.getName() + "." + metric.getKey()), metric.getValue());
+                }
+                result.put(job.getName(), metrics);
+            }
+            entity().sensors().set(Sensors.newStringSensor(SENSOR_PREFIX + "mountPoint"), mountPoint);
+            return result;
+        }
+    }
+}
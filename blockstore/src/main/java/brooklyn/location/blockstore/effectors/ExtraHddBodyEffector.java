@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableList;
 import brooklyn.location.blockstore.NewVolumeCustomizer;
 import brooklyn.location.blockstore.api.MountedBlockDevice;
 import brooklyn.location.blockstore.api.VolumeOptions;
+import brooklyn.location.blockstore.sensors.VolumeMetrics;
 
 /**
  * Effector for attaching disks during runtime.
@@ -48,6 +49,27 @@ import brooklyn.location.blockstore.api.VolumeOptions;
  *    }
  * </pre>
  *
+ * To add capacity to a directory without downtime, give an "lvm" section naming the volume group and logical volume
+ * that are mounted there (see {@link brooklyn.location.blockstore.LvmOptions}): the new volume joins the group, and
+ * the logical volume and its filesystem are extended over it while mounted.
+ * For example:
+ * <pre>
+ *    {
+ *      "blockDevice": {
+ *        "sizeInGb": 100,
+ *        "deviceSuffix": 'i'
+ *      },
+ *      "lvm": {
+ *        "volumeGroup": "data-vg",
+ *        "logicalVolume": "data"
+ *      },
+ *      "filesystem": {
+ *        "mountPoint": "/mount/brooklyn/data",
+ *        "filesystemType": "ext4"
+ *      }
+ *    }
+ * </pre>
+ *
  * Important notice is that KVM is configured as the default hypervisor for OpenStack which means that the defined device name will be of type /dev/vd*.
  * This means that the device suffix must be set as the next letter in alphabetical order from the existing device names on the VM.
  * In other words, "deviceSuffix" have to be set to 'b', 'c' and etc. depending on the already available device names.
@@ -96,7 +118,9 @@ public class ExtraHddBodyEffector extends AddEffector {
             LOG.info("Invoking effector " + EXTRA_HDD_EFFECTOR_NAME + " with location customizer fields " + volumeOptions);
 
             NewVolumeCustomizer customizer = getCustomizerForCloud(ImmutableList.of(volumeOptions));
-            return customizer.createAndAttachDisk(machine, volumeOptions);
+            MountedBlockDevice result = customizer.createAndAttachDisk(machine, volumeOptions);
+            VolumeMetrics.track(entity(), ImmutableList.of(result));
+            return result;
         }
 
         protected NewVolumeCustomizer getCustomizerForCloud(List<VolumeOptions> locationCustomizerFields) {
@@ -0,0 +1,112 @@
+package brooklyn.location.blockstore.effectors;
+
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.effector.AddEffector;
+import org.apache.brooklyn.core.effector.EffectorBody;
+import org.apache.brooklyn.core.effector.EffectorTasks;
+import org.apache.brooklyn.core.effector.Effectors;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import brooklyn.location.blockstore.Devices;
+import brooklyn.location.blockstore.NewVolumeCustomizer;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.VolumeOptions;
+
+/**
+ * Effector for enlarging a disk during runtime, e.g. one added by {@link ExtraHddBodyEffector}, without unmounting it:
+ * the volume is resized in the cloud, then its filesystem is grown to fill it.
+ * To attach the effector apply the following initializer:
+ * <pre>
+ *    brooklyn.initializers:
+ *     - type: brooklyn.location.blockstore.effectors.ResizeHddBodyEffector
+ * </pre>
+ *
+ * The arguments identify the volume as returned by {@code addExtraHdd}: its id, the device name it is attached as
+ * and its mount point. For example:
+ * <pre>
+ *    volumeId: vol-0123456789abcdef0
+ *    deviceName: /dev/sdh
+ *    mountPoint: /mount/brooklyn/h
+ *    sizeInGb: 20
+ * </pre>
+ *
+ * Not all clouds support resizing volumes; see {@link brooklyn.location.blockstore.api.ResizableVolumeManager}.
+ * Volumes can be resized on Google Compute Engine and vCloud Director, but not yet on EC2 or OpenStack Cinder, as
+ * the jclouds APIs used have no call for it (EC2's {@code ModifyVolume}, Cinder's {@code extend}); the effector
+ * fails with an {@link UnsupportedOperationException} there.
+ */
+public class ResizeHddBodyEffector extends AddEffector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResizeHddBodyEffector.class);
+
+    static ConfigKey<String> VOLUME_ID = ConfigKeys.newStringConfigKey(
+            "volumeId", "The id of the volume in the cloud");
+
+    static ConfigKey<String> DEVICE_NAME = ConfigKeys.newStringConfigKey(
+            "deviceName", "The device name the volume is attached as, e.g. /dev/sdh");
+
+    static ConfigKey<String> MOUNT_POINT = ConfigKeys.newStringConfigKey(
+            "mountPoint", "Where the volume's filesystem is mounted");
+
+    static ConfigKey<Integer> SIZE_IN_GB = ConfigKeys.newIntegerConfigKey(
+            "sizeInGb", "The new size of the volume; larger than its current size");
+
+    public static final String RESIZE_HDD_EFFECTOR_NAME = "resizeHdd";
+
+    public ResizeHddBodyEffector() {
+        super(newEffectorBuilder().build());
+    }
+
+    public static Effectors.EffectorBuilder<MountedBlockDevice> newEffectorBuilder() {
+        ConfigBag bag = ConfigBag.newInstance();
+        bag.put(EFFECTOR_NAME, RESIZE_HDD_EFFECTOR_NAME);
+
+        Effectors.EffectorBuilder<MountedBlockDevice> eff = AddEffector.newEffectorBuilder(MountedBlockDevice.class, bag)
+                .parameter(VOLUME_ID)
+                .parameter(DEVICE_NAME)
+                .parameter(MOUNT_POINT)
+                .parameter(SIZE_IN_GB)
+                .description("An effector to enlarge an hdd of the provisioned vm, and its filesystem, while mounted")
+                .impl(new Body());
+
+        return eff;
+    }
+
+    @Override
+    public void apply(EntityLocal entity) {
+        super.apply(entity);
+    }
+
+    public static class Body extends EffectorBody<MountedBlockDevice> {
+
+        @Override
+        public MountedBlockDevice call(ConfigBag parameters) {
+            String volumeId = Preconditions.checkNotNull(parameters.get(VOLUME_ID), VOLUME_ID.getName() + " is required");
+            String deviceName = Preconditions.checkNotNull(parameters.get(DEVICE_NAME), DEVICE_NAME.getName() + " is required");
+            String mountPoint = Preconditions.checkNotNull(parameters.get(MOUNT_POINT), MOUNT_POINT.getName() + " is required");
+            Integer sizeInGb = Preconditions.checkNotNull(parameters.get(SIZE_IN_GB), SIZE_IN_GB.getName() + " is required");
+
+            JcloudsMachineLocation machine = EffectorTasks.getMachine(entity(), JcloudsMachineLocation.class);
+
+            LOG.info("Invoking effector " + RESIZE_HDD_EFFECTOR_NAME + " to resize volume " + volumeId + " mounted at "
+                    + mountPoint + " to " + sizeInGb + "GB");
+
+            MountedBlockDevice device = Devices.newBlockDevice(machine.getParent(), volumeId)
+                    .attachedTo(machine, deviceName)
+                    .mountedAt(mountPoint);
+            return getCustomizerForCloud().resizeDisk(machine, device, sizeInGb);
+        }
+
+        protected NewVolumeCustomizer getCustomizerForCloud() {
+            return new NewVolumeCustomizer(ImmutableList.<VolumeOptions>of());
+        }
+    }
+}
@@ -3,46 +3,56 @@ package brooklyn.location.blockstore.gce;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.net.URI;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
-import org.apache.brooklyn.util.repeat.Repeater;
-import org.jclouds.ContextBuilder;
-import org.jclouds.encryption.bouncycastle.config.BouncyCastleCryptoModule;
+import org.apache.brooklyn.util.time.Duration;
+import org.jclouds.compute.ComputeService;
 import org.jclouds.googlecomputeengine.GoogleComputeEngineApi;
 import org.jclouds.googlecomputeengine.domain.AttachDisk;
 import org.jclouds.googlecomputeengine.domain.Disk;
+import org.jclouds.googlecomputeengine.domain.DiskType;
 import org.jclouds.googlecomputeengine.domain.Operation;
 import org.jclouds.googlecomputeengine.features.DiskApi;
+import org.jclouds.googlecomputeengine.features.DiskTypeApi;
 import org.jclouds.googlecomputeengine.features.InstanceApi;
 import org.jclouds.googlecomputeengine.options.DiskCreationOptions;
-import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
-import org.jclouds.sshj.config.SshjSshClientModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
 import com.google.common.base.Objects;
-import com.google.common.collect.ImmutableSet;
-import com.google.inject.Module;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import brooklyn.location.blockstore.AbstractVolumeManager;
 import brooklyn.location.blockstore.BlockDeviceOptions;
+import brooklyn.location.blockstore.VolumeWaits;
+import brooklyn.location.blockstore.WaitStrategy;
+import brooklyn.location.blockstore.api.AsyncResizableVolumeManager;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
 import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.ResizableVolumeManager;
 
-public class GoogleComputeEngineVolumeManager extends AbstractVolumeManager {
+public class GoogleComputeEngineVolumeManager extends AbstractVolumeManager
+        implements ResizableVolumeManager, AsyncResizableVolumeManager {
 
     private static final Logger LOG = LoggerFactory.getLogger(GoogleComputeEngineVolumeManager.class);
-    private static final String PROVIDER = "google-compute-engine";
     private static final String DEVICE_PREFIX = "/dev/disk/by-id/google-";
 
     @Override
     protected String getVolumeDeviceName(char deviceSuffix) {
-        return DEVICE_PREFIX + deviceSuffix;
+        return DEVICE_PREFIX + getDeviceName(deviceSuffix);
     }
 
     @Override
@@ -50,80 +60,257 @@ public class GoogleComputeEngineVolumeManager extends AbstractVolumeManager {
         return getVolumeDeviceName(deviceSuffix);
     }
 
+    /**
+     * The guest's GCE udev rules name the disk's {@code google-} link after its device name, which is also the end
+     * of the persistent disk's SCSI serial, {@code 0Google_PersistentDisk_<deviceName>}.
+     */
     @Override
-    public BlockDevice createBlockDevice(JcloudsLocation location, BlockDeviceOptions options) {
+    protected String getDeviceSerial(BlockDevice device) {
+        if (device instanceof AttachedBlockDevice) {
+            return "Google_PersistentDisk_" + getDeviceName(((AttachedBlockDevice) device).getDeviceSuffix());
+        }
+        return null;
+    }
+
+    /**
+     * Creates a disk of the options' {@link BlockDeviceOptions#getVolumeType() volume type}, e.g. {@code pd-balanced},
+     * {@code pd-ssd} or {@code pd-extreme}, or of the zone's default type ({@code pd-standard}) if none is given.
+     * The jclouds GCE API cannot provision IOPS or throughput, so a pd-extreme disk gets GCE's default IOPS and
+     * options asking for either are rejected.
+     */
+    @Override
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(final JcloudsLocation location, final BlockDeviceOptions options) {
+        if (options.getIops() != null || options.getThroughputMBps() != null) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException("Cannot provision iops or throughputMBps "
+                    + "for GCE disks; only the disk type can be chosen, in " + options));
+        }
         LOG.info("Creating device: location={}; options={}", location, options);
 
-        GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(location);
-        DiskApi diskApi = computeApi.disksInZone(options.getZone());
-        String name = getOrMakeName(location, options);
-
-        DiskCreationOptions diskOptions = new DiskCreationOptions.Builder()
-		        .sizeGb(options.getSizeInGb())
-		        .build();
-        Operation operation = diskApi.create(name, diskOptions);
-        waitForOperationToBeDone(computeApi, operation);
-
-        Disk created = diskApi.get(name);
-        LOG.info("Created device: location={}, device={}", location, created);
-        return new GCEBlockDevice(location, created);
+        final GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(location);
+        final DiskApi diskApi = computeApi.disksInZone(options.getZone());
+        final String name = getOrMakeName(location, options);
+
+        // the type is looked up by its own api call, so that each call waits for its own permit
+        ListenableFuture<URI> type;
+        if (options.getVolumeType() != null) {
+            type = submitApiCall(location, new Callable<URI>() {
+                @Override
+                public URI call() {
+                    return getDiskTypeLink(computeApi.diskTypesInZone(options.getZone()), options.getZone(), options.getVolumeType());
+                }
+            });
+        } else {
+            type = Futures.<URI>immediateFuture(null);
+        }
+        ListenableFuture<Operation> operation = Futures.transform(type, new AsyncFunction<URI, Operation>() {
+            @Override
+            public ListenableFuture<Operation> apply(final URI diskType) {
+                return submitApiCall(location, new Callable<Operation>() {
+                    @Override
+                    public Operation call() {
+                        DiskCreationOptions.Builder diskOptions = new DiskCreationOptions.Builder()
+                                .sizeGb(options.getSizeInGb());
+                        if (diskType != null) {
+                            diskOptions.type(diskType);
+                        }
+                        return diskApi.create(name, diskOptions.build());
+                    }
+                });
+            }
+        });
+        final WaitStrategy strategy = getWaitStrategy(location, WaitStrategy.Operation.CREATE);
+        return Futures.transform(operation, new AsyncFunction<Operation, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(Operation inserting) {
+                // the disk may exist from here on, so is deleted again if it is not both created and got
+                ListenableFuture<Operation> done = waitForOperationToBeDone(location, checkNotNull(inserting, "operation should not be null"), strategy);
+                ListenableFuture<BlockDevice> created = Futures.transform(done, new AsyncFunction<Operation, BlockDevice>() {
+                    @Override
+                    public ListenableFuture<BlockDevice> apply(Operation operation) {
+                        return submitApiCall(location, new Callable<BlockDevice>() {
+                            @Override
+                            public BlockDevice call() {
+                                Disk created = diskApi.get(name);
+                                if (created == null) {
+                                    throw new IllegalStateException("Disk " + name + " not found in zone " + options.getZone() + " after creating it");
+                                }
+                                LOG.info("Created device: location={}, device={}", location, created);
+                                return new GCEBlockDevice(location, created);
+                            }
+                        });
+                    }
+                });
+                return Futures.withFallback(created, new FutureFallback<BlockDevice>() {
+                    @Override
+                    public ListenableFuture<BlockDevice> create(Throwable t) {
+                        return deleteDiskAfterFailure(location, diskApi, name, t);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes the disk of the given name, which may or may not have been created, then fails with the given failure.
+     */
+    private <T> ListenableFuture<T> deleteDiskAfterFailure(final JcloudsLocation location, final DiskApi diskApi, final String name,
+            final Throwable failure) {
+        LOG.warn("Failed to create disk {} in {}; deleting it: {}", new Object[] {name, location, failure.toString()});
+        ListenableFuture<Operation> deleting = submitApiCall(location, new Callable<Operation>() {
+            @Override
+            public Operation call() {
+                return diskApi.delete(name);
+            }
+        });
+        ListenableFuture<Operation> deleted = Futures.transform(deleting, new AsyncFunction<Operation, Operation>() {
+            @Override
+            public ListenableFuture<Operation> apply(Operation operation) {
+                // null if there is no such disk
+                return (operation != null)
+                        ? waitForOperationToBeDone(location, operation, getWaitStrategy(location, WaitStrategy.Operation.DELETE))
+                        : Futures.<Operation>immediateFuture(null);
+            }
+        });
+        Futures.addCallback(deleted, new FutureCallback<Operation>() {
+            @Override public void onSuccess(Operation result) {}
+            @Override public void onFailure(Throwable t) {
+                LOG.warn("Failed to delete disk " + name + " in " + location + " after failing to create it; continuing", t);
+            }
+        });
+        return Futures.transform(Futures.successfulAsList(ImmutableList.of(deleted)), new AsyncFunction<List<Operation>, T>() {
+            @Override
+            public ListenableFuture<T> apply(List<Operation> input) {
+                return Futures.immediateFailedFuture(failure);
+            }
+        });
+    }
+
+    /**
+     * @return The link to the disk type, e.g. {@code pd-ssd}, by which to create a disk of that type
+     * @throws IllegalArgumentException if the zone has no such disk type
+     */
+    static URI getDiskTypeLink(DiskTypeApi diskTypeApi, String zone, String volumeType) {
+        DiskType type = diskTypeApi.get(volumeType);
+        checkArgument(type != null, "Unknown disk type %s in zone %s", volumeType, zone);
+        return type.selfLink();
     }
 
     @Override
-    public AttachedBlockDevice attachBlockDevice(JcloudsMachineLocation machine, BlockDevice device, BlockDeviceOptions options) {
+    public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(final JcloudsMachineLocation machine, final BlockDevice device,
+            final BlockDeviceOptions options) {
         checkArgument(device instanceof GCEBlockDevice, "GCE volume manager cannot handle device: %s", device);
-        Disk disk = GCEBlockDevice.class.cast(device).getDisk();
+        final Disk disk = GCEBlockDevice.class.cast(device).getDisk();
         LOG.info("Attaching device: machine={}; device={}; options={}", new Object[]{machine, device, options});
 
         JcloudsLocation location = machine.getParent();
         GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(location);
         String zone = getZoneFromDisk(disk);
-        InstanceApi instanceApi = computeApi.instancesInZone(zone);
+        final InstanceApi instanceApi = computeApi.instancesInZone(zone);
 
-        Operation operation = instanceApi.attachDisk(machine.getNode().getName(), AttachDisk.existingDisk(disk.selfLink()));
+        ListenableFuture<Operation> operation = submitApiCall(location, new Callable<Operation>() {
+            @Override
+            public Operation call() {
+                return instanceApi.attachDisk(machine.getNode().getName(), getAttachDisk(disk.selfLink(), options.getDeviceSuffix()));
+            }
+        });
+        WaitStrategy strategy = getWaitStrategy(location, WaitStrategy.Operation.ATTACH);
+        return Futures.transform(waitForOperationToBeDone(location, operation, strategy), new Function<Operation, AttachedBlockDevice>() {
+            @Override
+            public AttachedBlockDevice apply(Operation operation) {
+                return device.attachedTo(machine, getVolumeDeviceName(options.getDeviceSuffix()));
+            }
+        });
+    }
 
-        waitForOperationToBeDone(computeApi, operation);
-        return device.attachedTo(machine, getVolumeDeviceName(options.getDeviceSuffix()));
+    /**
+     * The disk is attached with the device suffix as its device name, so that it appears on the machine as
+     * {@code /dev/disk/by-id/google-<suffix>} (see {@link #getVolumeDeviceName(char)}), and can be detached by it.
+     */
+    static AttachDisk getAttachDisk(URI disk, char deviceSuffix) {
+        return AttachDisk.create(AttachDisk.Type.PERSISTENT, AttachDisk.Mode.READ_WRITE, disk,
+                getDeviceName(deviceSuffix), false, null, false, null, null);
+    }
 
-        // FIXME Previous code shown below - is this AttachDisk.existingDisk functionally equivalent?!
-        // How do we force it to have options.getDeviceSuffix()?
-//        new AttachDiskOption()
-//                .source(disk.selfLink())
-//                .type(AttachDisk.Type.PERSISTENT)
-//                .mode(AttachDisk.Mode.READ_WRITE)
-//                .deviceName(String.valueOf(options.getDeviceSuffix())));
+    /**
+     * @return The GCE device name of the disk attached with the given suffix
+     */
+    static String getDeviceName(char deviceSuffix) {
+        return String.valueOf(deviceSuffix);
     }
 
     @Override
-    public BlockDevice detachBlockDevice(AttachedBlockDevice device) {
+    public ListenableFuture<BlockDevice> detachBlockDeviceAsync(final AttachedBlockDevice device) {
         checkArgument(device instanceof GCEBlockDevice, "GCE volume manager cannot handle device: %s", device);
-        Disk disk = GCEBlockDevice.class.cast(device).getDisk();
+        final Disk disk = GCEBlockDevice.class.cast(device).getDisk();
         LOG.info("Detaching device: {}", device);
 
         GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(device.getLocation());
         String zone = getZoneFromDisk(disk);
-        InstanceApi instanceApi = computeApi.instancesInZone(zone);
-
-		Operation operation = instanceApi.detachDisk(
-                device.getMachine().getNode().getName(), 
-                String.valueOf(device.getDeviceSuffix()));
-        waitForOperationToBeDone(computeApi, operation);
-
-        return new GCEBlockDevice(device.getLocation(), disk);
+        final InstanceApi instanceApi = computeApi.instancesInZone(zone);
+
+        ListenableFuture<Operation> operation = submitApiCall(device.getLocation(), new Callable<Operation>() {
+            @Override
+            public Operation call() {
+                return instanceApi.detachDisk(
+                        device.getMachine().getNode().getName(),
+                        getDeviceName(device.getDeviceSuffix()));
+            }
+        });
+        WaitStrategy strategy = getWaitStrategy(device.getLocation(), WaitStrategy.Operation.DETACH);
+        return Futures.transform(waitForOperationToBeDone(device.getLocation(), operation, strategy), new Function<Operation, BlockDevice>() {
+            @Override
+            public BlockDevice apply(Operation operation) {
+                return new GCEBlockDevice(device.getLocation(), disk);
+            }
+        });
     }
 
     @Override
-    public void deleteBlockDevice(BlockDevice device) {
+    public ListenableFuture<Void> deleteBlockDeviceAsync(final BlockDevice device) {
         checkArgument(device instanceof GCEBlockDevice, "GCE volume manager cannot handle device: %s", device);
         Disk disk = GCEBlockDevice.class.cast(device).getDisk();
         LOG.info("Deleting device: {}", device);
 
         GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(device.getLocation());
         String zone = getZoneFromDisk(disk);
-        DiskApi diskApi = computeApi.disksInZone(zone);
+        final DiskApi diskApi = computeApi.disksInZone(zone);
+
+        ListenableFuture<Operation> operation = submitApiCall(device.getLocation(), new Callable<Operation>() {
+            @Override
+            public Operation call() {
+                return diskApi.delete(device.getId());
+            }
+        });
+        WaitStrategy strategy = getWaitStrategy(device.getLocation(), WaitStrategy.Operation.DELETE);
+        return Futures.transform(waitForOperationToBeDone(device.getLocation(), operation, strategy), Functions.<Void>constant(null));
+    }
+
+    /**
+     * Resizes the disk; the device may be one created by this manager, or any device attached to a machine in GCE
+     * whose id is the disk's name.
+     */
+    @Override
+    public ListenableFuture<BlockDevice> resizeBlockDeviceAsync(final BlockDevice device, final int newSizeInGb) {
+        String zone;
+        if (device instanceof GCEBlockDevice) {
+            zone = getZoneFromDisk(GCEBlockDevice.class.cast(device).getDisk());
+        } else {
+            checkArgument(device instanceof AttachedBlockDevice, "GCE volume manager cannot handle device: %s", device);
+            zone = ((AttachedBlockDevice) device).getMachine().getNode().getLocation().getId();
+        }
+        LOG.info("Resizing device: device={}; newSizeInGb={}", device, newSizeInGb);
+
+        GoogleComputeEngineApi computeApi = getGoogleComputeEngineApi(device.getLocation());
+        final DiskApi diskApi = computeApi.disksInZone(zone);
 
-		Operation operation = diskApi.delete(device.getId());
-        waitForOperationToBeDone(computeApi, operation);
+        ListenableFuture<Operation> operation = submitApiCall(device.getLocation(), new Callable<Operation>() {
+            @Override
+            public Operation call() {
+                return diskApi.resize(device.getId(), newSizeInGb);
+            }
+        });
+        WaitStrategy strategy = getWaitStrategy(device.getLocation(), WaitStrategy.Operation.RESIZE);
+        return Futures.transform(waitForOperationToBeDone(device.getLocation(), operation, strategy), Functions.<BlockDevice>constant(device));
     }
 
     /**
@@ -140,18 +327,16 @@ public class GoogleComputeEngineVolumeManager extends AbstractVolumeManager {
 		return diskApi.get(device.getId());
     }
 
+    /**
+     * Uses the api of the location's own compute service, so that its context (including its OAuth token) is
+     * shared rather than rebuilt for each operation.
+     */
     private GoogleComputeEngineApi getGoogleComputeEngineApi(JcloudsLocation location) {
-        String identity = location.getIdentity();
-        String credential = location.getCredential();
-        Iterable<Module> modules = ImmutableSet.<Module> of(
-                new SshjSshClientModule(),
-                new SLF4JLoggingModule(),
-                new BouncyCastleCryptoModule());
-
-        return ContextBuilder.newBuilder(PROVIDER)
-              .credentials(identity, credential)
-              .modules(modules)
-              .buildApi(GoogleComputeEngineApi.class);
+        return getGoogleComputeEngineApi(location.getComputeService());
+    }
+
+    static GoogleComputeEngineApi getGoogleComputeEngineApi(ComputeService computeService) {
+        return computeService.getContext().unwrapApi(GoogleComputeEngineApi.class);
     }
 
     private String getZoneFromDisk(Disk disk) {
@@ -160,28 +345,76 @@ public class GoogleComputeEngineVolumeManager extends AbstractVolumeManager {
         return zonePath.substring(zonePath.lastIndexOf('/')+1);
     }
 
-    private Operation waitForOperationToBeDone(final GoogleComputeEngineApi api, final Operation operation) {
+    /**
+     * GCE rate limits API calls per project rather than per zone.
+     */
+    @Override
+    protected String getApiRegion(JcloudsLocation location) {
+        return null;
+    }
+
+    @Override
+    protected double getDefaultApiRate() {
+        return 10;
+    }
+
+    @Override
+    protected WaitStrategy getDefaultWaitStrategy(WaitStrategy.Operation operation) {
+        // Disk operations typically complete in a few seconds
+        return new WaitStrategy()
+                .initialDelay(Duration.ONE_SECOND)
+                .maxDelay(Duration.seconds(5))
+                .timeout(Duration.seconds(60));
+    }
+
+    private ListenableFuture<Operation> waitForOperationToBeDone(final JcloudsLocation location, ListenableFuture<Operation> operation,
+            final WaitStrategy strategy) {
+        return Futures.transform(operation, new AsyncFunction<Operation, Operation>() {
+            @Override
+            public ListenableFuture<Operation> apply(Operation operation) {
+                return waitForOperationToBeDone(location, checkNotNull(operation, "operation should not be null"), strategy);
+            }
+        });
+    }
 
-        checkNotNull(operation, "operation should not be null");
-        final AtomicReference<Operation> latest = new AtomicReference<Operation>(operation);
-        boolean done = Repeater.create("Waiting for operation to be done: " + operation.name())
-                .every(1, TimeUnit.SECONDS)
-                .limitTimeTo(60, TimeUnit.SECONDS)
-                .until(new Callable<Boolean>() {
+    /**
+     * @return The operation once done; fails if it is not done within the strategy's timeout, or if it failed
+     */
+    private ListenableFuture<Operation> waitForOperationToBeDone(JcloudsLocation location, final Operation operation,
+            WaitStrategy strategy) {
+        final GoogleComputeEngineApi api = getGoogleComputeEngineApi(location);
+        ListenableFuture<Operation> done = VolumeWaits.waitFor("Waiting for operation to be done: " + operation.name(),
+                getApiRateLimiter(location).guard(new Callable<Operation>() {
                     @Override
-                    public Boolean call() throws Exception {
-                    	Operation current = api.operations().get(operation.selfLink());
-                        latest.set(current);
-                        return current.status() == Operation.Status.DONE;
+                    public Operation call() throws Exception {
+                        return api.operations().get(operation.selfLink());
                     }
-                })
-                .run();
-        if (done) {
-            return latest.get();
-        } else {
-            LOG.error("Operation {} still incomplete after timeout. Trying to continue. Last poll found: {}", operation.name(), latest.get());
-            return latest.get();
+                }),
+                new Predicate<Operation>() {
+                    @Override
+                    public boolean apply(Operation current) {
+                        return current != null && current.status() == Operation.Status.DONE;
+                    }
+                },
+                strategy,
+                true);
+        return Futures.transform(done, new Function<Operation, Operation>() {
+            @Override
+            public Operation apply(Operation operation) {
+                return checkSucceeded(operation);
+            }
+        });
+    }
+
+    /**
+     * @return The given operation, which is done
+     * @throws IllegalStateException If the operation failed
+     */
+    static Operation checkSucceeded(Operation operation) {
+        if (operation.error() != null) {
+            throw new IllegalStateException("GCE operation " + operation.name() + " failed: " + operation.error().errors());
         }
+        return operation;
     }
 
     // GCE-specific classes used rather than those in Devices to keep track of the Disk object through a Volume's life
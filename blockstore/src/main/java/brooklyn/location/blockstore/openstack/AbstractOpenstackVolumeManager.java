@@ -1,7 +1,12 @@
 package brooklyn.location.blockstore.openstack;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.Callable;
+
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.util.time.Duration;
 import org.jclouds.openstack.cinder.v1.CinderApi;
 import org.jclouds.openstack.cinder.v1.domain.Volume;
 import org.jclouds.openstack.cinder.v1.features.VolumeApi;
@@ -13,9 +18,17 @@ import org.jclouds.openstack.nova.v2_0.extensions.VolumeAttachmentApi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import brooklyn.location.blockstore.AbstractVolumeManager;
 import brooklyn.location.blockstore.BlockDeviceOptions;
 import brooklyn.location.blockstore.Devices;
+import brooklyn.location.blockstore.VolumeWaits;
+import brooklyn.location.blockstore.WaitStrategy;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
 
@@ -34,8 +47,16 @@ public abstract class AbstractOpenstackVolumeManager extends AbstractVolumeManag
 
     protected abstract String getRegion(JcloudsLocation location);
 
+    /**
+     * @return The availability zone that machines in the location are provisioned in, if known, otherwise null
+     */
     protected abstract String getZone(JcloudsLocation location);
 
+    @Override
+    protected String getApiRegion(JcloudsLocation location) {
+        return getRegion(location);
+    }
+
     @Override
     protected String getVolumeDeviceName(char deviceSuffix) {
         return DEVICE_PREFIX + deviceSuffix;
@@ -47,84 +68,192 @@ public abstract class AbstractOpenstackVolumeManager extends AbstractVolumeManag
     }
 
     @Override
-    public BlockDevice createBlockDevice(JcloudsLocation location, BlockDeviceOptions config) {
-        LOG.info("Creating volume: location={}; config={}", location, config);
+    protected String getDeviceSerial(BlockDevice device) {
+        // virtio exposes (up to) the first 20 characters of the volume id as the device serial
+        String id = device.getId();
+        return id.length() > 20 ? id.substring(0, 20) : id;
+    }
 
-        String region = getRegion(location);
-        String zone = getZone(location);
-        String availabilityZone = config.getZone();
-        if (availabilityZone != null && !availabilityZone.equals(zone)) {
-            LOG.warn("Availability zone "+availabilityZone+" does not match "+zone+", expected for "+location.getProvider());
+    /**
+     * Creates a volume of the config's {@link BlockDeviceOptions#getVolumeType() volume type}, in the
+     * {@link #getAvailabilityZone(JcloudsLocation, BlockDeviceOptions) availability zone} of the machine. Cinder
+     * applies the QoS specs associated with the volume type; IOPS and throughput cannot be requested per volume.
+     */
+    @Override
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(final JcloudsLocation location, final BlockDeviceOptions config) {
+        if (config.getIops() != null || config.getThroughputMBps() != null) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException("Cannot provision iops or throughputMBps "
+                    + "for Cinder volumes; choose a volumeType with the required QoS specs instead, in " + config));
         }
+        return submitApiCall(location, new Callable<BlockDevice>() {
+            @Override
+            public BlockDevice call() {
+                LOG.info("Creating volume: location={}; config={}", location, config);
 
-        CinderApi cinderApi = getCinderApi(location);
-        VolumeApi volumeApi = cinderApi.getVolumeApi(region);
-        CreateVolumeOptions options = CreateVolumeOptions.Builder
-                .name(getOrMakeName(location, config))
-                .metadata(config.getTags());
+                String region = getRegion(location);
+                String availabilityZone = getAvailabilityZone(location, config);
+
+                CinderApi cinderApi = getCinderApi(location);
+                VolumeApi volumeApi = cinderApi.getVolumeApi(region);
+                CreateVolumeOptions options = CreateVolumeOptions.Builder
+                        .name(getOrMakeName(location, config))
+                        .metadata(config.getTags());
+                if (availabilityZone != null) {
+                    options.availabilityZone(availabilityZone);
+                }
+                if (config.getVolumeType() != null) {
+                    options.volumeType(config.getVolumeType());
+                }
 
-        Volume volume = volumeApi.create(config.getSizeInGb(), options);
-        return Devices.newBlockDevice(location, volume.getId());
+                Volume volume = volumeApi.create(config.getSizeInGb(), options);
+                return Devices.newBlockDevice(location, volume.getId());
+            }
+        });
+    }
+
+    /**
+     * The zone of the config is that of the machine's location, which is its availability zone if the cloud reports
+     * one (rather than just its region, or its host, which is never used; see
+     * {@link brooklyn.location.blockstore.NewVolumeCustomizer#getBlockDeviceOptions}). The volume is created in that
+     * zone, so that it is never attached across zones; a different
+     * {@link BlockDeviceOptions#getAvailabilityZone() availabilityZone} is rejected. Otherwise the configured
+     * availability zone is used, or else the {@link #getZone(JcloudsLocation) location's}.
+     *
+     * @return The availability zone to create the volume in, or null for Cinder's default
+     * @throws IllegalArgumentException If the configured availability zone is not the machine's
+     */
+    protected String getAvailabilityZone(JcloudsLocation location, BlockDeviceOptions config) {
+        String region = getRegion(location);
+        String machineZone = (config.getZone() != null && !config.getZone().equals(region)) ? config.getZone() : null;
+        String requested = config.getAvailabilityZone();
+        if (requested != null) {
+            checkArgument(machineZone == null || requested.equals(machineZone),
+                    "availabilityZone %s does not match %s of the machine; volumes must be in the same zone", requested, machineZone);
+            return requested;
+        } else if (machineZone != null) {
+            return machineZone;
+        }
+        String zone = getZone(location);
+        return (zone != null && !zone.equals(region)) ? zone : null;
     }
 
     @Override
-    public AttachedBlockDevice attachBlockDevice(JcloudsMachineLocation machine, BlockDevice blockDevice, BlockDeviceOptions options) {
+    public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(final JcloudsMachineLocation machine, final BlockDevice blockDevice,
+            final BlockDeviceOptions options) {
         LOG.info("Attaching volume: machine={}; device={}; options={}", new Object[] {machine, blockDevice, options});
 
         JcloudsLocation location = machine.getParent();
-        String region = getRegion(location);
-        String instanceId = machine.getNode().getProviderId();
-        CinderApi cinderApi = getCinderApi(location);
-        NovaApi novaApi = getNovaApi(location);
-        VolumeAttachmentApi attachmentApi = novaApi.getVolumeAttachmentApi(region).get();
-        VolumeApi volumeApi = cinderApi.getVolumeApi(region);
-        Volume volume = volumeApi.get(blockDevice.getId());
-
-        VolumeAttachment attachment = attachmentApi.attachVolumeToServerAsDevice(
-                blockDevice.getId(), instanceId, getVolumeDeviceName(options.getDeviceSuffix()));
-
-        // Wait for the volume to become Attached (aka In Use) before moving on
-        if (!VolumePredicates.awaitInUse(volumeApi).apply(volume)) {
-            throw new IllegalStateException("Timeout on attaching volume: device="+blockDevice+"; machine="+machine);
-        }
+        final String region = getRegion(location);
+        final String instanceId = machine.getNode().getProviderId();
 
-        return blockDevice.attachedTo(machine, attachment.getDevice());
+        ListenableFuture<VolumeAttachment> attaching = submitApiCall(location, new Callable<VolumeAttachment>() {
+            @Override
+            public VolumeAttachment call() {
+                VolumeAttachmentApi attachmentApi = getNovaApi(machine.getParent()).getVolumeAttachmentApi(region).get();
+                return attachmentApi.attachVolumeToServerAsDevice(
+                        blockDevice.getId(), instanceId, getVolumeDeviceName(options.getDeviceSuffix()));
+            }
+        });
+        return Futures.transform(attaching, new AsyncFunction<VolumeAttachment, AttachedBlockDevice>() {
+            @Override
+            public ListenableFuture<AttachedBlockDevice> apply(final VolumeAttachment attachment) {
+                // Wait for the volume to become Attached (aka In Use) before moving on
+                ListenableFuture<Volume> inUse = waitForVolumeStatus(machine.getParent(), blockDevice.getId(), Volume.Status.IN_USE,
+                        getWaitStrategy(machine.getParent(), WaitStrategy.Operation.ATTACH), "attaching volume: device="+blockDevice+"; machine="+machine);
+                return Futures.transform(inUse, new Function<Volume, AttachedBlockDevice>() {
+                    @Override
+                    public AttachedBlockDevice apply(Volume volume) {
+                        return blockDevice.attachedTo(machine, attachment.getDevice());
+                    }
+                });
+            }
+        });
     }
 
     @Override
-    public BlockDevice detachBlockDevice(AttachedBlockDevice attachedBlockDevice) {
+    public ListenableFuture<BlockDevice> detachBlockDeviceAsync(final AttachedBlockDevice attachedBlockDevice) {
         LOG.info("Detaching device: {}", attachedBlockDevice);
 
-        JcloudsMachineLocation machine = attachedBlockDevice.getMachine();
-        JcloudsLocation location = machine.getParent();
-        String region = getRegion(location);
-        String instanceId = machine.getNode().getProviderId();
-        CinderApi cinderApi = getCinderApi(location);
-        NovaApi novaApi = getNovaApi(location);
-        VolumeAttachmentApi attachmentApi = novaApi.getVolumeAttachmentApi(region).get();
-        VolumeApi volumeApi = cinderApi.getVolumeApi(region);
-        Volume volume = volumeApi.get(attachedBlockDevice.getId());
+        final JcloudsMachineLocation machine = attachedBlockDevice.getMachine();
+        final JcloudsLocation location = machine.getParent();
+        final String region = getRegion(location);
+        final String instanceId = machine.getNode().getProviderId();
 
-        attachmentApi.detachVolumeFromServer(attachedBlockDevice.getId(), instanceId);
+        ListenableFuture<Boolean> detaching = submitApiCall(location, new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                VolumeAttachmentApi attachmentApi = getNovaApi(location).getVolumeAttachmentApi(region).get();
+                return attachmentApi.detachVolumeFromServer(attachedBlockDevice.getId(), instanceId);
+            }
+        });
+        return Futures.transform(detaching, new AsyncFunction<Boolean, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(Boolean detached) {
+                // Wait for the volume to become Available before moving on
+                ListenableFuture<Volume> available = waitForVolumeStatus(location, attachedBlockDevice.getId(), Volume.Status.AVAILABLE,
+                        getWaitStrategy(location, WaitStrategy.Operation.DETACH), "detaching volume: device="+attachedBlockDevice+"; machine="+machine);
+                return Futures.transform(available, new Function<Volume, BlockDevice>() {
+                    @Override
+                    public BlockDevice apply(Volume volume) {
+                        return Devices.newBlockDevice(location, volume.getId());
+                    }
+                });
+            }
+        });
+    }
 
-        // Wait for the volume to become Attached (aka In Use) before moving on
-        if (!VolumePredicates.awaitAvailable(volumeApi).apply(volume)) {
-            throw new IllegalStateException("Timeout on attaching volume: device="+attachedBlockDevice+"; machine="+machine);
-        }
+    @Override
+    public ListenableFuture<Void> deleteBlockDeviceAsync(final BlockDevice blockDevice) {
+        return submitApiCall(blockDevice.getLocation(), new Callable<Void>() {
+            @Override
+            public Void call() {
+                LOG.info("Deleting device: {}", blockDevice);
+
+                JcloudsLocation location = blockDevice.getLocation();
+                String region = getRegion(location);
+                CinderApi cinderApi = getCinderApi(location);
+                VolumeApi volumeApi = cinderApi.getVolumeApi(region);
 
-        return Devices.newBlockDevice(location, volume.getId());
+                volumeApi.delete(blockDevice.getId());
+                return null;
+            }
+        });
     }
 
+    /**
+     * By default uses the same timeout as jclouds' {@link VolumePredicates}; volumes usually change state well within
+     * that, so checks start frequently.
+     */
     @Override
-    public void deleteBlockDevice(BlockDevice blockDevice) {
-        LOG.info("Deleting device: {}", blockDevice);
-
-        JcloudsLocation location = blockDevice.getLocation();
-        String region = getRegion(location);
-        CinderApi cinderApi = getCinderApi(location);
-        VolumeApi volumeApi = cinderApi.getVolumeApi(region);
+    protected WaitStrategy getDefaultWaitStrategy(WaitStrategy.Operation operation) {
+        return new WaitStrategy()
+                .initialDelay(Duration.ONE_SECOND)
+                .maxDelay(Duration.seconds(5))
+                .timeout(Duration.minutes(10));
+    }
 
-        volumeApi.delete(blockDevice.getId());
+    /**
+     * Waits for the volume to reach the given status; fails if it does not do so within the strategy's timeout.
+     * The Cinder api is got for each check, so that it is not closed by the {@link OpenstackApiCache} during a long wait.
+     */
+    protected ListenableFuture<Volume> waitForVolumeStatus(final JcloudsLocation location, final String volumeId, final Volume.Status status,
+            WaitStrategy strategy, String description) {
+        final String region = getRegion(location);
+        return VolumeWaits.waitFor(description,
+                getApiRateLimiter(location).guard(new Callable<Volume>() {
+                    @Override
+                    public Volume call() {
+                        return getCinderApi(location).getVolumeApi(region).get(volumeId);
+                    }
+                }),
+                new Predicate<Volume>() {
+                    @Override
+                    public boolean apply(Volume volume) {
+                        return volume != null && volume.getStatus() == status;
+                    }
+                },
+                strategy,
+                true);
     }
 
     /**
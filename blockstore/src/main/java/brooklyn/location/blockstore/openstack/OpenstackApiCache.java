@@ -0,0 +1,151 @@
+package brooklyn.location.blockstore.openstack;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.jclouds.ContextBuilder;
+import org.jclouds.encryption.bouncycastle.config.BouncyCastleCryptoModule;
+import org.jclouds.logging.slf4j.config.SLF4JLoggingModule;
+import org.jclouds.sshj.config.SshjSshClientModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.inject.Module;
+
+/**
+ * Cache of the jclouds APIs (e.g. Cinder and Nova) used by the OpenStack-family volume managers.
+ * <p>
+ * Building an API builds a new jclouds context (a Guice injector, and an authentication round-trip on first use),
+ * so each API is built once per provider, endpoint and credentials and then shared. An API that has not been got
+ * for {@link #IDLE_MINUTES} is closed. Callers must therefore get the API again for each call rather than hold on to
+ * it, e.g. across a wait for a volume's status; each check of a wait is far more frequent than the idle time.
+ */
+public class OpenstackApiCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenstackApiCache.class);
+
+    public static final int IDLE_MINUTES = Integer.getInteger("brooklyn.blockstore.apiCache.idleMinutes", 30);
+
+    private static final LoadingCache<Key, Closeable> CACHE = newCache(new CacheLoader<Key, Closeable>() {
+            @Override
+            public Closeable load(Key key) {
+                LOG.debug("Building jclouds api {}", key);
+                Iterable<Module> modules = ImmutableSet.<Module> of(
+                        new SshjSshClientModule(),
+                        new SLF4JLoggingModule(),
+                        new BouncyCastleCryptoModule());
+                ContextBuilder builder = ContextBuilder.newBuilder(key.provider)
+                        .credentials(key.identity, key.credential)
+                        .modules(modules);
+                if (key.endpoint != null) {
+                    builder.endpoint(key.endpoint);
+                }
+                return builder.buildApi(key.apiType);
+            }
+        }, TimeUnit.MINUTES.toMillis(IDLE_MINUTES), Ticker.systemTicker());
+
+    /**
+     * @return A cache of apis that closes each one once it has not been got for the given time
+     */
+    static LoadingCache<Key, Closeable> newCache(CacheLoader<Key, Closeable> loader, long idleMillis, Ticker ticker) {
+        // Not limited in size: evicting an api closes it, which would break any wait still using it.
+        return CacheBuilder.newBuilder()
+                .expireAfterAccess(idleMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .removalListener(new RemovalListener<Key, Closeable>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Closeable> notification) {
+                        LOG.debug("Closing jclouds api {} ({})", notification.getKey(), notification.getCause());
+                        try {
+                            notification.getValue().close();
+                        } catch (Exception e) {
+                            Exceptions.propagateIfFatal(e);
+                            LOG.warn("Problem closing jclouds api " + notification.getKey() + " (continuing)", e);
+                        }
+                    }
+                })
+                .build(loader);
+    }
+
+    private OpenstackApiCache() {}
+
+    /**
+     * @param endpoint The endpoint, or null to use the provider's default
+     * @return The shared api of the given type; callers must not close it
+     */
+    public static <A extends Closeable> A getApi(String provider, @Nullable String endpoint, String identity, String credential,
+            Class<A> apiType) {
+        try {
+            return apiType.cast(CACHE.get(new Key(provider, endpoint, identity, credential, apiType)));
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Closes and discards all cached apis.
+     */
+    public static void clear() {
+        CACHE.invalidateAll();
+    }
+
+    static class Key {
+        private final String provider;
+        private final String endpoint;
+        private final String identity;
+        private final String credential;
+        private final Class<? extends Closeable> apiType;
+
+        Key(String provider, String endpoint, String identity, String credential, Class<? extends Closeable> apiType) {
+            this.provider = checkNotNull(provider, "provider");
+            this.endpoint = endpoint;
+            this.identity = checkNotNull(identity, "identity");
+            this.credential = checkNotNull(credential, "credential");
+            this.apiType = checkNotNull(apiType, "apiType");
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return provider.equals(other.provider)
+                    && Objects.equal(endpoint, other.endpoint)
+                    && identity.equals(other.identity)
+                    && credential.equals(other.credential)
+                    && apiType.equals(other.apiType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(provider, endpoint, identity, credential, apiType);
+        }
+
+        @Override
+        public String toString() {
+            // excludes the credential
+            return Objects.toStringHelper(this)
+                    .add("provider", provider)
+                    .add("endpoint", endpoint)
+                    .add("identity", identity)
+                    .add("api", apiType.getSimpleName())
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package brooklyn.location.blockstore.policy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.location.Location;
+import org.apache.brooklyn.api.sensor.SensorEvent;
+import org.apache.brooklyn.api.sensor.SensorEventListener;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.location.Machines;
+import org.apache.brooklyn.core.policy.AbstractPolicy;
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.location.ssh.SshMachineLocation;
+import org.apache.brooklyn.util.guava.Maybe;
+import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import brooklyn.location.blockstore.BlockstoreExecutors;
+import brooklyn.location.blockstore.Devices;
+import brooklyn.location.blockstore.GuestScript;
+import brooklyn.location.blockstore.NewVolumeCustomizer;
+import brooklyn.location.blockstore.VolumeManagers;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.VolumeOptions;
+import brooklyn.location.blockstore.sensors.VolumeMetrics;
+
+/**
+ * Grows the entity's volumes before they fill up: when the {@link VolumeMetrics#PERCENT_USED used space} of a
+ * volume reaches {@code percentUsedThreshold}, the volume is enlarged through the cloud API and its filesystem is
+ * grown online, as by the {@code resizeHdd} effector.
+ * <pre>
+ *    brooklyn.initializers:
+ *     - type: brooklyn.location.blockstore.sensors.VolumeMetricsFeed
+ *    brooklyn.policies:
+ *     - type: brooklyn.location.blockstore.policy.VolumeAutoGrowPolicy
+ *       brooklyn.config:
+ *         percentUsedThreshold: 85
+ *         stepInGb: 10
+ *         stepPercent: 25
+ *         maxSizeInGb: 500
+ *         cooldown: 30m
+ * </pre>
+ * Each volume grows by the larger of {@code stepInGb} and {@code stepPercent} of its current size, up to
+ * {@code maxSizeInGb}, and is not grown again until {@code cooldown} has passed (failed attempts included). Only the
+ * single cloud volumes in {@link VolumeMetrics#VOLUME_IDS} are grown, i.e. not striped or pooled ones.
+ * <p>
+ * The resizes of all entities run on the {@link BlockstoreExecutors#autoGrow() shared auto-grow pool}, so only a few
+ * run at once however many volumes cross their threshold together, and their cloud API calls are further limited by
+ * the {@link brooklyn.location.blockstore.ApiRateLimiter}. If the entity is in a cloud that cannot resize volumes,
+ * the policy logs a warning and suspends itself, as soon as the entity's location is known; those clouds are
+ * currently EC2 and OpenStack Cinder, until jclouds supports EC2's {@code ModifyVolume} and Cinder's {@code extend}
+ * (see {@link brooklyn.location.blockstore.effectors.ResizeHddBodyEffector}). A volume that cannot be resized for
+ * another reason is logged once, and then left alone.
+ */
+public class VolumeAutoGrowPolicy extends AbstractPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VolumeAutoGrowPolicy.class);
+
+    public static final ConfigKey<Double> PERCENT_USED_THRESHOLD = ConfigKeys.newDoubleConfigKey(
+            "percentUsedThreshold", "Grow a volume when this percentage of its filesystem's capacity is used", 85d);
+
+    public static final ConfigKey<Integer> STEP_IN_GB = ConfigKeys.newIntegerConfigKey(
+            "stepInGb", "The least to grow a volume by each time, in GB", 10);
+
+    public static final ConfigKey<Double> STEP_PERCENT = ConfigKeys.newDoubleConfigKey(
+            "stepPercent", "The least to grow a volume by each time, as a percentage of its current size", 0d);
+
+    public static final ConfigKey<Integer> MAX_SIZE_IN_GB = ConfigKeys.newIntegerConfigKey(
+            "maxSizeInGb", "The size in GB beyond which a volume is not grown", 1024);
+
+    public static final ConfigKey<Duration> COOLDOWN = ConfigKeys.newDurationConfigKey(
+            "cooldown", "How long after growing a volume (or failing to) before it may be grown again; "
+                    + "some clouds limit how often a volume can be modified", Duration.minutes(30));
+
+    private static final String SIZE_MARKER = "BROOKLYN_BLOCKSTORE_SIZE";
+    private static final long BYTES_PER_GB = 1024L * 1024 * 1024;
+
+    private final Object mutex = new Object[0];
+    private final Set<String> inProgress = Sets.newHashSet();
+    private final Set<String> unsupported = Sets.newHashSet();
+    private final Map<String, Long> lastAttempts = Maps.newHashMap();
+    private final AtomicBoolean cloudUnsupported = new AtomicBoolean();
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        super.setEntity(entity);
+        checkArgument(config().get(STEP_IN_GB) >= 0 && config().get(STEP_PERCENT) >= 0,
+                "stepInGb and stepPercent must not be negative");
+        if (!isCloudSupported()) return;
+        subscriptions().subscribe(entity, VolumeMetrics.PERCENT_USED, new SensorEventListener<Map<String, Double>>() {
+            @Override
+            public void onEvent(SensorEvent<Map<String, Double>> event) {
+                onPercentUsed(event.getValue());
+            }
+        });
+    }
+
+    protected void onPercentUsed(Map<String, Double> percentUsed) {
+        if (percentUsed == null || !isRunning() || !isCloudSupported()) return;
+        Map<String, String> volumeIds = entity.sensors().get(VolumeMetrics.VOLUME_IDS);
+        if (volumeIds == null) return;
+        Map<String, String> deviceNames = entity.sensors().get(VolumeMetrics.MOUNTED_VOLUMES);
+        double threshold = config().get(PERCENT_USED_THRESHOLD);
+        long cooldownMillis = config().get(COOLDOWN).toMilliseconds();
+
+        for (Map.Entry<String, Double> entry : percentUsed.entrySet()) {
+            String mountPoint = entry.getKey();
+            String volumeId = volumeIds.get(mountPoint);
+            String deviceName = (deviceNames != null) ? deviceNames.get(mountPoint) : null;
+            if (entry.getValue() < threshold || volumeId == null || deviceName == null) continue;
+            synchronized (mutex) {
+                Long lastAttempt = lastAttempts.get(mountPoint);
+                if (inProgress.contains(mountPoint) || unsupported.contains(mountPoint)
+                        || (lastAttempt != null && System.currentTimeMillis() - lastAttempt < cooldownMillis)) {
+                    continue;
+                }
+                inProgress.add(mountPoint);
+            }
+            LOG.debug("Volume {} at {} on {} is {}% used; scheduling growth", new Object[] {volumeId, mountPoint, entity, entry.getValue()});
+            submitGrow(volumeId, deviceName, mountPoint);
+        }
+    }
+
+    /**
+     * @return Whether the cloud of the entity's location can resize volumes, or true if the location is not yet
+     *         known. If it cannot, this is logged once and the policy is suspended.
+     */
+    protected boolean isCloudSupported() {
+        Location location = getCloudLocation();
+        if (location == null || VolumeManagers.isResizeSupportedForLocation(location)) {
+            return true;
+        }
+        if (cloudUnsupported.compareAndSet(false, true)) {
+            LOG.warn("Volumes cannot be resized in {}, the location of {}; suspending {}", new Object[] {location, entity, this});
+            suspend();
+        }
+        return false;
+    }
+
+    @Nullable
+    private Location getCloudLocation() {
+        Maybe<JcloudsMachineLocation> machine = Machines.findUniqueMachineLocation(entity.getLocations(), JcloudsMachineLocation.class);
+        if (machine.isPresent()) {
+            return machine.get();
+        }
+        return Iterables.getFirst(Iterables.filter(entity.getLocations(), JcloudsLocation.class), null);
+    }
+
+    private void submitGrow(final String volumeId, final String deviceName, final String mountPoint) {
+        Futures.addCallback(BlockstoreExecutors.autoGrow().submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                grow(volumeId, deviceName, mountPoint);
+                return null;
+            }
+        }), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                finished(mountPoint);
+            }
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof UnsupportedOperationException) {
+                    LOG.warn("Cannot grow volume {} at {} on {}; it will not be grown automatically: {}",
+                            new Object[] {volumeId, mountPoint, entity, t.getMessage()});
+                    synchronized (mutex) {
+                        unsupported.add(mountPoint);
+                    }
+                } else {
+                    LOG.warn("Failed to grow volume " + volumeId + " at " + mountPoint + " on " + entity
+                            + "; will retry after cooldown", t);
+                }
+                finished(mountPoint);
+            }
+        });
+    }
+
+    private void finished(String mountPoint) {
+        synchronized (mutex) {
+            inProgress.remove(mountPoint);
+            lastAttempts.put(mountPoint, System.currentTimeMillis());
+        }
+    }
+
+    protected void grow(String volumeId, String deviceName, String mountPoint) {
+        if (!isRunning()) return;
+        Maybe<JcloudsMachineLocation> machine = Machines.findUniqueMachineLocation(entity.getLocations(), JcloudsMachineLocation.class);
+        if (machine.isAbsent() || !(machine.get() instanceof SshMachineLocation)) {
+            LOG.debug("No ssh-able jclouds machine for {}; not growing volume {}", entity, volumeId);
+            return;
+        }
+        int currentSizeInGb = getSizeInGb((SshMachineLocation) machine.get(), mountPoint);
+        int maxSizeInGb = config().get(MAX_SIZE_IN_GB);
+        int newSizeInGb = getNewSizeInGb(currentSizeInGb, config().get(STEP_IN_GB), config().get(STEP_PERCENT), maxSizeInGb);
+        if (newSizeInGb <= currentSizeInGb) {
+            LOG.warn("Volume {} at {} on {} is {}GB, at or over its maximum of {}GB; not growing it",
+                    new Object[] {volumeId, mountPoint, entity, currentSizeInGb, maxSizeInGb});
+            return;
+        }
+        LOG.info("Growing volume {} at {} on {} from {}GB to {}GB",
+                new Object[] {volumeId, mountPoint, entity, currentSizeInGb, newSizeInGb});
+        MountedBlockDevice device = Devices.newBlockDevice(machine.get().getParent(), volumeId)
+                .attachedTo(machine.get(), deviceName)
+                .mountedAt(mountPoint);
+        new NewVolumeCustomizer(ImmutableList.<VolumeOptions>of()).resizeDisk(machine.get(), device, newSizeInGb);
+    }
+
+    /**
+     * @return The size to grow a volume of the given size to: larger by the greater of the steps, but no more than
+     *         the maximum (so no larger than now, if it is already at or over the maximum)
+     */
+    public static int getNewSizeInGb(int currentSizeInGb, int stepInGb, double stepPercent, int maxSizeInGb) {
+        int step = Math.max(stepInGb, (int) Math.ceil(currentSizeInGb * stepPercent / 100));
+        return Math.max(currentSizeInGb, Math.min(maxSizeInGb, currentSizeInGb + Math.max(step, 1)));
+    }
+
+    /**
+     * @return The command that prints the size in bytes of the device mounted at the given mount point
+     */
+    public static String getSizeCommand(String mountPoint) {
+        return "dev=$(readlink -f $(findmnt -n -o SOURCE " + mountPoint + ")) && "
+                + "echo \"" + SIZE_MARKER + " $(lsblk -b -d -n -o SIZE $dev)\"";
+    }
+
+    /**
+     * Parses the output of {@link #getSizeCommand(String)}.
+     *
+     * @return The size in GB, rounded up
+     * @throws IllegalStateException If the output does not contain the size
+     */
+    public static int parseSizeInGb(String stdout) {
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(stdout)) {
+            if (line.startsWith(SIZE_MARKER + " ")) {
+                String bytes = line.substring(SIZE_MARKER.length()).trim();
+                try {
+                    return (int) ((Long.parseLong(bytes) + BYTES_PER_GB - 1) / BYTES_PER_GB);
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Invalid device size " + bytes, e);
+                }
+            }
+        }
+        throw new IllegalStateException("No device size in output: " + stdout);
+    }
+
+    protected int getSizeInGb(SshMachineLocation machine, String mountPoint) {
+        GuestScript.Result result = new GuestScript()
+                .step("size", getSizeCommand(mountPoint))
+                .execute(machine, "Getting size of volume at " + mountPoint);
+        result.checkSuccess("Failed to get size of volume at " + mountPoint);
+        return parseSizeInGb(result.getStdout());
+    }
+}
@@ -0,0 +1,284 @@
+package brooklyn.location.blockstore.sensors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import com.google.common.reflect.TypeToken;
+
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.PooledBlockDevice;
+import brooklyn.location.blockstore.api.StripedBlockDevice;
+
+/**
+ * I/O and capacity metrics of the volumes mounted on an entity's machine, sampled from {@code /proc/diskstats}
+ * and {@code df} by one ssh command for all the volumes (see {@link VolumeMetricsFeed}).
+ * <p>
+ * The volumes are those {@link #track tracked} in the entity's {@link #MOUNTED_VOLUMES} sensor, which the
+ * {@link brooklyn.location.blockstore.NewVolumeCustomizer} and {@code addExtraHdd} effector populate; the ids of
+ * those that are single cloud volumes are kept in {@link #VOLUME_IDS}, e.g. for the
+ * {@link brooklyn.location.blockstore.policy.VolumeAutoGrowPolicy}. Each metric is
+ * published as a sensor whose value is a map from mount point to value. The rates are averaged over an interval of
+ * {@code sampleSecs} between two reads of {@code /proc/diskstats} within the command, so no state is kept between
+ * polls.
+ */
+public class VolumeMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VolumeMetrics.class);
+
+    @SuppressWarnings("serial")
+    private static final TypeToken<Map<String, Double>> BY_MOUNT_POINT = new TypeToken<Map<String, Double>>() {};
+
+    @SuppressWarnings("serial")
+    public static final AttributeSensor<Map<String, String>> MOUNTED_VOLUMES = Sensors.newSensor(
+            new TypeToken<Map<String, String>>() {},
+            "blockstore.volumes", "The volumes mounted on the machine: device names by mount point");
+
+    @SuppressWarnings("serial")
+    public static final AttributeSensor<Map<String, String>> VOLUME_IDS = Sensors.newSensor(
+            new TypeToken<Map<String, String>>() {},
+            "blockstore.volumeIds", "The ids of the single-device volumes mounted on the machine, by mount point");
+
+    public static final AttributeSensor<Map<String, Double>> READ_IOPS = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.readIops", "Reads per second, by mount point");
+    public static final AttributeSensor<Map<String, Double>> WRITE_IOPS = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.writeIops", "Writes per second, by mount point");
+    public static final AttributeSensor<Map<String, Double>> READ_KBPS = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.readKBps", "KiB read per second, by mount point");
+    public static final AttributeSensor<Map<String, Double>> WRITE_KBPS = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.writeKBps", "KiB written per second, by mount point");
+    public static final AttributeSensor<Map<String, Double>> AWAIT_MS = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.awaitMs", "Mean time in milliseconds each I/O took, including queueing, by mount point");
+    public static final AttributeSensor<Map<String, Double>> QUEUE_DEPTH = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.queueDepth", "Mean number of I/Os in flight, by mount point");
+    public static final AttributeSensor<Map<String, Double>> PERCENT_USED = Sensors.newSensor(BY_MOUNT_POINT,
+            "blockstore.volume.percentUsed", "Percentage of the filesystem's capacity used, by mount point");
+
+    private static final String MOUNT_MARKER = "BROOKLYN_BLOCKSTORE_MOUNT";
+    private static final String SAMPLE_MARKER = "BROOKLYN_BLOCKSTORE_SAMPLE";
+
+    /** Guards the read-modify-write of the tracking sensors, of any entity. */
+    private static final Object TRACKING_LOCK = new Object[0];
+
+    private VolumeMetrics() {}
+
+    /**
+     * Records that the given volumes are mounted on the entity's machine, so that their metrics are published.
+     */
+    public static void track(Entity entity, Collection<? extends MountedBlockDevice> devices) {
+        if (devices.isEmpty()) return;
+        synchronized (TRACKING_LOCK) {
+            Map<String, String> volumes = entity.sensors().get(MOUNTED_VOLUMES);
+            Map<String, String> updated = (volumes == null) ? Maps.<String, String>newLinkedHashMap() : Maps.newLinkedHashMap(volumes);
+            for (MountedBlockDevice device : devices) {
+                updated.put(device.getMountPoint(), device.getDeviceName());
+            }
+            entity.sensors().set(MOUNTED_VOLUMES, ImmutableMap.copyOf(updated));
+
+            Map<String, String> ids = entity.sensors().get(VOLUME_IDS);
+            Map<String, String> updatedIds = (ids == null) ? Maps.<String, String>newLinkedHashMap() : Maps.newLinkedHashMap(ids);
+            for (MountedBlockDevice device : devices) {
+                // striped and pooled volumes are not one cloud volume that can be resized on its own
+                if (!(device instanceof StripedBlockDevice || device instanceof PooledBlockDevice)) {
+                    updatedIds.put(device.getMountPoint(), device.getId());
+                }
+            }
+            entity.sensors().set(VOLUME_IDS, ImmutableMap.copyOf(updatedIds));
+        }
+    }
+
+    /**
+     * Records that the given volumes are no longer mounted on the entity's machine, e.g. as they have been
+     * unmounted or detached, or rolled back, so that neither their metrics nor the
+     * {@link brooklyn.location.blockstore.policy.VolumeAutoGrowPolicy} look for them. A mount point that has since
+     * been tracked for another device is left alone.
+     */
+    public static void untrack(Entity entity, Collection<? extends MountedBlockDevice> devices) {
+        if (devices.isEmpty()) return;
+        synchronized (TRACKING_LOCK) {
+            Map<String, String> volumes = entity.sensors().get(MOUNTED_VOLUMES);
+            if (volumes != null) {
+                Map<String, String> updated = Maps.newLinkedHashMap(volumes);
+                for (MountedBlockDevice device : devices) {
+                    if (device.getDeviceName().equals(updated.get(device.getMountPoint()))) {
+                        updated.remove(device.getMountPoint());
+                    }
+                }
+                entity.sensors().set(MOUNTED_VOLUMES, ImmutableMap.copyOf(updated));
+            }
+
+            Map<String, String> ids = entity.sensors().get(VOLUME_IDS);
+            if (ids != null) {
+                Map<String, String> updatedIds = Maps.newLinkedHashMap(ids);
+                for (MountedBlockDevice device : devices) {
+                    if (device.getId().equals(updatedIds.get(device.getMountPoint()))) {
+                        updatedIds.remove(device.getMountPoint());
+                    }
+                }
+                entity.sensors().set(VOLUME_IDS, ImmutableMap.copyOf(updatedIds));
+            }
+        }
+    }
+
+    /**
+     * @return The command that prints the samples of the filesystems mounted at the given mount points, as parsed
+     *         by {@link #parse(String)}
+     */
+    public static String getSampleCommand(Collection<String> mountPoints, int sampleSecs) {
+        checkArgument(sampleSecs >= 1, "sampleSecs must be at least 1, but was %s", sampleSecs);
+        for (String mountPoint : mountPoints) {
+            checkArgument(CharMatcher.WHITESPACE.matchesNoneOf(mountPoint) && !mountPoint.contains("'"), "invalid mount point %s", mountPoint);
+        }
+        List<String> result = Lists.newArrayList();
+        if (!mountPoints.isEmpty()) {
+            result.add("for mp in " + Joiner.on(" ").join(mountPoints) + "; do "
+                    + "src=$(findmnt -n -o SOURCE $mp) || continue; "
+                    + "echo \"" + MOUNT_MARKER + " $mp $(basename $(readlink -f $src)) $(df -P -k $mp | awk 'NR==2 {print $3, $4}')\"; "
+                    + "done");
+        }
+        result.add("echo \"" + SAMPLE_MARKER + " $(date +%s%N)\"; cat /proc/diskstats");
+        result.add("sleep " + sampleSecs);
+        result.add("echo \"" + SAMPLE_MARKER + " $(date +%s%N)\"; cat /proc/diskstats");
+        return Joiner.on("; ").join(result);
+    }
+
+    /**
+     * Parses the output of {@link #getSampleCommand}.
+     *
+     * @return The metrics of each mounted filesystem, by mount point
+     */
+    public static Map<String, Sample> parse(String stdout) {
+        Map<String, String> devices = Maps.newLinkedHashMap();
+        Map<String, Double> percentUsed = Maps.newHashMap();
+        List<Long> times = Lists.newArrayList();
+        List<Map<String, long[]>> diskstats = Lists.newArrayList();
+        for (String line : Splitter.on('\n').trimResults().omitEmptyStrings().split(stdout)) {
+            List<String> fields = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().splitToList(line);
+            if (fields.get(0).equals(MOUNT_MARKER) && fields.size() >= 3) {
+                devices.put(fields.get(1), fields.get(2));
+                if (fields.size() >= 5) {
+                    Double used = Doubles.tryParse(fields.get(3));
+                    Double available = Doubles.tryParse(fields.get(4));
+                    if (used != null && available != null && used + available > 0) {
+                        percentUsed.put(fields.get(1), used * 100 / (used + available));
+                    }
+                }
+            } else if (fields.get(0).equals(SAMPLE_MARKER) && fields.size() >= 2) {
+                times.add(Longs.tryParse(fields.get(1)));
+                diskstats.add(Maps.<String, long[]>newHashMap());
+            } else if (!diskstats.isEmpty() && fields.size() >= 14) {
+                long[] counters = new long[11];
+                for (int i = 0; i < counters.length; i++) {
+                    Long value = Longs.tryParse(fields.get(i + 3));
+                    counters[i] = (value == null) ? 0 : value;
+                }
+                diskstats.get(diskstats.size() - 1).put(fields.get(2), counters);
+            }
+        }
+        if (times.size() != 2 || times.get(0) == null || times.get(1) == null || times.get(1) <= times.get(0)) {
+            LOG.debug("Unexpected volume metrics output; ignoring: {}", stdout);
+            return ImmutableMap.of();
+        }
+        double seconds = (times.get(1) - times.get(0)) / 1e9;
+        Map<String, Sample> result = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> entry : devices.entrySet()) {
+            long[] before = diskstats.get(0).get(entry.getValue());
+            long[] after = diskstats.get(1).get(entry.getValue());
+            if (before == null || after == null) continue;
+            result.put(entry.getKey(), new Sample(before, after, seconds, percentUsed.get(entry.getKey())));
+        }
+        return result;
+    }
+
+    /**
+     * The metrics of one filesystem over the sampling interval.
+     */
+    public static class Sample {
+        // indexes of the fields of /proc/diskstats after the device name
+        private static final int READS = 0, SECTORS_READ = 2, MS_READING = 3, WRITES = 4, SECTORS_WRITTEN = 6,
+                MS_WRITING = 7, WEIGHTED_MS = 10;
+
+        private final double readIops;
+        private final double writeIops;
+        private final double readKBps;
+        private final double writeKBps;
+        private final double awaitMs;
+        private final double queueDepth;
+        private final Double percentUsed;
+
+        Sample(long[] before, long[] after, double seconds, Double percentUsed) {
+            long reads = after[READS] - before[READS];
+            long writes = after[WRITES] - before[WRITES];
+            this.readIops = reads / seconds;
+            this.writeIops = writes / seconds;
+            // diskstats sectors are always 512 bytes
+            this.readKBps = (after[SECTORS_READ] - before[SECTORS_READ]) / 2.0 / seconds;
+            this.writeKBps = (after[SECTORS_WRITTEN] - before[SECTORS_WRITTEN]) / 2.0 / seconds;
+            long ms = (after[MS_READING] - before[MS_READING]) + (after[MS_WRITING] - before[MS_WRITING]);
+            this.awaitMs = (reads + writes > 0) ? (double) ms / (reads + writes) : 0;
+            this.queueDepth = (after[WEIGHTED_MS] - before[WEIGHTED_MS]) / (seconds * 1000);
+            this.percentUsed = percentUsed;
+        }
+
+        public double getReadIops() {
+            return readIops;
+        }
+
+        public double getWriteIops() {
+            return writeIops;
+        }
+
+        public double getReadKBps() {
+            return readKBps;
+        }
+
+        public double getWriteKBps() {
+            return writeKBps;
+        }
+
+        public double getAwaitMs() {
+            return awaitMs;
+        }
+
+        public double getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return The percentage of the filesystem used, or null if {@code df} did not report it
+         */
+        public Double getPercentUsed() {
+            return percentUsed;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("readIops", readIops)
+                    .add("writeIops", writeIops)
+                    .add("readKBps", readKBps)
+                    .add("writeKBps", writeKBps)
+                    .add("awaitMs", awaitMs)
+                    .add("queueDepth", queueDepth)
+                    .add("percentUsed", percentUsed)
+                    .toString();
+        }
+    }
+}
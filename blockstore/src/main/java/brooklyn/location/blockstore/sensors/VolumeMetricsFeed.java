@@ -0,0 +1,124 @@
+package brooklyn.location.blockstore.sensors;
+
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.EntityInitializer;
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.feed.ssh.SshFeed;
+import org.apache.brooklyn.feed.ssh.SshPollConfig;
+import org.apache.brooklyn.feed.ssh.SshPollValue;
+import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Adds a feed to the entity that publishes the {@link VolumeMetrics} of its tracked volumes, polling them all with
+ * one ssh command per machine every {@code period}.
+ * <pre>
+ *    brooklyn.initializers:
+ *     - type: brooklyn.location.blockstore.sensors.VolumeMetricsFeed
+ *       brooklyn.config:
+ *         period: 30s
+ *         sampleSecs: 1
+ * </pre>
+ */
+public class VolumeMetricsFeed implements EntityInitializer {
+
+    public static final ConfigKey<Duration> PERIOD = ConfigKeys.newDurationConfigKey(
+            "period", "How often to sample the volumes", Duration.seconds(30));
+
+    public static final ConfigKey<Integer> SAMPLE_SECS = ConfigKeys.newIntegerConfigKey(
+            "sampleSecs", "The interval in seconds over which the rates are measured, within each sample", 1);
+
+    private enum Metric {
+        READ_IOPS(VolumeMetrics.READ_IOPS) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getReadIops(); }
+        },
+        WRITE_IOPS(VolumeMetrics.WRITE_IOPS) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getWriteIops(); }
+        },
+        READ_KBPS(VolumeMetrics.READ_KBPS) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getReadKBps(); }
+        },
+        WRITE_KBPS(VolumeMetrics.WRITE_KBPS) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getWriteKBps(); }
+        },
+        AWAIT_MS(VolumeMetrics.AWAIT_MS) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getAwaitMs(); }
+        },
+        QUEUE_DEPTH(VolumeMetrics.QUEUE_DEPTH) {
+            @Override double get(VolumeMetrics.Sample sample) { return sample.getQueueDepth(); }
+        },
+        PERCENT_USED(VolumeMetrics.PERCENT_USED) {
+            @Override double get(VolumeMetrics.Sample sample) {
+                return sample.getPercentUsed() != null ? sample.getPercentUsed() : Double.NaN;
+            }
+        };
+
+        private final AttributeSensor<Map<String, Double>> sensor;
+
+        Metric(AttributeSensor<Map<String, Double>> sensor) {
+            this.sensor = sensor;
+        }
+
+        abstract double get(VolumeMetrics.Sample sample);
+    }
+
+    private final ConfigBag params;
+
+    public VolumeMetricsFeed() {
+        this.params = ConfigBag.newInstance();
+    }
+
+    public VolumeMetricsFeed(Map<?, ?> params) {
+        this.params = ConfigBag.newInstance(params);
+    }
+
+    public VolumeMetricsFeed(ConfigBag params) {
+        this.params = params;
+    }
+
+    @Override
+    public void apply(final EntityLocal entity) {
+        final int sampleSecs = params.get(SAMPLE_SECS);
+        // the same supplier for every poll, so that the feed runs one command for them all
+        Supplier<String> command = new Supplier<String>() {
+            @Override
+            public String get() {
+                Map<String, String> volumes = entity.sensors().get(VolumeMetrics.MOUNTED_VOLUMES);
+                return VolumeMetrics.getSampleCommand(
+                        volumes != null ? volumes.keySet() : ImmutableList.<String>of(), sampleSecs);
+            }
+        };
+        SshFeed.Builder feed = SshFeed.builder()
+                .entity(entity)
+                .period(params.get(PERIOD))
+                .onlyIfServiceUp();
+        for (final Metric metric : Metric.values()) {
+            feed.poll(new SshPollConfig<Map<String, Double>>(metric.sensor)
+                    .command(command)
+                    .onSuccess(new Function<SshPollValue, Map<String, Double>>() {
+                        @Override
+                        public Map<String, Double> apply(SshPollValue input) {
+                            Map<String, Double> result = Maps.newLinkedHashMap();
+                            for (Map.Entry<String, VolumeMetrics.Sample> sample : VolumeMetrics.parse(input.getStdout()).entrySet()) {
+                                double value = metric.get(sample.getValue());
+                                if (!Double.isNaN(value)) {
+                                    result.put(sample.getKey(), value);
+                                }
+                            }
+                            return ImmutableMap.copyOf(result);
+                        }
+                    }));
+        }
+        entity.feeds().add(feed.build());
+    }
+}
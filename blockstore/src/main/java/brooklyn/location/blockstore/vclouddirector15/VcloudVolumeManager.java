@@ -2,21 +2,29 @@ package brooklyn.location.blockstore.vclouddirector15;
 
 import brooklyn.location.blockstore.AbstractVolumeManager;
 import brooklyn.location.blockstore.BlockDeviceOptions;
-import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.BlockstoreExecutors;
+import brooklyn.location.blockstore.VolumeWaits;
+import brooklyn.location.blockstore.WaitStrategy;
+import brooklyn.location.blockstore.api.AsyncResizableVolumeManager;
 import brooklyn.location.blockstore.api.AttachedBlockDevice;
 import brooklyn.location.blockstore.api.BlockDevice;
-import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.ResizableVolumeManager;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.brooklyn.location.jclouds.JcloudsLocation;
 import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
-import org.apache.brooklyn.util.repeat.Repeater;
-import org.jclouds.compute.domain.NodeMetadata;
-import org.jclouds.util.Predicates2;
+import org.apache.brooklyn.util.time.Duration;
 import org.jclouds.vcloud.director.v1_5.VCloudDirectorApi;
+import org.jclouds.vcloud.director.v1_5.VCloudDirectorException;
 import org.jclouds.vcloud.director.v1_5.domain.RasdItemsList;
 import org.jclouds.vcloud.director.v1_5.domain.Task;
 import org.jclouds.vcloud.director.v1_5.domain.Vm;
@@ -26,21 +34,25 @@ import org.jclouds.vcloud.director.v1_5.features.TaskApi;
 import org.jclouds.vcloud.director.v1_5.features.VmApi;
 import org.jclouds.vcloud.director.v1_5.functions.AddScsiLogicSASBus;
 import org.jclouds.vcloud.director.v1_5.functions.NewScsiLogicSASDisk;
-import org.jclouds.vcloud.director.v1_5.predicates.TaskSuccess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 
-public class VcloudVolumeManager extends AbstractVolumeManager {
+public class VcloudVolumeManager extends AbstractVolumeManager
+        implements ResizableVolumeManager, AsyncResizableVolumeManager {
     private static final String VCLOUD_DISKS_ARE_BOUND_TO_VM_MSG = "In Vcloud Director each disk is bound to the VM. Disks will be deleted on VM termination.";
     private static final Logger LOG = LoggerFactory.getLogger(VcloudVolumeManager.class);
     public static final long EDIT_VM_TIMEOUT_MS = 600000L;
     public static final String OS_DEVICE_PREFIX = "/dev/sd";
 
+    /** The last pending edit of each VM's disks, keyed by VM id. */
+    private static final Map<String, ListenableFuture<?>> PENDING_EDITS = Maps.newHashMap();
+
     @Override
     protected String getVolumeDeviceName(char deviceSuffix) {
         return null;
@@ -52,88 +64,242 @@ public class VcloudVolumeManager extends AbstractVolumeManager {
     }
 
     @Override
-    public BlockDevice createBlockDevice(JcloudsLocation jcloudsLocation, BlockDeviceOptions options) {
-        throw new IllegalStateException("This method shouldn't be called for Vcloud Director.");
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation jcloudsLocation, BlockDeviceOptions options) {
+        return Futures.immediateFailedFuture(new IllegalStateException("This method shouldn't be called for Vcloud Director."));
+    }
+
+    public BlockDevice createBlockDevice(JcloudsMachineLocation jcloudsMachineLocation, BlockDeviceOptions options) {
+        return await(createBlockDeviceAsync(jcloudsMachineLocation, options));
     }
 
+    /**
+     * Adds a new disk to the machine's VM. Edits to a VM's hardware section are serialized, because concurrent
+     * edits would each be based on the VM's disks before the other edit.
+     */
     @Override
-    public MountedBlockDevice createAttachAndMountVolume(JcloudsMachineLocation machine, BlockDeviceOptions deviceOptions,
-                                                         FilesystemOptions filesystemOptions) {
-        BlockDevice device = createBlockDevice(machine, deviceOptions);
-        AttachedBlockDevice attached = attachBlockDevice(machine, device, deviceOptions);
-        createFilesystem(attached, filesystemOptions);
-        return mountFilesystem(attached, filesystemOptions);
+    public ListenableFuture<BlockDevice> createBlockDeviceAsync(final JcloudsMachineLocation jcloudsMachineLocation, final BlockDeviceOptions options) {
+        String vmId = jcloudsMachineLocation.getOptionalNode().get().getId();
+        return afterPendingEdits(vmId, new Callable<ListenableFuture<BlockDevice>>() {
+            @Override
+            public ListenableFuture<BlockDevice> call() {
+                return addDisk(jcloudsMachineLocation, options);
+            }
+        });
     }
 
-    public BlockDevice createBlockDevice(JcloudsMachineLocation jcloudsMachineLocation, BlockDeviceOptions options) {
-        Optional<NodeMetadata> vcloudNodeMetadata = jcloudsMachineLocation.getOptionalNode();
-        VCloudDirectorApi vCloudDirectorApi = jcloudsMachineLocation.getParent().getComputeService().getContext().unwrapApi(VCloudDirectorApi.class);
-        VmApi vmApi = vCloudDirectorApi.getVmApi();
-        TaskApi taskApi = vCloudDirectorApi.getTaskApi();
-        Vm vm = Vm.builder().id(vcloudNodeMetadata.get().getId()).build();
-        RasdItemsList virtualHardwareSectionDisks = vmApi.getVirtualHardwareSectionDisks(vm.getId());
-
-        if (!Iterables.tryFind(virtualHardwareSectionDisks, NewScsiLogicSASDisk.SCSI_LSILOGICSAS_PREDICATE).isPresent()) {
-            virtualHardwareSectionDisks = new AddScsiLogicSASBus().addScsiLogicSASBus(virtualHardwareSectionDisks);
+    /**
+     * Enlarges the disk, which must be attached to (i.e. part of) a VM, by editing the capacity in the VM's
+     * hardware section. The edit is serialized with other edits of the VM's disks.
+     */
+    @Override
+    public ListenableFuture<BlockDevice> resizeBlockDeviceAsync(final BlockDevice blockDevice, final int newSizeInGb) {
+        Preconditions.checkArgument(blockDevice instanceof AttachedBlockDevice, "Vcloud Director disk must be attached to a VM: %s", blockDevice);
+        final JcloudsMachineLocation machine = ((AttachedBlockDevice) blockDevice).getMachine();
+        final String vmId = machine.getOptionalNode().get().getId();
+        return afterPendingEdits(vmId, new Callable<ListenableFuture<BlockDevice>>() {
+            @Override
+            public ListenableFuture<BlockDevice> call() {
+                return resizeDisk(machine, vmId, blockDevice, newSizeInGb);
+            }
+        });
+    }
+
+    /**
+     * Runs the given edit of a VM's disks once all the previously submitted edits of its disks are done.
+     */
+    private <T> ListenableFuture<T> afterPendingEdits(final String vmId, final Callable<ListenableFuture<T>> edit) {
+        synchronized (PENDING_EDITS) {
+            ListenableFuture<?> previous = PENDING_EDITS.get(vmId);
+            ListenableFuture<List<Object>> previousDone = Futures.successfulAsList(previous != null
+                    ? ImmutableList.<ListenableFuture<?>>of(previous)
+                    : ImmutableList.<ListenableFuture<?>>of());
+            final ListenableFuture<T> result = Futures.transform(previousDone, new AsyncFunction<List<Object>, T>() {
+                @Override
+                public ListenableFuture<T> apply(List<Object> input) throws Exception {
+                    return edit.call();
+                }
+            }, BlockstoreExecutors.scheduler());
+            PENDING_EDITS.put(vmId, result);
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (PENDING_EDITS) {
+                        if (PENDING_EDITS.get(vmId) == result) {
+                            PENDING_EDITS.remove(vmId);
+                        }
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return result;
         }
+    }
+
+    private ListenableFuture<BlockDevice> addDisk(final JcloudsMachineLocation jcloudsMachineLocation, final BlockDeviceOptions options) {
+        final JcloudsLocation location = jcloudsMachineLocation.getParent();
+        VCloudDirectorApi vCloudDirectorApi = location.getComputeService().getContext().unwrapApi(VCloudDirectorApi.class);
+        final VmApi vmApi = vCloudDirectorApi.getVmApi();
+        final TaskApi taskApi = vCloudDirectorApi.getTaskApi();
+        final Vm vm = Vm.builder().id(jcloudsMachineLocation.getOptionalNode().get().getId()).build();
+        final String osDeviceName = getOSDeviceName(options.getDeviceSuffix());
+
+        ListenableFuture<DiskEdit> editing = submitApiCall(location, new Callable<DiskEdit>() {
+            @Override
+            public DiskEdit call() {
+                RasdItemsList virtualHardwareSectionDisks = vmApi.getVirtualHardwareSectionDisks(vm.getId());
+
+                if (!Iterables.tryFind(virtualHardwareSectionDisks, NewScsiLogicSASDisk.SCSI_LSILOGICSAS_PREDICATE).isPresent()) {
+                    virtualHardwareSectionDisks = new AddScsiLogicSASBus().addScsiLogicSASBus(virtualHardwareSectionDisks);
+                }
+
+                RasdItem nextDisk = new NewScsiLogicSASDisk().apply(virtualHardwareSectionDisks);
+
+                CimString newDiskHostResource = new CimString(Iterables.getOnlyElement(nextDisk.getHostResources()));
+                Preconditions.checkNotNull(newDiskHostResource, "HostResource for the existing disk should not be null");
+                newDiskHostResource.getOtherAttributes().put(new QName("http://www.vmware.com/vcloud/v1.5", "capacity"), "" + (options.getSizeInGb() * 1024));
+                RasdItem newDiskToBeCreated = RasdItem.builder()
+                        .fromRasdItem(nextDisk) // The same AddressOnParent (SCSI Controller)
+                        .hostResources(ImmutableList.of(newDiskHostResource)) // NB! Use hostResources to override hostResources from newDisk
+                        .build();
+                virtualHardwareSectionDisks.add(newDiskToBeCreated);
+                Task task = vmApi.editVirtualHardwareSectionDisks(vm.getId(), virtualHardwareSectionDisks);
+                return new DiskEdit(task, newDiskToBeCreated);
+            }
+        });
+        return Futures.transform(editing, new AsyncFunction<DiskEdit, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(DiskEdit edit) {
+                final VcloudBlockDevice vcloudBlockDevice = new VcloudBlockDevice(edit.disk, jcloudsMachineLocation, vm, osDeviceName);
+                ListenableFuture<Task> edited = waitForTask(location, taskApi, edit.task, getWaitStrategy(location, WaitStrategy.Operation.CREATE));
+                return Futures.transform(edited, new AsyncFunction<Task, BlockDevice>() {
+                    @Override
+                    public ListenableFuture<BlockDevice> apply(Task task) {
+                        // Extra check for which seems to be necessary.
+                        return Futures.transform(waitForVolumeToBeAvailable(vcloudBlockDevice,
+                                getWaitStrategy(location, WaitStrategy.Operation.ATTACH)), Functions.<BlockDevice>constant(vcloudBlockDevice));
+                    }
+                });
+            }
+        });
+    }
 
-        RasdItem nextDisk = new NewScsiLogicSASDisk().apply(virtualHardwareSectionDisks);
-
-        CimString newDiskHostResource = new CimString(Iterables.getOnlyElement(nextDisk.getHostResources()));
-        Preconditions.checkNotNull(newDiskHostResource, "HostResource for the existing disk should not be null");
-        newDiskHostResource.getOtherAttributes().put(new QName("http://www.vmware.com/vcloud/v1.5", "capacity"), "" + (options.getSizeInGb() * 1024));
-        RasdItem newDiskToBeCreated = RasdItem.builder()
-                .fromRasdItem(nextDisk) // The same AddressOnParent (SCSI Controller)
-                .hostResources(ImmutableList.of(newDiskHostResource)) // NB! Use hostResources to override hostResources from newDisk
-                .build();
-        virtualHardwareSectionDisks.add(newDiskToBeCreated);
-        Task task = vmApi.editVirtualHardwareSectionDisks(vm.getId(), virtualHardwareSectionDisks);
-        Predicates2.retry(
-                new TaskSuccess(taskApi),
-                Predicates2.DEFAULT_PERIOD * 5L,
-                Predicates2.DEFAULT_MAX_PERIOD * 5L,
-                EDIT_VM_TIMEOUT_MS).apply(task);
-        String osDeviceName = getOSDeviceName(options.getDeviceSuffix());
-        VcloudBlockDevice vcloudBlockDevice = new VcloudBlockDevice(newDiskToBeCreated, jcloudsMachineLocation, vm, osDeviceName);
-
-        // Extra check for which seems to be necessary.
-        waitForVolumeToBeAvailable(vcloudBlockDevice);
-        return vcloudBlockDevice;
+    private ListenableFuture<BlockDevice> resizeDisk(JcloudsMachineLocation machine, final String vmId, final BlockDevice blockDevice,
+            final int newSizeInGb) {
+        final JcloudsLocation location = machine.getParent();
+        VCloudDirectorApi vCloudDirectorApi = location.getComputeService().getContext().unwrapApi(VCloudDirectorApi.class);
+        final VmApi vmApi = vCloudDirectorApi.getVmApi();
+        final TaskApi taskApi = vCloudDirectorApi.getTaskApi();
+
+        ListenableFuture<Task> editing = submitApiCall(location, new Callable<Task>() {
+            @Override
+            public Task call() {
+                RasdItemsList virtualHardwareSectionDisks = vmApi.getVirtualHardwareSectionDisks(vmId);
+                Optional<RasdItem> disk = Iterables.tryFind(virtualHardwareSectionDisks, new Predicate<RasdItem>() {
+                    @Override public boolean apply(@Nullable RasdItem input) {
+                        return RasdItem.ResourceType.DISK_DRIVE.equals(input.getResourceType()) && blockDevice.getId().equals(input.getInstanceID());
+                    }
+                });
+                if (!disk.isPresent()) {
+                    throw new IllegalStateException("Disk " + blockDevice.getId() + " not found in VM " + vmId);
+                }
+                CimString hostResource = new CimString(Iterables.getOnlyElement(disk.get().getHostResources()));
+                QName capacity = new QName("http://www.vmware.com/vcloud/v1.5", "capacity");
+                String currentCapacityMb = hostResource.getOtherAttributes().get(capacity);
+                if (currentCapacityMb != null && Long.parseLong(currentCapacityMb) >= newSizeInGb * 1024L) {
+                    throw new IllegalArgumentException("Cannot resize disk " + blockDevice.getId() + " of " + currentCapacityMb
+                            + "MB to " + newSizeInGb + "GB; disks can only be enlarged");
+                }
+                hostResource.getOtherAttributes().put(capacity, "" + (newSizeInGb * 1024));
+                RasdItem resized = RasdItem.builder()
+                        .fromRasdItem(disk.get())
+                        .hostResources(ImmutableList.of(hostResource))
+                        .build();
+                virtualHardwareSectionDisks.remove(disk.get());
+                virtualHardwareSectionDisks.add(resized);
+                return vmApi.editVirtualHardwareSectionDisks(vmId, virtualHardwareSectionDisks);
+            }
+        });
+        final WaitStrategy strategy = getWaitStrategy(location, WaitStrategy.Operation.RESIZE);
+        return Futures.transform(editing, new AsyncFunction<Task, BlockDevice>() {
+            @Override
+            public ListenableFuture<BlockDevice> apply(Task task) {
+                return Futures.transform(waitForTask(location, taskApi, task, strategy), Functions.<BlockDevice>constant(blockDevice));
+            }
+        });
     }
 
     // In Vcloud Director, Hard Disk is bound to the VM
     @Override
-    public AttachedBlockDevice attachBlockDevice(JcloudsMachineLocation machine, BlockDevice blockDevice, BlockDeviceOptions options) {
-        return (VcloudBlockDevice)blockDevice;
+    public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice, BlockDeviceOptions options) {
+        return Futures.<AttachedBlockDevice>immediateFuture((VcloudBlockDevice)blockDevice);
     }
 
     // In Vcloud Director, Hard Disk is bound to the VM
     @Override
-    public BlockDevice detachBlockDevice(AttachedBlockDevice attachedBlockDevice) {
+    public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice) {
         LOG.info("Detach block device called. It will be still visible to the VM. " + VCLOUD_DISKS_ARE_BOUND_TO_VM_MSG);
-        return attachedBlockDevice;
+        return Futures.<BlockDevice>immediateFuture(attachedBlockDevice);
     }
 
     @Override
-    public void deleteBlockDevice(BlockDevice blockDevice) {
+    public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice) {
         LOG.info("delete Block device queried. " + VCLOUD_DISKS_ARE_BOUND_TO_VM_MSG);
+        return Futures.immediateFuture(null);
+    }
+
+    /**
+     * Checks frequently at first, because a disk edit can complete in well under a second, but allows
+     * {@link #EDIT_VM_TIMEOUT_MS} for an edit of the VM's disks (to add or resize one).
+     */
+    @Override
+    protected WaitStrategy getDefaultWaitStrategy(WaitStrategy.Operation operation) {
+        WaitStrategy result = new WaitStrategy()
+                .initialDelay(Duration.millis(250))
+                .maxDelay(Duration.seconds(5));
+        return (operation == WaitStrategy.Operation.CREATE || operation == WaitStrategy.Operation.RESIZE)
+                ? result.timeout(Duration.millis(EDIT_VM_TIMEOUT_MS))
+                : result;
     }
 
-    protected void waitForVolumeToBeAvailable(final VcloudBlockDevice device) {
-        boolean available = Repeater.create("waiting for volume available:" + device)
-                .every(1, TimeUnit.SECONDS)
-                .limitTimeTo(120, TimeUnit.SECONDS)
-                .until(new Callable<Boolean>() {
+    /**
+     * Waits for the task to succeed, as {@link org.jclouds.vcloud.director.v1_5.predicates.TaskSuccess} would, but
+     * getting the task's status only when the location's {@link #getApiRateLimiter(JcloudsLocation) rate limiter}
+     * has a permit.
+     */
+    private ListenableFuture<Task> waitForTask(JcloudsLocation location, final TaskApi taskApi, final Task task, WaitStrategy strategy) {
+        return VolumeWaits.waitFor("waiting for task to succeed: " + task.getHref(),
+                getApiRateLimiter(location).guard(new Callable<Task>() {
                     @Override
-                    public Boolean call() throws Exception {
-                        Optional<RasdItem> volume = describeVolume(device);
-                        return volume.isPresent();
-                    }})
-                .run();
-
-        if (!available) {
-            LOG.error("Volume {} still not available. Last known was: {}; continuing", device, null);
-        }
+                    public Task call() {
+                        return taskApi.get(task.getHref());
+                    }}),
+                new Predicate<Task>() {
+                    @Override
+                    public boolean apply(Task current) {
+                        // perhaps the task is not available yet
+                        if (current == null) return false;
+                        if (current.getStatus() == Task.Status.ERROR) {
+                            throw new VCloudDirectorException(current);
+                        }
+                        return current.getStatus() == Task.Status.SUCCESS;
+                    }},
+                strategy,
+                false);
+    }
+
+    protected ListenableFuture<Optional<RasdItem>> waitForVolumeToBeAvailable(final VcloudBlockDevice device, WaitStrategy strategy) {
+        return VolumeWaits.waitFor("waiting for volume available:" + device,
+                getApiRateLimiter(device.getLocation()).guard(new Callable<Optional<RasdItem>>() {
+                    @Override
+                    public Optional<RasdItem> call() throws Exception {
+                        return describeVolume(device);
+                    }}),
+                new Predicate<Optional<RasdItem>>() {
+                    @Override
+                    public boolean apply(Optional<RasdItem> volume) {
+                        return volume != null && volume.isPresent();
+                    }},
+                strategy,
+                false);
     }
 
     public static Optional<RasdItem> describeVolume(final VcloudBlockDevice device) {
@@ -146,4 +312,15 @@ public class VcloudVolumeManager extends AbstractVolumeManager {
         });
         return rasdItemOptional;
     }
+
+    /** The result of submitting an edit of a VM's disks: the task doing the edit, and the disk being added. */
+    private static class DiskEdit {
+        private final Task task;
+        private final RasdItem disk;
+
+        DiskEdit(Task task, RasdItem disk) {
+            this.task = task;
+            this.disk = disk;
+        }
+    }
 }
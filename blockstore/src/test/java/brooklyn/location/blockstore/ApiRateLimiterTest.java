@@ -0,0 +1,89 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jclouds.http.HttpResponse;
+import org.jclouds.http.HttpResponseException;
+import org.testng.annotations.Test;
+
+public class ApiRateLimiterTest {
+
+    @Test
+    public void testCallIsMadeOnApiPool() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 1000) {};
+
+        String thread = limiter.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        // not on the scheduler, whose few threads would be held up by the cloud
+        assertTrue(thread.startsWith("brooklyn-blockstore-api-"), thread);
+        assertEquals(limiter.getCallCount(), 1);
+    }
+
+    @Test
+    public void testThrottledCallIsRetried() throws Exception {
+        ApiRateLimiter limiter = new ApiRateLimiter("test", 1000) {};
+        final AtomicInteger count = new AtomicInteger();
+
+        int result = limiter.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                if (count.incrementAndGet() == 1) {
+                    throw new IllegalStateException("AWSError{code='RequestLimitExceeded', message='Request limit exceeded.'}");
+                }
+                return count.get();
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        assertEquals(result, 2);
+        assertEquals(limiter.getThrottledCount(), 1);
+        assertEquals(limiter.getRetryCount(), 1);
+    }
+
+    @Test
+    public void testLimiterIsConfiguredOnlyWhenCreated() throws Exception {
+        ApiRateLimiter limiter = ApiRateLimiter.forKey("aws-ec2||test-identity|us-east-1", 5, 3);
+
+        // e.g. a second location of the same account, configured differently
+        assertSame(ApiRateLimiter.forKey("aws-ec2||test-identity|us-east-1", 20, 1), limiter);
+        assertEquals(limiter.getRate(), 5.0);
+        assertEquals(limiter.getMaxRetries(), 3);
+    }
+
+    @Test
+    public void testTooManyRequestsIsThrottling() throws Exception {
+        HttpResponse response = HttpResponse.builder().statusCode(429).build();
+        assertTrue(ApiRateLimiter.isThrottlingError(new HttpResponseException("request failed", null, response)));
+    }
+
+    @Test
+    public void testThrottlingErrorCodesAreThrottling() throws Exception {
+        // as reported by EC2
+        assertTrue(ApiRateLimiter.isThrottlingError(new RuntimeException("Wrapped",
+                new IllegalStateException("AWSError{code='RequestLimitExceeded', message='Request limit exceeded.'}"))));
+
+        // as reported by GCE
+        HttpResponse response = HttpResponse.builder().statusCode(403).build();
+        assertTrue(ApiRateLimiter.isThrottlingError(new HttpResponseException("request failed", null, response,
+                "{\"error\": {\"errors\": [{\"reason\": \"rateLimitExceeded\"}]}}")));
+    }
+
+    @Test
+    public void testOtherErrorsAreNotThrottling() throws Exception {
+        HttpResponse response = HttpResponse.builder().statusCode(403).build();
+        assertFalse(ApiRateLimiter.isThrottlingError(new HttpResponseException("request failed", null, response,
+                "{\"error\": {\"errors\": [{\"reason\": \"forbidden\"}]}}")));
+        assertFalse(ApiRateLimiter.isThrottlingError(new IllegalStateException("Volume vol-1234 not found")));
+    }
+}
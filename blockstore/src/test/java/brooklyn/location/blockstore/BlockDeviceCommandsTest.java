@@ -0,0 +1,107 @@
+package brooklyn.location.blockstore;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class BlockDeviceCommandsTest {
+
+    @Test
+    public void testWaitForDeviceBySerial() throws Exception {
+        String command = BlockDeviceCommands.waitForDevice("/dev/xvdh", "vol0123456789abcdef0", 60, true);
+
+        assertTrue(command.contains("serial='vol0123456789abcdef0'"), command);
+        assertTrue(command.contains("udevadm settle"), command);
+        assertTrue(command.contains("ln -s \"$found\" \"$dev\""), command);
+    }
+
+    @Test
+    public void testWaitForDeviceBySerialKeepsLinkAcrossReboots() throws Exception {
+        String command = BlockDeviceCommands.waitForDevice("/dev/xvdh", "vol0123456789abcdef0", 60, true);
+
+        assertTrue(command.contains("ENV{ID_SERIAL}==\\\"*vol0123456789abcdef0*\\\", SYMLINK+=\\\"xvdh\\\""), command);
+        assertTrue(command.contains(sudo("tee /etc/udev/rules.d/61-brooklyn-blockstore-link-xvdh.rules")), command);
+    }
+
+    @Test
+    public void testWaitForDeviceWithoutUdevadm() throws Exception {
+        String command = BlockDeviceCommands.waitForDevice("/dev/vdc", null, 60, false);
+
+        assertTrue(command.contains("serial=''"), command);
+        assertFalse(command.contains("udevadm"), command);
+        assertFalse(command.contains("SYMLINK"), command);
+    }
+
+    @Test
+    public void testRemoveDeviceLink() throws Exception {
+        assertEquals(BlockDeviceCommands.removeDeviceLink("/dev/xvdh"),
+                sudo("rm -f /etc/udev/rules.d/61-brooklyn-blockstore-link-xvdh.rules") + "; "
+                        + "if [ -L /dev/xvdh ]; then " + sudo("rm -f /dev/xvdh") + "; fi");
+    }
+
+    @Test
+    public void testRejectsUnsafeSerial() throws Exception {
+        try {
+            BlockDeviceCommands.waitForDevice("/dev/xvdh", "vol'; rm -rf /", 60, true);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "invalid device serial");
+        }
+    }
+
+    @Test
+    public void testCreateMdadmStripe() throws Exception {
+        StripeOptions stripe = new StripeOptions(2).chunkSizeKb(128);
+        assertEquals(BlockDeviceCommands.createStripe("brooklyn-h", ImmutableList.of("/dev/xvdh", "/dev/xvdi"), stripe).get(0),
+                sudo("mdadm --create /dev/md/brooklyn-h --run --level=0 --chunk=128 --raid-devices=2 /dev/xvdh /dev/xvdi"));
+    }
+
+    @Test
+    public void testCreateLvmStripe() throws Exception {
+        StripeOptions stripe = new StripeOptions(2).method(StripeOptions.Method.LVM);
+        assertEquals(BlockDeviceCommands.createStripe("brooklyn-h", ImmutableList.of("/dev/xvdh", "/dev/xvdi"), stripe),
+                ImmutableList.of(
+                        sudo("pvcreate -y /dev/xvdh /dev/xvdi"),
+                        sudo("vgcreate brooklyn-h /dev/xvdh /dev/xvdi"),
+                        sudo("lvcreate -y -n stripe -i 2 -I 256k -l 100%FREE brooklyn-h")));
+        assertEquals(BlockDeviceCommands.getStripeDeviceName("brooklyn-h", StripeOptions.Method.LVM), "/dev/brooklyn-h/stripe");
+    }
+
+    @Test
+    public void testStartPrewarm() throws Exception {
+        String stateDir = BlockDeviceCommands.getPrewarmStateDir("/dev/xvdh");
+        assertEquals(stateDir, "/var/tmp/brooklyn-prewarm-xvdh");
+
+        String command = BlockDeviceCommands.startPrewarm("/dev/xvdh", stateDir, 4, 64);
+        assertTrue(command.contains("n=4;"), command);
+        assertTrue(command.contains("seg=64;"), command);
+        assertTrue(command.contains("iflag=direct"), command);
+        assertTrue(command.contains("nohup"), command);
+    }
+
+    @Test
+    public void testTuneDeviceWritesUdevRuleMatchingSerial() throws Exception {
+        String command = BlockDeviceCommands.tuneDevice("/dev/xvdh", "vol0123456789abcdef0", BlockDeviceTuning.preset("database"));
+
+        assertTrue(command.contains("for s in none noop;"), command);
+        assertTrue(command.contains("ENV{ID_SERIAL}==\\\"*vol0123456789abcdef0*\\\""), command);
+        assertTrue(command.contains("ATTR{queue/read_ahead_kb}=\\\"16\\\""), command);
+        assertTrue(command.contains(sudo("tee /etc/udev/rules.d/60-brooklyn-blockstore-xvdh.rules")), command);
+        assertFalse(command.contains("mq-deadline"), command);
+    }
+
+    @Test
+    public void testTuneDeviceWithoutSerialWritesNoUdevRule() throws Exception {
+        String command = BlockDeviceCommands.tuneDevice("/dev/xvdh", null, BlockDeviceTuning.preset("database"));
+
+        assertTrue(command.contains("read_ahead_kb"), command);
+        assertFalse(command.contains("KERNEL=="), command);
+        assertFalse(command.contains("/etc/udev/rules.d/"), command);
+    }
+}
@@ -0,0 +1,52 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class BlockDeviceTuningTest {
+
+    @Test
+    public void testPresets() throws Exception {
+        assertTrue(BlockDeviceTuning.preset("default").isEmpty());
+        assertEquals(BlockDeviceTuning.preset("database").getSchedulers(), ImmutableList.of("none", "noop"));
+        assertEquals(BlockDeviceTuning.preset("Streaming").getReadAheadKb(), Integer.valueOf(4096));
+    }
+
+    @Test
+    public void testUnknownPreset() throws Exception {
+        try {
+            BlockDeviceTuning.preset("fast");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "Unknown block device tuning preset fast");
+        }
+    }
+
+    @Test
+    public void testFromMapOverridesPreset() throws Exception {
+        BlockDeviceTuning tuning = BlockDeviceTuning.fromMap(ImmutableMap.of(
+                "preset", "database",
+                "readAheadKb", 64,
+                "scheduler", "kyber, none"));
+        assertEquals(tuning.getSchedulers(), ImmutableList.of("kyber", "none"));
+        assertEquals(tuning.getReadAheadKb(), Integer.valueOf(64));
+        assertEquals(tuning.getRqAffinity(), Integer.valueOf(2));
+    }
+
+    @Test
+    public void testFilesystemOptionsFromMap() throws Exception {
+        FilesystemOptions options = FilesystemOptions.fromMap(ImmutableMap.of(
+                "mountPoint", "/mnt/h",
+                "filesystemType", "ext4",
+                "tuning", "streaming"));
+        assertEquals(options.getTuning().getReadAheadKb(), Integer.valueOf(4096));
+        assertNull(new FilesystemOptions("/mnt/h").getTuning());
+    }
+}
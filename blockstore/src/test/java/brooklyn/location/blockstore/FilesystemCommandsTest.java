@@ -0,0 +1,138 @@
+package brooklyn.location.blockstore;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class FilesystemCommandsTest {
+
+    @Test
+    public void testExt4DefaultsToLazyInitWithoutDiscard() throws Exception {
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "ext4")),
+                sudo("/sbin/mkfs -t ext4 -F -E lazy_itable_init=1,lazy_journal_init=1,nodiscard /dev/xvdh"));
+    }
+
+    @Test
+    public void testExt4Tuning() throws Exception {
+        FilesystemOptions options = new FilesystemOptions("/mnt/h", "ext4")
+                .lazyInit(false)
+                .discard(true)
+                .blockSize(4096)
+                .bytesPerInode(65536)
+                .mkfsOptions("-m 0");
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/xvdh", options),
+                sudo("/sbin/mkfs -t ext4 -F -b 4096 -i 65536 -m 0 /dev/xvdh"));
+    }
+
+    @Test
+    public void testExt3HasNoLazyInit() throws Exception {
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "ext3")),
+                sudo("/sbin/mkfs -t ext3 -F -E nodiscard /dev/xvdh"));
+    }
+
+    @Test
+    public void testXfs() throws Exception {
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "xfs")),
+                sudo("/sbin/mkfs -t xfs -f -K /dev/xvdh"));
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "xfs").discard(true).blockSize(4096)),
+                sudo("/sbin/mkfs -t xfs -f -b size=4096 /dev/xvdh"));
+    }
+
+    @Test
+    public void testXfsRejectsBytesPerInode() throws Exception {
+        try {
+            FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "xfs").bytesPerInode(65536));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "bytesPerInode");
+        }
+    }
+
+    @Test
+    public void testAlignsToStripes() throws Exception {
+        StripeOptions stripe = new StripeOptions(4).chunkSizeKb(64);
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/md/brooklyn-h", new FilesystemOptions("/mnt/h", "ext4").lazyInit(false), stripe),
+                sudo("/sbin/mkfs -t ext4 -F -E nodiscard,stride=16,stripe_width=64 /dev/md/brooklyn-h"));
+        assertEquals(FilesystemCommands.makeFilesystem("/dev/md/brooklyn-h", new FilesystemOptions("/mnt/h", "xfs"), stripe),
+                sudo("/sbin/mkfs -t xfs -f -K -d su=64k,sw=4 /dev/md/brooklyn-h"));
+    }
+
+    @Test
+    public void testGrowsFilesystemByTypeWhileMounted() throws Exception {
+        String command = FilesystemCommands.growFilesystem("/mnt/h");
+        assertTrue(command.contains("findmnt -n -o SOURCE /mnt/h"), command);
+        assertTrue(command.contains(sudo("resize2fs \"$dev\"")), command);
+        assertTrue(command.contains(sudo("xfs_growfs /mnt/h")), command);
+        assertFalse(command.contains("umount"), command);
+    }
+
+    @Test
+    public void testFromMap() throws Exception {
+        FilesystemOptions options = FilesystemOptions.fromMap(ImmutableMap.of(
+                "mountPoint", "/mnt/h",
+                "filesystemType", "ext4",
+                "lazyInit", "false",
+                "blockSize", 4096));
+        assertEquals(options.isLazyInit(), false);
+        assertEquals(options.isDiscard(), false);
+        assertEquals(options.getBlockSize(), Integer.valueOf(4096));
+    }
+
+    @Test
+    public void testDefaultMountOptions() throws Exception {
+        assertEquals(FilesystemCommands.getMountOptions(new FilesystemOptions("/mnt/h", "ext4")), "noatime");
+    }
+
+    @Test
+    public void testMountProfilePerFilesystemType() throws Exception {
+        assertEquals(FilesystemCommands.getMountOptions(new FilesystemOptions("/mnt/h", "ext4").mountProfile("throughput")),
+                "noatime,nodiratime,commit=60");
+        assertEquals(FilesystemCommands.getMountOptions(new FilesystemOptions("/mnt/h", "xfs").mountProfile("ssd")),
+                "noatime,nodiratime,logbufs=8,logbsize=256k,discard");
+    }
+
+    @Test
+    public void testMountOptionsOverrideProfile() throws Exception {
+        FilesystemOptions options = FilesystemOptions.fromMap(ImmutableMap.of(
+                "mountPoint", "/mnt/h",
+                "filesystemType", "ext4",
+                "mountProfile", "throughput",
+                "mountOptions", "commit=30, nobarrier"));
+        assertEquals(FilesystemCommands.getMountOptions(options), "noatime,nodiratime,commit=30,nobarrier");
+    }
+
+    @Test
+    public void testInvalidMkfsOptions() throws Exception {
+        for (String mkfsOptions : ImmutableList.of("-m 0; reboot", "-L $(reboot)", "-L 'data'")) {
+            try {
+                FilesystemCommands.makeFilesystem("/dev/xvdh", new FilesystemOptions("/mnt/h", "ext4").mkfsOptions(mkfsOptions));
+                Asserts.shouldHaveFailedPreviously("mkfsOptions=" + mkfsOptions);
+            } catch (IllegalArgumentException e) {
+                Asserts.expectedFailureContains(e, "invalid mkfs option");
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidMountOptions() throws Exception {
+        try {
+            FilesystemCommands.getMountOptions(new FilesystemOptions("/mnt/h", "ext4").mountOptions("noatime 0 0"));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "invalid mount option");
+        }
+        try {
+            new FilesystemOptions("/mnt/h", "ext4").mountProfile("fastest");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "Unknown mount profile fastest");
+        }
+    }
+}
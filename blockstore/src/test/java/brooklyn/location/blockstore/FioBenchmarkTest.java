@@ -0,0 +1,91 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class FioBenchmarkTest {
+
+    private static final String FIO3_OUTPUT = Joiner.on("\n").join(
+            "BROOKLYN_BLOCKSTORE_STEP fio 0",
+            "BROOKLYN_BLOCKSTORE_FIO_BEGIN",
+            "{",
+            "  \"fio version\" : \"fio-3.1\",",
+            "  \"jobs\" : [",
+            "    { \"jobname\" : \"randread\",",
+            "      \"read\" : { \"iops\" : 3000.5, \"bw\" : 12002, \"lat_ns\" : { \"mean\" : 10650000.0 } },",
+            "      \"write\" : { \"iops\" : 0, \"bw\" : 0, \"lat_ns\" : { \"mean\" : 0 } } },",
+            "    { \"jobname\" : \"seqwrite\",",
+            "      \"read\" : { \"iops\" : 0, \"bw\" : 0, \"lat_ns\" : { \"mean\" : 0 } },",
+            "      \"write\" : { \"iops\" : 125.0, \"bw\" : 128000, \"lat_ns\" : { \"mean\" : 256000000.0 } } }",
+            "  ]",
+            "}",
+            "",
+            "BROOKLYN_BLOCKSTORE_FIO_END",
+            "BROOKLYN_BLOCKSTORE_STEP report 0");
+
+    @Test
+    public void testParseFio3() throws Exception {
+        Map<String, FioBenchmark.Result> results = FioBenchmark.parse(FIO3_OUTPUT);
+
+        assertEquals(ImmutableList.copyOf(results.keySet()), ImmutableList.of("randread", "seqwrite"));
+        FioBenchmark.Direction randread = results.get("randread").getMeasured();
+        assertEquals(randread.getIops(), 3000.5, 0.01);
+        assertEquals(randread.getBandwidthKBps(), 12002, 0.01);
+        assertEquals(randread.getMeanLatencyUs(), 10650, 0.01);
+        assertEquals(results.get("seqwrite").getMeasured().getBandwidthKBps(), 128000, 0.01);
+    }
+
+    @Test
+    public void testParseFio2LatencyInMicroseconds() throws Exception {
+        String output = "{ \"jobs\" : [ { \"jobname\" : \"randread-qd1\","
+                + " \"read\" : { \"iops\" : 1500, \"bw\" : 6000, \"lat\" : { \"mean\" : 660.5 } },"
+                + " \"write\" : { \"iops\" : 0, \"bw\" : 0, \"lat\" : { \"mean\" : 0 } } } ] }";
+
+        FioBenchmark.Result result = FioBenchmark.parse(output).get("randread-qd1");
+        assertEquals(result.getMeasured().getMeanLatencyUs(), 660.5, 0.01);
+    }
+
+    @Test
+    public void testFioCommand() throws Exception {
+        String command = FioBenchmark.fromMap(ImmutableMap.of("jobs", "randwrite, sweep", "sweepQueueDepths", ImmutableList.of(1, 32)))
+                .getFioCommand("/mnt/h", "/tmp/out.json");
+
+        assertTrue(command.contains("--directory=/mnt/h --filename=brooklyn-fio-benchmark"), command);
+        assertTrue(command.contains("--name=randwrite --rw=randwrite --bs=4k --iodepth=32 --stonewall"), command);
+        assertTrue(command.contains("--name=randread-qd1 --rw=randread --bs=4k --iodepth=1 --stonewall"), command);
+        assertTrue(command.contains("--name=randread-qd32 "), command);
+        assertFalse(command.contains("--name=randread "), command);
+    }
+
+    @Test
+    public void testUnknownJob() throws Exception {
+        try {
+            new FioBenchmark().jobs("mixed");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "Unknown fio job mixed");
+        }
+    }
+
+    @Test
+    public void testUnsafeMountPoint() throws Exception {
+        for (String mountPoint : ImmutableList.of("mnt/h", "/mnt/h; reboot", "/mnt/$(reboot)", "/mnt/h h")) {
+            try {
+                new FioBenchmark().run(null, mountPoint);
+                Asserts.shouldHaveFailedPreviously("mountPoint=" + mountPoint);
+            } catch (IllegalArgumentException e) {
+                Asserts.expectedFailureContains(e, "invalid mount point " + mountPoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+
+public class GuestFactsTest {
+
+    @Test
+    public void testParseIgnoresOtherLines() throws Exception {
+        String stdout = Joiner.on("\n").join(
+                "Last login: yesterday",
+                "distro=centos",
+                "packageManager=yum\r",
+                "mkfs=ext2,ext3,ext4,xfs,",
+                "lsblk=true",
+                "udevadm=false",
+                "uid=1000",
+                "sudoRequiresTty=true",
+                "unrelated=value");
+
+        GuestFacts facts = new GuestFacts(GuestFacts.parse(stdout));
+
+        assertEquals(facts.getDistro(), "centos");
+        assertEquals(facts.getPackageManager(), "yum");
+        assertTrue(facts.hasTool("lsblk"));
+        assertFalse(facts.hasTool("udevadm"));
+        assertFalse(facts.hasTool("mdadm"));
+        assertFalse(facts.isRoot());
+        assertTrue(facts.isSudoTtyRequired());
+        assertNull(facts.get("unrelated"));
+    }
+
+    @Test
+    public void testHasMkfs() throws Exception {
+        GuestFacts facts = new GuestFacts(ImmutableMap.of(GuestFacts.MKFS, "ext3,ext4,"));
+
+        assertTrue(facts.hasMkfs("ext4"));
+        assertTrue(facts.hasMkfs("auto"));
+        assertFalse(facts.hasMkfs("xfs"));
+        assertFalse(new GuestFacts(ImmutableMap.<String, String>of()).hasMkfs("auto"));
+    }
+
+    @Test
+    public void testUnknownFactsAssumeSetupNeeded() throws Exception {
+        GuestFacts facts = new GuestFacts(ImmutableMap.of(GuestFacts.SUDO_REQUIRES_TTY, "unknown"));
+
+        assertTrue(facts.isSudoTtyRequired());
+        assertEquals(facts.getDistro(), "unknown");
+        assertNull(facts.getPackageManager());
+    }
+}
@@ -0,0 +1,78 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+
+public class GuestScriptTest {
+
+    @Test
+    public void testCommandsReportEachStep() throws Exception {
+        List<String> commands = new GuestScript()
+                .preamble("d=/tmp")
+                .step("first", "echo a", "echo b")
+                .toCommands();
+
+        assertEquals(commands.size(), 2);
+        assertEquals(commands.get(0), "d=/tmp");
+        assertEquals(commands.get(1), "( echo a && echo b ); rc=$?; echo \"BROOKLYN_BLOCKSTORE_STEP first $rc\"; "
+                + "if [ $rc -ne 0 ]; then exit $rc; fi");
+    }
+
+    @Test
+    public void testParseSuccess() throws Exception {
+        String stdout = Joiner.on("\n").join(
+                "some output",
+                "BROOKLYN_BLOCKSTORE_STEP mkfs 0",
+                "more output",
+                "BROOKLYN_BLOCKSTORE_STEP mount 0\r");
+
+        GuestScript.Result result = GuestScript.parse(ImmutableList.of("mkfs", "mount"), 0, stdout, "");
+
+        assertTrue(result.isSuccess());
+        assertFalse(result.getFailedStep().isPresent());
+        assertEquals(result.getStep("mount").get().getExitCode(), Integer.valueOf(0));
+    }
+
+    @Test
+    public void testParseFailureIdentifiesStep() throws Exception {
+        String stdout = Joiner.on("\n").join(
+                "BROOKLYN_BLOCKSTORE_STEP mkfs 0",
+                "mount: special device /dev/xvdh does not exist",
+                "BROOKLYN_BLOCKSTORE_STEP mount 32");
+
+        GuestScript.Result result = GuestScript.parse(ImmutableList.of("mkfs", "mount", "chown"), 32, stdout, "");
+
+        assertFalse(result.isSuccess());
+        assertEquals(result.getFailedStep().get().getName(), "mount");
+        assertEquals(result.getFailedStep().get().getExitCode(), Integer.valueOf(32));
+        assertFalse(result.getStep("chown").get().isRun());
+        assertNull(result.getStep("chown").get().getExitCode());
+
+        try {
+            result.checkSuccess("Failed to prepare volume");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (GuestScriptException e) {
+            Asserts.expectedFailureContains(e, "step mount failed with exit code 32");
+            assertEquals(e.getFailedStep().get().getName(), "mount");
+        }
+    }
+
+    @Test
+    public void testParseWhenNoStepsRan() throws Exception {
+        GuestScript.Result result = GuestScript.parse(ImmutableList.of("mkfs"), 255, "", "Connection refused");
+
+        assertFalse(result.isSuccess());
+        assertEquals(result.getFailedStep().get().getName(), "mkfs");
+        assertFalse(result.getFailedStep().get().isRun());
+    }
+}
@@ -0,0 +1,291 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.exceptions.CompoundRuntimeException;
+import org.jclouds.domain.Location;
+import org.jclouds.domain.LocationBuilder;
+import org.jclouds.domain.LocationScope;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.VolumeManager;
+import brooklyn.location.blockstore.api.VolumeOptions;
+
+public class NewVolumeCustomizerTest {
+
+    private static final Location REGION = location(LocationScope.REGION, "RegionOne", null);
+
+    @Test
+    public void testParallelProvisionsAllVolumes() throws Exception {
+        TestCustomizer customizer = new TestCustomizer(new TestVolumeManager(' ', ' '));
+
+        List<MountedBlockDevice> mounted = customizer.createAndAttachDisksInParallel(null, volumes('h', 'i', 'j'));
+
+        assertEquals(mountPoints(mounted), ImmutableSet.of("/mnt/h", "/mnt/i", "/mnt/j"));
+        assertEquals(customizer.rolledBack.size(), 0);
+    }
+
+    @Test
+    public void testParallelFailureRollsBackProvisionedVolumes() throws Exception {
+        TestCustomizer customizer = new TestCustomizer(new TestVolumeManager('i', ' '));
+
+        try {
+            customizer.createAndAttachDisksInParallel(null, volumes('h', 'i', 'j'));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (CompoundRuntimeException e) {
+            Asserts.expectedFailureContains(e, "1 of 3 failed");
+        }
+        assertEquals(ids(customizer.rolledBack), ImmutableSet.of("vol-h", "vol-j"));
+    }
+
+    @Test
+    public void testParallelFailureRollsBackPartlyProvisionedVolume() throws Exception {
+        TestCustomizer customizer = new TestCustomizer(new TestVolumeManager(' ', 'i'));
+
+        try {
+            customizer.createAndAttachDisksInParallel(null, volumes('h', 'i', 'j'));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (CompoundRuntimeException e) {
+            Asserts.expectedFailureContains(e, "1 of 3 failed");
+        }
+        // the volume that failed to attach was created, so must be deleted too
+        assertEquals(ids(customizer.rolledBack), ImmutableSet.of("vol-h", "vol-i", "vol-j"));
+    }
+
+    @Test
+    public void testZoneOfZoneScopedNode() throws Exception {
+        Location zone = location(LocationScope.ZONE, "us-east-1a", REGION);
+
+        assertEquals(NewVolumeCustomizer.getZone(zone), "us-east-1a");
+    }
+
+    @Test
+    public void testZoneOfHostScopedNodeIsItsParentZone() throws Exception {
+        Location zone = location(LocationScope.ZONE, "nova", REGION);
+        Location host = location(LocationScope.HOST, "a3c4f1b0e9d2", zone);
+
+        assertEquals(NewVolumeCustomizer.getZone(host), "nova");
+    }
+
+    @Test
+    public void testZoneOfHostScopedNodeWithoutZoneIsItsRegion() throws Exception {
+        Location host = location(LocationScope.HOST, "a3c4f1b0e9d2", REGION);
+
+        assertEquals(NewVolumeCustomizer.getZone(host), "RegionOne");
+    }
+
+    @Test
+    public void testNoZoneOfOrphanHost() throws Exception {
+        assertNull(NewVolumeCustomizer.getZone(location(LocationScope.HOST, "a3c4f1b0e9d2", null)));
+        assertNull(NewVolumeCustomizer.getZone(null));
+    }
+
+    private static List<VolumeOptions> volumes(char... suffixes) {
+        ImmutableList.Builder<VolumeOptions> result = ImmutableList.builder();
+        for (char suffix : suffixes) {
+            result.add(new VolumeOptions(new BlockDeviceOptions().sizeInGb(1).deviceSuffix(suffix),
+                    new FilesystemOptions("/mnt/" + suffix)));
+        }
+        return result.build();
+    }
+
+    private static Set<String> mountPoints(List<MountedBlockDevice> devices) {
+        Set<String> result = Sets.newHashSet();
+        for (MountedBlockDevice device : devices) {
+            result.add(device.getMountPoint());
+        }
+        return result;
+    }
+
+    private static Set<String> ids(List<? extends BlockDevice> devices) {
+        Set<String> result = Sets.newHashSet();
+        for (BlockDevice device : devices) {
+            result.add(device.getId());
+        }
+        return result;
+    }
+
+    private static Location location(LocationScope scope, String id, Location parent) {
+        return new LocationBuilder()
+                .scope(scope)
+                .id(id)
+                .description(id)
+                .parent(parent)
+                .build();
+    }
+
+    /**
+     * Records the volumes it rolls back, rather than unmounting, detaching and deleting them.
+     */
+    private static class TestCustomizer extends NewVolumeCustomizer {
+        final VolumeManager volumeManager;
+        final List<BlockDevice> rolledBack = new CopyOnWriteArrayList<BlockDevice>();
+
+        TestCustomizer(VolumeManager volumeManager) {
+            this.volumeManager = volumeManager;
+        }
+
+        @Override
+        protected VolumeManager getVolumeManager(JcloudsMachineLocation machine) {
+            return volumeManager;
+        }
+
+        @Override
+        protected BlockDeviceOptions getBlockDeviceOptions(JcloudsMachineLocation machine, VolumeOptions volumeOptions) {
+            return BlockDeviceOptions.copy(volumeOptions.getBlockDeviceOptions());
+        }
+
+        @Override
+        protected void rollback(JcloudsMachineLocation machine, List<? extends BlockDevice> devices) {
+            rolledBack.addAll(devices);
+        }
+    }
+
+    /**
+     * Provisions each volume immediately, except for failing to create or attach the volumes with the given suffixes.
+     */
+    private static class TestVolumeManager extends AbstractVolumeManager {
+        final char failCreate;
+        final char failAttach;
+
+        TestVolumeManager(char failCreate, char failAttach) {
+            this.failCreate = failCreate;
+            this.failAttach = failAttach;
+        }
+
+        @Override
+        protected String getVolumeDeviceName(char deviceSuffix) {
+            return "/dev/test-" + deviceSuffix;
+        }
+
+        @Override
+        protected String getOSDeviceName(char deviceSuffix) {
+            return "/dev/test-" + deviceSuffix;
+        }
+
+        @Override
+        protected ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsMachineLocation machine, BlockDeviceOptions options) {
+            return createBlockDeviceAsync((JcloudsLocation) null, options);
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation location, BlockDeviceOptions options) {
+            if (options.getDeviceSuffix() == failCreate) {
+                return Futures.immediateFailedFuture(new IllegalStateException("quota exceeded"));
+            }
+            return Futures.<BlockDevice>immediateFuture(new TestDevice("vol-" + options.getDeviceSuffix()));
+        }
+
+        @Override
+        public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+                BlockDeviceOptions options) {
+            if (options.getDeviceSuffix() == failAttach) {
+                return Futures.immediateFailedFuture(new IllegalStateException("timed out attaching"));
+            }
+            return Futures.immediateFuture(blockDevice.attachedTo(machine, getVolumeDeviceName(options.getDeviceSuffix())));
+        }
+
+        @Override
+        public ListenableFuture<MountedBlockDevice> prepareVolumeAsync(AttachedBlockDevice attachedDevice, FilesystemOptions options) {
+            return Futures.immediateFuture(attachedDevice.mountedAt(options.getMountPoint()));
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+    }
+
+    private static class TestDevice implements BlockDevice {
+        final String id;
+
+        TestDevice(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public JcloudsLocation getLocation() {
+            return null;
+        }
+
+        @Override
+        public AttachedBlockDevice attachedTo(JcloudsMachineLocation machine, String deviceName) {
+            return new TestAttachedDevice(id, deviceName);
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[" + id + "]";
+        }
+    }
+
+    private static class TestAttachedDevice extends TestDevice implements AttachedBlockDevice {
+        final String deviceName;
+
+        TestAttachedDevice(String id, String deviceName) {
+            super(id);
+            this.deviceName = deviceName;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        @Override
+        public char getDeviceSuffix() {
+            return deviceName.charAt(deviceName.length() - 1);
+        }
+
+        @Override
+        public JcloudsMachineLocation getMachine() {
+            return null;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            return new TestMountedDevice(id, deviceName, mountPoint);
+        }
+    }
+
+    private static class TestMountedDevice extends TestAttachedDevice implements MountedBlockDevice {
+        final String mountPoint;
+
+        TestMountedDevice(String id, String deviceName, String mountPoint) {
+            super(id, deviceName);
+            this.mountPoint = mountPoint;
+        }
+
+        @Override
+        public String getMountPoint() {
+            return mountPoint;
+        }
+    }
+}
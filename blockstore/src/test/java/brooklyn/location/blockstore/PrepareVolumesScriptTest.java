@@ -0,0 +1,189 @@
+package brooklyn.location.blockstore;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+
+public class PrepareVolumesScriptTest {
+
+    private static final GuestFacts FACTS = new GuestFacts(ImmutableMap.of(
+            "mkfs", "ext4,xfs",
+            "udevadm", "true",
+            "sudoRequiresTty", "false"));
+
+    private final TestVolumeManager volumeManager = new TestVolumeManager();
+    private final FilesystemOptions dataOptions = new FilesystemOptions("/mnt/data", "ext4");
+    private final FilesystemOptions logsOptions = new FilesystemOptions("/mnt/logs", "xfs");
+    private final Map<AttachedBlockDevice, FilesystemOptions> devices = ImmutableMap.<AttachedBlockDevice, FilesystemOptions>of(
+            new TestAttachedDevice('h'), dataOptions,
+            new TestAttachedDevice('i'), logsOptions);
+
+    @Test
+    public void testStepsPrepareAllVolumesTogether() throws Exception {
+        GuestScript script = volumeManager.getPrepareVolumesScript(FACTS, devices);
+
+        assertEquals(script.getStepNames(), ImmutableList.of(
+                "wait-for-devices", "mkfs", "mkfs-h", "mkfs-i", "mkdir", "fstab", "mount", "cleanup"));
+        assertEquals(script.toCommands().get(0), "tmpdir=$(mktemp -d /tmp/brooklyn-blockstore-XXXXXX)");
+    }
+
+    @Test
+    public void testWaitsForEachDevice() throws Exception {
+        String waits = getStep(volumeManager.getPrepareVolumesScript(FACTS, devices), "wait-for-devices");
+
+        assertTrue(waits.contains(BlockDeviceCommands.waitForDevice("/dev/xvdh", null, 60, true)), waits);
+        assertTrue(waits.contains(BlockDeviceCommands.waitForDevice("/dev/xvdi", null, 60, true)), waits);
+    }
+
+    @Test
+    public void testMakesFilesystemsAsConcurrentJobs() throws Exception {
+        GuestScript script = volumeManager.getPrepareVolumesScript(FACTS, devices);
+
+        assertTrue(getStep(script, "mkfs").contains(
+                "( " + FilesystemCommands.makeFilesystem("/dev/xvdh", dataOptions) + " > \"$tmpdir/mkfs-h\".log 2>&1; echo $? > \"$tmpdir/mkfs-h\".rc ) & "
+                        + "( " + FilesystemCommands.makeFilesystem("/dev/xvdi", logsOptions) + " > \"$tmpdir/mkfs-i\".log 2>&1; echo $? > \"$tmpdir/mkfs-i\".rc ) & "
+                        + "wait"),
+                getStep(script, "mkfs"));
+        // each job's exit code is reported by its own step, failing if the job did not record one
+        assertTrue(getStep(script, "mkfs-i").contains("cat \"$tmpdir/mkfs-i\".log; exit $(cat \"$tmpdir/mkfs-i\".rc 2> /dev/null || echo 1)"),
+                getStep(script, "mkfs-i"));
+    }
+
+    @Test
+    public void testWritesFstabOnceAndMountsEach() throws Exception {
+        GuestScript script = volumeManager.getPrepareVolumesScript(FACTS, devices);
+
+        assertTrue(getStep(script, "mkdir").contains(sudo("mkdir -p -m 755 /mnt/data /mnt/logs")), getStep(script, "mkdir"));
+        assertTrue(getStep(script, "fstab").contains("printf '%s\\n' \"" + volumeManager.getFstabEntry("/dev/xvdh", dataOptions) + "\" \""
+                + volumeManager.getFstabEntry("/dev/xvdi", logsOptions) + "\" | " + sudo("tee -a /etc/fstab")),
+                getStep(script, "fstab"));
+        String mount = getStep(script, "mount");
+        assertTrue(mount.contains(volumeManager.getMountCommand(dataOptions) + " && " + volumeManager.getMountCommand(logsOptions)), mount);
+    }
+
+    @Test
+    public void testFstabEntryDoesNotBlockBoot() throws Exception {
+        assertEquals(volumeManager.getFstabEntry("/dev/xvdh", dataOptions), "/dev/xvdh /mnt/data ext4 noatime,nofail 0 0");
+        assertEquals(volumeManager.getFstabEntry("/dev/xvdh", new FilesystemOptions("/mnt/data", "ext4").mountOptions("nofail,nobarrier")),
+                "/dev/xvdh /mnt/data ext4 noatime,nofail,nobarrier 0 0");
+    }
+
+    @Test
+    public void testInstallsToolsOnlyIfMkfsNotKnown() throws Exception {
+        GuestFacts facts = new GuestFacts(ImmutableMap.of("mkfs", "ext4", "sudoRequiresTty", "false"));
+
+        GuestScript script = volumeManager.getPrepareVolumesScript(facts, devices);
+
+        assertEquals(script.getStepNames().subList(0, 2), ImmutableList.of("wait-for-devices", "install-tools"));
+    }
+
+    @Test
+    public void testSetsUpSudoFirstIfItMayNeedATty() throws Exception {
+        GuestFacts facts = new GuestFacts(ImmutableMap.of("mkfs", "ext4,xfs"));
+
+        List<String> commands = volumeManager.getPrepareVolumesScript(facts, devices).toCommands();
+
+        assertEquals(commands.get(0), volumeManager.getSudoSetupCommands(facts).get(0));
+        assertEquals(commands.get(1), "tmpdir=$(mktemp -d /tmp/brooklyn-blockstore-XXXXXX)");
+    }
+
+    private String getStep(GuestScript script, String name) {
+        int index = script.getStepNames().indexOf(name);
+        assertTrue(index >= 0, "no step " + name + " in " + script.getStepNames());
+        List<String> commands = script.toCommands();
+        // the steps follow the preamble
+        return commands.get(commands.size() - script.getStepNames().size() + index);
+    }
+
+    private static class TestVolumeManager extends AbstractVolumeManager {
+        @Override
+        protected String getVolumeDeviceName(char deviceSuffix) {
+            return "/dev/sd" + deviceSuffix;
+        }
+
+        @Override
+        protected String getOSDeviceName(char deviceSuffix) {
+            return "/dev/xvd" + deviceSuffix;
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation location, BlockDeviceOptions options) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+                BlockDeviceOptions options) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+    }
+
+    private static class TestAttachedDevice implements AttachedBlockDevice {
+        private final char suffix;
+
+        TestAttachedDevice(char suffix) {
+            this.suffix = suffix;
+        }
+
+        @Override
+        public String getId() {
+            return "vol-" + suffix;
+        }
+
+        @Override
+        public JcloudsLocation getLocation() {
+            return null;
+        }
+
+        @Override
+        public AttachedBlockDevice attachedTo(JcloudsMachineLocation machine, String deviceName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getDeviceName() {
+            return "/dev/sd" + suffix;
+        }
+
+        @Override
+        public char getDeviceSuffix() {
+            return suffix;
+        }
+
+        @Override
+        public JcloudsMachineLocation getMachine() {
+            return null;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
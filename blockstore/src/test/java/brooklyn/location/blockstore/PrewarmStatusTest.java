@@ -0,0 +1,38 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class PrewarmStatusTest {
+
+    @Test
+    public void testParseInProgress() throws Exception {
+        PrewarmStatus status = PrewarmStatus.parse("total=200\r\ndone=50\r\nrc=\r\n");
+
+        assertFalse(status.isFinished());
+        assertNull(status.getExitCode());
+        assertEquals(status.getPercentComplete(), 25);
+    }
+
+    @Test
+    public void testParseNotStarted() throws Exception {
+        PrewarmStatus status = PrewarmStatus.parse("total=\ndone=\nrc=\n");
+
+        assertFalse(status.isFinished());
+        assertEquals(status.getPercentComplete(), 0);
+    }
+
+    @Test
+    public void testParseFinished() throws Exception {
+        assertTrue(PrewarmStatus.parse("total=200\ndone=200\nrc=0\n").isSuccess());
+
+        PrewarmStatus failed = PrewarmStatus.parse("total=200\ndone=120\nrc=1\n");
+        assertTrue(failed.isFinished());
+        assertFalse(failed.isSuccess());
+        assertEquals(failed.getPercentComplete(), 60);
+    }
+}
@@ -0,0 +1,174 @@
+package brooklyn.location.blockstore;
+
+import static org.apache.brooklyn.util.ssh.BashCommands.sudo;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+import brooklyn.location.blockstore.api.PooledBlockDevice;
+
+public class UnmountPooledVolumeScriptTest {
+
+    private static final GuestFacts FACTS = new GuestFacts(ImmutableMap.of("sudoRequiresTty", "false"));
+
+    private final TestVolumeManager volumeManager = new TestVolumeManager();
+    private final PooledBlockDevice device = new TestPooledDevice('i', new LvmOptions("data-vg"), "/mnt/data");
+
+    @Test
+    public void testSteps() throws Exception {
+        GuestScript script = volumeManager.getUnmountPooledVolumeScript(FACTS, device);
+
+        assertEquals(script.getStepNames(), ImmutableList.of(
+                "check", "fstab", "umount", "deactivate", "vgreduce", "remove-tuning"));
+    }
+
+    @Test
+    public void testDecidesHowToReleaseDeviceFromItsOwnExtents() throws Exception {
+        List<String> commands = volumeManager.getUnmountPooledVolumeScript(FACTS, device).toCommands();
+        String decision = commands.get(0);
+
+        assertTrue(decision.contains(sudo("pvs /dev/xvdi")), decision);
+        assertTrue(decision.contains(sudo("vgs --noheadings -o pv_count data-vg")), decision);
+        assertTrue(decision.contains(sudo("pvs --noheadings -o pv_pe_alloc_count /dev/xvdi")), decision);
+    }
+
+    @Test
+    public void testRefusesToRemoveDeviceHoldingExtents() throws Exception {
+        GuestScript script = volumeManager.getUnmountPooledVolumeScript(FACTS, device);
+
+        assertEquals(getStep(script, "check"), "if [ \"$release\" = in-use ]; then echo \"/dev/xvdi holds extents of "
+                + "/dev/data-vg/data; not removing it from data-vg\" >&2; exit 1; fi");
+    }
+
+    @Test
+    public void testUnmountsAndDeactivatesOnlyForLastDevice() throws Exception {
+        GuestScript script = volumeManager.getUnmountPooledVolumeScript(FACTS, device);
+
+        for (String step : ImmutableList.of("fstab", "umount", "deactivate")) {
+            assertTrue(getStep(script, step).startsWith("if [ \"$release\" = group ]"), getStep(script, step));
+        }
+        assertEquals(getStep(script, "deactivate"), "if [ \"$release\" = group ]; then " + sudo("vgchange -an data-vg") + "; fi");
+    }
+
+    @Test
+    public void testRemovesOnlyThisDeviceFromGroup() throws Exception {
+        GuestScript script = volumeManager.getUnmountPooledVolumeScript(FACTS, device);
+
+        assertEquals(getStep(script, "vgreduce"), "if [ \"$release\" = device ]; then "
+                + sudo("vgreduce data-vg /dev/xvdi") + " && " + sudo("pvremove -y /dev/xvdi") + "; fi");
+        assertFalse(getStep(script, "vgreduce").contains("lvreduce"), getStep(script, "vgreduce"));
+    }
+
+    private String getStep(GuestScript script, String name) {
+        int index = script.getStepNames().indexOf(name);
+        assertTrue(index >= 0, "no step " + name + " in " + script.getStepNames());
+        List<String> commands = script.toCommands();
+        String command = commands.get(commands.size() - script.getStepNames().size() + index);
+        // the step's own commands, without the reporting of its result
+        return command.substring("( ".length(), command.indexOf(" ); rc=$?"));
+    }
+
+    private static class TestVolumeManager extends AbstractVolumeManager {
+        @Override
+        protected String getVolumeDeviceName(char deviceSuffix) {
+            return "/dev/sd" + deviceSuffix;
+        }
+
+        @Override
+        protected String getOSDeviceName(char deviceSuffix) {
+            return "/dev/xvd" + deviceSuffix;
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation location, BlockDeviceOptions options) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+                BlockDeviceOptions options) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+    }
+
+    private static class TestPooledDevice implements PooledBlockDevice {
+        private final char suffix;
+        private final LvmOptions lvmOptions;
+        private final String mountPoint;
+
+        TestPooledDevice(char suffix, LvmOptions lvmOptions, String mountPoint) {
+            this.suffix = suffix;
+            this.lvmOptions = lvmOptions;
+            this.mountPoint = mountPoint;
+        }
+
+        @Override
+        public String getId() {
+            return "vol-" + suffix;
+        }
+
+        @Override
+        public JcloudsLocation getLocation() {
+            return null;
+        }
+
+        @Override
+        public AttachedBlockDevice attachedTo(JcloudsMachineLocation machine, String deviceName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getDeviceName() {
+            return "/dev/sd" + suffix;
+        }
+
+        @Override
+        public char getDeviceSuffix() {
+            return suffix;
+        }
+
+        @Override
+        public JcloudsMachineLocation getMachine() {
+            return null;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getMountPoint() {
+            return mountPoint;
+        }
+
+        @Override
+        public LvmOptions getLvmOptions() {
+            return lvmOptions;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package brooklyn.location.blockstore;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 import org.apache.brooklyn.api.location.LocationSpec;
@@ -13,6 +14,8 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import brooklyn.location.blockstore.api.AsyncResizableVolumeManager;
+import brooklyn.location.blockstore.api.ResizableVolumeManager;
 import brooklyn.location.blockstore.ec2.Ec2VolumeManager;
 import brooklyn.location.blockstore.gce.GoogleComputeEngineVolumeManager;
 import brooklyn.location.blockstore.openstack.OpenStackLocationConfig;
@@ -51,6 +54,14 @@ public class VolumeManagersTest {
         assertEquals(VolumeManagers.newVolumeManager(gceLocation).getClass(), GoogleComputeEngineVolumeManager.class);
     }
 
+    @Test
+    public void testOnlyCloudsThatCanResizeVolumesHaveResizableVolumeManagers() {
+        assertTrue(VolumeManagers.newVolumeManager(locationFor("google-compute-engine")) instanceof ResizableVolumeManager);
+        assertTrue(VolumeManagers.newAsyncVolumeManager(locationFor("google-compute-engine")) instanceof AsyncResizableVolumeManager);
+        assertFalse(VolumeManagers.newVolumeManager(locationFor("aws-ec2:us-east-1c")) instanceof ResizableVolumeManager);
+        assertFalse(VolumeManagers.newVolumeManager(locationFor(RackspaceVolumeManagerLiveTest.LOCATION_SPEC)) instanceof ResizableVolumeManager);
+    }
+
     @Test
     public void testRackspaceVolumeManager() {
         JcloudsLocation rackspaceLocation = locationFor(RackspaceVolumeManagerLiveTest.LOCATION_SPEC);
@@ -0,0 +1,266 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.location.jclouds.JcloudsMachineLocation;
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+import brooklyn.location.blockstore.api.BlockDevice;
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+
+public class VolumeProvisioningPipelineTest {
+
+    private RecordingVolumeManager volumeManager;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        volumeManager = new RecordingVolumeManager();
+    }
+
+    @Test
+    public void testStagesLimitConcurrency() throws Exception {
+        VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline(volumeManager, 2, 1);
+        List<ListenableFuture<MountedBlockDevice>> futures = Lists.newArrayList();
+        for (char suffix = 'h'; suffix <= 'j'; suffix++) {
+            futures.add(pipeline.submit(null, new BlockDeviceOptions().sizeInGb(1).deviceSuffix(suffix),
+                    new FilesystemOptions("/mnt/" + suffix)));
+        }
+        assertEquals(volumeManager.creates.size(), 2);
+
+        // the first volume leaves the cloud stage only once it is attached
+        volumeManager.creates.get(0).set(new TestDevice("vol-h"));
+        assertEquals(volumeManager.creates.size(), 2);
+        volumeManager.attaches.get(0).set(new TestAttachedDevice("vol-h", "/dev/test-h"));
+        assertEquals(volumeManager.creates.size(), 3);
+        assertEquals(volumeManager.prepares.size(), 1);
+
+        // the second volume waits for the guest stage
+        volumeManager.creates.get(1).set(new TestDevice("vol-i"));
+        volumeManager.attaches.get(1).set(new TestAttachedDevice("vol-i", "/dev/test-i"));
+        assertEquals(volumeManager.prepares.size(), 1);
+
+        MountedBlockDevice mounted = new TestMountedDevice("vol-h", "/dev/test-h", "/mnt/h");
+        volumeManager.prepares.get(0).set(mounted);
+        assertSame(futures.get(0).get(), mounted);
+        assertEquals(volumeManager.prepares.size(), 2);
+        assertFalse(futures.get(1).isDone());
+    }
+
+    @Test
+    public void testCancelPendingCancelsOnlyQueuedVolumes() throws Exception {
+        VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline(volumeManager, 1, 1);
+        ListenableFuture<MountedBlockDevice> started = pipeline.submit(null,
+                new BlockDeviceOptions().sizeInGb(1).deviceSuffix('h'), new FilesystemOptions("/mnt/h"));
+        ListenableFuture<MountedBlockDevice> queued = pipeline.submit(null,
+                new BlockDeviceOptions().sizeInGb(1).deviceSuffix('i'), new FilesystemOptions("/mnt/i"));
+
+        pipeline.cancelPending();
+        assertTrue(queued.isCancelled());
+        assertFalse(started.isDone());
+
+        volumeManager.creates.get(0).set(new TestDevice("vol-h"));
+        volumeManager.attaches.get(0).set(new TestAttachedDevice("vol-h", "/dev/test-h"));
+        MountedBlockDevice mounted = new TestMountedDevice("vol-h", "/dev/test-h", "/mnt/h");
+        volumeManager.prepares.get(0).set(mounted);
+        assertSame(started.get(), mounted);
+        assertEquals(volumeManager.creates.size(), 1);
+    }
+
+    @Test
+    public void testFailedCreateHasNoVolumeToRollBack() throws Exception {
+        VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline(volumeManager, 1, 1);
+        ListenableFuture<MountedBlockDevice> future = pipeline.submit(null,
+                new BlockDeviceOptions().sizeInGb(1).deviceSuffix('h'), new FilesystemOptions("/mnt/h"));
+
+        IllegalStateException failure = new IllegalStateException("quota exceeded");
+        volumeManager.creates.get(0).setException(failure);
+        assertSame(getFailure(future), failure);
+    }
+
+    @Test
+    public void testFailedAttachGivesAttachedVolume() throws Exception {
+        VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline(volumeManager, 1, 1);
+        ListenableFuture<MountedBlockDevice> future = pipeline.submit(null,
+                new BlockDeviceOptions().sizeInGb(1).deviceSuffix('h'), new FilesystemOptions("/mnt/h"));
+
+        IllegalStateException failure = new IllegalStateException("timed out attaching");
+        volumeManager.creates.get(0).set(new TestDevice("vol-h"));
+        volumeManager.attaches.get(0).setException(failure);
+
+        VolumeProvisioningPipeline.VolumeFailedException e = (VolumeProvisioningPipeline.VolumeFailedException) getFailure(future);
+        assertSame(e.getCause(), failure);
+        assertTrue(e.getDevice() instanceof AttachedBlockDevice, "device=" + e.getDevice());
+        assertFalse(e.getDevice() instanceof MountedBlockDevice, "device=" + e.getDevice());
+        assertEquals(e.getDevice().getId(), "vol-h");
+        assertEquals(((AttachedBlockDevice) e.getDevice()).getDeviceName(), "/dev/test-h");
+    }
+
+    @Test
+    public void testFailedPrepareGivesMountedVolume() throws Exception {
+        VolumeProvisioningPipeline pipeline = new VolumeProvisioningPipeline(volumeManager, 1, 1);
+        ListenableFuture<MountedBlockDevice> future = pipeline.submit(null,
+                new BlockDeviceOptions().sizeInGb(1).deviceSuffix('h'), new FilesystemOptions("/mnt/h"));
+
+        IllegalStateException failure = new IllegalStateException("mkfs failed");
+        volumeManager.creates.get(0).set(new TestDevice("vol-h"));
+        volumeManager.attaches.get(0).set(new TestAttachedDevice("vol-h", "/dev/test-h"));
+        volumeManager.prepares.get(0).setException(failure);
+
+        VolumeProvisioningPipeline.VolumeFailedException e = (VolumeProvisioningPipeline.VolumeFailedException) getFailure(future);
+        assertSame(e.getCause(), failure);
+        assertEquals(e.getDevice().getId(), "vol-h");
+        assertEquals(((MountedBlockDevice) e.getDevice()).getMountPoint(), "/mnt/h");
+    }
+
+    private Throwable getFailure(ListenableFuture<?> future) throws Exception {
+        try {
+            future.get();
+            Asserts.shouldHaveFailedPreviously();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    /**
+     * Records each call to the cloud and guest, for the test to complete.
+     */
+    private static class RecordingVolumeManager extends AbstractVolumeManager {
+        final List<SettableFuture<BlockDevice>> creates = Lists.newArrayList();
+        final List<SettableFuture<AttachedBlockDevice>> attaches = Lists.newArrayList();
+        final List<SettableFuture<MountedBlockDevice>> prepares = Lists.newArrayList();
+
+        @Override
+        protected String getVolumeDeviceName(char deviceSuffix) {
+            return "/dev/test-" + deviceSuffix;
+        }
+
+        @Override
+        protected String getOSDeviceName(char deviceSuffix) {
+            return "/dev/test-" + deviceSuffix;
+        }
+
+        @Override
+        protected ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsMachineLocation machine, BlockDeviceOptions options) {
+            return createBlockDeviceAsync((JcloudsLocation) null, options);
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> createBlockDeviceAsync(JcloudsLocation location, BlockDeviceOptions options) {
+            SettableFuture<BlockDevice> result = SettableFuture.create();
+            creates.add(result);
+            return result;
+        }
+
+        @Override
+        public ListenableFuture<AttachedBlockDevice> attachBlockDeviceAsync(JcloudsMachineLocation machine, BlockDevice blockDevice,
+                BlockDeviceOptions options) {
+            SettableFuture<AttachedBlockDevice> result = SettableFuture.create();
+            attaches.add(result);
+            return result;
+        }
+
+        @Override
+        public ListenableFuture<MountedBlockDevice> prepareVolumeAsync(AttachedBlockDevice attachedDevice, FilesystemOptions options) {
+            SettableFuture<MountedBlockDevice> result = SettableFuture.create();
+            prepares.add(result);
+            return result;
+        }
+
+        @Override
+        public ListenableFuture<BlockDevice> detachBlockDeviceAsync(AttachedBlockDevice attachedBlockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public ListenableFuture<Void> deleteBlockDeviceAsync(BlockDevice blockDevice) {
+            return Futures.immediateFailedFuture(new UnsupportedOperationException());
+        }
+    }
+
+    private static class TestDevice implements BlockDevice {
+        final String id;
+
+        TestDevice(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public JcloudsLocation getLocation() {
+            return null;
+        }
+
+        @Override
+        public AttachedBlockDevice attachedTo(JcloudsMachineLocation machine, String deviceName) {
+            return new TestAttachedDevice(id, deviceName);
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName() + "[" + id + "]";
+        }
+    }
+
+    private static class TestAttachedDevice extends TestDevice implements AttachedBlockDevice {
+        final String deviceName;
+
+        TestAttachedDevice(String id, String deviceName) {
+            super(id);
+            this.deviceName = deviceName;
+        }
+
+        @Override
+        public String getDeviceName() {
+            return deviceName;
+        }
+
+        @Override
+        public char getDeviceSuffix() {
+            return deviceName.charAt(deviceName.length() - 1);
+        }
+
+        @Override
+        public JcloudsMachineLocation getMachine() {
+            return null;
+        }
+
+        @Override
+        public MountedBlockDevice mountedAt(String mountPoint) {
+            return new TestMountedDevice(id, deviceName, mountPoint);
+        }
+    }
+
+    private static class TestMountedDevice extends TestAttachedDevice implements MountedBlockDevice {
+        final String mountPoint;
+
+        TestMountedDevice(String id, String deviceName, String mountPoint) {
+            super(id, deviceName);
+            this.mountPoint = mountPoint;
+        }
+
+        @Override
+        public String getMountPoint() {
+            return mountPoint;
+        }
+    }
+}
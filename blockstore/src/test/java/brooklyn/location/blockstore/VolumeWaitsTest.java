@@ -0,0 +1,137 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class VolumeWaitsTest {
+
+    private static final WaitStrategy STRATEGY = WaitStrategy.fixed(Duration.millis(10), Duration.seconds(10));
+
+    private static final WaitStrategy SHORT_STRATEGY = WaitStrategy.fixed(Duration.millis(10), Duration.millis(100));
+
+    private static final Predicate<Integer> AT_LEAST_3 = new Predicate<Integer>() {
+        @Override
+        public boolean apply(Integer input) {
+            return input >= 3;
+        }
+    };
+
+    @Test
+    public void testWaitForRunsChecksOnApiPool() throws Exception {
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        ListenableFuture<Integer> result = VolumeWaits.waitFor("counting", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                threads.add(Thread.currentThread().getName());
+                return threads.size();
+            }
+        }, AT_LEAST_3, STRATEGY, true);
+
+        assertEquals(result.get(10, TimeUnit.SECONDS), Integer.valueOf(3));
+        for (String thread : threads) {
+            assertTrue(thread.startsWith("brooklyn-blockstore-api-"), "thread=" + thread);
+        }
+    }
+
+    @Test
+    public void testFailedCheckIsRetried() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        ListenableFuture<Integer> result = VolumeWaits.waitFor("counting", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int val = count.incrementAndGet();
+                if (val == 1) {
+                    throw new IllegalStateException("not yet");
+                }
+                return val;
+            }
+        }, AT_LEAST_3, STRATEGY, true);
+
+        assertEquals(result.get(10, TimeUnit.SECONDS), Integer.valueOf(3));
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        ListenableFuture<Integer> result = VolumeWaits.waitFor("never done", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        }, AT_LEAST_3, SHORT_STRATEGY, true);
+
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, "cause=" + e.getCause());
+            Asserts.expectedFailureContains(e.getCause(), "never done");
+        }
+    }
+
+    @Test
+    public void testTimeoutWithoutFailingGivesLastValue() throws Exception {
+        ListenableFuture<Integer> result = VolumeWaits.waitFor("never done", new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        }, AT_LEAST_3, SHORT_STRATEGY, false);
+
+        assertEquals(result.get(10, TimeUnit.SECONDS), Integer.valueOf(0));
+    }
+
+    @Test
+    public void testWaitForAsyncRunsChecksOffScheduler() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        ListenableFuture<Integer> result = VolumeWaits.waitForAsync("counting", new Callable<ListenableFuture<Integer>>() {
+            @Override
+            public ListenableFuture<Integer> call() {
+                return BlockstoreExecutors.submitGuestCall(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        threads.add(Thread.currentThread().getName());
+                        return count.incrementAndGet();
+                    }
+                });
+            }
+        }, AT_LEAST_3, STRATEGY, true);
+
+        assertEquals(result.get(10, TimeUnit.SECONDS), Integer.valueOf(3));
+        assertEquals(threads.size(), 3);
+        for (String thread : threads) {
+            assertTrue(thread.startsWith("brooklyn-blockstore-guest-"), "thread=" + thread);
+        }
+    }
+
+    @Test
+    public void testFailedAsyncCheckIsRetried() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        ListenableFuture<Integer> result = VolumeWaits.waitForAsync("counting", new Callable<ListenableFuture<Integer>>() {
+            @Override
+            public ListenableFuture<Integer> call() {
+                int val = count.incrementAndGet();
+                return (val == 1) ? Futures.<Integer>immediateFailedFuture(new IllegalStateException("not yet"))
+                        : Futures.immediateFuture(val);
+            }
+        }, AT_LEAST_3, STRATEGY, true);
+
+        assertEquals(result.get(10, TimeUnit.SECONDS), Integer.valueOf(3));
+    }
+}
@@ -0,0 +1,73 @@
+package brooklyn.location.blockstore;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+public class WaitStrategyTest {
+
+    @Test
+    public void testBacksOffUpToMaxDelay() throws Exception {
+        WaitStrategy strategy = new WaitStrategy()
+                .initialDelay(Duration.millis(100))
+                .maxDelay(Duration.millis(1000))
+                .multiplier(2)
+                .jitter(0);
+
+        assertEquals(strategy.getDelayMillis(0), 100);
+        assertEquals(strategy.getDelayMillis(1), 200);
+        assertEquals(strategy.getDelayMillis(3), 800);
+        assertEquals(strategy.getDelayMillis(4), 1000);
+        assertEquals(strategy.getDelayMillis(100), 1000);
+    }
+
+    @Test
+    public void testJitterStaysWithinBounds() throws Exception {
+        WaitStrategy strategy = new WaitStrategy()
+                .initialDelay(Duration.millis(1000))
+                .maxDelay(Duration.millis(1000))
+                .jitter(0.2);
+
+        for (int i = 0; i < 100; i++) {
+            long delay = strategy.getDelayMillis(i);
+            assertTrue(delay >= 800 && delay <= 1200, "delay=" + delay);
+        }
+    }
+
+    @Test
+    public void testFixed() throws Exception {
+        WaitStrategy strategy = WaitStrategy.fixed(Duration.seconds(5), Duration.minutes(10));
+
+        assertEquals(strategy.getDelayMillis(0), 5000);
+        assertEquals(strategy.getDelayMillis(10), 5000);
+        assertEquals(strategy.getTimeout(), Duration.minutes(10));
+    }
+
+    @Test
+    public void testCopyIsIndependent() throws Exception {
+        WaitStrategy original = new WaitStrategy().timeout(Duration.seconds(30));
+        WaitStrategy copy = WaitStrategy.copy(original).timeout(Duration.seconds(60));
+
+        assertEquals(original.getTimeout(), Duration.seconds(30));
+        assertEquals(copy.getTimeout(), Duration.seconds(60));
+    }
+
+    @Test
+    public void testRejectsInvalidValues() throws Exception {
+        try {
+            new WaitStrategy().multiplier(0.5);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "multiplier");
+        }
+        try {
+            new WaitStrategy().jitter(1);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "jitter");
+        }
+    }
+}
@@ -7,6 +7,11 @@ import org.testng.annotations.Test;
 
 import com.google.common.base.Joiner;
 
+import brooklyn.location.blockstore.BlockDeviceOptions;
+import brooklyn.location.blockstore.FilesystemOptions;
+import brooklyn.location.blockstore.LvmOptions;
+import brooklyn.location.blockstore.StripeOptions;
+
 public class VolumeOptionsTest {
 
     @Test
@@ -138,4 +143,99 @@ public class VolumeOptionsTest {
         }
 
     }
+
+    @Test
+    public void testStripedFromJsonString() throws Exception {
+        String json = Joiner.on("\n").join(
+                "{",
+                "  \"blockDevice\": {",
+                "    \"deviceSuffix\": \"h\",",
+                "    \"sizeInGb\": 100",
+                "  },",
+                "  \"stripe\": {",
+                "    \"count\": 4,",
+                "    \"method\": \"lvm\",",
+                "    \"chunkSizeKb\": 64",
+                "  },",
+                "  \"filesystem\": {",
+                "    \"mountPoint\": \"/mount/brooklyn/data\",",
+                "    \"filesystemType\": \"xfs\"",
+                "  }",
+                "}");
+
+        VolumeOptions transformed = VolumeOptions.fromString(json);
+
+        assertEquals(transformed.isStriped(), true);
+        assertEquals(transformed.getStripeOptions().getCount(), 4);
+        assertEquals(transformed.getStripeOptions().getMethod(), StripeOptions.Method.LVM);
+        assertEquals(transformed.getStripeOptions().getChunkSizeKb(), 64);
+        assertEquals(VolumeOptions.fromString(json.replace("\"lvm\"", "\"mdadm\"")).getStripeOptions().getMethod(), StripeOptions.Method.MDADM);
+    }
+
+    @Test
+    public void testVolumeTypeAndAvailabilityZoneFromJsonString() throws Exception {
+        String json = Joiner.on("\n").join(
+                "{",
+                "  \"blockDevice\": {",
+                "    \"sizeInGb\": 50,",
+                "    \"volumeType\": \"ssd\",",
+                "    \"availabilityZone\": \"az-1\"",
+                "  },",
+                "  \"filesystem\": {",
+                "    \"mountPoint\": \"/mount/brooklyn/h\"",
+                "  }",
+                "}");
+
+        BlockDeviceOptions transformed = VolumeOptions.fromString(json).getBlockDeviceOptions();
+
+        assertEquals(transformed.getVolumeType(), "ssd");
+        assertEquals(transformed.getAvailabilityZone(), "az-1");
+        assertEquals(BlockDeviceOptions.copy(transformed).getAvailabilityZone(), "az-1");
+    }
+
+    @Test
+    public void testPooledFromJsonString() throws Exception {
+        String json = Joiner.on("\n").join(
+                "{",
+                "  \"blockDevice\": {",
+                "    \"deviceSuffix\": \"i\",",
+                "    \"sizeInGb\": 100",
+                "  },",
+                "  \"lvm\": {",
+                "    \"volumeGroup\": \"data-vg\"",
+                "  },",
+                "  \"filesystem\": {",
+                "    \"mountPoint\": \"/mount/brooklyn/data\",",
+                "    \"filesystemType\": \"ext4\"",
+                "  }",
+                "}");
+
+        VolumeOptions transformed = VolumeOptions.fromString(json);
+
+        assertEquals(transformed.isPooled(), true);
+        assertEquals(transformed.isStriped(), false);
+        assertEquals(transformed.getLvmOptions().getVolumeGroup(), "data-vg");
+        assertEquals(transformed.getLvmOptions().getLogicalVolumeDeviceName(), "/dev/data-vg/data");
+    }
+
+    @Test
+    public void testCannotBeStripedAndPooled() throws Exception {
+        VolumeOptions striped = new VolumeOptions(new BlockDeviceOptions().sizeInGb(1), new FilesystemOptions("/mnt/h"), new StripeOptions(2));
+        try {
+            striped.lvmOptions(new LvmOptions("data-vg"));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "both striped and in an LVM pool");
+        }
+    }
+
+    @Test
+    public void testLvmRejectsUnsafeNames() throws Exception {
+        try {
+            new LvmOptions("data-vg").logicalVolume("data; rm -rf /");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "invalid logicalVolume");
+        }
+    }
 }
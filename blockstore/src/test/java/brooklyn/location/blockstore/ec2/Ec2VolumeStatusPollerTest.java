@@ -0,0 +1,178 @@
+package brooklyn.location.blockstore.ec2;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.time.Duration;
+import org.jclouds.ec2.domain.Volume;
+import org.jclouds.ec2.features.ElasticBlockStoreApi;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import brooklyn.location.blockstore.ApiRateLimiter;
+import brooklyn.location.blockstore.WaitStrategy;
+
+public class Ec2VolumeStatusPollerTest {
+
+    private static final String REGION = "us-east-1";
+
+    private Map<String, Volume.Status> statuses;
+    private List<List<String>> calls;
+    private Ec2VolumeStatusPoller poller;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        statuses = Maps.newConcurrentMap();
+        calls = new CopyOnWriteArrayList<List<String>>();
+        poller = new Ec2VolumeStatusPoller(REGION, newEbsApi(), new ApiRateLimiter("test", 1000) {});
+    }
+
+    @Test
+    public void testWaitersAreBatchedIntoOneCall() throws Exception {
+        statuses.put("vol-1", Volume.Status.AVAILABLE);
+        statuses.put("vol-2", Volume.Status.AVAILABLE);
+        statuses.put("vol-3", Volume.Status.AVAILABLE);
+        WaitStrategy strategy = WaitStrategy.fixed(Duration.millis(200), Duration.seconds(10));
+
+        List<ListenableFuture<Volume>> futures = ImmutableList.of(
+                poller.waitFor("vol-1", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true),
+                poller.waitFor("vol-2", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true),
+                poller.waitFor("vol-3", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true));
+        assertEquals(poller.getPendingCount(), 3);
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(futures.get(i).get(10, TimeUnit.SECONDS).getId(), "vol-" + (i + 1));
+        }
+        assertEquals(calls, ImmutableList.of(ImmutableList.of("vol-1", "vol-2", "vol-3")));
+        assertEquals(poller.getPendingCount(), 0);
+    }
+
+    @Test
+    public void testUnknownVolumeFallsBackToIndividualDescribes() throws Exception {
+        statuses.put("vol-1", Volume.Status.AVAILABLE);
+        statuses.put("vol-2", Volume.Status.AVAILABLE);
+        WaitStrategy strategy = WaitStrategy.fixed(Duration.millis(200), Duration.seconds(10));
+
+        ListenableFuture<Volume> known1 = poller.waitFor("vol-1", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true);
+        ListenableFuture<Volume> unknown = poller.waitFor("vol-unknown", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true);
+        ListenableFuture<Volume> known2 = poller.waitFor("vol-2", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true);
+
+        assertEquals(known1.get(10, TimeUnit.SECONDS).getId(), "vol-1");
+        assertEquals(known2.get(10, TimeUnit.SECONDS).getId(), "vol-2");
+        assertEquals(ImmutableList.copyOf(calls).subList(0, 4), ImmutableList.of(
+                ImmutableList.of("vol-1", "vol-unknown", "vol-2"),
+                ImmutableList.of("vol-1"),
+                ImmutableList.of("vol-unknown"),
+                ImmutableList.of("vol-2")));
+        assertFalse(unknown.isDone());
+
+        // once it becomes visible, the volume is found
+        statuses.put("vol-unknown", Volume.Status.AVAILABLE);
+        assertEquals(unknown.get(10, TimeUnit.SECONDS).getId(), "vol-unknown");
+    }
+
+    @Test
+    public void testTimeoutResolvesOnlyItsOwnWaiter() throws Exception {
+        statuses.put("vol-1", Volume.Status.CREATING);
+        WaitStrategy shortWait = WaitStrategy.fixed(Duration.millis(50), Duration.millis(300));
+        WaitStrategy longWait = WaitStrategy.fixed(Duration.millis(50), Duration.seconds(10));
+
+        ListenableFuture<Volume> timesOut = poller.waitFor("vol-1", ImmutableSet.of(Volume.Status.AVAILABLE), shortWait, true);
+        ListenableFuture<Volume> waits = poller.waitFor("vol-1", ImmutableSet.of(Volume.Status.AVAILABLE), longWait, true);
+
+        try {
+            timesOut.get(10, TimeUnit.SECONDS);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, "cause=" + e.getCause());
+            Asserts.expectedFailureContains(e.getCause(), "waiting for volume vol-1");
+        }
+        assertFalse(waits.isDone());
+        assertEquals(poller.getPendingCount(), 1);
+
+        statuses.put("vol-1", Volume.Status.AVAILABLE);
+        assertEquals(waits.get(10, TimeUnit.SECONDS).getStatus(), Volume.Status.AVAILABLE);
+    }
+
+    @Test
+    public void testTimeoutWithoutFailingGivesLastVolume() throws Exception {
+        statuses.put("vol-1", Volume.Status.CREATING);
+        WaitStrategy strategy = WaitStrategy.fixed(Duration.millis(50), Duration.millis(300));
+
+        Volume volume = poller.waitFor("vol-1", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, false).get(10, TimeUnit.SECONDS);
+        assertEquals(volume.getStatus(), Volume.Status.CREATING);
+    }
+
+    @Test
+    public void testTimeoutWhileDescribesFail() throws Exception {
+        // describing an unknown volume always fails
+        WaitStrategy strategy = WaitStrategy.fixed(Duration.millis(50), Duration.millis(300));
+
+        ListenableFuture<Volume> future = poller.waitFor("vol-unknown", ImmutableSet.of(Volume.Status.AVAILABLE), strategy, true);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, "cause=" + e.getCause());
+        }
+        assertEquals(poller.getPendingCount(), 0);
+        // checked at the strategy's interval until the deadline, rather than repeatedly at it
+        assertTrue(calls.size() <= 10, "calls=" + calls);
+    }
+
+    /**
+     * @return An api whose {@code describeVolumesInRegion} describes the volumes in {@link #statuses}, failing the
+     *         whole call if any is unknown (as EC2 does), and records the ids of each call
+     */
+    private ElasticBlockStoreApi newEbsApi() {
+        return (ElasticBlockStoreApi) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {ElasticBlockStoreApi.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("describeVolumesInRegion")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        assertEquals(args[0], REGION);
+                        List<String> volumeIds = ImmutableList.copyOf((String[]) args[1]);
+                        calls.add(volumeIds);
+                        Set<Volume> result = Sets.newLinkedHashSet();
+                        for (String volumeId : volumeIds) {
+                            Volume.Status status = statuses.get(volumeId);
+                            if (status == null) {
+                                throw new IllegalStateException("AWSError{code='InvalidVolume.NotFound', message='The volume '"
+                                        + volumeId + "' does not exist.'}");
+                            }
+                            result.add(Volume.builder()
+                                    .region(REGION)
+                                    .id(volumeId)
+                                    .size(1)
+                                    .availabilityZone(REGION + "a")
+                                    .status(status)
+                                    .createTime(new Date())
+                                    .build());
+                        }
+                        return result;
+                    }
+                });
+    }
+}
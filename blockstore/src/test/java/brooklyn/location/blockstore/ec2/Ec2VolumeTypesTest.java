@@ -0,0 +1,83 @@
+package brooklyn.location.blockstore.ec2;
+
+import static org.testng.Assert.assertEquals;
+
+import org.apache.brooklyn.test.Asserts;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import brooklyn.location.blockstore.BlockDeviceOptions;
+
+public class Ec2VolumeTypesTest {
+
+    @Test
+    public void testFromMapWithPerformanceAttributes() throws Exception {
+        BlockDeviceOptions options = BlockDeviceOptions.fromMap(ImmutableMap.of(
+                "sizeInGb", 100, "volumeType", "gp3", "iops", "16000", "throughputMBps", 500));
+
+        assertEquals(options.getVolumeType(), "gp3");
+        assertEquals(options.getIops(), Integer.valueOf(16000));
+        assertEquals(options.getThroughputMBps(), Integer.valueOf(500));
+        assertEquals(BlockDeviceOptions.copy(options).getIops(), Integer.valueOf(16000));
+        Ec2VolumeTypes.validate(options);
+    }
+
+    @Test
+    public void testValidOptions() throws Exception {
+        Ec2VolumeTypes.validate(new BlockDeviceOptions().sizeInGb(10));
+        Ec2VolumeTypes.validate(new BlockDeviceOptions().sizeInGb(1).volumeType("gp3").iops(3000));
+        Ec2VolumeTypes.validate(new BlockDeviceOptions().sizeInGb(100).volumeType("io1").iops(5000));
+        Ec2VolumeTypes.validate(new BlockDeviceOptions().sizeInGb(100).volumeType("io2").iops(64000));
+        Ec2VolumeTypes.validate(new BlockDeviceOptions().sizeInGb(500).volumeType("st1"));
+    }
+
+    @Test
+    public void testRejectsUnknownType() throws Exception {
+        assertInvalid(new BlockDeviceOptions().sizeInGb(10).volumeType("gp4"), "Unknown EBS volume type gp4");
+    }
+
+    @Test
+    public void testRejectsSizeOutsideTypeLimits() throws Exception {
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("st1"), "st1 volumes must be 125-16384GB");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(2000).volumeType("standard"), "standard volumes must be 1-1024GB");
+    }
+
+    @Test
+    public void testRejectsIopsOutsideTypeLimits() throws Exception {
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("gp2").iops(1000), "iops cannot be provisioned for gp2");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("io1"), "iops must be given for io1");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("io1").iops(6000), "at most 50 iops per GB");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(10).volumeType("gp3").iops(16000), "at most 500 iops per GB");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("gp3").iops(20000), "must have 3000-16000 iops");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).iops(3000), "volumeType must be given");
+    }
+
+    @Test
+    public void testRejectsThroughputOutsideTypeLimits() throws Exception {
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("io2").iops(1000).throughputMBps(500),
+                "throughputMBps cannot be provisioned for io2");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("gp3").throughputMBps(1500), "must have 125-1000 MiB/s");
+        assertInvalid(new BlockDeviceOptions().sizeInGb(100).volumeType("gp3").throughputMBps(1000), "0.25 MiB/s throughput per iops");
+    }
+
+    @Test
+    public void testOnlyBaselineThroughputCanBeCreated() throws Exception {
+        Ec2VolumeManager.checkThroughputSupported(new BlockDeviceOptions().sizeInGb(100).volumeType("gp3").throughputMBps(125));
+        try {
+            Ec2VolumeManager.checkThroughputSupported(new BlockDeviceOptions().sizeInGb(100).volumeType("gp3").throughputMBps(500));
+            Asserts.shouldHaveFailedPreviously();
+        } catch (UnsupportedOperationException e) {
+            Asserts.expectedFailureContains(e, "Cannot provision throughputMBps 500");
+        }
+    }
+
+    private void assertInvalid(BlockDeviceOptions options, String expectedMessage) {
+        try {
+            Ec2VolumeTypes.validate(options);
+            Asserts.shouldHaveFailedPreviously("options=" + options);
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, expectedMessage);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package brooklyn.location.blockstore.gce;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Date;
+import java.util.Map;
+
+import org.apache.brooklyn.test.Asserts;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.ComputeServiceContext;
+import org.jclouds.googlecomputeengine.GoogleComputeEngineApi;
+import org.jclouds.googlecomputeengine.domain.AttachDisk;
+import org.jclouds.googlecomputeengine.domain.DiskType;
+import org.jclouds.googlecomputeengine.features.DiskTypeApi;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import brooklyn.location.blockstore.api.AttachedBlockDevice;
+
+public class GoogleComputeEngineVolumeManagerTest {
+
+    private static final String ZONE = "europe-west1-b";
+    private static final String ZONE_LINK = "https://www.googleapis.com/compute/v1/projects/test/zones/" + ZONE;
+
+    @Test
+    public void testApiIsUnwrappedFromComputeService() throws Exception {
+        GoogleComputeEngineApi api = newProxy(GoogleComputeEngineApi.class, ImmutableMap.<String, Object>of());
+        ComputeServiceContext context = newProxy(ComputeServiceContext.class, ImmutableMap.<String, Object>of("unwrapApi", api));
+        ComputeService computeService = newProxy(ComputeService.class, ImmutableMap.<String, Object>of("getContext", context));
+
+        // the location's own api, rather than a new context (and OAuth token) for each operation
+        assertSame(GoogleComputeEngineVolumeManager.getGoogleComputeEngineApi(computeService), api);
+        assertSame(GoogleComputeEngineVolumeManager.getGoogleComputeEngineApi(computeService), api);
+    }
+
+    @Test
+    public void testDiskTypeLinkOfVolumeType() throws Exception {
+        DiskTypeApi api = newDiskTypeApi(ImmutableMap.of(
+                "pd-standard", diskType("pd-standard"),
+                "pd-ssd", diskType("pd-ssd")));
+
+        assertEquals(GoogleComputeEngineVolumeManager.getDiskTypeLink(api, ZONE, "pd-ssd"), URI.create(ZONE_LINK + "/diskTypes/pd-ssd"));
+    }
+
+    @Test
+    public void testUnknownVolumeTypeIsRejected() throws Exception {
+        DiskTypeApi api = newDiskTypeApi(ImmutableMap.of("pd-standard", diskType("pd-standard")));
+
+        try {
+            GoogleComputeEngineVolumeManager.getDiskTypeLink(api, ZONE, "pd-extreme");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "Unknown disk type pd-extreme in zone " + ZONE);
+        }
+    }
+
+    @Test
+    public void testAttachedDeviceNameMatchesVolumeDeviceName() throws Exception {
+        URI disk = URI.create(ZONE_LINK + "/disks/data");
+        GoogleComputeEngineVolumeManager volumeManager = new GoogleComputeEngineVolumeManager();
+
+        AttachDisk attachDisk = GoogleComputeEngineVolumeManager.getAttachDisk(disk, 'h');
+
+        assertEquals(attachDisk.source(), disk);
+        assertEquals(attachDisk.deviceName(), "h");
+        // GCE exposes the disk on the machine by its device name
+        assertEquals(volumeManager.getVolumeDeviceName('h'), "/dev/disk/by-id/google-" + attachDisk.deviceName());
+        assertEquals(volumeManager.getOSDeviceName('h'), volumeManager.getVolumeDeviceName('h'));
+    }
+
+    @Test
+    public void testDeviceSerialMatchesDeviceName() throws Exception {
+        GoogleComputeEngineVolumeManager volumeManager = new GoogleComputeEngineVolumeManager();
+        AttachedBlockDevice device = (AttachedBlockDevice) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {AttachedBlockDevice.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("getDeviceSuffix")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        return 'h';
+                    }
+                });
+
+        assertEquals(volumeManager.getDeviceSerial(device), "Google_PersistentDisk_h");
+    }
+
+    private DiskType diskType(String name) {
+        return DiskType.create(name, new Date(), name, "Test disk type " + name, "10GB-65536GB", null,
+                URI.create(ZONE_LINK), URI.create(ZONE_LINK + "/diskTypes/" + name), 10);
+    }
+
+    /**
+     * @return An api whose {@code get} gives the disk types of the map, or null for any other name (as jclouds does
+     *         for a 404)
+     */
+    private DiskTypeApi newDiskTypeApi(final Map<String, DiskType> types) {
+        return (DiskTypeApi) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {DiskTypeApi.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!method.getName().equals("get")) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        return types.get(args[0]);
+                    }
+                });
+    }
+
+    /**
+     * @return A proxy whose methods give the result of the same name, and fail for any other method
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T newProxy(final Class<T> type, final Map<String, Object> results) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("toString")) {
+                            return type.getSimpleName();
+                        } else if (!results.containsKey(method.getName())) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        return results.get(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,96 @@
+package brooklyn.location.blockstore.openstack;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.apache.brooklyn.location.jclouds.JcloudsLocation;
+import org.apache.brooklyn.test.Asserts;
+import org.jclouds.openstack.cinder.v1.CinderApi;
+import org.jclouds.openstack.nova.v2_0.NovaApi;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import brooklyn.location.blockstore.BlockDeviceOptions;
+
+public class AbstractOpenstackVolumeManagerTest {
+
+    private static final String REGION = "RegionOne";
+
+    private TestVolumeManager volumeManager;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        volumeManager = new TestVolumeManager();
+    }
+
+    @Test
+    public void testMachineZoneIsUsed() throws Exception {
+        BlockDeviceOptions config = new BlockDeviceOptions().zone("nova");
+
+        assertEquals(volumeManager.getAvailabilityZone(null, config), "nova");
+    }
+
+    @Test
+    public void testMachineRegionIsNotAZone() throws Exception {
+        BlockDeviceOptions config = new BlockDeviceOptions().zone(REGION);
+
+        assertNull(volumeManager.getAvailabilityZone(null, config));
+
+        volumeManager.zone = "az-1";
+        assertEquals(volumeManager.getAvailabilityZone(null, config), "az-1");
+    }
+
+    @Test
+    public void testLocationZoneIsUsedWithoutMachineZone() throws Exception {
+        volumeManager.zone = "az-1";
+        assertEquals(volumeManager.getAvailabilityZone(null, new BlockDeviceOptions()), "az-1");
+
+        volumeManager.zone = REGION;
+        assertNull(volumeManager.getAvailabilityZone(null, new BlockDeviceOptions()));
+    }
+
+    @Test
+    public void testConfiguredAvailabilityZoneIsUsed() throws Exception {
+        volumeManager.zone = "az-1";
+
+        assertEquals(volumeManager.getAvailabilityZone(null, new BlockDeviceOptions().availabilityZone("az-2")), "az-2");
+        assertEquals(volumeManager.getAvailabilityZone(null, new BlockDeviceOptions().zone(REGION).availabilityZone("az-2")), "az-2");
+        assertEquals(volumeManager.getAvailabilityZone(null, new BlockDeviceOptions().zone("az-2").availabilityZone("az-2")), "az-2");
+    }
+
+    @Test
+    public void testConfiguredAvailabilityZoneMustBeMachineZone() throws Exception {
+        BlockDeviceOptions config = new BlockDeviceOptions().zone("az-1").availabilityZone("az-2");
+
+        try {
+            volumeManager.getAvailabilityZone(null, config);
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalArgumentException e) {
+            Asserts.expectedFailureContains(e, "availabilityZone az-2 does not match az-1 of the machine");
+        }
+    }
+
+    private static class TestVolumeManager extends AbstractOpenstackVolumeManager {
+        String zone;
+
+        @Override
+        protected CinderApi getCinderApi(JcloudsLocation location) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected NovaApi getNovaApi(JcloudsLocation location) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected String getRegion(JcloudsLocation location) {
+            return REGION;
+        }
+
+        @Override
+        protected String getZone(JcloudsLocation location) {
+            return zone;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package brooklyn.location.blockstore.openstack;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+
+public class OpenstackApiCacheTest {
+
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private List<TestApi> built;
+    private FakeTicker ticker;
+    private LoadingCache<OpenstackApiCache.Key, Closeable> cache;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        built = Lists.newArrayList();
+        ticker = new FakeTicker();
+        cache = OpenstackApiCache.newCache(new CacheLoader<OpenstackApiCache.Key, Closeable>() {
+            @Override
+            public Closeable load(OpenstackApiCache.Key key) {
+                TestApi api = new TestApi();
+                built.add(api);
+                return api;
+            }
+        }, IDLE_MILLIS, ticker);
+    }
+
+    @Test
+    public void testApiSharedByProviderEndpointCredentialsAndType() throws Exception {
+        Closeable api = cache.get(key("openstack-cinder", "https://keystone:5000/v2.0", "tenant:user", "secret", TestApi.class));
+
+        assertSame(cache.get(key("openstack-cinder", "https://keystone:5000/v2.0", "tenant:user", "secret", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-nova", "https://keystone:5000/v2.0", "tenant:user", "secret", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-cinder", "https://other:5000/v2.0", "tenant:user", "secret", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-cinder", null, "tenant:user", "secret", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-cinder", "https://keystone:5000/v2.0", "tenant:other", "secret", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-cinder", "https://keystone:5000/v2.0", "tenant:user", "rotated", TestApi.class)), api);
+        assertNotSame(cache.get(key("openstack-cinder", "https://keystone:5000/v2.0", "tenant:user", "secret", OtherTestApi.class)), api);
+        assertEquals(built.size(), 7);
+    }
+
+    @Test
+    public void testKeyExcludesCredentialFromToString() throws Exception {
+        String val = key("openstack-cinder", null, "tenant:user", "secret", TestApi.class).toString();
+        assertTrue(val.contains("tenant:user"), val);
+        assertFalse(val.contains("secret"), val);
+    }
+
+    @Test
+    public void testApiInUseIsNotClosed() throws Exception {
+        OpenstackApiCache.Key key = key("openstack-cinder", null, "tenant:user", "secret", TestApi.class);
+        TestApi api = (TestApi) cache.get(key);
+
+        // got again within the idle time, as by each check of a long wait
+        for (int i = 0; i < 10; i++) {
+            ticker.advance(IDLE_MILLIS / 2);
+            assertSame(cache.get(key), api);
+        }
+        assertFalse(api.closed);
+
+        // however many apis there are
+        for (int i = 0; i < 100; i++) {
+            cache.get(key("openstack-cinder", null, "tenant:user-" + i, "secret", TestApi.class));
+        }
+        assertSame(cache.get(key), api);
+        assertFalse(api.closed);
+    }
+
+    @Test
+    public void testIdleApiIsClosed() throws Exception {
+        OpenstackApiCache.Key key = key("openstack-cinder", null, "tenant:user", "secret", TestApi.class);
+        TestApi api = (TestApi) cache.get(key);
+
+        ticker.advance(IDLE_MILLIS + 1);
+        TestApi rebuilt = (TestApi) cache.get(key);
+        assertNotSame(rebuilt, api);
+        assertTrue(api.closed);
+        assertFalse(rebuilt.closed);
+    }
+
+    private OpenstackApiCache.Key key(String provider, String endpoint, String identity, String credential, Class<? extends Closeable> apiType) {
+        return new OpenstackApiCache.Key(provider, endpoint, identity, credential, apiType);
+    }
+
+    private static class TestApi implements Closeable {
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class OtherTestApi extends TestApi {
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        void advance(long millis) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    }
+}
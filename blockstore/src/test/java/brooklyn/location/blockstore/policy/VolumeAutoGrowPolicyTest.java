@@ -0,0 +1,126 @@
+package brooklyn.location.blockstore.policy;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.api.location.Location;
+import org.apache.brooklyn.api.policy.PolicySpec;
+import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
+import org.apache.brooklyn.core.test.entity.TestEntity;
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+
+import brooklyn.location.blockstore.sensors.VolumeMetrics;
+
+public class VolumeAutoGrowPolicyTest extends BrooklynAppUnitTestSupport {
+
+    @Test
+    public void testGrowsOnlyVolumesOverThreshold() throws Exception {
+        TestEntity entity = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        final RecordingPolicy policy = addPolicy(entity);
+        entity.sensors().set(VolumeMetrics.MOUNTED_VOLUMES, ImmutableMap.of("/mnt/data", "/dev/sdh", "/mnt/logs", "/dev/sdi"));
+        entity.sensors().set(VolumeMetrics.VOLUME_IDS, ImmutableMap.of("/mnt/data", "vol-h", "/mnt/logs", "vol-i"));
+
+        entity.sensors().set(VolumeMetrics.PERCENT_USED, ImmutableMap.of("/mnt/data", 90d, "/mnt/logs", 50d));
+        Asserts.succeedsEventually(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(policy.grown, ImmutableList.of("vol-h /dev/sdh /mnt/data"));
+            }
+        });
+
+        // not again within the cooldown
+        entity.sensors().set(VolumeMetrics.PERCENT_USED, ImmutableMap.of("/mnt/data", 95d, "/mnt/logs", 50d));
+        Asserts.succeedsContinually(ImmutableMap.of("timeout", Duration.millis(500)), new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(policy.grown, ImmutableList.of("vol-h /dev/sdh /mnt/data"));
+            }
+        });
+    }
+
+    @Test
+    public void testSuspendedInCloudThatCannotResizeVolumes() throws Exception {
+        Location ec2 = mgmt.getLocationRegistry().getLocationManaged("jclouds:aws-ec2:us-east-1");
+        TestEntity entity = app.createAndManageChild(EntitySpec.create(TestEntity.class));
+        app.start(ImmutableList.of(ec2));
+        final RecordingPolicy policy = addPolicy(entity);
+        assertFalse(policy.isRunning());
+
+        entity.sensors().set(VolumeMetrics.MOUNTED_VOLUMES, ImmutableMap.of("/mnt/data", "/dev/sdh"));
+        entity.sensors().set(VolumeMetrics.VOLUME_IDS, ImmutableMap.of("/mnt/data", "vol-h"));
+        entity.sensors().set(VolumeMetrics.PERCENT_USED, ImmutableMap.of("/mnt/data", 90d));
+        Asserts.succeedsContinually(ImmutableMap.of("timeout", Duration.millis(500)), new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(policy.grown, ImmutableList.of());
+            }
+        });
+    }
+
+    @Test
+    public void testNewSizeUsesLargerStep() throws Exception {
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(20, 10, 0, 1024), 30);
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(100, 10, 25, 1024), 125);
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(10, 0, 15, 1024), 12);
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(10, 0, 0, 1024), 11);
+    }
+
+    @Test
+    public void testNewSizeLimitedByMaximum() throws Exception {
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(95, 10, 0, 100), 100);
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(100, 10, 0, 100), 100);
+        assertEquals(VolumeAutoGrowPolicy.getNewSizeInGb(120, 10, 0, 100), 120);
+    }
+
+    @Test
+    public void testParseSizeRoundsUp() throws Exception {
+        String stdout = Joiner.on("\n").join(
+                "BROOKLYN_BLOCKSTORE_SIZE 10737418240",
+                "BROOKLYN_BLOCKSTORE_STEP size 0");
+        assertEquals(VolumeAutoGrowPolicy.parseSizeInGb(stdout), 10);
+        assertEquals(VolumeAutoGrowPolicy.parseSizeInGb("BROOKLYN_BLOCKSTORE_SIZE 10737418241\r"), 11);
+    }
+
+    @Test
+    public void testParseSizeFailsWithoutSize() throws Exception {
+        try {
+            VolumeAutoGrowPolicy.parseSizeInGb("BROOKLYN_BLOCKSTORE_SIZE \nBROOKLYN_BLOCKSTORE_STEP size 0");
+            Asserts.shouldHaveFailedPreviously();
+        } catch (IllegalStateException e) {
+            Asserts.expectedFailureContains(e, "No device size");
+        }
+    }
+
+    @Test
+    public void testSizeCommand() throws Exception {
+        assertEquals(VolumeAutoGrowPolicy.getSizeCommand("/mnt/data"),
+                "dev=$(readlink -f $(findmnt -n -o SOURCE /mnt/data)) && "
+                        + "echo \"BROOKLYN_BLOCKSTORE_SIZE $(lsblk -b -d -n -o SIZE $dev)\"");
+    }
+
+    private RecordingPolicy addPolicy(TestEntity entity) {
+        entity.policies().add(PolicySpec.create(RecordingPolicy.class).configure(VolumeAutoGrowPolicy.PERCENT_USED_THRESHOLD, 80d));
+        return (RecordingPolicy) Iterables.getOnlyElement(entity.policies());
+    }
+
+    /** Records the volumes it would grow, rather than growing them. */
+    public static class RecordingPolicy extends VolumeAutoGrowPolicy {
+        final List<String> grown = new CopyOnWriteArrayList<String>();
+
+        @Override
+        protected void grow(String volumeId, String deviceName, String mountPoint) {
+            grown.add(volumeId + " " + deviceName + " " + mountPoint);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package brooklyn.location.blockstore.sensors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import brooklyn.location.blockstore.api.MountedBlockDevice;
+
+public class VolumeMetricsTest {
+
+    @Test
+    public void testParse() throws Exception {
+        String stdout = Joiner.on("\n").join(
+                "BROOKLYN_BLOCKSTORE_MOUNT /mnt/h xvdh 2500 7500",
+                "BROOKLYN_BLOCKSTORE_MOUNT /mnt/i xvdi",
+                "BROOKLYN_BLOCKSTORE_SAMPLE 1000000000000",
+                " 202       0 xvda 100 0 800 50 100 0 800 50 0 100 100",
+                " 202     112 xvdh 1000 0 8000 500 2000 0 16000 1000 2 1000 1500",
+                " 202     128 xvdi 0 0 0 0 0 0 0 0 0 0 0",
+                "BROOKLYN_BLOCKSTORE_SAMPLE 1002000000000",
+                " 202       0 xvda 100 0 800 50 100 0 800 50 0 100 100",
+                " 202     112 xvdh 1400 0 11200 700 2600 0 20800 1500 2 2000 5500",
+                " 202     128 xvdi 0 0 0 0 0 0 0 0 0 0 0");
+
+        Map<String, VolumeMetrics.Sample> samples = VolumeMetrics.parse(stdout);
+
+        assertEquals(ImmutableList.copyOf(samples.keySet()), ImmutableList.of("/mnt/h", "/mnt/i"));
+        VolumeMetrics.Sample h = samples.get("/mnt/h");
+        assertEquals(h.getReadIops(), 200, 0.001);
+        assertEquals(h.getWriteIops(), 300, 0.001);
+        assertEquals(h.getReadKBps(), 800, 0.001);
+        assertEquals(h.getWriteKBps(), 1200, 0.001);
+        assertEquals(h.getAwaitMs(), 0.7, 0.001);
+        assertEquals(h.getQueueDepth(), 2, 0.001);
+        assertEquals(h.getPercentUsed(), 25, 0.001);
+
+        VolumeMetrics.Sample i = samples.get("/mnt/i");
+        assertEquals(i.getAwaitMs(), 0, 0.001);
+        assertNull(i.getPercentUsed());
+    }
+
+    @Test
+    public void testParseIncompleteOutput() throws Exception {
+        assertTrue(VolumeMetrics.parse("BROOKLYN_BLOCKSTORE_MOUNT /mnt/h xvdh 2500 7500\nBROOKLYN_BLOCKSTORE_SAMPLE 1000").isEmpty());
+    }
+
+    @Test
+    public void testSampleCommand() throws Exception {
+        String command = VolumeMetrics.getSampleCommand(ImmutableList.of("/mnt/h", "/mnt/i"), 2);
+        assertTrue(command.startsWith("for mp in /mnt/h /mnt/i; do"), command);
+        assertTrue(command.contains("sleep 2"), command);
+        assertFalse(VolumeMetrics.getSampleCommand(ImmutableList.<String>of(), 1).contains("for mp"));
+    }
+
+    @Test
+    public void testUntrackRemovesOnlyTheGivenDevices() throws Exception {
+        Entity entity = newEntity();
+        MountedBlockDevice h = newMountedDevice("vol-h", "/dev/xvdh", "/mnt/h");
+        MountedBlockDevice i = newMountedDevice("vol-i", "/dev/xvdi", "/mnt/i");
+        VolumeMetrics.track(entity, ImmutableList.of(h, i));
+
+        VolumeMetrics.untrack(entity, ImmutableList.of(h));
+        assertEquals(entity.sensors().get(VolumeMetrics.MOUNTED_VOLUMES), ImmutableMap.of("/mnt/i", "/dev/xvdi"));
+        assertEquals(entity.sensors().get(VolumeMetrics.VOLUME_IDS), ImmutableMap.of("/mnt/i", "vol-i"));
+
+        // a mount point since reused by another device stays tracked
+        VolumeMetrics.untrack(entity, ImmutableList.of(newMountedDevice("vol-j", "/dev/xvdj", "/mnt/i")));
+        assertEquals(entity.sensors().get(VolumeMetrics.MOUNTED_VOLUMES), ImmutableMap.of("/mnt/i", "/dev/xvdi"));
+        assertEquals(entity.sensors().get(VolumeMetrics.VOLUME_IDS), ImmutableMap.of("/mnt/i", "vol-i"));
+    }
+
+    /**
+     * @return An entity whose sensors are kept in a map, and that supports nothing else
+     */
+    private static Entity newEntity() {
+        final Map<Object, Object> values = Maps.newConcurrentMap();
+        final Entity.SensorSupport sensors = stub(Entity.SensorSupport.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("get")) {
+                    return values.get(args[0]);
+                } else if (method.getName().equals("set")) {
+                    return values.put(args[0], args[1]);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        return stub(Entity.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("sensors")) {
+                    return sensors;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static MountedBlockDevice newMountedDevice(String id, String deviceName, String mountPoint) {
+        final Map<String, String> results = ImmutableMap.of("getId", id, "getDeviceName", deviceName, "getMountPoint", mountPoint);
+        return stub(MountedBlockDevice.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (!results.containsKey(method.getName())) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return results.get(method.getName());
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(VolumeMetricsTest.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+}